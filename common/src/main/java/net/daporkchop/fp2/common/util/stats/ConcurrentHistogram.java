@@ -0,0 +1,180 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.common.util.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.Math.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A lock-free histogram of non-negative {@code long} values, using log-linear buckets in the style of HdrHistogram.
+ * <p>
+ * Each power of two is split into {@link #SUB_BUCKETS} equally sized buckets, so recorded values are tracked with a relative precision of {@code 1/}{@link #SUB_BUCKETS}
+ * regardless of their magnitude. Values which are greater than {@link #MAX_VALUE} are clamped to {@link #MAX_VALUE}.
+ * <p>
+ * Recording a value is wait-free (apart from the one-time allocation of the bucket array), and only touches a single bucket plus a handful of striped counters,
+ * so it's cheap enough to be done on hot paths. Reads are not atomic with respect to concurrent writes, and therefore only approximate while values are being
+ * recorded.
+ *
+ * @author DaPorkchop_
+ */
+public final class ConcurrentHistogram {
+    public static final int SUB_BUCKET_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The index of the highest bit which may be set in a recorded value.
+     */
+    public static final int MAX_EXPONENT = 40;
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1L;
+
+    public static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * Gets the index of the bucket which the given value belongs in.
+     *
+     * @param value the value
+     * @return the index of the bucket
+     */
+    public static int bucketIndex(long value) {
+        value = min(notNegative(value, "value"), MAX_VALUE);
+        if (value < SUB_BUCKETS) { //small values get a bucket to themselves
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the largest value which belongs in the bucket with the given index.
+     *
+     * @param index the index of the bucket
+     * @return the largest value in the bucket
+     */
+    public static long bucketUpperBound(int index) {
+        checkIndex(BUCKETS, index);
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index & (SUB_BUCKETS - 1);
+        return ((SUB_BUCKETS + subBucket + 1L) << (exponent - SUB_BUCKET_BITS)) - 1L;
+    }
+
+    protected volatile AtomicLongArray buckets; //allocated lazily, since many histograms will never have any values recorded
+
+    protected final LongAdder count = new LongAdder();
+    protected final LongAdder sum = new LongAdder();
+    protected final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Records a single value.
+     *
+     * @param value the value. Negative values are treated as {@code 0}.
+     */
+    public void record(long value) {
+        value = Math.max(value, 0L);
+
+        AtomicLongArray buckets = this.buckets;
+        if (buckets == null) {
+            buckets = this.allocateBuckets();
+        }
+
+        buckets.incrementAndGet(bucketIndex(value));
+        this.count.increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    protected synchronized AtomicLongArray allocateBuckets() {
+        AtomicLongArray buckets = this.buckets;
+        if (buckets == null) {
+            this.buckets = buckets = new AtomicLongArray(BUCKETS);
+        }
+        return buckets;
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long count() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the sum of all recorded values
+     */
+    public long sum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * @return the largest recorded value, or {@code 0} if no values have been recorded
+     */
+    public long max() {
+        return this.max.get();
+    }
+
+    /**
+     * @return the arithmetic mean of all recorded values, or {@code 0} if no values have been recorded
+     */
+    public long mean() {
+        long count = this.count();
+        return count != 0L ? this.sum() / count : 0L;
+    }
+
+    /**
+     * Gets the approximate value at the given quantile.
+     *
+     * @param quantile the quantile, in range {@code [0, 1]}
+     * @return the approximate value at the given quantile, or {@code 0} if no values have been recorded
+     */
+    public long quantile(double quantile) {
+        checkArg(quantile >= 0.0d && quantile <= 1.0d, "quantile must be in range [0, 1]: %s", quantile);
+
+        AtomicLongArray buckets = this.buckets;
+        if (buckets == null) {
+            return 0L;
+        }
+
+        //sum up the buckets ourselves rather than using count(), to make sure that the target is consistent with what we'll see while iterating
+        long[] counts = new long[BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts[i] = buckets.get(i);
+        }
+
+        long target = Math.max((long) ceil(quantile * total), 1L);
+        long cumulative = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            if ((cumulative += counts[i]) >= target) {
+                return min(bucketUpperBound(i), this.max());
+            }
+        }
+        return 0L; //no values have been recorded
+    }
+}
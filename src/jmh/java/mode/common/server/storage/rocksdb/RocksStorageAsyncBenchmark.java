@@ -0,0 +1,189 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package mode.common.server.storage.rocksdb;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.tile.ITileMetadata;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.fp2.mode.voxel.VoxelRenderMode;
+import net.daporkchop.fp2.mode.voxel.VoxelTile;
+import net.daporkchop.fp2.util.threading.scheduler.ApproximatelyPrioritizedSharedFutureScheduler;
+import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.FP2Test;
+import util.threading.TestWorkerGroup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Measures the number of tiles per second which terrain workers can generate and write to a {@link RocksStorage}, depending on whether they block while waiting
+ * for each write to be committed or suspend the task using {@link Scheduler#awaitThen(CompletableFuture, Function)}.
+ * <p>
+ * Each task burns some CPU time to simulate generating a tile, and then writes the tile asynchronously. With {@code blocking}, the task joins the write's future,
+ * so the worker thread sits idle until an I/O thread has committed the write. With {@code async}, the task is suspended and the worker moves on to generating
+ * the next tile in the meantime.
+ * <p>
+ * The difference grows with the latency of the disk. RocksDB's rate limiter only throttles flushes and compactions, not the foreground writes being measured here,
+ * so a throttled disk is simulated instead: with a non-zero {@code writeLatencyMicros}, the storage waits for the given amount of time before committing each
+ * batch of writes, while holding its write lock, as if each commit was waiting for a slow device.
+ *
+ * @author DaPorkchop_
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RocksStorageAsyncBenchmark {
+    protected static final int WORKER_THREADS = 4;
+
+    /**
+     * The number of tiles which are generated by each benchmark invocation.
+     */
+    protected static final int TILES_PER_INVOCATION = 256;
+
+    /**
+     * The side length of the cube of level-0 tile positions which are written to, in tiles.
+     */
+    protected static final int AREA = 64;
+
+    @Param({ "blocking", "async" })
+    public String impl;
+
+    @Param({ "0", "100000" })
+    public long generationTokens;
+
+    @Param({ "0", "1000" })
+    public long writeLatencyMicros;
+
+    protected final AtomicInteger nextParam = new AtomicInteger();
+
+    protected File root;
+    protected RocksStorage<VoxelPos, VoxelTile> storage;
+    protected VoxelTile tile;
+
+    protected Scheduler<Integer, Boolean> scheduler;
+
+    @Setup
+    public void setup() throws IOException {
+        FP2Test.init();
+
+        this.root = Files.createTempDirectory("fp2-storage-benchmark").toFile();
+        this.storage = new ThrottledRocksStorage(this.root, TimeUnit.MICROSECONDS.toNanos(this.writeLatencyMicros));
+
+        RocksStorageWriteBenchmark.TileState tileState = new RocksStorageWriteBenchmark.TileState();
+        tileState.setup();
+        this.tile = tileState.tile;
+
+        boolean blocking;
+        switch (this.impl) {
+            case "blocking":
+                blocking = true;
+                break;
+            case "async":
+                blocking = false;
+                break;
+            default:
+                throw new IllegalArgumentException(this.impl);
+        }
+
+        this.scheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(scheduler -> param -> {
+            //"generate" the tile
+            Blackhole.consumeCPU(this.generationTokens);
+
+            //params are unique and increasing, so every write will actually be applied
+            VoxelPos pos = new VoxelPos(0, param % AREA, (param / AREA) % AREA, (param / (AREA * AREA)) % AREA);
+            CompletableFuture<Boolean> setFuture = this.storage.handleFor(pos).setAsync(ITileMetadata.ofTimestamp(param + 1L), this.tile);
+            return blocking
+                    ? setFuture.join()
+                    : scheduler.awaitThen(setFuture, Function.identity());
+        }, TestWorkerGroup.builder(WORKER_THREADS), 1, param -> 0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.scheduler.close();
+        this.storage.close();
+        PFiles.rm(this.root);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TILES_PER_INVOCATION)
+    public void generate() {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(TILES_PER_INVOCATION);
+        for (int i = 0; i < TILES_PER_INVOCATION; i++) {
+            futures.add(this.scheduler.schedule(this.nextParam.getAndIncrement()));
+        }
+        futures.forEach(CompletableFuture::join);
+    }
+
+    /**
+     * A {@link RocksStorage} which simulates a slow disk by delaying every commit.
+     *
+     * @author DaPorkchop_
+     */
+    protected static class ThrottledRocksStorage extends RocksStorage<VoxelPos, VoxelTile> {
+        protected final long writeLatencyNanos;
+
+        public ThrottledRocksStorage(@NonNull File storageRoot, long writeLatencyNanos) {
+            super(new VoxelRenderMode(), storageRoot);
+
+            this.writeLatencyNanos = notNegative(writeLatencyNanos, "writeLatencyNanos");
+        }
+
+        @Override
+        protected List<VoxelPos> commitWrites(@NonNull List<PendingWrite<VoxelPos>> writes) {
+            if (this.writeLatencyNanos > 0L) {
+                //parkNanos() may return early, so keep parking until the whole delay has elapsed
+                for (long deadline = System.nanoTime() + this.writeLatencyNanos, remaining; (remaining = deadline - System.nanoTime()) > 0L; ) {
+                    LockSupport.parkNanos(remaining);
+                }
+            }
+            return super.commitWrites(writes);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package mode.common.server.storage.rocksdb;
+
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarRenderMode;
+import net.daporkchop.fp2.mode.api.IFarTile;
+import net.daporkchop.fp2.mode.api.tile.ITileMetadata;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage;
+import net.daporkchop.fp2.mode.voxel.VoxelData;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.fp2.mode.voxel.VoxelRenderMode;
+import net.daporkchop.fp2.mode.voxel.VoxelTile;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import util.FP2Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.daporkchop.fp2.util.Constants.*;
+
+/**
+ * Measures the number of tiles per second which can be written to a {@link RocksStorage} by many concurrent terrain workers.
+ * <p>
+ * Each operation writes a single tile, so the reported throughput is in tiles per second. The {@code batched} storage is a regular {@link RocksStorage}, which
+ * group-commits concurrent writes. The {@code unbatched} storage commits every write in its own transaction, which shows what the writes would cost without
+ * group commits.
+ *
+ * @author DaPorkchop_
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class RocksStorageWriteBenchmark {
+    /**
+     * The side length of the cube of level-0 tile positions which are written to, in tiles.
+     */
+    protected static final int AREA = 64;
+
+    @Param({ "batched", "unbatched" })
+    public String impl;
+
+    protected final AtomicLong timestamp = new AtomicLong();
+
+    protected File root;
+    protected RocksStorage<VoxelPos, VoxelTile> storage;
+
+    @Setup
+    public void setup() throws IOException {
+        FP2Test.init();
+
+        IFarRenderMode<VoxelPos, VoxelTile> mode = new VoxelRenderMode();
+        this.root = Files.createTempDirectory("fp2-storage-benchmark").toFile();
+        switch (this.impl) {
+            case "batched":
+                this.storage = new RocksStorage<>(mode, this.root);
+                break;
+            case "unbatched":
+                this.storage = new UnbatchedRocksStorage<>(mode, this.root);
+                break;
+            default:
+                throw new IllegalArgumentException(this.impl);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.storage.close();
+        PFiles.rm(this.root);
+    }
+
+    @Benchmark
+    public boolean set(TileState state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        VoxelPos pos = new VoxelPos(0, random.nextInt(AREA), random.nextInt(AREA), random.nextInt(AREA));
+
+        //timestamps are unique and increasing, so every write will actually be applied
+        return this.storage.handleFor(pos).set(ITileMetadata.ofTimestamp(this.timestamp.incrementAndGet()), state.tile);
+    }
+
+    /**
+     * A tile to write, which is filled with random voxel data so that encoding it has a realistic cost.
+     *
+     * @author DaPorkchop_
+     */
+    @State(Scope.Thread)
+    public static class TileState {
+        public VoxelTile tile;
+
+        @Setup
+        public void setup() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            VoxelData data = new VoxelData();
+
+            this.tile = new VoxelTile();
+            for (int x = 0; x < T_VOXELS; x++) {
+                for (int y = 0; y < T_VOXELS; y++) {
+                    for (int z = 0; z < T_VOXELS; z++) {
+                        if (random.nextBoolean()) { //leave about half of the voxels empty
+                            data.reset();
+                            data.x = random.nextInt(1 << 3);
+                            data.y = random.nextInt(1 << 3);
+                            data.z = random.nextInt(1 << 3);
+                            data.edges = random.nextInt(1 << 3);
+                            data.states[0] = random.nextInt(16);
+                            this.tile.set(x, y, z, data);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A {@link RocksStorage} which commits every queued write in its own transaction, rather than grouping them into batches.
+     *
+     * @author DaPorkchop_
+     */
+    protected static class UnbatchedRocksStorage<POS extends IFarPos, T extends IFarTile> extends RocksStorage<POS, T> {
+        public UnbatchedRocksStorage(IFarRenderMode<POS, T> mode, File storageRoot) {
+            super(mode, storageRoot);
+        }
+
+        @Override
+        protected List<POS> commitPendingWrites() {
+            PendingWrite<POS> write = this.pendingWrites.poll();
+            if (write == null) { //nothing to do!
+                return Collections.emptyList();
+            }
+
+            try {
+                return this.commitWrites(new ArrayList<>(Collections.singletonList(write)));
+            } catch (Throwable t) {
+                write.completeExceptionally(t);
+                throw t;
+            }
+        }
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Threads(1)
+    public static class Threads1 extends RocksStorageWriteBenchmark {
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Threads(4)
+    public static class Threads4 extends RocksStorageWriteBenchmark {
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Threads(16)
+    public static class Threads16 extends RocksStorageWriteBenchmark {
+    }
+}
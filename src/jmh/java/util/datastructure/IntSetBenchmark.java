@@ -0,0 +1,120 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package util.datastructure;
+
+import net.daporkchop.fp2.util.datastructure.Datastructures;
+import net.daporkchop.fp2.util.datastructure.NDimensionalIntSet;
+import net.daporkchop.fp2.util.datastructure.java.JavaDatastructures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the 3-dimensional {@link NDimensionalIntSet} implementations using the access pattern of a tracker following a moving player.
+ * <p>
+ * The set contains every position in a cube around the player. Every time the player moves by one tile, the positions in the face which was left behind are
+ * removed and the positions in the face which was entered are added.
+ *
+ * @author DaPorkchop_
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IntSetBenchmark {
+    //use the java implementations directly, we don't want to benchmark whatever native code happens to be available
+    protected static final Datastructures DATASTRUCTURES = new JavaDatastructures();
+
+    @Param({ "hash", "segtree" })
+    public String impl;
+
+    @Param({ "4", "16" })
+    public int radius;
+
+    protected NDimensionalIntSet set;
+    protected int x;
+
+    @Setup
+    public void setup() {
+        switch (this.impl) {
+            case "hash":
+                this.set = DATASTRUCTURES.nDimensionalIntSet().dimensions(3).threadSafe(false).build();
+                break;
+            case "segtree":
+                this.set = DATASTRUCTURES.nDimensionalIntSegtreeSet().dimensions(3).threadSafe(false).build();
+                break;
+            default:
+                throw new IllegalArgumentException(this.impl);
+        }
+
+        int r = this.radius;
+        for (int dx = -r; dx <= r; dx++) {
+            for (int y = -r; y <= r; y++) {
+                for (int z = -r; z <= r; z++) {
+                    this.set.add(dx, y, z);
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.set.release();
+    }
+
+    /**
+     * Moves the player one tile along the X axis.
+     */
+    @Benchmark
+    public void move() {
+        int r = this.radius;
+        int x = this.x++;
+        for (int y = -r; y <= r; y++) {
+            for (int z = -r; z <= r; z++) {
+                this.set.remove(x - r, y, z);
+                this.set.add(x + r + 1, y, z);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a random position near the player's view is in the set, as done when a tile is loaded or updated.
+     */
+    @Benchmark
+    public boolean contains() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int r = this.radius + 1;
+        return this.set.contains(random.nextInt(-r, r + 1), random.nextInt(-r, r + 1), random.nextInt(-r, r + 1));
+    }
+}
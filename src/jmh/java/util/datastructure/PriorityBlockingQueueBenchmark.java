@@ -0,0 +1,141 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package util.datastructure;
+
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.fp2.util.datastructure.ConcurrentBucketedPriorityBlockingQueue;
+import net.daporkchop.fp2.util.datastructure.ConcurrentUnboundedPriorityBlockingQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Compares {@link ConcurrentUnboundedPriorityBlockingQueue} and {@link ConcurrentBucketedPriorityBlockingQueue} when used as the task queue of a scheduler with
+ * {@code (stage, level)} priorities, under 16-thread contention.
+ *
+ * @author DaPorkchop_
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class PriorityBlockingQueueBenchmark {
+    protected static final int PRIORITIES = 44; //the same as PriorityTask.APPROX_PRIORITIES
+
+    protected static final AtomicInteger NEXT_THREAD_ID = new AtomicInteger();
+
+    @Param({ "skiplist", "bucketed" })
+    public String impl;
+
+    @Param({ "0", "4096" })
+    public int initialSize;
+
+    protected BlockingQueue<Entry> queue;
+    protected UnaryOperator<Entry> pollLess;
+
+    @Setup
+    public void setup() {
+        switch (this.impl) {
+            case "skiplist": {
+                //the skip list can't contain duplicate keys, so entries with the same priority are ordered by insertion instead
+                ConcurrentUnboundedPriorityBlockingQueue<Entry> queue = new ConcurrentUnboundedPriorityBlockingQueue<>(Comparator.<Entry>comparingInt(e -> e.priority).thenComparingLong(e -> e.id));
+                this.queue = queue;
+                this.pollLess = queue::pollLess;
+                break;
+            }
+            case "bucketed": {
+                ConcurrentBucketedPriorityBlockingQueue<Entry> queue = new ConcurrentBucketedPriorityBlockingQueue<>(PRIORITIES, e -> e.priority);
+                this.queue = queue;
+                this.pollLess = queue::pollLess;
+                break;
+            }
+            default:
+                throw new IllegalArgumentException(this.impl);
+        }
+
+        ThreadState state = new ThreadState();
+        for (int i = 0; i < this.initialSize; i++) {
+            this.queue.add(state.next());
+        }
+    }
+
+    /**
+     * Adds an element with a random priority, then polls the highest-priority element.
+     */
+    @Benchmark
+    public Entry addPoll(ThreadState state) {
+        this.queue.add(state.next());
+        return this.queue.poll();
+    }
+
+    /**
+     * Adds an element with a random priority, then polls an element with a higher priority than a random one, as done by worker threads which are waiting on a
+     * recursive task.
+     */
+    @Benchmark
+    public Entry addPollLess(ThreadState state) {
+        this.queue.add(state.next());
+        Entry entry = this.pollLess.apply(state.next());
+        return entry != null ? entry : this.queue.poll();
+    }
+
+    /**
+     * An element in the queue.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    public static final class Entry {
+        protected final int priority;
+        protected final long id;
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        protected final long idBase = (long) NEXT_THREAD_ID.getAndIncrement() << 40L;
+        protected long nextId;
+
+        public Entry next() {
+            return new Entry(ThreadLocalRandom.current().nextInt(PRIORITIES), this.idBase | this.nextId++);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package util.datastructure;
+
+import net.daporkchop.fp2.util.datastructure.RecyclingArrayDeque;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.FP2Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link RecyclingArrayDeque} against {@link ArrayDeque} when used as a short-lived work queue.
+ *
+ * @author DaPorkchop_
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecyclingArrayDequeBenchmark {
+    @Param({ "ArrayDeque", "RecyclingArrayDeque" })
+    public String impl;
+
+    @Param({ "16", "1024", "65536" })
+    public int size;
+
+    protected final Object element = new Object();
+
+    @Setup
+    public void setup() {
+        FP2Test.init();
+    }
+
+    protected Deque<Object> newDeque() {
+        switch (this.impl) {
+            case "ArrayDeque":
+                return new ArrayDeque<>();
+            case "RecyclingArrayDeque":
+                return new RecyclingArrayDeque<>();
+            default:
+                throw new IllegalArgumentException(this.impl);
+        }
+    }
+
+    protected static void close(Deque<Object> deque) {
+        if (deque instanceof RecyclingArrayDeque) {
+            ((RecyclingArrayDeque<Object>) deque).close();
+        }
+    }
+
+    /**
+     * Creates a deque, fills it and then drains it again, as done when iterating over all the positions in a tracker's view.
+     */
+    @Benchmark
+    public void fillDrain(Blackhole bh) {
+        Deque<Object> deque = this.newDeque();
+        try {
+            for (int i = 0; i < this.size; i++) {
+                deque.addLast(this.element);
+            }
+            for (Object o; (o = deque.pollFirst()) != null; ) {
+                bh.consume(o);
+            }
+        } finally {
+            close(deque);
+        }
+    }
+
+    /**
+     * Creates a deque and uses it as a FIFO whose length stays small, as done by breadth-first traversals.
+     */
+    @Benchmark
+    public void interleaved(Blackhole bh) {
+        Deque<Object> deque = this.newDeque();
+        try {
+            for (int i = 0; i < this.size; i++) {
+                deque.addLast(this.element);
+                deque.addLast(this.element);
+                bh.consume(deque.pollFirst());
+            }
+            for (Object o; (o = deque.pollFirst()) != null; ) {
+                bh.consume(o);
+            }
+        } finally {
+            close(deque);
+        }
+    }
+}
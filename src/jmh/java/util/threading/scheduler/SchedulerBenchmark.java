@@ -0,0 +1,136 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package util.threading.scheduler;
+
+import net.daporkchop.fp2.util.threading.scheduler.ApproximatelyPrioritizedSharedFutureScheduler;
+import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
+import net.daporkchop.fp2.util.threading.scheduler.SharedFutureScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import util.FP2Test;
+import util.threading.TestWorkerGroup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Measures the throughput of scheduling tasks on a {@link SharedFutureScheduler} under varying amounts of contention.
+ * <p>
+ * The scheduled tasks don't do any work, so these benchmarks only measure the scheduler's own overhead. With few distinct parameters, most calls to
+ * {@link Scheduler#schedule(Object)} will be deduplicated against a task which is already queued.
+ *
+ * @author DaPorkchop_
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class SchedulerBenchmark {
+    protected static final int WORKER_THREADS = 4;
+    protected static final int PRIORITIES = 44; //the same as PriorityTask.APPROX_PRIORITIES
+
+    @Param({ "shared", "prioritized" })
+    public String impl;
+
+    @Param({ "1", "64", "65536" })
+    public int params;
+
+    protected Scheduler<Integer, Integer> scheduler;
+
+    @Setup
+    public void setup() {
+        FP2Test.init();
+
+        Function<Scheduler<Integer, Integer>, Function<Integer, Integer>> functionFactory = scheduler -> Function.identity();
+        switch (this.impl) {
+            case "shared":
+                this.scheduler = new SharedFutureScheduler<>(functionFactory, TestWorkerGroup.builder(WORKER_THREADS));
+                break;
+            case "prioritized":
+                this.scheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(functionFactory, TestWorkerGroup.builder(WORKER_THREADS), PRIORITIES, param -> param % PRIORITIES);
+                break;
+            default:
+                throw new IllegalArgumentException(this.impl);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.scheduler.close();
+    }
+
+    /**
+     * Schedules a task and immediately cancels it again. This mostly exercises the reference counting of queued tasks.
+     */
+    @Benchmark
+    public void scheduleCancel() {
+        this.scheduler.schedule(ThreadLocalRandom.current().nextInt(this.params)).cancel(false);
+    }
+
+    /**
+     * Schedules a task and waits for it to complete.
+     */
+    @Benchmark
+    public Integer scheduleJoin() {
+        return this.scheduler.schedule(ThreadLocalRandom.current().nextInt(this.params)).join();
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Threads(1)
+    public static class Threads1 extends SchedulerBenchmark {
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Threads(4)
+    public static class Threads4 extends SchedulerBenchmark {
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Threads(16)
+    public static class Threads16 extends SchedulerBenchmark {
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Threads(32)
+    public static class Threads32 extends SchedulerBenchmark {
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package util.threading.scheduler;
+
+import net.daporkchop.fp2.util.threading.scheduler.ApproximatelyPrioritizedSharedFutureScheduler;
+import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.FP2Test;
+import util.threading.TestWorkerGroup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the cost of executing chains of recursively dependent tasks, similarly to how tiles are scaled from the tiles at the detail level below them.
+ * <p>
+ * Task {@code n} depends on tasks {@code n - 1} through {@code n - fanout}, down to task {@code 0}. Tasks always depend on tasks with a lower priority,
+ * since blocking recursion is only deadlock-free with an {@link ApproximatelyPrioritizedSharedFutureScheduler}.
+ *
+ * @author DaPorkchop_
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchedulerRecursionBenchmark {
+    protected static final int WORKER_THREADS = 4;
+
+    @Param({ "8", "22" })
+    public int depth;
+
+    @Param({ "1", "2" })
+    public int fanout;
+
+    protected Scheduler<Integer, Integer> blockingScheduler;
+    protected Scheduler<Integer, Integer> continuationScheduler;
+
+    protected List<Integer> dependencies(int param) {
+        return IntStream.rangeClosed(Math.max(param - this.fanout, 0), param - 1).boxed().collect(Collectors.toList());
+    }
+
+    @Setup
+    public void setup() {
+        FP2Test.init();
+
+        //waits for the dependencies by blocking inside the task
+        Function<Scheduler<Integer, Integer>, Function<Integer, Integer>> blockingFunctionFactory = scheduler -> param -> param == 0
+                ? 1
+                : scheduler.scatterGather(this.dependencies(param)).stream().mapToInt(Integer::intValue).sum();
+
+        //suspends the task until its dependencies are complete
+        Function<Scheduler<Integer, Integer>, Function<Integer, Integer>> continuationFunctionFactory = scheduler -> param -> param == 0
+                ? 1
+                : scheduler.scatterGatherThen(this.dependencies(param), results -> results.stream().mapToInt(Integer::intValue).sum());
+
+        this.blockingScheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(blockingFunctionFactory, TestWorkerGroup.builder(WORKER_THREADS), this.depth + 1, param -> param);
+        this.continuationScheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(continuationFunctionFactory, TestWorkerGroup.builder(WORKER_THREADS), this.depth + 1, param -> param);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.blockingScheduler.close();
+        this.continuationScheduler.close();
+    }
+
+    @Benchmark
+    public Integer blocking() {
+        return this.blockingScheduler.schedule(this.depth).join();
+    }
+
+    @Benchmark
+    public Integer continuation() {
+        return this.continuationScheduler.schedule(this.depth).join();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package util.threading.scheduler;
+
+import net.daporkchop.fp2.util.threading.scheduler.ApproximatelyPrioritizedSharedFutureScheduler;
+import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.FP2Test;
+import util.threading.TestWorkerGroup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures how well the worker threads are utilized while building a tree of tiles, similarly to how tiles at high detail levels are scaled from the tiles at
+ * the detail level below them.
+ * <p>
+ * Task {@code (level, index)} depends on the {@code fanout} tasks at {@code level - 1} with indices {@code index * fanout} through
+ * {@code index * fanout + fanout - 1}, and every task burns the same amount of CPU time once its dependencies are complete. With {@code blocking}, a task which
+ * is waiting for its dependencies holds on to its worker thread, which can then only execute tasks with a lower level. Near the top of the tree there are
+ * few such tasks, so workers spend a lot of time parked. With {@code continuation}, waiting tasks are suspended and don't occupy a worker at all.
+ * <p>
+ * In addition to throughput, the {@code utilization} counter reports the fraction of the workers' time which was spent doing useful work.
+ *
+ * @author DaPorkchop_
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchedulerUtilizationBenchmark {
+    protected static final int WORKER_THREADS = 4;
+
+    protected static final int LEVEL_SHIFT = 24;
+
+    @Param({ "3", "5" })
+    public int levels;
+
+    @Param({ "8" })
+    public int fanout;
+
+    @Param({ "1000", "10000" })
+    public long workTokens;
+
+    protected final LongAdder workTime = new LongAdder();
+
+    protected Scheduler<Integer, Integer> blockingScheduler;
+    protected Scheduler<Integer, Integer> continuationScheduler;
+
+    protected static int level(int param) {
+        return param >>> LEVEL_SHIFT;
+    }
+
+    protected List<Integer> dependencies(int param) {
+        int level = level(param) - 1;
+        int index = param & ((1 << LEVEL_SHIFT) - 1);
+        return IntStream.range(index * this.fanout, (index + 1) * this.fanout).mapToObj(i -> (level << LEVEL_SHIFT) | i).collect(Collectors.toList());
+    }
+
+    protected int work(int value) {
+        long startTime = System.nanoTime();
+        Blackhole.consumeCPU(this.workTokens);
+        this.workTime.add(System.nanoTime() - startTime);
+        return value;
+    }
+
+    @Setup
+    public void setup() {
+        FP2Test.init();
+
+        //waits for the dependencies by blocking inside the task
+        Function<Scheduler<Integer, Integer>, Function<Integer, Integer>> blockingFunctionFactory = scheduler -> param -> level(param) == 0
+                ? this.work(1)
+                : this.work(scheduler.scatterGather(this.dependencies(param)).stream().mapToInt(Integer::intValue).sum());
+
+        //suspends the task until its dependencies are complete
+        Function<Scheduler<Integer, Integer>, Function<Integer, Integer>> continuationFunctionFactory = scheduler -> param -> level(param) == 0
+                ? this.work(1)
+                : scheduler.scatterGatherThen(this.dependencies(param), results -> this.work(results.stream().mapToInt(Integer::intValue).sum()));
+
+        this.blockingScheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(blockingFunctionFactory, TestWorkerGroup.builder(WORKER_THREADS), this.levels + 1, SchedulerUtilizationBenchmark::level);
+        this.continuationScheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(continuationFunctionFactory, TestWorkerGroup.builder(WORKER_THREADS), this.levels + 1, SchedulerUtilizationBenchmark::level);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.blockingScheduler.close();
+        this.continuationScheduler.close();
+    }
+
+    protected Integer measure(Utilization utilization, Supplier<Integer> action) {
+        long workTimeBefore = this.workTime.sum();
+        long startTime = System.nanoTime();
+        Integer result = action.get();
+        utilization.record(this.workTime.sum() - workTimeBefore, (System.nanoTime() - startTime) * WORKER_THREADS);
+        return result;
+    }
+
+    @Benchmark
+    public Integer blocking(Utilization utilization) {
+        return this.measure(utilization, () -> this.blockingScheduler.schedule(this.levels << LEVEL_SHIFT).join());
+    }
+
+    @Benchmark
+    public Integer continuation(Utilization utilization) {
+        return this.measure(utilization, () -> this.continuationScheduler.schedule(this.levels << LEVEL_SHIFT).join());
+    }
+
+    /**
+     * Reports the fraction of the worker threads' time which was spent doing useful work during the current iteration.
+     *
+     * @author DaPorkchop_
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Utilization {
+        private long workTime;
+        private long availableTime;
+
+        public double utilization;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.workTime = 0L;
+            this.availableTime = 0L;
+            this.utilization = 0.0d;
+        }
+
+        protected void record(long workTime, long availableTime) {
+            this.workTime += workTime;
+            this.availableTime += availableTime;
+            this.utilization = (double) this.workTime / this.availableTime;
+        }
+    }
+}
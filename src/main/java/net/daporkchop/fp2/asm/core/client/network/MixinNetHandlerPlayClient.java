@@ -34,6 +34,7 @@ import net.daporkchop.fp2.net.packet.standard.server.SPacketHandshake;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketSessionBegin;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketSessionEnd;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketTileData;
+import net.daporkchop.fp2.net.packet.standard.server.SPacketTileDictionary;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUnloadTile;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUnloadTiles;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUpdateConfig;
@@ -97,6 +98,8 @@ public abstract class MixinNetHandlerPlayClient implements IFarPlayerClient {
             this.handle((SPacketSessionEnd) packet);
         } else if (packet instanceof SPacketTileData) {
             this.handle((SPacketTileData) packet);
+        } else if (packet instanceof SPacketTileDictionary) {
+            this.handle((SPacketTileDictionary) packet);
         } else if (packet instanceof SPacketUnloadTile) {
             this.handle((SPacketUnloadTile) packet);
         } else if (packet instanceof SPacketUnloadTiles) {
@@ -145,7 +148,15 @@ public abstract class MixinNetHandlerPlayClient implements IFarPlayerClient {
         checkState(this.fp2_sessionOpen, "no session is currently open!");
         checkState(this.fp2_context != null, "active session has no render mode!");
 
-        this.fp2_context.tileCache().receiveTile(uncheckedCast(packet.tile().compressed()));
+        this.fp2_context.tileCache().receiveTile(uncheckedCast(packet.tile().compressed(this.fp2_context.dictionary(packet.tile().pos().level()))));
+    }
+
+    @Unique
+    private void handle(@NonNull SPacketTileDictionary packet) {
+        checkState(this.fp2_sessionOpen, "no session is currently open!");
+        checkState(this.fp2_context != null, "active session has no render mode!");
+
+        this.fp2_context.receiveDictionary(packet.dictionary());
     }
 
     @Unique
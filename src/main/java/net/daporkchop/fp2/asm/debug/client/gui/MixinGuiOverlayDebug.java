@@ -113,6 +113,34 @@ public abstract class MixinGuiOverlayDebug extends Gui {
                 } else {
                     list.add("§oTracking data not available");
                 }
+
+                DebugStats.Storage storageStats = packet.storage();
+                if (storageStats != null) {
+                    list.add("Snapshot Cache: " + numberFormat.format(storageStats.snapshotCacheCount()) + "T " + GuiHelper.formatByteCount(storageStats.snapshotCacheSize())
+                             + ' ' + percentFormat.format(storageStats.snapshotCacheHitRate()) + " hits (" + numberFormat.format(storageStats.snapshotCacheHits()) + '/'
+                             + numberFormat.format(storageStats.snapshotCacheHits() + storageStats.snapshotCacheMisses()) + ')');
+                    list.add("Dedup: " + numberFormat.format(storageStats.tilePayloads()) + "P " + numberFormat.format(storageStats.tilePayloadReferences()) + "R "
+                             + String.format("%.2fx", storageStats.tilePayloadDedupRatio()));
+                } else {
+                    list.add("§oStorage data not available");
+                }
+
+                DebugStats.Scheduler schedulerStats = packet.scheduler();
+                if (schedulerStats != null) {
+                    list.add("Scheduler: " + numberFormat.format(schedulerStats.queuedTasks()) + "Q " + numberFormat.format(schedulerStats.executedTasks()) + "E "
+                             + percentFormat.format(schedulerStats.poolShare()) + " of " + numberFormat.format(schedulerStats.poolThreads()) + " threads");
+                } else {
+                    list.add("§oScheduler data not available");
+                }
+
+                DebugStats.Throttle throttleStats = packet.throttle();
+                if (throttleStats != null) {
+                    list.add("Throttle: " + numberFormat.format(throttleStats.activeThreads()) + '/' + numberFormat.format(throttleStats.threads()) + " threads, "
+                             + GuiHelper.formatDuration(throttleStats.tickTime()) + " avg tick"
+                             + (throttleStats.targetTickTime() > 0L ? ", " + GuiHelper.formatDuration(throttleStats.targetTickTime()) + " target" : ", disabled"));
+                } else {
+                    list.add("§oThrottle data not available");
+                }
             } else {
                 list.add("§oData not available");
             }
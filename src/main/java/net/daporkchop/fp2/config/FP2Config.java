@@ -75,7 +75,7 @@ public final class FP2Config implements Cloneable<FP2Config> {
     @SideOnly(Side.CLIENT)
     protected static final String CATEGORY_RENDER_DISTANCE = "renderDistance";
 
-    private static final Path CONFIG_DIR = Loader.instance().getConfigDir().toPath();
+    private static final Path CONFIG_DIR = FP2_TEST ? null : Loader.instance().getConfigDir().toPath(); //unit tests don't run inside forge, and never touch the config file
     private static final String CONFIG_FILE_NAME = "fp2.json5";
 
     public static final FP2Config DEFAULT_CONFIG = new FP2Config();
@@ -105,12 +105,17 @@ public final class FP2Config implements Cloneable<FP2Config> {
     /**
      * Loads the global configuration from disk, falling back to the default configuration if needed.
      * <p>
-     * This method may only be called once.
+     * This method may only be called once. In unit tests, the default configuration is always used.
      */
     @SneakyThrows(IOException.class)
     public synchronized static void load() {
         checkState(GLOBAL_CONFIG == null, "global configuration has already been loaded!");
 
+        if (FP2_TEST) {
+            GLOBAL_CONFIG = DEFAULT_CONFIG;
+            return;
+        }
+
         //delete temporary config file (will only be present if the system crashed while saving config)
         Files.deleteIfExists(CONFIG_DIR.resolve(CONFIG_FILE_NAME + ".tmp"));
 
@@ -133,6 +138,12 @@ public final class FP2Config implements Cloneable<FP2Config> {
     public synchronized static void set(@NonNull FP2Config config) {
         checkState(GLOBAL_CONFIG != null, "global configuration hasn't been loaded!");
 
+        if (FP2_TEST) {
+            GLOBAL_CONFIG = config;
+            ConfigListenerManager.fire();
+            return;
+        }
+
         Files.createDirectories(CONFIG_DIR);
         Path tempConfigFile = CONFIG_DIR.resolve(CONFIG_FILE_NAME + ".tmp");
         Path realConfigFile = CONFIG_DIR.resolve(CONFIG_FILE_NAME);
@@ -247,12 +258,15 @@ public final class FP2Config implements Cloneable<FP2Config> {
             @Config.CategoryMeta(name = "default", title = false),
             @Config.CategoryMeta(name = Performance.CATEGORY_CLIENT),
             @Config.CategoryMeta(name = Performance.CATEGORY_THREADS),
+            @Config.CategoryMeta(name = Performance.CATEGORY_STORAGE),
     })
     public static class Performance implements Cloneable<Performance> {
         @SideOnly(Side.CLIENT)
         protected static final String CATEGORY_CLIENT = "client";
         @SideOnly(Side.CLIENT)
         protected static final String CATEGORY_THREADS = "threads";
+        @SideOnly(Side.CLIENT)
+        protected static final String CATEGORY_STORAGE = "storage";
 
         @Builder.Default
         @Config.RestartRequired(Config.Requirement.WORLD)
@@ -279,6 +293,12 @@ public final class FP2Config implements Cloneable<FP2Config> {
         @Config.GuiCategory(CATEGORY_THREADS)
         private final int terrainThreads = max((PorkUtil.CPU_COUNT >> 1) + (PorkUtil.CPU_COUNT >> 2), 1);
 
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(0), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(0), max = @Config.Constant(100))
+        @Config.GuiCategory(CATEGORY_THREADS)
+        private final int terrainThreadsTargetTickTime = preventInline(40);
+
         @Builder.Default
         @Config.Range(min = @Config.Constant(1), max = @Config.Constant(Integer.MAX_VALUE))
         @Config.GuiRange(min = @Config.Constant(1), max = @Config.Constant(field = "net.daporkchop.lib.common.util.PorkUtil#CPU_COUNT"))
@@ -286,6 +306,88 @@ public final class FP2Config implements Cloneable<FP2Config> {
         @Config.GuiCategory(CATEGORY_THREADS)
         private final int bakeThreads = max((PorkUtil.CPU_COUNT >> 1) + (PorkUtil.CPU_COUNT >> 2), 1);
 
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(1), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(1), max = @Config.Constant(field = "net.daporkchop.lib.common.util.PorkUtil#CPU_COUNT"))
+        @Config.RestartRequired(Config.Requirement.WORLD)
+        @Config.GuiCategory(CATEGORY_THREADS)
+        private final int storageThreads = preventInline(2);
+
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(0), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(0), max = @Config.Constant(1024))
+        @Config.RestartRequired(Config.Requirement.WORLD)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final int snapshotCacheSize = preventInline(64);
+
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(4), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(4), max = @Config.Constant(1 << 22))
+        @Config.RestartRequired(Config.Requirement.WORLD)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final int storageTimestampCacheSize = preventInline(1 << 17);
+
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(0), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(0), max = @Config.Constant(4096))
+        @Config.RestartRequired(Config.Requirement.GAME)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final int storageBlockCacheSize = preventInline(128);
+
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(0), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(0), max = @Config.Constant(4096))
+        @Config.RestartRequired(Config.Requirement.GAME)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final int storageMemtableBudget = preventInline(0);
+
+        @Builder.Default
+        @Config.RestartRequired(Config.Requirement.WORLD)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final boolean storageSharedDatabase = preventInline(false);
+
+        @Builder.Default
+        @Config.RestartRequired(Config.Requirement.WORLD)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final boolean storageTileDeduplication = preventInline(false);
+
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(0), max = @Config.Constant(64))
+        @Config.RestartRequired(Config.Requirement.GAME)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final int storageTileBloomFilterBits = preventInline(10);
+
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(0), max = @Config.Constant(64))
+        @Config.RestartRequired(Config.Requirement.GAME)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final int storageMetadataBloomFilterBits = preventInline(10);
+
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(1), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(1), max = @Config.Constant(field = "net.daporkchop.lib.common.util.PorkUtil#CPU_COUNT"))
+        @Config.RestartRequired(Config.Requirement.GAME)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final int storageBackgroundThreads = max(PorkUtil.CPU_COUNT >> 2, 2);
+
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(0), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(0), max = @Config.Constant(1024))
+        @Config.RestartRequired(Config.Requirement.GAME)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final int storageRateLimit = preventInline(0);
+
+        @Builder.Default
+        @Config.RestartRequired(Config.Requirement.GAME)
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final boolean storageWriteAheadLog = preventInline(true);
+
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(1), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(1), max = @Config.Constant(3600))
+        @Config.GuiCategory(CATEGORY_STORAGE)
+        private final int storageFlushInterval = preventInline(60);
+
         @Override
         public Performance clone() {
             return this.toBuilder().build();
@@ -25,6 +25,7 @@ import lombok.Data;
 import lombok.NonNull;
 import lombok.experimental.UtilityClass;
 import net.daporkchop.fp2.common.util.stats.AbstractLongStatistics;
+import net.daporkchop.fp2.common.util.stats.ConcurrentHistogram;
 import net.daporkchop.fp2.common.util.stats.Statistics;
 import net.daporkchop.fp2.util.annotation.DebugOnly;
 import net.minecraftforge.fml.relauncher.Side;
@@ -76,6 +77,125 @@ public class DebugStats {
         }
     }
 
+    /**
+     * @author DaPorkchop_
+     */
+    @Builder
+    @Data
+    public static final class Storage extends AbstractLongStatistics<Storage> {
+        public static final Storage ZERO = builder().build();
+
+        protected final long snapshotCacheHits;
+        protected final long snapshotCacheMisses;
+
+        protected final long snapshotCacheCount;
+        protected final long snapshotCacheSize;
+
+        protected final long tilePayloads;
+        protected final long tilePayloadReferences;
+
+        public double snapshotCacheHitRate() {
+            long requests = this.snapshotCacheHits + this.snapshotCacheMisses;
+            return requests != 0L ? (double) this.snapshotCacheHits / requests : 0.0d;
+        }
+
+        /**
+         * @return the average number of tiles sharing each deduplicated tile payload
+         */
+        public double tilePayloadDedupRatio() {
+            return this.tilePayloads != 0L ? (double) this.tilePayloadReferences / this.tilePayloads : 0.0d;
+        }
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Builder
+    @Data
+    public static final class Scheduler extends AbstractLongStatistics<Scheduler> {
+        public static final Scheduler ZERO = builder().build();
+
+        protected final long queuedTasks;
+        protected final long executedTasks;
+
+        protected final long busyTime;
+        protected final long poolBusyTime;
+        protected final long poolThreads;
+
+        /**
+         * @return the fraction of the shared worker pool's time which was spent executing this scheduler's tasks
+         */
+        public double poolShare() {
+            return this.poolBusyTime != 0L ? (double) this.busyTime / this.poolBusyTime : 0.0d;
+        }
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Builder
+    @Data
+    public static final class Throttle extends AbstractLongStatistics<Throttle> {
+        public static final Throttle ZERO = builder().build();
+
+        protected final long activeThreads;
+        protected final long threads;
+
+        protected final long tickTime;
+        protected final long targetTickTime;
+    }
+
+    /**
+     * A snapshot of the distribution of values recorded by a {@link ConcurrentHistogram}.
+     *
+     * @author DaPorkchop_
+     */
+    @Builder
+    @Data
+    public static final class Histogram {
+        public static final Histogram ZERO = builder().build();
+
+        /**
+         * Takes a snapshot of the given {@link ConcurrentHistogram}.
+         *
+         * @param histogram the {@link ConcurrentHistogram}
+         * @return the snapshot
+         */
+        public static Histogram of(@NonNull ConcurrentHistogram histogram) {
+            return builder()
+                    .count(histogram.count())
+                    .mean(histogram.mean())
+                    .p50(histogram.quantile(0.5d))
+                    .p90(histogram.quantile(0.9d))
+                    .p99(histogram.quantile(0.99d))
+                    .max(histogram.max())
+                    .build();
+        }
+
+        protected final long count;
+        protected final long mean;
+
+        protected final long p50;
+        protected final long p90;
+        protected final long p99;
+        protected final long max;
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Builder
+    @Data
+    public static final class Tasks {
+        protected final long queuedTasks;
+        protected final long deduplicatedTasks;
+
+        @NonNull
+        protected final Histogram waitTime;
+        @NonNull
+        protected final Histogram executionTime;
+    }
+
     /**
      * @author DaPorkchop_
      */
@@ -27,6 +27,7 @@ import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.client.IFarRenderer;
 import net.daporkchop.fp2.mode.api.client.IFarTileCache;
+import net.daporkchop.fp2.mode.api.tile.TileDictionary;
 import net.daporkchop.fp2.util.annotation.CalledFromNetworkThread;
 
 /**
@@ -60,6 +61,20 @@ public interface IFarClientContext<POS extends IFarPos, T extends IFarTile> exte
      */
     FP2Config config();
 
+    /**
+     * @param level the detail level
+     * @return the {@link TileDictionary} which received tiles at the given level should be compressed with, or {@code null} if none is available
+     */
+    TileDictionary dictionary(int level);
+
+    /**
+     * Called when the server sends a new {@link TileDictionary}.
+     *
+     * @param dictionary the new dictionary
+     */
+    @CalledFromNetworkThread
+    void receiveDictionary(@NonNull TileDictionary dictionary);
+
     /**
      * Called whenever the player's config is changed.
      *
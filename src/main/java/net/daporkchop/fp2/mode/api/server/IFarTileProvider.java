@@ -21,6 +21,7 @@
 package net.daporkchop.fp2.mode.api.server;
 
 import lombok.NonNull;
+import net.daporkchop.fp2.debug.util.DebugStats;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.IFarTile;
@@ -30,10 +31,13 @@ import net.daporkchop.fp2.mode.api.server.gen.IFarScaler;
 import net.daporkchop.fp2.mode.api.server.storage.IFarStorage;
 import net.daporkchop.fp2.mode.api.server.tracking.IFarTrackerManager;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
 import net.daporkchop.fp2.util.threading.asyncblockaccess.IAsyncBlockAccess;
 import net.minecraft.world.WorldServer;
 
 import java.io.Closeable;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -78,6 +82,48 @@ public interface IFarTileProvider<POS extends IFarPos, T extends IFarTile> exten
      */
     IFarRenderMode<POS, T> mode();
 
+    /**
+     * @return statistics about the scheduler used for generating far terrain in this world, for debugging purposes
+     */
+    @DebugOnly
+    default DebugStats.Scheduler debugSchedulerStats() {
+        return DebugStats.Scheduler.ZERO;
+    }
+
+    /**
+     * @return statistics about the throttle which limits the number of threads used for generating far terrain, for debugging purposes
+     */
+    @DebugOnly
+    default DebugStats.Throttle debugThrottleStats() {
+        return DebugStats.Throttle.ZERO;
+    }
+
+    /**
+     * Gets statistics about the tasks executed by the scheduler used for generating far terrain in this world, for debugging purposes.
+     * <p>
+     * The returned map is keyed by a human-readable name for each category of tasks (e.g. the stage and detail level). Categories in which no tasks have been
+     * scheduled may be omitted.
+     *
+     * @return statistics about the tasks in each category
+     */
+    @DebugOnly
+    default Map<String, DebugStats.Tasks> debugTaskStats() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Gets statistics about the time (in nanoseconds) spent generating far terrain tiles in this world, for debugging purposes.
+     * <p>
+     * The returned map is keyed by a human-readable name for each category of generation (e.g. the generator type and detail level). Categories in which no
+     * tiles have been generated may be omitted.
+     *
+     * @return statistics about the generation times in each category
+     */
+    @DebugOnly
+    default Map<String, DebugStats.Histogram> debugGenerationStats() {
+        return Collections.emptyMap();
+    }
+
     @Override
     void close();
 }
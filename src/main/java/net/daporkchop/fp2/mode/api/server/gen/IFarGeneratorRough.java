@@ -25,6 +25,11 @@ import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.minecraft.world.WorldServer;
 
+import java.util.Collections;
+import java.util.List;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
 /**
  * Extracts height and color information from a world for use by a rendering mode.
  * <p>
@@ -46,6 +51,40 @@ public interface IFarGeneratorRough<POS extends IFarPos, T extends IFarTile> ext
      */
     void generate(@NonNull POS pos, @NonNull T tile);
 
+    /**
+     * Gets the positions of all the tiles in the same batch as the tile at the given position.
+     * <p>
+     * The tiles in a batch are adjacent, and can be generated more efficiently by a single call to {@link #generate(List, List)} than individually, since they
+     * are able to share intermediate results. Every position in a batch must return the same positions, in the same order.
+     * <p>
+     * The default implementation places every tile in a batch of its own.
+     *
+     * @param pos the position of the tile
+     * @return the positions of all the tiles in the batch, including the given position
+     */
+    default List<POS> batch(@NonNull POS pos) {
+        return Collections.singletonList(pos);
+    }
+
+    /**
+     * Generates a rough estimate of the terrain in multiple tiles at once.
+     * <p>
+     * All of the given positions must belong to the same batch, although not every tile in the batch needs to be generated.
+     * <p>
+     * The default implementation generates each tile individually.
+     *
+     * @param positions the positions of the tiles to generate
+     * @param tiles     the tiles to generate, in the same order as the positions
+     * @see #batch(IFarPos)
+     */
+    default void generate(@NonNull List<POS> positions, @NonNull List<T> tiles) {
+        checkArg(positions.size() == tiles.size(), "positions (%d) and tiles (%d) must have the same length", positions.size(), tiles.size());
+
+        for (int i = 0; i < positions.size(); i++) {
+            this.generate(positions.get(i), tiles.get(i));
+        }
+    }
+
     /**
      * Factory method for creating instances of {@link IFarGeneratorRough}.
      *
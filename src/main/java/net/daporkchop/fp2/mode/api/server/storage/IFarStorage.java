@@ -21,13 +21,25 @@
 package net.daporkchop.fp2.mode.api.server.storage;
 
 import lombok.NonNull;
+import net.daporkchop.fp2.debug.util.DebugStats;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarTile;
+import net.daporkchop.fp2.mode.api.tile.DirectTileSnapshot;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
+import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
+import net.daporkchop.fp2.mode.api.tile.TileDictionary;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
+import net.daporkchop.fp2.util.math.IntAxisAlignedBB;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -44,8 +56,143 @@ public interface IFarStorage<POS extends IFarPos, T extends IFarTile> extends Cl
      */
     ITileHandle<POS, T> handleFor(@NonNull POS pos);
 
+    /**
+     * Gets a snapshot of the tile data at each of the given positions.
+     * <p>
+     * Conceptually implemented by
+     * <blockquote><pre>{@code
+     * return positions.stream()
+     *         .map(pos -> this.handleFor(pos).snapshot())
+     *         .collect(Collectors.toList());
+     * }</pre></blockquote>
+     * except the implementation has the opportunity to optimize this beyond what the user could write.
+     *
+     * @param positions the positions
+     * @return a snapshot of the tile at each of the given positions, in the same order. Individual snapshots may be {@code null} if the tile hasn't been initialized.
+     * @see ITileHandle#snapshot()
+     */
+    default List<ITileSnapshot<POS, T>> multiSnapshot(@NonNull List<POS> positions) {
+        return positions.stream()
+                .map(pos -> this.handleFor(pos).snapshot())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Gets a snapshot of the tile data at each of the given positions, stored in direct memory.
+     * <p>
+     * Conceptually implemented by
+     * <blockquote><pre>{@code
+     * return this.multiSnapshot(positions).stream()
+     *         .map(snapshot -> snapshot != null ? DirectTileSnapshot.copyOf(snapshot) : null)
+     *         .collect(Collectors.toList());
+     * }</pre></blockquote>
+     * except the implementation has the opportunity to optimize this beyond what the user could write.
+     * <p>
+     * The caller is responsible for releasing all of the returned snapshots once they are no longer needed.
+     *
+     * @param positions the positions
+     * @return a snapshot of the tile at each of the given positions, in the same order. Individual snapshots may be {@code null} if the tile hasn't been initialized.
+     * @see #multiSnapshot(List)
+     */
+    default List<DirectTileSnapshot<POS, T>> multiSnapshotDirect(@NonNull List<POS> positions) {
+        return this.multiSnapshot(positions).stream()
+                .map(snapshot -> snapshot != null ? DirectTileSnapshot.copyOf(snapshot) : null)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Asynchronously gets a snapshot of the tile data at each of the given positions.
+     * <p>
+     * The default implementation simply calls {@link #multiSnapshot(List)} on the calling thread.
+     *
+     * @param positions the positions
+     * @return a {@link CompletableFuture} which will be completed with the snapshots
+     * @see #multiSnapshot(List)
+     */
+    default CompletableFuture<List<ITileSnapshot<POS, T>>> multiSnapshotAsync(@NonNull List<POS> positions) {
+        return CompletableFuture.completedFuture(this.multiSnapshot(positions));
+    }
+
+    /**
+     * Asynchronously gets a snapshot of the tile data at each of the given positions, stored in direct memory.
+     * <p>
+     * The default implementation simply calls {@link #multiSnapshotDirect(List)} on the calling thread.
+     * <p>
+     * The caller is responsible for releasing all of the returned snapshots once they are no longer needed.
+     *
+     * @param positions the positions
+     * @return a {@link CompletableFuture} which will be completed with the snapshots
+     * @see #multiSnapshotDirect(List)
+     */
+    default CompletableFuture<List<DirectTileSnapshot<POS, T>>> multiSnapshotDirectAsync(@NonNull List<POS> positions) {
+        return CompletableFuture.completedFuture(this.multiSnapshotDirect(positions));
+    }
+
+    /**
+     * Iterates over all of the stored tiles at the given detail level which are contained by the given cell.
+     * <p>
+     * A cell is a position at a lower detail level than the tiles being iterated over, and therefore represents a level-aligned bounding box around them. Keys
+     * are ordered by the Morton code of the tile's coordinates, so all of the tiles in a cell can be read in a single sequential scan rather than with lots of
+     * random reads. Tiles which haven't been initialized are skipped.
+     * <p>
+     * Tiles are visited in key order. If a tile is modified concurrently, its snapshot may already be outdated by the time it's passed to the callback: callers
+     * which must not use outdated data should compare the snapshot's timestamp with {@link ITileHandle#timestamp()} before using it.
+     *
+     * @param cell     the cell
+     * @param level    the detail level of the tiles to iterate over, which may not be greater than the cell's detail level
+     * @param callback a callback function which will be called with a snapshot of every stored tile in the cell
+     * @throws IllegalArgumentException if the cell is too large to be scanned sequentially by this implementation
+     */
+    void forEachTileIn(@NonNull POS cell, int level, @NonNull Consumer<ITileSnapshot<POS, T>> callback);
+
+    /**
+     * Asynchronously iterates over all of the stored tiles at the given detail level which are contained by the given cell.
+     * <p>
+     * The default implementation simply calls {@link #forEachTileIn(IFarPos, int, Consumer)} on the calling thread.
+     *
+     * @param cell     the cell
+     * @param level    the detail level of the tiles to iterate over, which may not be greater than the cell's detail level
+     * @param callback a callback function which will be called with a snapshot of every stored tile in the cell. It may be called from any thread.
+     * @return a {@link CompletableFuture} which will be completed once the iteration has finished
+     * @see #forEachTileIn(IFarPos, int, Consumer)
+     */
+    default CompletableFuture<Void> forEachTileInAsync(@NonNull POS cell, int level, @NonNull Consumer<ITileSnapshot<POS, T>> callback) {
+        this.forEachTileIn(cell, level, callback);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Gets the {@link TileDictionary} which should currently be used for compressing tile data at the given detail level.
+     *
+     * @param level the detail level
+     * @return the {@link TileDictionary}, or {@code null} if none is available for the given level
+     */
+    default TileDictionary dictionary(int level) {
+        return null; //no dictionaries are available by default
+    }
+
     void forEachDirtyPos(@NonNull Consumer<POS> callback);
 
+    /**
+     * Gets the positions of all dirty tiles, split into a number of shards which may be iterated over in parallel.
+     * <p>
+     * Each shard covers a contiguous range of keys, and positions within a shard are returned in key order. Shards never span multiple detail levels, and are
+     * returned sorted by detail level, followed by the Morton code of the positions they contain.
+     * <p>
+     * The caller is responsible for closing all of the returned {@link Stream}s once they are no longer needed.
+     * <p>
+     * The default implementation collects all dirty positions using {@link #forEachDirtyPos(Consumer)} and returns them as a single shard, which may span
+     * multiple detail levels and isn't guaranteed to be in any particular order.
+     *
+     * @param shardsPerLevel the maximum number of shards to split each detail level into
+     * @return the shards
+     */
+    default List<Stream<POS>> dirtyPosShards(int shardsPerLevel) {
+        List<POS> positions = new ArrayList<>();
+        this.forEachDirtyPos(positions::add);
+        return Collections.singletonList(positions.stream());
+    }
+
     /**
      * Atomically marks multiple positions as dirty as of the given timestamp.
      * <p>
@@ -55,6 +202,10 @@ public interface IFarStorage<POS extends IFarPos, T extends IFarTile> extends Cl
      *         .filter(pos -> this.handleFor(pos).markDirty(dirtyTimestamp));
      * }</pre></blockquote>
      * except the implementation has the opportunity to optimize this beyond what the user could write.
+     * <p>
+     * Implementations which mark tiles as dirty using blind writes may not know which positions were actually modified, in which case all of the given positions
+     * are returned. Callers must therefore be prepared to receive positions whose tiles don't exist or aren't actually dirty. Such implementations may still
+     * filter the positions passed to {@link Listener#tilesDirty(Stream)}, but may do so asynchronously.
      *
      * @param positions      the positions to mark as dirty
      * @param dirtyTimestamp the new dirty timestamp
@@ -68,6 +219,45 @@ public interface IFarStorage<POS extends IFarPos, T extends IFarTile> extends Cl
 
     //void markVanillaRenderable(@NonNull Stream<POS> positions);
 
+    /**
+     * Runs maintenance on this storage in order to reclaim disk space.
+     * <p>
+     * This deletes all tiles which are outside of the given coordinate limits, removes any redundant entries (such as blank tiles, orphaned markers and stale
+     * dirty timestamps) and then compacts the remaining data. It may take a long time, and should not be called from the server thread. The storage may continue
+     * to be used normally while maintenance is running. If the storage is closed while maintenance is running, the maintenance will stop early.
+     * <p>
+     * The default implementation does nothing.
+     *
+     * @param coordLimits the tile coordinate limits, indexed by detail level
+     * @param recompress  whether or not all of the data should be rewritten using the current compression settings, rather than only the data which contains
+     *                    deleted entries. This takes considerably longer.
+     * @param progress    a callback which will be notified as the maintenance progresses
+     */
+    default void maintain(@NonNull IntAxisAlignedBB[] coordLimits, boolean recompress, @NonNull Consumer<String> progress) {
+    }
+
+    /**
+     * Creates a backup of this storage in the given backup directory.
+     * <p>
+     * The storage may continue to be used normally while the backup is being created. If the storage is closed while the backup is being created, the backup
+     * will stop early.
+     * <p>
+     * The default implementation does nothing.
+     *
+     * @param backupRoot the directory containing the backups of all of the world's storages
+     * @param progress   a callback which will be notified as the backup progresses
+     */
+    default void backup(@NonNull File backupRoot, @NonNull Consumer<String> progress) {
+    }
+
+    /**
+     * @return statistics about this storage, for debugging purposes
+     */
+    @DebugOnly
+    default DebugStats.Storage debugStats() {
+        return DebugStats.Storage.ZERO;
+    }
+
     /**
      * Closes this storage.
      * <p>
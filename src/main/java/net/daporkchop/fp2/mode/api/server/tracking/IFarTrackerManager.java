@@ -41,6 +41,16 @@ public interface IFarTrackerManager<POS extends IFarPos, T extends IFarTile> ext
     @CalledFromServerThread
     IFarTracker<POS, T> beginTracking(@NonNull IFarServerContext<POS, T> context);
 
+    /**
+     * Gets the distance between the given tile position and the closest player whose tiles are being tracked.
+     * <p>
+     * This may be called from any thread.
+     *
+     * @param pos the tile position
+     * @return the Manhattan distance to the closest player, measured in tiles at the position's detail level, or {@link Integer#MAX_VALUE} if no players are being tracked
+     */
+    int distanceToClosestTracker(@NonNull POS pos);
+
     @DebugOnly
     @CalledFromServerThread
     void dropAllTiles();
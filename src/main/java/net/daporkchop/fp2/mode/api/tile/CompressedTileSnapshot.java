@@ -50,9 +50,16 @@ public class CompressedTileSnapshot<POS extends IFarPos, T extends IFarTile> imp
     @Getter(AccessLevel.NONE)
     protected final byte[] data;
 
-    protected CompressedTileSnapshot(@NonNull TileSnapshot<POS, T> src) {
+    /**
+     * The dictionary which the data was compressed with, or {@code null} if no dictionary was used.
+     */
+    @Getter(AccessLevel.NONE)
+    protected final TileDictionary dictionary;
+
+    protected CompressedTileSnapshot(@NonNull TileSnapshot<POS, T> src, TileDictionary dictionary) {
         this.pos = src.pos();
         this.timestamp = src.timestamp();
+        this.dictionary = dictionary;
 
         if (src.data == null) { //no data
             this.data = null;
@@ -60,7 +67,9 @@ public class CompressedTileSnapshot<POS extends IFarPos, T extends IFarTile> imp
             ByteBuf compressed = ByteBufAllocator.DEFAULT.buffer(Zstd.PROVIDER.compressBound(src.data.length));
             try {
                 //compress data
-                checkState(ZSTD_DEF.get().compress(Unpooled.wrappedBuffer(src.data), compressed));
+                checkState(dictionary != null
+                        ? dictionary.compress(Unpooled.wrappedBuffer(src.data), compressed)
+                        : ZSTD_DEF.get().compress(Unpooled.wrappedBuffer(src.data), compressed));
 
                 //copy compressed data into a byte array
                 this.data = new byte[compressed.readableBytes()];
@@ -79,7 +88,7 @@ public class CompressedTileSnapshot<POS extends IFarPos, T extends IFarTile> imp
             ByteBuf uncompressed = ByteBufAllocator.DEFAULT.buffer(Zstd.PROVIDER.frameContentSize(compressed));
             try {
                 //decompress data
-                checkState(ZSTD_INF.get().decompress(compressed, uncompressed));
+                checkState(this.decompress(compressed, uncompressed));
 
                 //initialize tile from decompressed data
                 T tile = recycler.allocate();
@@ -100,8 +109,10 @@ public class CompressedTileSnapshot<POS extends IFarPos, T extends IFarTile> imp
     }
 
     @Override
-    public ITileSnapshot<POS, T> compressed() {
-        return this; //we're already compressed!
+    public ITileSnapshot<POS, T> compressed(TileDictionary dictionary) {
+        return dictionary == this.dictionary
+                ? this //we're already compressed!
+                : this.uncompressed().compressed(dictionary); //we're compressed using a different dictionary, re-compress using the new one
     }
 
     @Override
@@ -112,12 +123,18 @@ public class CompressedTileSnapshot<POS extends IFarPos, T extends IFarTile> imp
             uncompressedData = new byte[Zstd.PROVIDER.frameContentSize(Unpooled.wrappedBuffer(this.data))];
 
             //decompress data
-            checkState(ZSTD_INF.get().decompress(Unpooled.wrappedBuffer(this.data), Unpooled.wrappedBuffer(uncompressedData).clear()));
+            checkState(this.decompress(Unpooled.wrappedBuffer(this.data), Unpooled.wrappedBuffer(uncompressedData).clear()));
         }
 
         return new TileSnapshot<>(this.pos, this.timestamp, uncompressedData);
     }
 
+    protected boolean decompress(@NonNull ByteBuf src, @NonNull ByteBuf dst) {
+        return this.dictionary != null
+                ? this.dictionary.decompress(src, dst)
+                : ZSTD_INF.get().decompress(src, dst);
+    }
+
     @DebugOnly
     @Override
     public DebugStats.TileSnapshot stats() {
@@ -0,0 +1,140 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.api.tile;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.fp2.debug.util.DebugStats;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarTile;
+import net.daporkchop.fp2.util.SimpleRecycler;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
+import net.daporkchop.lib.common.misc.refcount.AbstractRefCounted;
+import net.daporkchop.lib.common.util.exception.AlreadyReleasedException;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Implementation of {@link ITileSnapshot} whose tile data is stored in a pooled, direct {@link ByteBuf}.
+ * <p>
+ * Tiles are decoded straight from the direct buffer into their off-heap storage, without ever being copied onto the Java heap. Unlike other snapshot types,
+ * instances of this class must be explicitly released once they are no longer needed in order for the buffer to be returned to the pool.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public class DirectTileSnapshot<POS extends IFarPos, T extends IFarTile> extends AbstractRefCounted implements ITileSnapshot<POS, T> {
+    /**
+     * Creates a new {@link DirectTileSnapshot} containing a copy of the data in the given {@link ITileSnapshot}.
+     *
+     * @param snapshot the {@link ITileSnapshot} to copy
+     * @return a new {@link DirectTileSnapshot}
+     */
+    public static <POS extends IFarPos, T extends IFarTile> DirectTileSnapshot<POS, T> copyOf(@NonNull ITileSnapshot<POS, T> snapshot) {
+        ITileSnapshot<POS, T> uncompressed = snapshot.uncompressed();
+        checkArg(uncompressed instanceof TileSnapshot, "unsupported snapshot type: %s", uncompressed.getClass());
+
+        byte[] data = ((TileSnapshot<POS, T>) uncompressed).data;
+        return new DirectTileSnapshot<>(snapshot.pos(), snapshot.timestamp(), data != null
+                ? ByteBufAllocator.DEFAULT.directBuffer(data.length, data.length).writeBytes(data)
+                : null);
+    }
+
+    @NonNull
+    protected final POS pos;
+    protected final long timestamp;
+
+    @Getter(AccessLevel.NONE)
+    protected final ByteBuf data;
+
+    /**
+     * @param pos       the tile's position
+     * @param timestamp the tile's timestamp
+     * @param data      a buffer containing the tile's data, or {@code null} if the tile is empty. Ownership of the buffer is transferred to the snapshot.
+     */
+    public DirectTileSnapshot(@NonNull POS pos, long timestamp, ByteBuf data) {
+        this.pos = pos;
+        this.timestamp = timestamp;
+        this.data = data;
+    }
+
+    @Override
+    public DirectTileSnapshot<POS, T> retain() throws AlreadyReleasedException {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    protected void doRelease() {
+        if (this.data != null) {
+            this.data.release();
+        }
+    }
+
+    @Override
+    public T loadTile(@NonNull SimpleRecycler<T> recycler) {
+        if (this.data != null) {
+            T tile = recycler.allocate();
+            tile.read(this.data.duplicate()); //duplicate the buffer so that the tile can be loaded multiple times
+            return tile;
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.data == null;
+    }
+
+    @Override
+    public ITileSnapshot<POS, T> compressed(TileDictionary dictionary) {
+        return this.uncompressed().compressed(dictionary);
+    }
+
+    @Override
+    public ITileSnapshot<POS, T> uncompressed() {
+        //copy the data onto the heap, since the returned snapshot isn't reference-counted and may outlive this one
+        byte[] data = null;
+        if (this.data != null) {
+            data = new byte[this.data.readableBytes()];
+            this.data.getBytes(this.data.readerIndex(), data);
+        }
+
+        return new TileSnapshot<>(this.pos, this.timestamp, data);
+    }
+
+    @DebugOnly
+    @Override
+    public DebugStats.TileSnapshot stats() {
+        if (this.data == null) { //this tile is empty!
+            return DebugStats.TileSnapshot.ZERO;
+        } else {
+            return DebugStats.TileSnapshot.builder()
+                    .allocatedSpace(this.data.capacity())
+                    .totalSpace(this.data.readableBytes())
+                    .uncompressedSize(this.data.readableBytes())
+                    .build();
+        }
+    }
+}
@@ -24,6 +24,8 @@ import lombok.NonNull;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarTile;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author DaPorkchop_
  */
@@ -38,6 +40,31 @@ public interface ITileHandle<POS extends IFarPos, T extends IFarTile> extends IT
      */
     ITileSnapshot<POS, T> snapshot();
 
+    /**
+     * Asynchronously gets this tile's timestamp.
+     * <p>
+     * The default implementation simply calls {@link #timestamp()} on the calling thread. Implementations which need to do I/O in order to read the timestamp should
+     * do so without blocking the calling thread.
+     *
+     * @return a {@link CompletableFuture} which will be completed with the tile's timestamp
+     * @see #timestamp()
+     */
+    default CompletableFuture<Long> timestampAsync() {
+        return CompletableFuture.completedFuture(this.timestamp());
+    }
+
+    /**
+     * Asynchronously gets a snapshot of this tile's current data and metadata.
+     * <p>
+     * The default implementation simply calls {@link #snapshot()} on the calling thread.
+     *
+     * @return a {@link CompletableFuture} which will be completed with the snapshot, or with {@code null} if the tile hasn't been initialized
+     * @see #snapshot()
+     */
+    default CompletableFuture<ITileSnapshot<POS, T>> snapshotAsync() {
+        return CompletableFuture.completedFuture(this.snapshot());
+    }
+
     /**
      * Atomically sets this tile's contents to the given data.
      * <p>
@@ -51,6 +78,22 @@ public interface ITileHandle<POS extends IFarPos, T extends IFarTile> extends IT
      */
     boolean set(@NonNull ITileMetadata metadata, @NonNull T tile);
 
+    /**
+     * Asynchronously sets this tile's contents to the given data.
+     * <p>
+     * The tile data is fully consumed before this method returns, so the caller may modify or release the {@link T} instance immediately afterwards.
+     * <p>
+     * The default implementation simply calls {@link #set(ITileMetadata, IFarTile)} on the calling thread.
+     *
+     * @param metadata the tile's new metadata
+     * @param tile     an instance of {@link T} containing the new tile data
+     * @return a {@link CompletableFuture} which will be completed with whether or not the operation was able to be applied
+     * @see #set(ITileMetadata, IFarTile)
+     */
+    default CompletableFuture<Boolean> setAsync(@NonNull ITileMetadata metadata, @NonNull T tile) {
+        return CompletableFuture.completedFuture(this.set(metadata, tile));
+    }
+
     /**
      * @return the timestamp at which this tile was last marked as dirty, or {@link #TIMESTAMP_BLANK} if it isn't
      */
@@ -54,7 +54,15 @@ public interface ITileSnapshot<POS extends IFarPos, T extends IFarTile> extends
     /**
      * @return this snapshot, with its tile data stored compressed in-memory
      */
-    ITileSnapshot<POS, T> compressed();
+    default ITileSnapshot<POS, T> compressed() {
+        return this.compressed(null);
+    }
+
+    /**
+     * @param dictionary the {@link TileDictionary} to compress the tile data with, or {@code null} if no dictionary should be used
+     * @return this snapshot, with its tile data stored compressed in-memory
+     */
+    ITileSnapshot<POS, T> compressed(TileDictionary dictionary);
 
     /**
      * @return this snapshot, with its tile data stored in-memory without compression
@@ -0,0 +1,320 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.api.tile;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+import net.daporkchop.lib.compression.zstd.Zstd;
+import net.daporkchop.lib.compression.zstd.ZstdDeflateDictionary;
+import net.daporkchop.lib.compression.zstd.ZstdInflateDictionary;
+import net.daporkchop.lib.unsafe.PCleaner;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A zstd dictionary used for compressing the data of tiles at a single detail level.
+ * <p>
+ * Dictionaries are "raw content" dictionaries trained from a sample of existing tiles, which works well for tiles since their contents are small and highly
+ * self-similar. Each dictionary has a version number which is incremented every time the dictionary for a given level is rebuilt, allowing the different
+ * versions to be told apart.
+ * <p>
+ * Dictionaries are immutable. Data compressed using a dictionary may only be decompressed using the same dictionary, so anything which stores compressed data
+ * must also keep a reference to the dictionary it was compressed with.
+ *
+ * @author DaPorkchop_
+ */
+@ToString(of = { "level", "version" })
+public final class TileDictionary {
+    /**
+     * The maximum size of a dictionary, in bytes.
+     */
+    public static final int MAX_SIZE = 64 << 10;
+
+    /**
+     * The size of the segments which a dictionary is assembled from, in bytes.
+     */
+    protected static final int SEGMENT_SIZE = 1024;
+
+    /**
+     * The length of the substrings whose frequencies are used for scoring segments, in bytes.
+     */
+    protected static final int DMER_SIZE = 8;
+
+    /**
+     * The base-2 logarithm of the number of buckets in the dmer frequency table.
+     */
+    protected static final int FREQUENCY_TABLE_BITS = 20;
+
+    /**
+     * Builds a new {@link TileDictionary} from the given sample tiles.
+     * <p>
+     * The dictionary is trained using the same approach as zstd's {@code COVER} trainer: the samples are split into epochs, and from each epoch the segment whose
+     * substrings occur in the most samples is appended to the dictionary. Substrings which have already been added to the dictionary don't count towards the score of
+     * later segments, and the segments chosen earliest are placed closest to the end of the dictionary, where zstd can reference them most cheaply.
+     *
+     * @param level   the detail level which the dictionary will be used for
+     * @param version the dictionary's version
+     * @param samples the encoded tile data to build the dictionary from
+     * @return the new {@link TileDictionary}, or {@code null} if there were no usable samples
+     */
+    public static TileDictionary build(int level, int version, @NonNull Collection<byte[]> samples) {
+        //concatenate all the samples which are long enough to contain a dmer
+        int totalSize = 0;
+        for (byte[] sample : samples) {
+            if (sample.length >= DMER_SIZE) {
+                totalSize += sample.length;
+            }
+        }
+
+        if (totalSize == 0) { //no usable samples
+            return null;
+        }
+
+        byte[] all = new byte[totalSize];
+        int[] frequencies = new int[1 << FREQUENCY_TABLE_BITS];
+        int[] lastSample = new int[1 << FREQUENCY_TABLE_BITS];
+        Arrays.fill(lastSample, -1);
+
+        int sampleIndex = 0;
+        int offset = 0;
+        for (byte[] sample : samples) {
+            if (sample.length < DMER_SIZE) {
+                continue;
+            }
+
+            System.arraycopy(sample, 0, all, offset, sample.length);
+
+            //count the number of samples each dmer occurs in, rather than the total number of occurrences. repetition within a single tile is already handled
+            //  well by zstd, what we want the dictionary to contain is the data which many different tiles have in common.
+            for (int i = offset, end = offset + sample.length - DMER_SIZE; i <= end; i++) {
+                int hash = hashDmer(all, i);
+                if (lastSample[hash] != sampleIndex) {
+                    lastSample[hash] = sampleIndex;
+                    frequencies[hash]++;
+                }
+            }
+
+            offset += sample.length;
+            sampleIndex++;
+        }
+
+        //split the dmers into epochs, each of which will contribute (at least) one segment to the dictionary
+        int capacity = min(MAX_SIZE, totalSize);
+        int dmers = totalSize - DMER_SIZE + 1;
+        int epochs = max(1, capacity / SEGMENT_SIZE / 4);
+        if (dmers / epochs < SEGMENT_SIZE * 10) { //make sure each epoch is big enough to have a meaningful choice of segments
+            epochs = max(1, dmers / (SEGMENT_SIZE * 10));
+        }
+        int epochSize = dmers / epochs;
+        int maxZeroScoreRun = max(10, min(100, epochs >> 3));
+
+        //fill the dictionary from back to front
+        byte[] dictionary = new byte[capacity];
+        int tail = capacity;
+        int[] segmentFrequencies = new int[1 << FREQUENCY_TABLE_BITS];
+        for (int epoch = 0, zeroScoreRun = 0; tail > 0; epoch = (epoch + 1) % epochs) {
+            int epochBegin = epoch * epochSize;
+            int epochEnd = epoch == epochs - 1 ? dmers : epochBegin + epochSize;
+
+            long segment = selectSegment(all, frequencies, segmentFrequencies, epochBegin, epochEnd);
+            int segmentBegin = (int) (segment >>> 32);
+            int segmentEnd = (int) segment;
+            if (segmentBegin == segmentEnd) { //there are no new dmers left in this epoch
+                if (++zeroScoreRun >= maxZeroScoreRun) {
+                    break;
+                }
+                continue;
+            }
+            zeroScoreRun = 0;
+
+            int segmentSize = min(segmentEnd - segmentBegin + DMER_SIZE - 1, tail);
+            if (segmentSize < DMER_SIZE) { //the remaining space is too small to be useful
+                break;
+            }
+
+            tail -= segmentSize;
+            System.arraycopy(all, segmentBegin, dictionary, tail, segmentSize);
+        }
+
+        if (tail == capacity) { //no segment was selected
+            return null;
+        }
+        return new TileDictionary(level, version, Arrays.copyOfRange(dictionary, tail, capacity));
+    }
+
+    /**
+     * Finds the segment of {@link #SEGMENT_SIZE} bytes in the given epoch whose dmers have the highest total frequency, then trims dmers which don't contribute to the
+     * score off both ends of the segment and resets the frequency of all its dmers to {@code 0}.
+     *
+     * @return the selected segment's first dmer index in the high 32 bits and its last dmer index (exclusive) in the low 32 bits. Both are equal if no dmer in the
+     * epoch has a non-zero frequency.
+     */
+    protected static long selectSegment(@NonNull byte[] all, @NonNull int[] frequencies, @NonNull int[] segmentFrequencies, int epochBegin, int epochEnd) {
+        int windowSize = SEGMENT_SIZE - DMER_SIZE + 1;
+
+        long score = 0L;
+        long bestScore = 0L;
+        int bestBegin = epochBegin;
+        int bestEnd = epochBegin;
+
+        //slide a window over the epoch, counting each distinct dmer in the window only once
+        int begin = epochBegin;
+        int end = epochBegin;
+        while (end < epochEnd) {
+            int hash = hashDmer(all, end++);
+            if (segmentFrequencies[hash]++ == 0) {
+                score += frequencies[hash];
+            }
+
+            if (end - begin == windowSize) {
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestBegin = begin;
+                    bestEnd = end;
+                }
+
+                hash = hashDmer(all, begin++);
+                if (--segmentFrequencies[hash] == 0) {
+                    score -= frequencies[hash];
+                }
+            }
+        }
+
+        if (bestScore == 0L && end - begin < windowSize && end > begin) { //the epoch is smaller than a single segment, so the only candidate is the whole epoch
+            bestScore = score;
+            bestBegin = begin;
+            bestEnd = end;
+        }
+
+        //reset segment frequencies so the array can be reused
+        while (begin < end) {
+            segmentFrequencies[hashDmer(all, begin++)] = 0;
+        }
+
+        if (bestScore == 0L) {
+            return 0L;
+        }
+
+        //trim dmers with a frequency of 0 off both ends, then zero the frequencies of the segment's dmers so that they won't be selected again
+        int trimmedBegin = bestEnd;
+        int trimmedEnd = bestEnd;
+        for (int i = bestBegin; i < bestEnd; i++) {
+            if (frequencies[hashDmer(all, i)] != 0) {
+                trimmedBegin = min(trimmedBegin, i);
+                trimmedEnd = i + 1;
+            }
+        }
+        for (int i = trimmedBegin; i < trimmedEnd; i++) {
+            frequencies[hashDmer(all, i)] = 0;
+        }
+        return ((long) trimmedBegin << 32L) | trimmedEnd;
+    }
+
+    protected static int hashDmer(@NonNull byte[] data, int index) {
+        long dmer = 0L;
+        for (int i = 0; i < DMER_SIZE; i++) {
+            dmer |= (data[index + i] & 0xFFL) << (i << 3);
+        }
+        return (int) ((dmer * 0xCF1BBCDCB7A56463L) >>> (64 - FREQUENCY_TABLE_BITS));
+    }
+
+    @Getter
+    protected final int level;
+    @Getter
+    protected final int version;
+    @Getter
+    @NonNull
+    protected final byte[] data;
+
+    protected volatile ZstdDeflateDictionary deflateDictionary;
+    protected volatile ZstdInflateDictionary inflateDictionary;
+
+    public TileDictionary(int level, int version, @NonNull byte[] data) {
+        this.level = notNegative(level, "level");
+        this.version = positive(version, "version");
+        this.data = data;
+    }
+
+    public TileDictionary(@NonNull ByteBuf src) {
+        //the dictionary may have been received from the network, so we need to make sure it's actually valid
+        this.level = checkIndex(MAX_LODS, src.readIntLE());
+        this.version = positive(src.readIntLE(), "version");
+        int length = src.readIntLE();
+        checkArg(length >= 0 && length <= MAX_SIZE && length <= src.readableBytes(), "invalid dictionary length: %d", length);
+        this.data = new byte[length];
+        src.readBytes(this.data);
+    }
+
+    public void write(@NonNull ByteBuf dst) {
+        dst.writeIntLE(this.level).writeIntLE(this.version).writeIntLE(this.data.length).writeBytes(this.data);
+    }
+
+    /**
+     * Compresses the given data using this dictionary.
+     *
+     * @see net.daporkchop.lib.compression.zstd.ZstdDeflater#compress(ByteBuf, ByteBuf, ZstdDeflateDictionary)
+     */
+    public boolean compress(@NonNull ByteBuf src, @NonNull ByteBuf dst) {
+        return ZSTD_DEF.get().compress(src, dst, this.deflateDictionary());
+    }
+
+    /**
+     * Decompresses the given data using this dictionary.
+     *
+     * @see net.daporkchop.lib.compression.zstd.ZstdInflater#decompress(ByteBuf, ByteBuf, ZstdInflateDictionary)
+     */
+    public boolean decompress(@NonNull ByteBuf src, @NonNull ByteBuf dst) {
+        return ZSTD_INF.get().decompress(src, dst, this.inflateDictionary());
+    }
+
+    protected ZstdDeflateDictionary deflateDictionary() {
+        ZstdDeflateDictionary dictionary = this.deflateDictionary;
+        if (dictionary == null) {
+            synchronized (this) {
+                if ((dictionary = this.deflateDictionary) == null) { //the dictionary is loaded lazily, since most dictionaries are only ever used in one direction
+                    this.deflateDictionary = dictionary = Zstd.PROVIDER.loadDeflateDictionary(Unpooled.wrappedBuffer(this.data));
+                    PCleaner.cleaner(this, dictionary::release);
+                }
+            }
+        }
+        return dictionary;
+    }
+
+    protected ZstdInflateDictionary inflateDictionary() {
+        ZstdInflateDictionary dictionary = this.inflateDictionary;
+        if (dictionary == null) {
+            synchronized (this) {
+                if ((dictionary = this.inflateDictionary) == null) {
+                    this.inflateDictionary = dictionary = Zstd.PROVIDER.loadInflateDictionary(Unpooled.wrappedBuffer(this.data));
+                    PCleaner.cleaner(this, dictionary::release);
+                }
+            }
+        }
+        return dictionary;
+    }
+}
@@ -87,8 +87,8 @@ public class TileSnapshot<POS extends IFarPos, T extends IFarTile> implements IT
     }
 
     @Override
-    public ITileSnapshot<POS, T> compressed() {
-        return new CompressedTileSnapshot<>(this);
+    public ITileSnapshot<POS, T> compressed(TileDictionary dictionary) {
+        return new CompressedTileSnapshot<>(this, dictionary);
     }
 
     @Override
@@ -20,6 +20,7 @@
 
 package net.daporkchop.fp2.mode.common.ctx;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import net.daporkchop.fp2.config.FP2Config;
@@ -30,9 +31,11 @@ import net.daporkchop.fp2.mode.api.client.IFarRenderer;
 import net.daporkchop.fp2.mode.api.client.IFarTileCache;
 import net.daporkchop.fp2.mode.api.ctx.IFarClientContext;
 import net.daporkchop.fp2.mode.api.ctx.IFarWorldClient;
+import net.daporkchop.fp2.mode.api.tile.TileDictionary;
 import net.daporkchop.fp2.mode.common.client.FarTileCache;
 import net.daporkchop.fp2.util.annotation.CalledFromNetworkThread;
 
+import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
 
 /**
@@ -46,6 +49,9 @@ public abstract class AbstractFarClientContext<POS extends IFarPos, T extends IF
     protected final IFarWorldClient world;
     protected final IFarTileCache<POS, T> tileCache;
 
+    @Getter(AccessLevel.NONE)
+    protected final TileDictionary[] dictionaries = new TileDictionary[MAX_LODS];
+
     protected FP2Config config;
     protected IFarRenderer renderer;
 
@@ -65,6 +71,18 @@ public abstract class AbstractFarClientContext<POS extends IFarPos, T extends IF
 
     protected abstract IFarRenderer renderer0(IFarRenderer old, @NonNull FP2Config config);
 
+    @Override
+    public TileDictionary dictionary(int level) {
+        return this.dictionaries[level];
+    }
+
+    @CalledFromNetworkThread
+    @Override
+    public void receiveDictionary(@NonNull TileDictionary dictionary) {
+        checkState(!this.closed, "already closed!");
+        this.dictionaries[dictionary.level()] = dictionary;
+    }
+
     @CalledFromNetworkThread
     @Override
     public void notifyConfigChange(@NonNull FP2Config config) {
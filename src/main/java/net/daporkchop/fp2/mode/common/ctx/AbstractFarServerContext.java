@@ -31,10 +31,13 @@ import net.daporkchop.fp2.mode.api.ctx.IFarServerContext;
 import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
 import net.daporkchop.fp2.mode.api.player.IFarPlayerServer;
 import net.daporkchop.fp2.mode.api.server.IFarTileProvider;
+import net.daporkchop.fp2.mode.api.server.storage.IFarStorage;
 import net.daporkchop.fp2.mode.api.server.tracking.IFarTracker;
+import net.daporkchop.fp2.mode.api.tile.TileDictionary;
 import net.daporkchop.fp2.mode.api.tile.TileSnapshot;
 import net.daporkchop.fp2.net.packet.debug.server.SPacketDebugUpdateStatistics;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketTileData;
+import net.daporkchop.fp2.net.packet.standard.server.SPacketTileDictionary;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUnloadTile;
 import net.daporkchop.fp2.util.annotation.CalledFromServerThread;
 import net.daporkchop.fp2.util.annotation.DebugOnly;
@@ -45,6 +48,7 @@ import java.util.Optional;
 import java.util.TreeMap;
 
 import static net.daporkchop.fp2.debug.FP2Debug.*;
+import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
 
 /**
@@ -63,6 +67,8 @@ public abstract class AbstractFarServerContext<POS extends IFarPos, T extends IF
 
     protected final Map<POS, Optional<TileSnapshot<POS, T>>> sendQueue = new TreeMap<>();
 
+    protected final int[] sentDictionaryVersions = new int[MAX_LODS];
+
     protected FP2Config config;
 
     protected boolean closed = false;
@@ -103,6 +109,8 @@ public abstract class AbstractFarServerContext<POS extends IFarPos, T extends IF
     @Synchronized("sendQueue")
     protected void flushSendQueue() {
         if (!this.sendQueue.isEmpty()) {
+            this.sendDictionaries();
+
             this.sendQueue.forEach((pos, optionalSnapshot) -> this.player.fp2_IFarPlayer_sendPacket(optionalSnapshot.isPresent()
                     ? new SPacketTileData().mode(this.mode).tile(optionalSnapshot.get())
                     : new SPacketUnloadTile().mode(this.mode).pos(pos)));
@@ -110,6 +118,18 @@ public abstract class AbstractFarServerContext<POS extends IFarPos, T extends IF
         }
     }
 
+    protected void sendDictionaries() {
+        //make sure the client has the newest dictionary for every level before sending it any tiles, so that it can use them for compressing the tiles it receives
+        IFarStorage<POS, T> storage = this.tileProvider.storage();
+        for (int level = 0; level < MAX_LODS; level++) {
+            TileDictionary dictionary = storage.dictionary(level);
+            if (dictionary != null && dictionary.version() != this.sentDictionaryVersions[level]) {
+                this.sentDictionaryVersions[level] = dictionary.version();
+                this.player.fp2_IFarPlayer_sendPacket(new SPacketTileDictionary().mode(this.mode).dictionary(dictionary));
+            }
+        }
+    }
+
     @DebugOnly(RemovalPolicy.DROP)
     private void debugUpdate() {
         if (!FP2_DEBUG) { //debug mode not enabled, do nothing
@@ -120,7 +140,11 @@ public abstract class AbstractFarServerContext<POS extends IFarPos, T extends IF
         if (++this.debugLastUpdateSent == 20) { //send a debug statistics update packet once every 20s
             this.debugLastUpdateSent = 0;
 
-            this.player.fp2_IFarPlayer_debugSendPacket(new SPacketDebugUpdateStatistics().tracking(this.tracker.debugStats()));
+            this.player.fp2_IFarPlayer_debugSendPacket(new SPacketDebugUpdateStatistics()
+                    .tracking(this.tracker.debugStats())
+                    .storage(this.tileProvider.storage().debugStats())
+                    .scheduler(this.tileProvider.debugSchedulerStats())
+                    .throttle(this.tileProvider.debugThrottleStats()));
         }
     }
 
@@ -21,11 +21,14 @@
 package net.daporkchop.fp2.mode.common.server;
 
 import it.unimi.dsi.fastutil.objects.ObjectRBTreeSet;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.Synchronized;
+import net.daporkchop.fp2.common.util.stats.ConcurrentHistogram;
 import net.daporkchop.fp2.config.FP2Config;
+import net.daporkchop.fp2.debug.util.DebugStats;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.IFarTile;
@@ -40,19 +43,25 @@ import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage;
 import net.daporkchop.fp2.server.worldlistener.IWorldChangeListener;
 import net.daporkchop.fp2.server.worldlistener.WorldChangeListenerManager;
 import net.daporkchop.fp2.util.Constants;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
 import net.daporkchop.fp2.util.threading.ThreadingHelper;
 import net.daporkchop.fp2.util.threading.asyncblockaccess.IAsyncBlockAccess;
 import net.daporkchop.fp2.util.threading.scheduler.ApproximatelyPrioritizedSharedFutureScheduler;
 import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
-import net.daporkchop.lib.common.misc.string.PStrings;
+import net.daporkchop.fp2.util.threading.workergroup.SharedWorkerPool;
+import net.daporkchop.fp2.util.threading.workergroup.WorkerPoolThrottle;
 import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
 import net.minecraft.world.WorldServer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -66,6 +75,20 @@ import static net.daporkchop.lib.common.util.PorkUtil.*;
  */
 @Getter
 public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFarTile> implements IFarTileProvider<POS, T>, IWorldChangeListener {
+    /**
+     * The {@link SharedWorkerPool} used for generating terrain in all dimensions and render modes.
+     */
+    protected static final SharedWorkerPool TERRAIN_WORKER_POOL = new SharedWorkerPool(
+            () -> FP2Config.global().performance().terrainThreads(),
+            PThreadFactories.builder().daemon().minPriority().collapsingId().name("FP2 Terrain Worker #%d").build());
+
+    /**
+     * Limits the number of active threads in {@link #TERRAIN_WORKER_POOL} in order to prevent terrain generation from slowing down the server.
+     */
+    protected static final WorkerPoolThrottle TERRAIN_WORKER_THROTTLE = new WorkerPoolThrottle(
+            TERRAIN_WORKER_POOL,
+            () -> FP2Config.global().performance().terrainThreadsTargetTickTime());
+
     protected final WorldServer world;
     protected final IFarRenderMode<POS, T> mode;
     protected final File root;
@@ -78,10 +101,19 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
 
     protected final IFarTrackerManager<POS, T> trackerManager;
 
-    protected final Scheduler<PriorityTask<POS>, ITileHandle<POS, T>> scheduler; //TODO: make this global rather than per-mode and per-dimension
+    protected final DirtyTileRecovery<POS, T> dirtyTileRecovery;
+
+    protected final Scheduler<PriorityTask<POS>, ITileHandle<POS, T>> scheduler;
 
     protected final boolean lowResolution;
 
+    //the futures for all rough generation batches which are currently being generated, keyed by the first position in the batch
+    @Getter(AccessLevel.NONE)
+    protected final Map<POS, CompletableFuture<Void>> roughBatchesInProgress = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    protected final ConcurrentHistogram[] generationTimes = new ConcurrentHistogram[GenerationType.values().length * MAX_LODS];
+
     protected Set<POS> updatesPending = new ObjectRBTreeSet<>();
     protected long lastCompletedTick = -1L;
 
@@ -100,6 +132,10 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
 
         this.lowResolution = this.generatorRough != null && this.generatorRough.supportsLowResolution();
 
+        for (int i = 0; i < this.generationTimes.length; i++) {
+            this.generationTimes[i] = new ConcurrentHistogram();
+        }
+
         this.scaler = this.createScaler();
 
         this.root = new File(world.getChunkSaveLocation(), "fp2/" + this.mode().name().toLowerCase());
@@ -118,18 +154,24 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
                 },
                 ThreadingHelper.workerGroupBuilder()
                         .world(this.world)
-                        .threads(FP2Config.global().performance().terrainThreads())
-                        .threadFactory(PThreadFactories.builder().daemon().minPriority().collapsingId()
-                                .name(PStrings.fastFormat("FP2 %s DIM%d Worker #%%d", mode.name(), world.provider.getDimension())).build()),
-                PriorityTask.approxComparator());
+                        .pool(TERRAIN_WORKER_POOL),
+                PriorityTask.APPROX_PRIORITIES, PriorityTask.approxPriority(),
+                PriorityTask.DISTANCE_PRIORITIES, this::distancePriority);
 
         this.trackerManager = this.createTracker();
 
         WorldChangeListenerManager.add(this.world, this);
+
+        this.dirtyTileRecovery = new DirtyTileRecovery<>(this);
     }
 
     protected abstract IFarScaler<POS, T> createScaler();
 
+    protected int distancePriority(@NonNull PriorityTask<POS> task) {
+        //tasks are prioritized before the tracker manager is created, but they won't be scheduled until the constructor has returned
+        return PriorityTask.distancePriority(this.trackerManager.distanceToClosestTracker(task.pos()));
+    }
+
     protected abstract IFarTrackerManager<POS, T> createTracker();
 
     protected abstract boolean anyVanillaTerrainExistsAt(@NonNull POS pos);
@@ -156,6 +198,17 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
         return this.scheduler.schedule(this.updateTaskFor(pos));
     }
 
+    /**
+     * Gets the {@link ConcurrentHistogram} which tracks the time (in nanoseconds) spent generating tiles at the given detail level using the given {@link GenerationType}.
+     *
+     * @param type  the {@link GenerationType}
+     * @param level the detail level
+     * @return the {@link ConcurrentHistogram}
+     */
+    protected ConcurrentHistogram generationTime(@NonNull GenerationType type, int level) {
+        return this.generationTimes[type.ordinal() * MAX_LODS + checkIndex(MAX_LODS, level)];
+    }
+
     public boolean canGenerateRough(@NonNull POS pos) {
         return this.generatorRough != null && (pos.level() == 0 || this.lowResolution);
     }
@@ -202,9 +255,52 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
         return ((IAsyncBlockAccess.Holder) this.world).fp2_IAsyncBlockAccess$Holder_asyncBlockAccess();
     }
 
+    @DebugOnly
+    @Override
+    public DebugStats.Scheduler debugSchedulerStats() {
+        return this.scheduler.debugStats();
+    }
+
+    @DebugOnly
+    @Override
+    public DebugStats.Throttle debugThrottleStats() {
+        return TERRAIN_WORKER_THROTTLE.debugStats();
+    }
+
+    @DebugOnly
+    @Override
+    public Map<String, DebugStats.Tasks> debugTaskStats() {
+        List<DebugStats.Tasks> stats = this.scheduler.debugTaskStats();
+        Map<String, DebugStats.Tasks> out = new LinkedHashMap<>();
+        for (int priority = 0; priority < stats.size(); priority++) {
+            DebugStats.Tasks tasks = stats.get(priority);
+            if (tasks.queuedTasks() != 0L || tasks.deduplicatedTasks() != 0L || tasks.waitTime().count() != 0L) {
+                //priorities are assigned by PriorityTask#approxPriority()
+                out.put(TaskStage.values()[priority / MAX_LODS] + " L" + priority % MAX_LODS, tasks);
+            }
+        }
+        return out;
+    }
+
+    @DebugOnly
+    @Override
+    public Map<String, DebugStats.Histogram> debugGenerationStats() {
+        Map<String, DebugStats.Histogram> out = new LinkedHashMap<>();
+        for (GenerationType type : GenerationType.values()) {
+            for (int level = 0; level < MAX_LODS; level++) {
+                ConcurrentHistogram histogram = this.generationTime(type, level);
+                if (histogram.count() != 0L) {
+                    out.put(type + " L" + level, DebugStats.Histogram.of(histogram));
+                }
+            }
+        }
+        return out;
+    }
+
     @Override
     @SneakyThrows(IOException.class)
     public void close() {
+        this.dirtyTileRecovery.close();
         this.trackerManager.close();
 
         WorldChangeListenerManager.remove(this.world, this);
@@ -27,6 +27,7 @@ import net.daporkchop.fp2.compat.vanilla.IBlockHeightAccess;
 import net.daporkchop.fp2.config.FP2Config;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarTile;
+import net.daporkchop.fp2.mode.api.tile.DirectTileSnapshot;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
 import net.daporkchop.fp2.mode.api.tile.ITileMetadata;
 import net.daporkchop.fp2.util.SimpleRecycler;
@@ -35,7 +36,9 @@ import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.Vec3i;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -74,30 +77,35 @@ public abstract class AbstractTileTask<POS extends IFarPos, T extends IFarTile>
         long worldTimestamp = this.world.lastCompletedTick;
         checkState(worldTimestamp >= minimumTimestamp, "worldTimestamp (%d) is less than minimumTimestamp (%d)?!?", worldTimestamp, minimumTimestamp);
 
-        if (this.handle.timestamp() >= minimumTimestamp) { //break out early if already new enough
-            return this.handle;
-        }
+        //read the tile's timestamp in the background while we check for vanilla terrain
+        CompletableFuture<Long> timestampFuture = this.handle.timestampAsync();
+        boolean anyVanillaTerrainExists = this.anyVanillaTerrainExistsAt(this.pos);
+
+        //every step which has to wait for I/O or for other tiles suspends the task instead of blocking the worker thread, and returns the value returned by the
+        //  scheduler. the remainder of the step is executed by a continuation once whatever it was waiting for is complete.
+        return this.scheduler.awaitThen(timestampFuture, timestamp -> timestamp >= minimumTimestamp
+                ? this.handle //break out early if already new enough
+                : this.generate(worldTimestamp, anyVanillaTerrainExists));
+    }
 
-        if (!(FP2_DEBUG && !FP2Config.global().debug().exactGeneration()) && this.world.anyVanillaTerrainExistsAt(this.pos)) {
+    protected ITileHandle<POS, T> generate(long worldTimestamp, boolean anyVanillaTerrainExists) {
+        if (anyVanillaTerrainExists) {
             //there's some terrain at the given position, let's try to generate something with it
             if (this.pos.level() == 0) {
                 //the position is at detail level 0, do exact generation
                 try {
-                    this.generateExact(worldTimestamp, false);
-                    return this.handle;
+                    return this.generateExact(worldTimestamp, false);
                 } catch (GenerationNotAllowedException e) {
                     //the terrain existed, but wasn't populated so we don't want to use it
                 }
             } else {
                 //force the tile to be scaled, which will cause this to be executed recursively
-                this.generateScale(worldTimestamp);
-                return this.handle;
+                return this.generateScale(worldTimestamp);
             }
         }
 
         if (this.world.canGenerateRough(this.pos)) { //the tile can be generated using the rough generator
-            this.generateRough(worldTimestamp);
-            return this.handle;
+            return this.generateRough(worldTimestamp);
         }
 
         if (!this.allowNewGeneration()) { //we aren't allowed to generate any new tiles
@@ -111,34 +119,135 @@ public abstract class AbstractTileTask<POS extends IFarPos, T extends IFarTile>
         if (this.pos.level() == 0) {
             //do exact generation, allowing it to generate vanilla terrain if needed
             try {
-                this.generateExact(worldTimestamp, true);
-                return this.handle;
+                return this.generateExact(worldTimestamp, true);
             } catch (GenerationNotAllowedException e) { //impossible
                 throw new IllegalArgumentException("generation blocked while processing tile at " + this.pos, e);
             }
         } else { //this will generate the tile and all tiles below it down to level 0 until the tile can be "generated" from scaled data
-            this.generateScale(worldTimestamp);
-            return this.handle;
+            return this.generateScale(worldTimestamp);
         }
     }
 
-    protected void generateRough(long minimumTimestamp) {
+    protected boolean anyVanillaTerrainExistsAt(@NonNull POS pos) {
+        return !(FP2_DEBUG && !FP2Config.global().debug().exactGeneration()) && this.world.anyVanillaTerrainExistsAt(pos);
+    }
+
+    protected ITileHandle<POS, T> generateRough(long worldTimestamp) {
         checkArg(this.pos.level() == 0 || this.world.canGenerateRough(this.pos), "cannot do rough generation at %s!", this.pos);
 
+        List<POS> batch = this.world.generatorRough().batch(this.pos);
+        if (batch.size() > 1) {
+            //only one task may generate a batch at a time. if another task is already generating the batch containing this tile, wait for it to finish instead of
+            //  doing the same work again.
+            POS batchKey = batch.get(0);
+            CompletableFuture<Void> claim = new CompletableFuture<>();
+            CompletableFuture<Void> existingClaim = this.world.roughBatchesInProgress.putIfAbsent(batchKey, claim);
+            if (existingClaim == null) {
+                return this.generateRoughBatch(batch, worldTimestamp, () -> {
+                    this.world.roughBatchesInProgress.remove(batchKey, claim);
+                    claim.complete(null);
+                });
+            }
+
+            //once the other task is done, check whether it generated this tile as part of its batch
+            long minimumTimestamp = this.minimumTimestamp();
+            return this.scheduler.awaitThen(existingClaim.thenCompose(unused -> this.handle.timestampAsync()), timestamp -> timestamp >= minimumTimestamp
+                    ? this.handle
+                    : this.generateRoughSingle(worldTimestamp));
+        }
+
+        return this.generateRoughSingle(worldTimestamp);
+    }
+
+    protected ITileHandle<POS, T> generateRoughSingle(long worldTimestamp) {
         SimpleRecycler<T> tileRecycler = this.world.mode().tileRecycler();
         T tile = tileRecycler.allocate();
+        CompletableFuture<Boolean> setFuture;
         try {
+            long startTime = System.nanoTime();
             this.world.generatorRough().generate(this.pos, tile);
+            this.world.generationTime(GenerationType.ROUGH, this.pos.level()).record(System.nanoTime() - startTime);
 
-            this.handle.set(ITileMetadata.ofTimestamp(minimumTimestamp), tile);
-        } finally {
+            setFuture = this.handle.setAsync(ITileMetadata.ofTimestamp(worldTimestamp), tile);
+        } finally { //the tile has already been encoded, so we can release it while the write is being committed
             tileRecycler.release(tile);
         }
+        return this.scheduler.awaitThen(setFuture, result -> this.handle);
+    }
+
+    protected ITileHandle<POS, T> generateRoughBatch(@NonNull List<POS> batch, long worldTimestamp, @NonNull Runnable releaseClaim) {
+        try {
+            //read all of the tiles' timestamps at once. we wait for all of them to complete, even if some of them fail, so that the claim is always released.
+            List<ITileHandle<POS, T>> handles = batch.stream().map(this.world.storage()::handleFor).collect(Collectors.toList());
+            List<CompletableFuture<Long>> timestampFutures = handles.stream().map(ITileHandle::timestampAsync).collect(Collectors.toList());
+
+            return this.scheduler.awaitThen(CompletableFuture.allOf(timestampFutures.toArray(new CompletableFuture[0])).handle((v, t) -> null),
+                    unused -> this.generateRoughBatch(batch, handles, timestampFutures, worldTimestamp, releaseClaim));
+        } catch (Throwable t) {
+            releaseClaim.run();
+            throw t;
+        }
+    }
+
+    protected ITileHandle<POS, T> generateRoughBatch(@NonNull List<POS> batch, @NonNull List<ITileHandle<POS, T>> handles, @NonNull List<CompletableFuture<Long>> timestampFutures,
+                                                     long worldTimestamp, @NonNull Runnable releaseClaim) {
+        List<CompletableFuture<Boolean>> setFutures = new ArrayList<>(batch.size());
+        CompletableFuture<Void> setFuture;
+        try {
+            //generate this tile, along with all the other tiles in the batch which are outdated and would also be generated using the rough generator
+            List<POS> positions = new ArrayList<>(batch.size());
+            List<ITileHandle<POS, T>> positionHandles = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                POS pos = batch.get(i);
+                if (pos.equals(this.pos)
+                    || (isOutdated(handles.get(i), timestampFutures.get(i).join()) && this.world.canGenerateRough(pos) && !this.anyVanillaTerrainExistsAt(pos))) {
+                    positions.add(pos);
+                    positionHandles.add(handles.get(i));
+                }
+            }
+
+            SimpleRecycler<T> tileRecycler = this.world.mode().tileRecycler();
+            List<T> tiles = new ArrayList<>(positions.size());
+            try {
+                for (int i = 0; i < positions.size(); i++) {
+                    tiles.add(tileRecycler.allocate());
+                }
+
+                long startTime = System.nanoTime();
+                this.world.generatorRough().generate(positions, tiles);
+                long time = (System.nanoTime() - startTime) / positions.size();
+
+                for (int i = 0; i < positions.size(); i++) {
+                    this.world.generationTime(GenerationType.ROUGH, this.pos.level()).record(time);
+                    setFutures.add(positionHandles.get(i).setAsync(ITileMetadata.ofTimestamp(worldTimestamp), tiles.get(i)));
+                }
+            } finally { //the tiles have already been encoded, so we can release them while the writes are being committed
+                tiles.forEach(tileRecycler::release);
+            }
+        } finally { //other tasks waiting for the batch are released once all of the tiles have been written, or if generation failed
+            setFuture = CompletableFuture.allOf(setFutures.toArray(new CompletableFuture[0]));
+            setFuture.whenComplete((v, t) -> releaseClaim.run());
+        }
+        return this.scheduler.awaitThen(setFuture, unused -> this.handle);
     }
 
-    protected void generateExact(long minimumTimestamp, boolean allowGeneration) throws GenerationNotAllowedException {
+    /**
+     * Checks whether a tile with the given timestamp needs to be (re-)generated, i.e. it has never been generated or it's dirty.
+     * <p>
+     * This doesn't compare the timestamp against the world timestamp, since every tile written before the current tick would be older than that without needing
+     * to be regenerated.
+     *
+     * @param handle    the tile's handle
+     * @param timestamp the tile's current timestamp
+     */
+    protected static boolean isOutdated(@NonNull ITileHandle<?, ?> handle, long timestamp) {
+        return timestamp == ITileMetadata.TIMESTAMP_BLANK || handle.dirtyTimestamp() > timestamp;
+    }
+
+    protected ITileHandle<POS, T> generateExact(long minimumTimestamp, boolean allowGeneration) throws GenerationNotAllowedException {
         SimpleRecycler<T> tileRecycler = this.world.mode().tileRecycler();
         T tile = tileRecycler.allocate();
+        CompletableFuture<Boolean> setFuture;
         try {
             //prefetch terrain
             Stream<ChunkPos> columns = this.world.generatorExact().neededColumns(this.pos);
@@ -149,47 +258,80 @@ public abstract class AbstractTileTask<POS extends IFarPos, T extends IFarTile>
                     : this.world.blockAccess().prefetchWithoutGenerating(columns, cubesMappingFunction);
 
             //generate tile
+            long startTime = System.nanoTime();
             this.world.generatorExact().generate(access, this.pos, tile);
+            this.world.generationTime(GenerationType.EXACT, this.pos.level()).record(System.nanoTime() - startTime);
 
-            this.handle.set(ITileMetadata.ofTimestamp(minimumTimestamp), tile);
-        } finally {
+            setFuture = this.handle.setAsync(ITileMetadata.ofTimestamp(minimumTimestamp), tile);
+        } finally { //the tile has already been encoded, so we can release it while the write is being committed
             tileRecycler.release(tile);
         }
+        return this.scheduler.awaitThen(setFuture, result -> this.handle);
     }
 
-    protected void generateScale(long minimumTimestamp) {
-        //generate scale inputs
-        List<ITileHandle<POS, T>> srcHandles = this.scheduler.scatterGather(this.world.scaler().inputs(this.pos).map(this::taskFor).collect(Collectors.toList()));
+    protected static void releaseSnapshots(@NonNull List<? extends DirectTileSnapshot<?, ?>> snapshots) {
+        snapshots.forEach(snapshot -> {
+            if (snapshot != null) {
+                snapshot.release();
+            }
+        });
+    }
 
-        if (this.handle.timestamp() >= minimumTimestamp) { //break out early if tile is already done
-            return;
-        }
+    protected ITileHandle<POS, T> generateScale(long minimumTimestamp) {
+        //generate scale inputs, and do the actual scaling once they're all available
+        return this.scheduler.scatterGatherThen(this.world.scaler().inputs(this.pos).map(this::taskFor).collect(Collectors.toList()),
+                srcHandles -> this.scale(srcHandles, minimumTimestamp));
+    }
 
-        //inflate sources
-        SimpleRecycler<T> tileRecycler = this.world.mode().tileRecycler();
-        T[] srcs = this.world.mode().tileArray(srcHandles.size());
-        for (int i = 0; i < srcHandles.size(); i++) {
-            srcs[i] = srcHandles.get(i).snapshot().loadTile(tileRecycler);
-        }
+    protected ITileHandle<POS, T> scale(@NonNull List<ITileHandle<POS, T>> srcHandles, long minimumTimestamp) {
+        //start reading all sources at once, while we check whether the tile is already done. we wait for both to complete, even if one of them fails, so that
+        //  the snapshots are always released.
+        CompletableFuture<List<DirectTileSnapshot<POS, T>>> srcSnapshotsFuture = this.world.storage().multiSnapshotDirectAsync(srcHandles.stream().map(ITileHandle::pos).collect(Collectors.toList()));
+        CompletableFuture<Long> timestampFuture = this.handle.timestampAsync();
 
-        if (this.handle.timestamp() >= minimumTimestamp) { //break out early if tile is already done
-            return;
-        }
+        return this.scheduler.awaitThen(CompletableFuture.allOf(srcSnapshotsFuture, timestampFuture).handle((v, t) -> null), unused -> {
+            List<DirectTileSnapshot<POS, T>> srcSnapshots = srcSnapshotsFuture.join();
 
-        T dst = tileRecycler.allocate();
-        try {
-            //actually do scaling
-            this.world.scaler().scale(srcs, dst);
-
-            this.handle.set(ITileMetadata.ofTimestamp(minimumTimestamp), dst);
-        } finally {
-            tileRecycler.release(dst);
-            for (T src : srcs) {
-                if (src != null) {
-                    tileRecycler.release(src);
+            SimpleRecycler<T> tileRecycler = this.world.mode().tileRecycler();
+            T[] srcs = this.world.mode().tileArray(srcSnapshots.size());
+            CompletableFuture<Boolean> setFuture;
+            try {
+                try {
+                    if (timestampFuture.join() >= minimumTimestamp) { //break out early if tile is already done
+                        return this.handle;
+                    }
+
+                    //inflate sources
+                    for (int i = 0; i < srcSnapshots.size(); i++) {
+                        DirectTileSnapshot<POS, T> srcSnapshot = srcSnapshots.get(i);
+                        if (srcSnapshot != null) { //the source tile may not exist, in which case it's treated the same as an empty one
+                            srcs[i] = srcSnapshot.loadTile(tileRecycler);
+                        }
+                    }
+                } finally { //release snapshots, we don't need them any more
+                    releaseSnapshots(srcSnapshots);
+                }
+
+                T dst = tileRecycler.allocate();
+                try {
+                    //actually do scaling
+                    long startTime = System.nanoTime();
+                    this.world.scaler().scale(srcs, dst);
+                    this.world.generationTime(GenerationType.SCALE, this.pos.level()).record(System.nanoTime() - startTime);
+
+                    setFuture = this.handle.setAsync(ITileMetadata.ofTimestamp(minimumTimestamp), dst);
+                } finally {
+                    tileRecycler.release(dst);
+                }
+            } finally { //the new tile has already been encoded, so we can release the sources while the write is being committed
+                for (T src : srcs) {
+                    if (src != null) {
+                        tileRecycler.release(src);
+                    }
                 }
             }
-        }
+            return this.scheduler.awaitThen(setFuture, result -> this.handle);
+        });
     }
 
     /**
@@ -0,0 +1,155 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.config.FP2Config;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarTile;
+import net.daporkchop.fp2.mode.api.server.storage.IFarStorage;
+import net.daporkchop.lib.common.misc.string.PStrings;
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static net.daporkchop.fp2.util.Constants.*;
+
+/**
+ * Re-schedules updates for all tiles which were left dirty when the world was last closed.
+ * <p>
+ * Dirty positions are read in parallel from the shards returned by {@link IFarStorage#dirtyPosShards(int)}. Shards are claimed in order, so tiles are scheduled
+ * in approximately ascending order of detail level, which matches the order in which the scheduler prioritizes update tasks. The number of scheduled updates
+ * which haven't yet completed is limited, so that a large backlog doesn't flood the scheduler's queue.
+ * <p>
+ * Recovery runs entirely on background threads and doesn't block the world from loading. It needs no state of its own in order to be resumed: dirty timestamps
+ * are only removed from the storage once the tile has been updated, so if the world is closed before recovery finishes, the remaining tiles will simply be
+ * found again the next time it's loaded.
+ *
+ * @author DaPorkchop_
+ */
+public class DirtyTileRecovery<POS extends IFarPos, T extends IFarTile> implements AutoCloseable {
+    protected final AbstractFarTileProvider<POS, T> provider;
+
+    protected final int threads = FP2Config.global().performance().storageThreads();
+    protected final ExecutorService executor;
+
+    //each terrain thread should always have a few recovered updates queued, but any more than that would only take up memory
+    protected final Semaphore inFlight = new Semaphore(FP2Config.global().performance().terrainThreads() << 2);
+    //each in-flight update is keyed by a unique token rather than by its future, since updates for the same position share a single future
+    protected final Map<Object, CompletableFuture<?>> inFlightUpdates = new ConcurrentHashMap<>();
+
+    protected final AtomicInteger nextShard = new AtomicInteger();
+    protected final AtomicLong recovered = new AtomicLong();
+
+    protected volatile boolean closed;
+
+    public DirtyTileRecovery(@NonNull AbstractFarTileProvider<POS, T> provider) {
+        this.provider = provider;
+
+        this.executor = Executors.newFixedThreadPool(this.threads, PThreadFactories.builder().daemon().minPriority().collapsingId()
+                .name(PStrings.fastFormat("FP2 %s DIM%d Dirty Tile Recovery #%%d", provider.mode().name(), provider.world().provider.getDimension())).build());
+
+        CompletableFuture.supplyAsync(() -> provider.storage().dirtyPosShards(this.threads << 2), this.executor)
+                .thenCompose(shards -> CompletableFuture.allOf(IntStream.range(0, this.threads)
+                        .mapToObj(i -> CompletableFuture.runAsync(() -> this.drain(shards), this.executor))
+                        .toArray(CompletableFuture[]::new)))
+                .whenComplete((v, t) -> {
+                    if (t != null) {
+                        FP2_LOG.error(PStrings.fastFormat("dirty tile recovery failed in %s DIM%d", provider.mode().name(), provider.world().provider.getDimension()), t);
+                    } else if (this.recovered.get() != 0L) {
+                        FP2_LOG.info("Scheduled updates for {} dirty {} tiles in DIM{}", this.recovered.get(), provider.mode().name(), provider.world().provider.getDimension());
+                    }
+
+                    this.executor.shutdown();
+                });
+    }
+
+    protected void drain(@NonNull List<Stream<POS>> shards) {
+        for (int shard; !this.closed && (shard = this.nextShard.getAndIncrement()) < shards.size(); ) {
+            try (Stream<POS> positions = shards.get(shard)) {
+                for (Iterator<POS> itr = positions.iterator(); !this.closed && itr.hasNext(); ) {
+                    POS pos = itr.next();
+
+                    try {
+                        this.inFlight.acquire();
+                    } catch (InterruptedException e) { //we're being shut down
+                        return;
+                    }
+
+                    this.recovered.incrementAndGet();
+
+                    Object token = new Object();
+                    CompletableFuture<?> future = this.provider.requestUpdate(pos);
+                    this.inFlightUpdates.put(token, future);
+                    future.whenComplete((handle, t) -> this.release(token));
+                }
+            }
+        }
+    }
+
+    protected boolean release(@NonNull Object token) {
+        if (this.inFlightUpdates.remove(token) != null) { //the update was still in flight, release its permit
+            this.inFlight.release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stops recovery, blocking until all threads have exited.
+     * <p>
+     * Any updates which were scheduled by recovery and haven't completed yet are cancelled. This is safe, since their tiles will still be dirty the next time the
+     * world is loaded.
+     * <p>
+     * Must be called before the tile provider's scheduler or storage are closed.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+
+        this.executor.shutdownNow();
+        try {
+            this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        //no more updates can be scheduled now, release the ones which are still in flight. a task which is shared with another requester won't actually be
+        //  cancelled, and its future may never complete if the scheduler is closed before it runs, so we can't rely on whenComplete to release the permit.
+        this.inFlightUpdates.forEach((token, future) -> {
+            if (this.release(token)) {
+                future.cancel(false);
+            }
+        });
+    }
+}
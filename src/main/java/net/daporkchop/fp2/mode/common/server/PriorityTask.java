@@ -23,8 +23,11 @@ package net.daporkchop.fp2.mode.common.server;
 import lombok.NonNull;
 import net.daporkchop.fp2.mode.api.IFarPos;
 
-import java.util.Comparator;
+import java.util.function.ToIntFunction;
 
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
 import static net.daporkchop.lib.common.util.PorkUtil.*;
 
 /**
@@ -33,25 +36,46 @@ import static net.daporkchop.lib.common.util.PorkUtil.*;
  * @author DaPorkchop_
  */
 public interface PriorityTask<POS extends IFarPos> {
+    /**
+     * The number of distinct values which may be returned by {@link #approxPriority()}.
+     */
+    int APPROX_PRIORITIES = TaskStage.values().length * MAX_LODS;
+
     /**
      * @deprecated internal API, do not touch!
      */
     @Deprecated
     @SuppressWarnings("DeprecatedIsStillUsed")
-    Comparator<PriorityTask<?>> _APPROX_COMPARATOR = (a, b) -> {
-        int d;
-        if ((d = a.stage().compareTo(b.stage())) == 0) {
-            d = Integer.compare(a.pos().level(), b.pos().level());
-        }
-        return d;
-    };
+    ToIntFunction<PriorityTask<?>> _APPROX_PRIORITY = task -> task.stage().ordinal() * MAX_LODS + task.pos().level();
 
     /**
-     * @return a {@link Comparator} which is able to do approximate comparisons between {@link PriorityTask}s
+     * Gets a function which approximately prioritizes {@link PriorityTask}s by their stage, followed by their detail level.
+     * <p>
+     * Lower values indicate a higher priority. All values are in range {@code [0, }{@link #APPROX_PRIORITIES}{@code )}.
+     *
+     * @return a function which maps {@link PriorityTask}s to an approximate priority
      */
     @SuppressWarnings("Deprecation")
-    static <POS extends IFarPos> Comparator<PriorityTask<POS>> approxComparator() {
-        return uncheckedCast(_APPROX_COMPARATOR);
+    static <POS extends IFarPos> ToIntFunction<PriorityTask<POS>> approxPriority() {
+        return uncheckedCast(_APPROX_PRIORITY);
+    }
+
+    /**
+     * The number of distinct values which may be returned by {@link #distancePriority(int)}.
+     */
+    int DISTANCE_PRIORITIES = 16;
+
+    /**
+     * Gets the approximate priority of a task based on its tile's distance from the closest player.
+     * <p>
+     * Distances are bucketed logarithmically, so that tasks near a player are ordered more precisely than distant ones. Lower values indicate a higher priority.
+     * All values are in range {@code [0, }{@link #DISTANCE_PRIORITIES}{@code )}.
+     *
+     * @param distance the distance between the task's tile and the closest player, measured in tiles at the tile's detail level
+     * @return the task's priority
+     */
+    static int distancePriority(int distance) {
+        return min(32 - Integer.numberOfLeadingZeros(notNegative(distance, "distance")), DISTANCE_PRIORITIES - 1);
     }
 
     /**
@@ -0,0 +1,244 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import net.daporkchop.fp2.config.FP2Config;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A RocksDB instance, which may be shared between multiple {@link RocksStorage}s.
+ * <p>
+ * Column families are created on demand, and all column families which already exist are opened together with the db. The options for each column family are
+ * determined from its name using {@link RocksStorage#columnFamilyOptions(String)}.
+ * <p>
+ * Each db also owns the thread pool on which its storages run their asynchronous operations. The pool is shut down when the db is closed, after all tasks which
+ * were already submitted to it have finished.
+ *
+ * @author DaPorkchop_
+ */
+public final class RocksDatabase {
+    private static final Map<File, RocksDatabase> SHARED_DATABASES = new HashMap<>();
+
+    /**
+     * Opens the db at the given directory for exclusive use by a single {@link RocksStorage}.
+     *
+     * @param root the directory containing the db
+     * @return the opened {@link RocksDatabase}
+     */
+    public static RocksDatabase openExclusive(@NonNull File root) {
+        return new RocksDatabase(root, false);
+    }
+
+    /**
+     * Gets a reference to the shared db at the given directory, opening it if it isn't already open.
+     * <p>
+     * The db will remain open until every reference to it has been {@link #close() closed}.
+     *
+     * @param root the directory containing the db
+     * @return the {@link RocksDatabase}
+     */
+    public static RocksDatabase openShared(@NonNull File root) {
+        synchronized (SHARED_DATABASES) {
+            RocksDatabase database = SHARED_DATABASES.get(root.getAbsoluteFile());
+            if (database != null) {
+                database.refCnt++;
+            } else {
+                SHARED_DATABASES.put(root.getAbsoluteFile(), database = new RocksDatabase(root.getAbsoluteFile(), true));
+            }
+            return database;
+        }
+    }
+
+    /**
+     * Gets an additional reference to the shared db at the given directory, but only if it's already open.
+     * <p>
+     * If a {@link RocksDatabase} is returned, the reference must be {@link #close() closed} once it's no longer needed.
+     *
+     * @param root the directory containing the db
+     * @return the {@link RocksDatabase}, or {@code null} if it isn't open
+     */
+    public static RocksDatabase retainShared(@NonNull File root) {
+        synchronized (SHARED_DATABASES) {
+            RocksDatabase database = SHARED_DATABASES.get(root.getAbsoluteFile());
+            if (database != null) {
+                database.refCnt++;
+            }
+            return database;
+        }
+    }
+
+    @Getter
+    private final File root;
+    @Getter
+    private final boolean shared;
+
+    @Getter
+    private final RocksDB db;
+    @Getter
+    private final ColumnFamilyHandle defaultColumnFamily;
+    private final Map<String, ColumnFamilyHandle> columnFamilies = new HashMap<>();
+
+    @Getter
+    private final ScheduledExecutorService executor;
+
+    private int refCnt = 1; //guarded by SHARED_DATABASES
+
+    @SneakyThrows(RocksDBException.class)
+    private RocksDatabase(@NonNull File root, boolean shared) {
+        this.root = root;
+        this.shared = shared;
+
+        PFiles.ensureDirectoryExists(root);
+
+        //find the names of all the column families which already exist, as they all have to be opened together with the db
+        List<byte[]> existingNames = Collections.emptyList();
+        if (PFiles.checkFileExists(new File(root, "CURRENT"))) {
+            try (Options options = new Options()) {
+                existingNames = RocksDB.listColumnFamilies(options, root.getPath());
+            }
+        }
+
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<>(existingNames.size() + 1);
+        descriptors.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, CF_OPTIONS));
+        for (byte[] name : existingNames) {
+            if (!Arrays.equals(name, RocksDB.DEFAULT_COLUMN_FAMILY)) {
+                descriptors.add(new ColumnFamilyDescriptor(name, columnFamilyOptions(new String(name, StandardCharsets.UTF_8))));
+            }
+        }
+
+        List<ColumnFamilyHandle> handles = new ArrayList<>(descriptors.size());
+        this.db = RocksDB.open(DB_OPTIONS, root.getPath(), descriptors, handles);
+
+        this.defaultColumnFamily = handles.get(0);
+        for (int i = 1; i < descriptors.size(); i++) {
+            this.columnFamilies.put(new String(descriptors.get(i).getName(), StandardCharsets.UTF_8), handles.get(i));
+        }
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(FP2Config.global().performance().storageThreads(),
+                PThreadFactories.builder().daemon().collapsingId().name("FP2 Storage I/O #%d").build());
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false); //periodic tasks (e.g. flushes) shouldn't keep running once the db is closing
+        executor.setRemoveOnCancelPolicy(true);
+        this.executor = executor;
+    }
+
+    /**
+     * @return the names of all column families in the db, excluding the default column family
+     */
+    public synchronized List<String> columnFamilyNames() {
+        return new ArrayList<>(this.columnFamilies.keySet());
+    }
+
+    /**
+     * Checks whether or not the column family with the given name exists.
+     *
+     * @param name the column family's name
+     */
+    public synchronized boolean hasColumnFamily(@NonNull String name) {
+        return this.columnFamilies.containsKey(name);
+    }
+
+    /**
+     * Gets the column family with the given name, creating it if it doesn't already exist.
+     *
+     * @param name the column family's name
+     * @return a {@link ColumnFamilyHandle} for the column family
+     */
+    @SneakyThrows(RocksDBException.class)
+    public synchronized ColumnFamilyHandle columnFamily(@NonNull String name) {
+        ColumnFamilyHandle handle = this.columnFamilies.get(name);
+        if (handle == null) {
+            handle = this.db.createColumnFamily(new ColumnFamilyDescriptor(name.getBytes(StandardCharsets.UTF_8), columnFamilyOptions(name)));
+            this.columnFamilies.put(name, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Drops the column family with the given name, if it exists.
+     *
+     * @param name the column family's name
+     */
+    @SneakyThrows(RocksDBException.class)
+    public synchronized void dropColumnFamily(@NonNull String name) {
+        ColumnFamilyHandle handle = this.columnFamilies.remove(name);
+        if (handle != null) {
+            this.db.dropColumnFamily(handle);
+            handle.close();
+        }
+    }
+
+    /**
+     * Releases this reference to the db. Once all references have been released, the db's {@link #executor()} is shut down, all column families are flushed and the
+     * db is closed.
+     */
+    @SneakyThrows({ InterruptedException.class, RocksDBException.class })
+    public void close() {
+        synchronized (SHARED_DATABASES) {
+            checkState(this.refCnt > 0, "already closed!");
+            if (--this.refCnt != 0) { //the db is still being used by someone else
+                return;
+            }
+
+            if (this.shared) {
+                SHARED_DATABASES.remove(this.root);
+            }
+        }
+
+        //let any tasks which were already submitted finish, since they may still need to access the db
+        this.executor.shutdown();
+        while (!this.executor.awaitTermination(1L, TimeUnit.MINUTES)) {
+        }
+
+        synchronized (this) {
+            List<ColumnFamilyHandle> handles = new ArrayList<>(this.columnFamilies.values());
+            handles.add(this.defaultColumnFamily);
+
+            this.db.flush(FLUSH_OPTIONS, handles);
+            handles.forEach(ColumnFamilyHandle::close); //close column families before db
+            this.columnFamilies.clear();
+            this.db.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.fp2.mode.api.tile.TileDictionary;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompressionOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.LRUCache;
+
+/**
+ * Factory methods for the RocksDB options used by {@link RocksStorage}.
+ * <p>
+ * Unlike {@link RocksStorage}, this class doesn't read anything from the config, so it can also be used by tools which run outside of the game (see
+ * {@link RocksStorageMaintenance}).
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class RocksOptions {
+    /**
+     * Creates the table format configuration for a column family.
+     *
+     * @param blockCache      the block cache to use, or {@code null} to use RocksDB's default block cache
+     * @param bloomFilterBits the number of bits per key to use for the column family's bloom filter, or {@code 0} if it shouldn't have one
+     */
+    public BlockBasedTableConfig tableFormatConfig(LRUCache blockCache, int bloomFilterBits) {
+        BlockBasedTableConfig config = new BlockBasedTableConfig();
+        if (blockCache != null) {
+            config.setBlockCache(blockCache);
+        }
+        if (bloomFilterBits > 0) {
+            config.setFilterPolicy(new BloomFilter(bloomFilterBits, false));
+        }
+        return config;
+    }
+
+    /**
+     * Creates the options for column families which store small amounts of metadata.
+     */
+    public ColumnFamilyOptions metadataColumnFamilyOptions(@NonNull BlockBasedTableConfig tableFormatConfig) {
+        return new ColumnFamilyOptions()
+                .setCompressionType(CompressionType.ZSTD_COMPRESSION)
+                .setTableFormatConfig(tableFormatConfig);
+    }
+
+    /**
+     * Creates the options for the dirty timestamp column family.
+     * <p>
+     * Dirty timestamps are combined using RocksDB's built-in {@code max} merge operator, which keeps the value which is greatest when compared byte-wise. Dirty
+     * timestamps are therefore encoded such that their byte-wise order matches their numeric order (see {@link RocksStorage#encodeDirtyTimestamp(long)}), which
+     * allows tiles to be marked as dirty using blind writes without having to read or lock anything.
+     */
+    public ColumnFamilyOptions dirtyTimestampColumnFamilyOptions(@NonNull BlockBasedTableConfig tableFormatConfig) {
+        return metadataColumnFamilyOptions(tableFormatConfig)
+                .setMergeOperatorName("max");
+    }
+
+    /**
+     * Creates the options for the tile column family.
+     * <p>
+     * Tile data is small and highly self-similar, so we have RocksDB train a zstd dictionary for each SST file. Since keys are prefixed with the tile's level, each
+     * file will mostly contain tiles from a single level, which results in the dictionaries effectively being trained per-level.
+     */
+    public ColumnFamilyOptions tileColumnFamilyOptions(@NonNull BlockBasedTableConfig tableFormatConfig) {
+        return new ColumnFamilyOptions()
+                .setCompressionType(CompressionType.ZSTD_COMPRESSION)
+                .setCompressionOptions(new CompressionOptions()
+                        .setMaxDictBytes(TileDictionary.MAX_SIZE)
+                        .setZStdMaxTrainBytes(TileDictionary.MAX_SIZE * 100))
+                .setBottommostCompressionType(CompressionType.ZSTD_COMPRESSION)
+                .setBottommostCompressionOptions(new CompressionOptions()
+                        .setEnabled(true)
+                        .setMaxDictBytes(TileDictionary.MAX_SIZE)
+                        .setZStdMaxTrainBytes(TileDictionary.MAX_SIZE * 100))
+                .setTableFormatConfig(tableFormatConfig);
+    }
+}
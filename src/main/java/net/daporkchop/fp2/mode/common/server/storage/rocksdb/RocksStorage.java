@@ -20,294 +20,2300 @@
 
 package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import net.daporkchop.fp2.config.FP2Config;
+import net.daporkchop.fp2.debug.util.DebugStats;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.server.storage.IFarStorage;
+import net.daporkchop.fp2.mode.api.tile.DirectTileSnapshot;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
+import net.daporkchop.fp2.mode.api.tile.ITileMetadata;
+import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
+import net.daporkchop.fp2.mode.api.tile.TileDictionary;
+import net.daporkchop.fp2.mode.api.tile.TileSnapshot;
 import net.daporkchop.fp2.mode.common.server.AbstractFarTileProvider;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
+import net.daporkchop.fp2.util.math.IntAxisAlignedBB;
 import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.lib.common.misc.string.PStrings;
 import net.daporkchop.lib.common.system.PlatformInfo;
 import net.daporkchop.lib.unsafe.PUnsafe;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.ByteBufferGetStatus;
 import org.rocksdb.ColumnFamilyDescriptor;
 import org.rocksdb.ColumnFamilyHandle;
 import org.rocksdb.ColumnFamilyOptions;
-import org.rocksdb.CompressionType;
 import org.rocksdb.DBOptions;
 import org.rocksdb.FlushOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.RateLimiter;
 import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
-import org.rocksdb.Transaction;
-import org.rocksdb.TransactionDB;
-import org.rocksdb.TransactionDBOptions;
+import org.rocksdb.Snapshot;
+import org.rocksdb.Status;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteBufferManager;
 import org.rocksdb.WriteOptions;
 
 import java.io.File;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.lang.Math.*;
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Spliterator.*;
 import static net.daporkchop.fp2.mode.api.tile.ITileMetadata.*;
+import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
 
 /**
  * @author DaPorkchop_
  */
 public class RocksStorage<POS extends IFarPos, T extends IFarTile> implements IFarStorage<POS, T> {
+    /**
+     * The block cache shared by all open storages, or {@code null} if each db should use RocksDB's default block cache.
+     * <p>
+     * All of the storage options are read from the config only once, which is why they all require a restart of the game to be changed.
+     */
+    protected static final LRUCache BLOCK_CACHE = FP2Config.global().performance().storageBlockCacheSize() > 0
+            ? new LRUCache(FP2Config.global().performance().storageBlockCacheSize() * (1L << 20L))
+            : null;
+
     protected static final DBOptions DB_OPTIONS = new DBOptions()
             .setCreateIfMissing(true)
             .setCreateMissingColumnFamilies(true)
             .setAllowConcurrentMemtableWrite(true)
-            .setKeepLogFileNum(1L);
+            .setKeepLogFileNum(1L)
+            .setMaxBackgroundJobs(FP2Config.global().performance().storageBackgroundThreads());
+
+    static {
+        if (FP2Config.global().performance().storageRateLimit() > 0) {
+            DB_OPTIONS.setRateLimiter(new RateLimiter(FP2Config.global().performance().storageRateLimit() * (1L << 20L)));
+        }
+        if (FP2Config.global().performance().storageMemtableBudget() > 0) { //limit the total memtable size of all dbs, charging it to the block cache if possible
+            long budget = FP2Config.global().performance().storageMemtableBudget() * (1L << 20L);
+            DB_OPTIONS.setWriteBufferManager(new WriteBufferManager(budget, BLOCK_CACHE != null ? BLOCK_CACHE : new LRUCache(budget)));
+        }
+    }
+
+    protected static final ColumnFamilyOptions CF_OPTIONS = RocksOptions.metadataColumnFamilyOptions(
+            tableFormatConfig(FP2Config.global().performance().storageMetadataBloomFilterBits()));
+
+    /**
+     * @see RocksOptions#dirtyTimestampColumnFamilyOptions(BlockBasedTableConfig)
+     */
+    protected static final ColumnFamilyOptions DIRTY_TIMESTAMP_CF_OPTIONS = RocksOptions.dirtyTimestampColumnFamilyOptions(
+            tableFormatConfig(FP2Config.global().performance().storageMetadataBloomFilterBits()));
+
+    /**
+     * @see RocksOptions#tileColumnFamilyOptions(BlockBasedTableConfig)
+     */
+    protected static final ColumnFamilyOptions TILE_CF_OPTIONS = RocksOptions.tileColumnFamilyOptions(
+            tableFormatConfig(FP2Config.global().performance().storageTileBloomFilterBits()));
+
+    protected static final ReadOptions READ_OPTIONS = new ReadOptions();
+    protected static final WriteOptions WRITE_OPTIONS = new WriteOptions()
+            .setDisableWAL(!FP2Config.global().performance().storageWriteAheadLog());
+    //migrations always write to the WAL, so that their progress markers can't be persisted without the values they refer to (or vice versa)
+    protected static final WriteOptions MIGRATION_WRITE_OPTIONS = new WriteOptions();
+
+    protected static final FlushOptions FLUSH_OPTIONS = new FlushOptions().setWaitForFlush(true).setAllowWriteStall(true);
+    protected static final FlushOptions BACKGROUND_FLUSH_OPTIONS = new FlushOptions().setWaitForFlush(false).setAllowWriteStall(true);
+
+    protected static final String COLUMN_NAME_TILE = "tile";
+    protected static final String COLUMN_NAME_TILE_DIRTY_TIMESTAMP = "tile_dirty_timestamp";
+    protected static final String COLUMN_NAME_ANY_VANILLA_EXISTS = "tile_any_vanilla_terrain_exists";
+    protected static final String COLUMN_NAME_TILE_PAYLOAD = "tile_payload";
+    protected static final String COLUMN_NAME_TILE_PAYLOAD_REFCOUNT = "tile_payload_refcount";
+
+    //column families which only exist in v4 storages, and are only used for migrating them
+    protected static final String LEGACY_COLUMN_NAME_TILE_TIMESTAMP = "tile_timestamp";
+    protected static final String LEGACY_COLUMN_NAME_TILE_DATA = "tile_data";
+
+    /**
+     * The minimum amount of time between progress messages while a storage is being migrated, in nanoseconds.
+     */
+    protected static final long MIGRATION_PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(10L);
+
+    /**
+     * Key in the default column family which is present if the dirty timestamps are encoded using {@link #encodeDirtyTimestamp(long)}. If absent, they're stored
+     * using the legacy little-endian encoding and need to be converted.
+     * <p>
+     * In a shared db, the key is prefixed with the storage's column family name prefix.
+     */
+    protected static final String KEY_DIRTY_TIMESTAMP_ENCODING = "dirty_timestamp_encoding";
+
+    /**
+     * Key in the default column family which contains the {@link IFarRenderMode#storageVersion() storage version} that the values in the {@code tile} column
+     * family are encoded with. If absent, the values were written before the header contained any flags and need to be converted (see
+     * {@link #migrateTileHeaders()}).
+     * <p>
+     * In a shared db, the key is prefixed with the storage's column family name prefix.
+     */
+    protected static final String KEY_STORAGE_VERSION = "storage_version";
+
+    /**
+     * Key in the default column family which contains the key of the last tile converted by {@link #migrateTileHeaders()}, if the conversion has been
+     * interrupted.
+     * <p>
+     * In a shared db, the key is prefixed with the storage's column family name prefix.
+     */
+    protected static final String KEY_TILE_HEADER_MIGRATION_PROGRESS = "tile_header_migration_progress";
+
+    /**
+     * The name of the directory (relative to the world's save directory) containing the db which is shared by all storages if
+     * {@link FP2Config.Performance#storageSharedDatabase()} is enabled.
+     */
+    protected static final String SHARED_DATABASE_DIRECTORY = "fp2/shared";
+
+    /**
+     * The size of the header at the start of each value in the {@code tile} column family.
+     * <p>
+     * The header consists of the tile's timestamp as a little-endian {@code long} followed by a single byte of flags (see {@link #TILE_FLAG_PAYLOAD_REFERENCE}),
+     * and is followed by the encoded tile data (which is absent if the tile is empty). Storing both together allows a tile to be read coherently using a single
+     * point lookup.
+     */
+    protected static final int TILE_HEADER_SIZE = Long.BYTES + 1;
+
+    /**
+     * The offset of the flags byte in the header of a value in the {@code tile} column family.
+     */
+    protected static final int TILE_HEADER_FLAGS_OFFSET = Long.BYTES;
+
+    /**
+     * The size of the header at the start of each value in the {@code tile} column family of storages which haven't been converted by
+     * {@link #migrateTileHeaders()} yet. These headers only contain the tile's timestamp.
+     */
+    protected static final int LEGACY_TILE_HEADER_SIZE = Long.BYTES;
+
+    /**
+     * Header flag which indicates that the value is a reference to a shared payload (see {@link #PAYLOAD_ID_SIZE}) rather than the tile data itself.
+     */
+    protected static final int TILE_FLAG_PAYLOAD_REFERENCE = 1 << 0;
+
+    /**
+     * The size of the ID of a shared tile payload.
+     * <p>
+     * A tile's data may be stored in the {@code tile_payload} column family rather than in its own value, in which case the value in the {@code tile} column
+     * family consists of the header (with {@link #TILE_FLAG_PAYLOAD_REFERENCE} set) followed by the payload's ID, which is the first {@code PAYLOAD_ID_SIZE}
+     * bytes of the SHA-256 hash of the tile data. Payloads are shared by every tile whose data is identical, and are deleted once the last tile referencing them
+     * is removed. The number of tiles referencing each payload is stored in the {@code tile_payload_refcount} column family.
+     */
+    protected static final int PAYLOAD_ID_SIZE = 16;
+
+    /**
+     * The maximum number of shared payloads which are kept in memory by each storage.
+     */
+    protected static final int PAYLOAD_CACHE_SIZE = 256;
+
+    /**
+     * The maximum number of tile writes which will be committed together in a single transaction.
+     */
+    protected static final int WRITE_BATCH_MAX_SIZE = 1024;
+
+    /**
+     * The initial number of bytes to preallocate when reading tile data into a direct buffer. This grows to fit the largest value which has been read.
+     */
+    protected static final int DIRECT_READ_INITIAL_SIZE = 4096;
+
+    /**
+     * The approximate number of bytes of heap memory occupied by an entry in the snapshot cache, not counting the cached value itself.
+     */
+    protected static final int SNAPSHOT_CACHE_ENTRY_OVERHEAD = 128;
+
+    /**
+     * The maximum number of levels above a tile's own level that a single range scan may cover (see {@link #forEachTileIn(IFarPos, int, Consumer)}).
+     * <p>
+     * Voxel keys only interleave the lower 21 bits of each coordinate in their low word, so this must stay below that for cells to remain contiguous.
+     */
+    public static final int RANGE_SCAN_MAX_CELL_SHIFT = 16;
+
+    /**
+     * The version of the format used for storing {@link TileDictionary tile dictionaries} on disk. Dictionary files with a different format version will be ignored.
+     */
+    protected static final int DICTIONARY_FORMAT_VERSION = 2;
+
+    /**
+     * The minimum number of tiles which must be written at a given level before a {@link TileDictionary} will be built for it.
+     */
+    protected static final int DICTIONARY_MIN_SAMPLES = 256;
+
+    /**
+     * The number of tiles sampled when building a {@link TileDictionary}. Once a level's dictionary has been built from this many samples, it won't be rebuilt
+     * again.
+     */
+    protected static final int DICTIONARY_MAX_SAMPLES = 4096;
+
+    //
+    // rocksdb helper methods
+    //
+
+    @SneakyThrows(RocksDBException.class)
+    protected static ByteBuf get(@NonNull RocksDB db, @NonNull ReadOptions readOptions, @NonNull ColumnFamilyHandle handle, @NonNull ByteBuf key, int preallocateBytes) {
+        ByteBuffer keyNioBuffer = key.nioBuffer();
+
+        ByteBuf value = ByteBufAllocator.DEFAULT.directBuffer(preallocateBytes);
+
+        int len = db.get(handle, readOptions, keyNioBuffer, value.nioBuffer(value.readerIndex(), value.capacity()));
+
+        if (len == RocksDB.NOT_FOUND) { //value wasn't found
+            value.release();
+            return null;
+        } else if (len > value.writableBytes()) { //value was found, but is bigger than the buffer
+            //grow buffer to required size and try again
+            value.ensureWritable(len);
+
+            keyNioBuffer.rewind();
+            len = db.get(handle, readOptions, keyNioBuffer, value.nioBuffer(value.readerIndex(), value.capacity()));
+        }
+        return value.writerIndex(len);
+    }
+
+    @SneakyThrows(RocksDBException.class)
+    protected static void put(@NonNull RocksDB db, @NonNull ColumnFamilyHandle handle, @NonNull ByteBuf key, @NonNull ByteBuf value) {
+        db.put(handle, WRITE_OPTIONS, key.nioBuffer(), value.nioBuffer());
+    }
+
+    @SneakyThrows(RocksDBException.class)
+    protected static void delete(@NonNull RocksDB db, @NonNull ColumnFamilyHandle handle, @NonNull ByteBuf key) {
+        db.delete(handle, WRITE_OPTIONS, key.nioBuffer());
+    }
+
+    protected static long readLongLE(@NonNull byte[] src) {
+        return readLongLE(src, 0);
+    }
+
+    protected static long readLongLE(@NonNull byte[] src, int index) {
+        checkRangeLen(src.length, index, Long.BYTES);
 
-    protected static final TransactionDBOptions TX_DB_OPTIONS = new TransactionDBOptions();
+        long val = PUnsafe.getLong(src, PUnsafe.ARRAY_BYTE_BASE_OFFSET + index);
+        return PlatformInfo.IS_BIG_ENDIAN ? Long.reverseBytes(val) : val;
+    }
+
+    protected static byte[] writeLongLE(long val) {
+        byte[] dst = new byte[Long.BYTES];
+        writeLongLE(dst, 0, val);
+        return dst;
+    }
+
+    protected static void writeLongLE(@NonNull byte[] dst, int index, long val) {
+        checkRangeLen(dst.length, index, Long.BYTES);
+
+        PUnsafe.putLong(dst, PUnsafe.ARRAY_BYTE_BASE_OFFSET + index, PlatformInfo.IS_BIG_ENDIAN ? Long.reverseBytes(val) : val);
+    }
+
+    /**
+     * Encodes a dirty timestamp such that the byte-wise order of the encoded values matches the numeric order of the timestamps.
+     * <p>
+     * This is done by flipping the sign bit and storing the result as big-endian.
+     */
+    protected static byte[] encodeDirtyTimestamp(long dirtyTimestamp) {
+        long val = dirtyTimestamp ^ Long.MIN_VALUE;
+
+        byte[] dst = new byte[Long.BYTES];
+        PUnsafe.putLong(dst, PUnsafe.ARRAY_BYTE_BASE_OFFSET, PlatformInfo.IS_BIG_ENDIAN ? val : Long.reverseBytes(val));
+        return dst;
+    }
+
+    /**
+     * Decodes a dirty timestamp which was encoded using {@link #encodeDirtyTimestamp(long)}.
+     */
+    protected static long decodeDirtyTimestamp(@NonNull byte[] src) {
+        checkRangeLen(src.length, 0, Long.BYTES);
+
+        long val = PUnsafe.getLong(src, PUnsafe.ARRAY_BYTE_BASE_OFFSET);
+        return (PlatformInfo.IS_BIG_ENDIAN ? val : Long.reverseBytes(val)) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Encodes a value for the {@code tile} column family.
+     *
+     * @param timestamp the tile's timestamp
+     * @param data      the encoded tile data, or {@code null} if the tile is empty
+     */
+    protected static byte[] encodeTileValue(long timestamp, byte[] data) {
+        byte[] value = new byte[TILE_HEADER_SIZE + (data != null ? data.length : 0)];
+        writeLongLE(value, 0, timestamp); //no flags are set
+        if (data != null) {
+            System.arraycopy(data, 0, value, TILE_HEADER_SIZE, data.length);
+        }
+        return value;
+    }
+
+    /**
+     * Extracts the encoded tile data from a value in the {@code tile} column family.
+     *
+     * @return the encoded tile data, or {@code null} if the tile is empty
+     */
+    protected static byte[] tileValueData(@NonNull byte[] value) {
+        return value.length > TILE_HEADER_SIZE
+                ? Arrays.copyOfRange(value, TILE_HEADER_SIZE, value.length)
+                : null;
+    }
+
+    /**
+     * Checks whether or not the given raw tile value is blank, i.e. it doesn't represent a tile which has been generated and may be deleted without losing
+     * anything.
+     * <p>
+     * Values which consist of only a header with a valid timestamp are not blank: they represent tiles which were generated, but happen to be empty.
+     *
+     * @param value the raw tile value
+     */
+    protected static boolean isBlankTileValue(@NonNull byte[] value) {
+        return value.length < TILE_HEADER_SIZE || readLongLE(value) == TIMESTAMP_BLANK;
+    }
+
+    /**
+     * Checks whether or not a value (or value prefix) read from the {@code tile} column family is a reference to a shared payload.
+     *
+     * @param value  an array containing the value, or at least its header
+     * @param length the length of the value, or {@link RocksDB#NOT_FOUND} if the tile doesn't exist
+     * @see #TILE_FLAG_PAYLOAD_REFERENCE
+     */
+    protected static boolean isPayloadReference(@NonNull byte[] value, int length) {
+        return length >= TILE_HEADER_SIZE && (value[TILE_HEADER_FLAGS_OFFSET] & TILE_FLAG_PAYLOAD_REFERENCE) != 0;
+    }
+
+    /**
+     * Checks whether or not a value read from the {@code tile} column family into a buffer is a reference to a shared payload.
+     *
+     * @param value the buffer containing the value
+     * @see #TILE_FLAG_PAYLOAD_REFERENCE
+     */
+    protected static boolean isPayloadReference(@NonNull ByteBuf value) {
+        return value.readableBytes() >= TILE_HEADER_SIZE && (value.getByte(value.readerIndex() + TILE_HEADER_FLAGS_OFFSET) & TILE_FLAG_PAYLOAD_REFERENCE) != 0;
+    }
+
+    /**
+     * Converts a value from the {@code tile} column family of a storage which hasn't been converted by {@link #migrateTileHeaders()} yet to the current format.
+     * <p>
+     * Those storages distinguished references to shared payloads from regular values by their length alone, so the conversion has to do the same.
+     *
+     * @param value the legacy value
+     */
+    protected static byte[] convertLegacyTileValue(@NonNull byte[] value) {
+        if (value.length < LEGACY_TILE_HEADER_SIZE) { //the value is truncated and therefore blank, leave it as-is so that it gets pruned
+            return value;
+        }
+
+        byte[] converted = new byte[value.length + (TILE_HEADER_SIZE - LEGACY_TILE_HEADER_SIZE)];
+        System.arraycopy(value, 0, converted, 0, LEGACY_TILE_HEADER_SIZE);
+        if (value.length == LEGACY_TILE_HEADER_SIZE + PAYLOAD_ID_SIZE) {
+            converted[TILE_HEADER_FLAGS_OFFSET] = (byte) TILE_FLAG_PAYLOAD_REFERENCE;
+        }
+        System.arraycopy(value, LEGACY_TILE_HEADER_SIZE, converted, TILE_HEADER_SIZE, value.length - LEGACY_TILE_HEADER_SIZE);
+        return converted;
+    }
+
+    /**
+     * Computes the ID of the shared payload containing the given tile data.
+     *
+     * @see #PAYLOAD_ID_SIZE
+     */
+    @SneakyThrows(NoSuchAlgorithmException.class)
+    protected static byte[] payloadId(@NonNull byte[] data) {
+        return Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(data), PAYLOAD_ID_SIZE);
+    }
+
+    /**
+     * Gets the options to use for the column family with the given name.
+     *
+     * @param name the column family's name, including its prefix (if any)
+     */
+    protected static ColumnFamilyOptions columnFamilyOptions(@NonNull String name) {
+        switch (name.substring(name.lastIndexOf('/') + 1)) {
+            case COLUMN_NAME_TILE:
+            case COLUMN_NAME_TILE_PAYLOAD:
+                return TILE_CF_OPTIONS;
+            case COLUMN_NAME_TILE_DIRTY_TIMESTAMP:
+                return DIRTY_TIMESTAMP_CF_OPTIONS;
+            default:
+                return CF_OPTIONS;
+        }
+    }
+
+    /**
+     * Creates the table format configuration for a column family.
+     *
+     * @param bloomFilterBits the number of bits per key to use for the column family's bloom filter, or {@code 0} if it shouldn't have one
+     */
+    protected static BlockBasedTableConfig tableFormatConfig(int bloomFilterBits) {
+        return RocksOptions.tableFormatConfig(BLOCK_CACHE, bloomFilterBits);
+    }
+
+    /**
+     * @return the weight of the given tile value in the snapshot cache
+     */
+    protected static int snapshotCacheWeight(@NonNull byte[] value) {
+        return value.length + SNAPSHOT_CACHE_ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Compares two keys using the same unsigned byte-wise order as RocksDB's default comparator.
+     */
+    protected static int compareKeys(@NonNull byte[] a, @NonNull byte[] b) {
+        for (int i = 0, len = min(a.length, b.length); i < len; i++) {
+            int d = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    /**
+     * Splits the range of keys between {@code first} and {@code last} (both inclusive) into approximately equally sized sub-ranges.
+     * <p>
+     * Both keys must have the same length, and are treated as unsigned big-endian integers.
+     *
+     * @return the lower bound of each sub-range, in ascending order. The first element is always {@code first}.
+     */
+    protected static List<byte[]> splitKeyRange(@NonNull byte[] first, @NonNull byte[] last, int count) {
+        checkArg(first.length == last.length, "keys must have the same length (%d != %d)", first.length, last.length);
+
+        BigInteger lo = new BigInteger(1, first);
+        BigInteger size = new BigInteger(1, last).subtract(lo).add(BigInteger.ONE);
+
+        List<byte[]> bounds = new ArrayList<>(count);
+        bounds.add(first);
+        for (int i = 1; i < count; i++) {
+            byte[] encoded = lo.add(size.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(count))).toByteArray();
+
+            //BigInteger#toByteArray() can add a leading sign byte or omit leading zeroes, so we need to copy it into a key of the right length
+            byte[] bound = new byte[first.length];
+            int len = min(encoded.length, bound.length);
+            System.arraycopy(encoded, encoded.length - len, bound, bound.length - len, len);
+
+            if (compareKeys(bound, bounds.get(bounds.size() - 1)) > 0) { //skip empty sub-ranges
+                bounds.add(bound);
+            }
+        }
+        return bounds;
+    }
+
+    protected final AbstractFarTileProvider<POS, T> world; //null if the storage doesn't belong to a world
+    protected final IFarRenderMode<POS, T> mode;
+
+    protected final RocksDatabase database;
+    protected final RocksDB db;
+    protected final List<ColumnFamilyHandle> handles;
+    protected final byte[] keyDirtyTimestampEncoding;
+    protected final byte[] keyStorageVersion;
+    protected final byte[] keyTileHeaderMigrationProgress;
+
+    protected final ColumnFamilyHandle cfDefault;
+    protected final ColumnFamilyHandle cfTile;
+    protected final ColumnFamilyHandle cfTileDirtyTimestamp;
+    protected final ColumnFamilyHandle cfAnyVanillaExists;
+    protected final ColumnFamilyHandle cfTilePayload;
+    protected final ColumnFamilyHandle cfTilePayloadRefcount;
+
+    protected final Set<Listener<POS, T>> listeners = new CopyOnWriteArraySet<>();
+
+    protected final int version;
+
+    protected final LoadingCache<POS, RocksTileHandle<POS, T>> handleCache = CacheBuilder.newBuilder()
+            .concurrencyLevel(FP2Config.global().performance().terrainThreads())
+            .weakValues()
+            .build(CacheLoader.from(pos -> new RocksTileHandle<>(pos, this)));
+
+    /**
+     * Caches the timestamps and dirty timestamps of recently accessed tiles, so that tile handles don't need to hit the db every time they're checked.
+     * <p>
+     * Unlike {@link #handleCache}, entries are strongly held, and therefore survive garbage collection. The index must be updated whenever a tile's timestamp or
+     * dirty timestamp is modified, after the modification has been written to the db.
+     */
+    protected final TileTimestampIndex<POS> timestampIndex;
+
+    /**
+     * Caches the raw values of recently accessed tiles, to avoid having to repeatedly read and decompress popular tiles from the db.
+     * <p>
+     * Cached values are coherent with the db: whenever a batch of writes is committed, the values of all modified tiles are replaced. In order to prevent a reader
+     * from caching a value which was read before a concurrent write was committed, {@link #snapshotCacheVersion} is incremented both before and after each batch is
+     * written, and values are only cached if no batch was being written at any point while they were being read (see {@link #cacheValue(IFarPos, byte[], long)}).
+     */
+    protected final Cache<POS, byte[]> snapshotCache;
+    protected final boolean snapshotCacheEnabled;
+    protected final AtomicLong snapshotCacheVersion = new AtomicLong(); //odd while a batch of writes is being committed
+    protected final AtomicLong snapshotCacheWeight = new AtomicLong();
+
+    protected final Map<POS, CompletableFuture<byte[]>> pendingReads = new ConcurrentHashMap<>();
+    protected volatile int directReadSizeHint = DIRECT_READ_INITIAL_SIZE; //the size of the largest tile value which has been read into a direct buffer
+
+    /**
+     * Whether or not new tile data should be stored in shared payloads (see {@link #PAYLOAD_ID_SIZE}).
+     */
+    protected final boolean deduplicate;
+
+    /**
+     * Caches the contents of recently used shared payloads, indexed by their ID. Payloads are immutable, so the cache never needs to be invalidated.
+     */
+    protected final Cache<ByteBuffer, byte[]> payloadCache = CacheBuilder.newBuilder()
+            .concurrencyLevel(FP2Config.global().performance().terrainThreads())
+            .maximumSize(PAYLOAD_CACHE_SIZE)
+            .build();
+    protected final AtomicLong payloadCount = new AtomicLong(); //the number of shared payloads
+    protected final AtomicBoolean payloadCountRequested = new AtomicBoolean(); //set once countPayloads() has been scheduled
+    protected volatile boolean payloadsCounted; //set once countPayloads() has finished, the payload counters aren't valid until then
+    protected final AtomicLong payloadReferences = new AtomicLong(); //the total number of tiles referencing a shared payload
+
+    protected final Queue<PendingWrite<POS>> pendingWrites = new ConcurrentLinkedQueue<>();
+    protected final Lock writeLock = new ReentrantLock();
+
+    protected final Lock maintenanceLock = new ReentrantLock(); //held while maintenance is running
+
+    /**
+     * Dirty timestamps are written while holding the read lock, and maintenance holds the write lock while deleting stale dirty timestamps (see
+     * {@link #pruneDirtyTimestamps()}), so that a dirty timestamp which is merged concurrently can't be deleted along with a stale one.
+     * <p>
+     * Marking tiles as dirty must never block, so the read lock is only ever acquired using {@link Lock#tryLock()}. Writes which can't acquire it are queued in
+     * {@link #deferredDirtyMarks} instead, and are written as soon as the lock is released.
+     */
+    protected final ReadWriteLock dirtyTimestampLock = new ReentrantReadWriteLock();
+    protected final Queue<DeferredDirtyMark<POS>> deferredDirtyMarks = new ConcurrentLinkedQueue<>();
+    protected volatile boolean closing; //set when the storage begins closing, causes maintenance to stop early
+    protected long lastFlushTime = System.nanoTime(); //only accessed while holding writeLock
+    protected ScheduledFuture<?> flushTask; //only accessed while holding writeLock
+
+    protected final ScheduledExecutorService executor; //the thread pool on which asynchronous operations are executed, owned by the db
+
+    protected final File storageRoot;
+    protected final File markerFile;
+
+    protected final File dictionaryRoot;
+    protected final AtomicReferenceArray<TileDictionary> dictionaries = new AtomicReferenceArray<>(MAX_LODS);
+    protected final AtomicIntegerArray dictionarySamples = new AtomicIntegerArray(MAX_LODS); //the number of samples each level's current dictionary was built from
+    protected final AtomicIntegerArray dictionaryWrites = new AtomicIntegerArray(MAX_LODS); //the number of tiles written at each level since the dictionary was built
+    protected final AtomicIntegerArray dictionaryBuilding = new AtomicIntegerArray(MAX_LODS);
+
+    public RocksStorage(@NonNull AbstractFarTileProvider<POS, T> world, @NonNull File storageRoot) {
+        this(world, world.mode(), storageRoot, FP2Config.global().performance().storageSharedDatabase());
+    }
+
+    /**
+     * Opens an exclusive storage which doesn't belong to any world, e.g. for benchmarking or for offline tools.
+     * <p>
+     * Operations which need to know about the world (such as {@link #backup(File, Consumer)}) aren't supported.
+     *
+     * @param mode        the render mode whose tiles will be stored
+     * @param storageRoot the directory to store the db in
+     */
+    public RocksStorage(@NonNull IFarRenderMode<POS, T> mode, @NonNull File storageRoot) {
+        this(null, mode, storageRoot, false);
+    }
+
+    /**
+     * @param world       the tile provider which the storage belongs to, or {@code null} if it doesn't belong to a world (only permitted for exclusive storages)
+     * @param mode        the render mode whose tiles will be stored
+     * @param storageRoot the directory to store this storage's files in. If the storage is exclusive, this is also where the db is stored.
+     * @param shared      whether the storage should be placed in the db shared by all storages, rather than in its own exclusive db
+     */
+    protected RocksStorage(AbstractFarTileProvider<POS, T> world, @NonNull IFarRenderMode<POS, T> mode, @NonNull File storageRoot, boolean shared) {
+        checkArg(world != null || !shared, "a shared storage must belong to a world");
+
+        this.world = world;
+        this.mode = mode;
+        this.version = mode.storageVersion();
+        this.deduplicate = FP2Config.global().performance().storageTileDeduplication();
+        this.timestampIndex = new TileTimestampIndex<>(mode.directPosAccess(), FP2Config.global().performance().storageTimestampCacheSize());
+
+        long snapshotCacheSize = FP2Config.global().performance().snapshotCacheSize() * (1L << 20L);
+        this.snapshotCacheEnabled = snapshotCacheSize > 0L;
+        this.snapshotCache = CacheBuilder.newBuilder()
+                .concurrencyLevel(FP2Config.global().performance().terrainThreads())
+                .maximumWeight(snapshotCacheSize)
+                .<POS, byte[]>weigher((pos, value) -> snapshotCacheWeight(value))
+                .removalListener((RemovalListener<POS, byte[]>) notification -> this.snapshotCacheWeight.addAndGet(-snapshotCacheWeight(notification.getValue())))
+                .recordStats()
+                .build();
+
+        File markerFile = new File(storageRoot, "v5");
+        File legacyMarkerFile = new File(storageRoot, "v4");
+        File sharedMarkerFile = new File(storageRoot, "shared");
+        boolean migrate = false;
+        boolean importExclusive = false;
+        String prefix;
+
+        if (shared) {
+            if (PFiles.checkFileExists(markerFile) || PFiles.checkFileExists(legacyMarkerFile)) { //an exclusive storage exists, it'll be imported into the shared db
+                importExclusive = true;
+            } else if (PFiles.checkDirectoryExists(storageRoot) && !PFiles.checkFileExists(sharedMarkerFile)) { //it's an old storage which can't be migrated
+                PFiles.rmContentsParallel(storageRoot);
+            }
+
+            //each storage uses its own set of column families in the shared db
+            this.database = RocksDatabase.openShared(new File(world.world().getSaveHandler().getWorldDirectory(), SHARED_DATABASE_DIRECTORY));
+            prefix = PStrings.fastFormat("DIM%d/%s/", world.world().provider.getDimension(), mode.name().toLowerCase());
+        } else {
+            if (PFiles.checkDirectoryExists(storageRoot) && !PFiles.checkFileExists(markerFile)) {
+                if (PFiles.checkFileExists(legacyMarkerFile)) { //it's a v4 storage, it'll be migrated in place once it's been opened
+                    migrate = true;
+                } else { //it's an old storage which can't be migrated
+                    PFiles.rmContentsParallel(storageRoot);
+                }
+            }
+
+            this.database = RocksDatabase.openExclusive(storageRoot);
+            prefix = "";
+        }
+        PFiles.ensureDirectoryExists(storageRoot);
+        this.storageRoot = storageRoot;
+        this.markerFile = shared ? sharedMarkerFile : markerFile;
+
+        this.db = this.database.db();
+        this.executor = this.database.executor();
+        this.keyDirtyTimestampEncoding = (prefix + KEY_DIRTY_TIMESTAMP_ENCODING).getBytes(StandardCharsets.UTF_8);
+        this.keyStorageVersion = (prefix + KEY_STORAGE_VERSION).getBytes(StandardCharsets.UTF_8);
+        this.keyTileHeaderMigrationProgress = (prefix + KEY_TILE_HEADER_MIGRATION_PROGRESS).getBytes(StandardCharsets.UTF_8);
+
+        this.cfDefault = this.database.defaultColumnFamily();
+        this.cfTile = this.database.columnFamily(prefix + COLUMN_NAME_TILE);
+        this.cfTileDirtyTimestamp = this.database.columnFamily(prefix + COLUMN_NAME_TILE_DIRTY_TIMESTAMP);
+        this.cfAnyVanillaExists = this.database.columnFamily(prefix + COLUMN_NAME_ANY_VANILLA_EXISTS);
+        this.cfTilePayload = this.database.columnFamily(prefix + COLUMN_NAME_TILE_PAYLOAD);
+        this.cfTilePayloadRefcount = this.database.columnFamily(prefix + COLUMN_NAME_TILE_PAYLOAD_REFCOUNT);
+        this.handles = Arrays.asList(this.cfDefault, this.cfTile, this.cfTileDirtyTimestamp, this.cfAnyVanillaExists, this.cfTilePayload, this.cfTilePayloadRefcount);
+
+        if (migrate) {
+            this.migrateFromV4();
+        }
+
+        this.checkStorageVersion();
+        this.cleanDirtyTimestamps();
+
+        if (importExclusive) {
+            this.importExclusive(storageRoot);
+            PFiles.ensureFileExists(sharedMarkerFile); //create marker file
+        } else {
+            PFiles.ensureFileExists(shared ? sharedMarkerFile : markerFile); //create marker file
+            if (migrate) { //the storage has been migrated, remove the old marker file
+                PFiles.rm(legacyMarkerFile);
+            }
+        }
+
+        this.dictionaryRoot = new File(storageRoot, "dict");
+        PFiles.ensureDirectoryExists(this.dictionaryRoot);
+        this.loadDictionaries();
+
+        if (WRITE_OPTIONS.disableWAL()) { //make sure that writes get flushed to disk eventually, even if nothing else is written for a long time
+            this.writeLock.lock();
+            try {
+                this.scheduleFlush();
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Migrates the contents of a v4 storage, in which tile timestamps and tile data were stored in separate column families, to the current format.
+     * <p>
+     * The migration is idempotent, so if it's interrupted it'll simply be restarted the next time the storage is opened. Since this can take a while for large
+     * worlds, progress is logged every {@link #MIGRATION_PROGRESS_INTERVAL} nanoseconds.
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected void migrateFromV4() {
+        ColumnFamilyHandle cfLegacyTileTimestamp = this.database.columnFamily(LEGACY_COLUMN_NAME_TILE_TIMESTAMP);
+        ColumnFamilyHandle cfLegacyTileData = this.database.columnFamily(LEGACY_COLUMN_NAME_TILE_DATA);
+
+        long estimatedTiles = this.db.getLongProperty(cfLegacyTileTimestamp, "rocksdb.estimate-num-keys");
+        FP2_LOG.info("Migrating {} storage at {} to the current format (approximately {} tiles)", this.mode.name(), this.storageRoot, estimatedTiles);
+
+        long startTime = System.nanoTime();
+        long lastProgressTime = startTime;
+        long migratedTiles = 0L;
+
+        //both column families are sorted by the same keys, so we can iterate over them in lockstep rather than doing a separate lookup for each tile's data
+        try (RocksIterator timestampItr = this.db.newIterator(cfLegacyTileTimestamp);
+             RocksIterator dataItr = this.db.newIterator(cfLegacyTileData);
+             WriteBatch batch = new WriteBatch()) {
+            dataItr.seekToFirst();
+            for (timestampItr.seekToFirst(); timestampItr.isValid(); timestampItr.next()) {
+                byte[] keyBytes = timestampItr.key();
+
+                while (dataItr.isValid() && compareKeys(dataItr.key(), keyBytes) < 0) { //skip data without a corresponding timestamp
+                    dataItr.next();
+                }
+                byte[] data = dataItr.isValid() && compareKeys(dataItr.key(), keyBytes) == 0 ? dataItr.value() : null;
+
+                batch.put(this.cfTile, keyBytes, encodeTileValue(readLongLE(timestampItr.value()), data));
+                migratedTiles++;
+
+                if (batch.count() >= WRITE_BATCH_MAX_SIZE) { //write batch is full, write it to the db
+                    this.db.write(WRITE_OPTIONS, batch);
+                    batch.clear();
+
+                    long now = System.nanoTime();
+                    if (now - lastProgressTime >= MIGRATION_PROGRESS_INTERVAL) {
+                        lastProgressTime = now;
+                        FP2_LOG.info("Migrating {} storage at {}: {}/~{} tiles", this.mode.name(), this.storageRoot, migratedTiles, max(migratedTiles, estimatedTiles));
+                    }
+                }
+            }
+
+            //the values were written in the current format, so they mustn't be converted by migrateTileHeaders()
+            batch.put(this.cfDefault, this.keyStorageVersion, writeLongLE(this.version));
+            this.db.write(WRITE_OPTIONS, batch);
+        }
+
+        //make sure the migrated data is persisted before the legacy column families are dropped
+        this.db.flush(FLUSH_OPTIONS, Arrays.asList(this.cfDefault, this.cfTile));
+
+        this.database.dropColumnFamily(LEGACY_COLUMN_NAME_TILE_TIMESTAMP);
+        this.database.dropColumnFamily(LEGACY_COLUMN_NAME_TILE_DATA);
+
+        FP2_LOG.info("Migrated {} storage at {} ({} tiles in {}s)", this.mode.name(), this.storageRoot, migratedTiles, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime));
+    }
+
+    /**
+     * Checks that the values in the {@code tile} column family are encoded with this storage's {@link IFarRenderMode#storageVersion() storage version},
+     * converting them if they were written before the header contained any flags.
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected void checkStorageVersion() {
+        byte[] storedVersion = this.db.get(this.cfDefault, this.keyStorageVersion);
+        if (storedVersion == null) {
+            this.migrateTileHeaders();
+        } else {
+            checkState(readLongLE(storedVersion) == this.version, "%s storage at %s has version %d, expected %d",
+                    this.mode.name(), this.storageRoot, readLongLE(storedVersion), this.version);
+        }
+    }
+
+    /**
+     * Converts the values in the {@code tile} column family to the current format, by inserting a flags byte into each value's header (see
+     * {@link #convertLegacyTileValue(byte[])}).
+     * <p>
+     * The tiles are converted in batches, each of which also records the key of the last tile it converted. If the conversion is interrupted, it'll resume from
+     * the tile after that the next time the storage is opened, so no tile can be converted twice.
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected void migrateTileHeaders() {
+        byte[] progress = this.db.get(this.cfDefault, this.keyTileHeaderMigrationProgress);
+
+        long startTime = System.nanoTime();
+        long lastProgressTime = startTime;
+        long migratedTiles = 0L;
+
+        try (RocksIterator itr = this.db.newIterator(this.cfTile);
+             WriteBatch batch = new WriteBatch()) {
+            if (progress != null) { //resume after the last tile which was converted
+                FP2_LOG.info("Resuming migration of {} storage at {} to the current format", this.mode.name(), this.storageRoot);
+                itr.seek(progress);
+                if (itr.isValid() && Arrays.equals(itr.key(), progress)) {
+                    itr.next();
+                }
+            } else {
+                itr.seekToFirst();
+            }
+
+            //the iterator reads from an implicit snapshot, so it won't encounter the values it's already converted
+            for (; itr.isValid(); itr.next()) {
+                byte[] keyBytes = itr.key();
+                batch.put(this.cfTile, keyBytes, convertLegacyTileValue(itr.value()));
+                migratedTiles++;
+
+                if (batch.count() >= WRITE_BATCH_MAX_SIZE) { //write batch is full, write it to the db along with the progress
+                    batch.put(this.cfDefault, this.keyTileHeaderMigrationProgress, keyBytes);
+                    this.db.write(MIGRATION_WRITE_OPTIONS, batch);
+                    batch.clear();
+
+                    long now = System.nanoTime();
+                    if (now - lastProgressTime >= MIGRATION_PROGRESS_INTERVAL) {
+                        lastProgressTime = now;
+                        FP2_LOG.info("Migrating {} storage at {}: {} tiles", this.mode.name(), this.storageRoot, migratedTiles);
+                    }
+                }
+            }
+
+            batch.delete(this.cfDefault, this.keyTileHeaderMigrationProgress);
+            batch.put(this.cfDefault, this.keyStorageVersion, writeLongLE(this.version));
+            this.db.write(MIGRATION_WRITE_OPTIONS, batch);
+        }
+
+        if (migratedTiles > 0L) {
+            FP2_LOG.info("Migrated {} storage at {} ({} tiles in {}s)", this.mode.name(), this.storageRoot, migratedTiles, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime));
+        }
+    }
+
+    /**
+     * Imports the contents of the exclusive storage in the given directory into this storage, and then deletes it.
+     * <p>
+     * The import is idempotent, so if it's interrupted it'll simply be restarted the next time the storage is opened.
+     *
+     * @param storageRoot the directory containing the exclusive storage
+     */
+    @SneakyThrows({ IOException.class, RocksDBException.class })
+    protected void importExclusive(@NonNull File storageRoot) {
+        //open the exclusive storage normally, so that it gets migrated to the current format first if necessary
+        RocksStorage<POS, T> src = new RocksStorage<>(this.world, this.mode, storageRoot, false);
+        try {
+            copyColumnFamily(src.db, src.cfTile, this.db, this.cfTile);
+            copyColumnFamily(src.db, src.cfTileDirtyTimestamp, this.db, this.cfTileDirtyTimestamp);
+            copyColumnFamily(src.db, src.cfAnyVanillaExists, this.db, this.cfAnyVanillaExists);
+            copyColumnFamily(src.db, src.cfTilePayload, this.db, this.cfTilePayload);
+            copyColumnFamily(src.db, src.cfTilePayloadRefcount, this.db, this.cfTilePayloadRefcount);
+        } finally {
+            src.close();
+        }
+
+        //make sure the imported data is persisted before the exclusive storage is deleted
+        this.db.flush(FLUSH_OPTIONS, this.handles);
+
+        //delete everything except for the dictionaries, which are still stored in the same place
+        File[] files = storageRoot.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!"dict".equals(file.getName())) {
+                    PFiles.rm(file);
+                }
+            }
+        }
+    }
+
+    @SneakyThrows(RocksDBException.class)
+    protected static void copyColumnFamily(@NonNull RocksDB srcDb, @NonNull ColumnFamilyHandle src, @NonNull RocksDB dstDb, @NonNull ColumnFamilyHandle dst) {
+        try (RocksIterator itr = srcDb.newIterator(src);
+             WriteBatch batch = new WriteBatch()) {
+            for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+                batch.put(dst, itr.key(), itr.value());
+
+                if (batch.count() >= WRITE_BATCH_MAX_SIZE) { //write batch is full, write it to the db
+                    dstDb.write(WRITE_OPTIONS, batch);
+                    batch.clear();
+                }
+            }
+            dstDb.write(WRITE_OPTIONS, batch);
+        }
+    }
+
+    /**
+     * Removes all stale entries from the dirty timestamp column family, converting the dirty timestamps to the current encoding if necessary.
+     * <p>
+     * Since dirty timestamps are written blindly, entries are never removed when a tile is updated, and entries may even be created for tiles which don't exist.
+     * Such entries are ignored by everything which reads dirty timestamps. They are removed here, while the storage is being opened and nothing else can access
+     * it yet, and by {@link #pruneDirtyTimestamps()} during maintenance.
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected void cleanDirtyTimestamps() {
+        boolean legacyEncoding = this.db.get(this.cfDefault, this.keyDirtyTimestampEncoding) == null;
+
+        //all changes are made in a single batch to ensure that the conversion to the new encoding is atomic
+        try (RocksIterator itr = this.db.newIterator(this.cfTileDirtyTimestamp);
+             WriteBatch batch = new WriteBatch()) {
+            byte[] timestampArray = new byte[TILE_HEADER_SIZE];
+            for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+                byte[] keyBytes = itr.key();
+                long dirtyTimestamp = legacyEncoding ? readLongLE(itr.value()) : decodeDirtyTimestamp(itr.value());
+                long timestamp = this.readTimestamp(keyBytes, timestampArray);
+
+                if (timestamp == TIMESTAMP_BLANK || dirtyTimestamp <= timestamp) { //the entry is stale
+                    batch.delete(this.cfTileDirtyTimestamp, keyBytes);
+                } else if (legacyEncoding) { //convert to the new encoding
+                    batch.put(this.cfTileDirtyTimestamp, keyBytes, encodeDirtyTimestamp(dirtyTimestamp));
+                }
+            }
+
+            if (legacyEncoding) {
+                batch.put(this.cfDefault, this.keyDirtyTimestampEncoding, new byte[0]);
+            }
+            this.db.write(WRITE_OPTIONS, batch);
+        }
+    }
+
+    /**
+     * Reads the dirty timestamp of the tile with the given key.
+     * <p>
+     * A dirty timestamp is only considered valid if the tile exists and the dirty timestamp is newer than the tile's timestamp. Otherwise the entry is stale, and
+     * the tile isn't dirty.
+     *
+     * @param keyBytes the tile's key
+     * @param tmp      a temporary buffer with a length of {@link #TILE_HEADER_SIZE}
+     * @return the tile's dirty timestamp, or {@link ITileMetadata#TIMESTAMP_BLANK} if the tile isn't dirty
+     */
+    protected long readDirtyTimestamp(@NonNull byte[] keyBytes, @NonNull byte[] tmp) {
+        long dirtyTimestamp = this.readRawDirtyTimestamp(keyBytes);
+        if (dirtyTimestamp == TIMESTAMP_BLANK) { //no dirty timestamp is present
+            return TIMESTAMP_BLANK;
+        }
+
+        long timestamp = this.readTimestamp(keyBytes, tmp);
+        return timestamp != TIMESTAMP_BLANK && dirtyTimestamp > timestamp
+                ? dirtyTimestamp
+                : TIMESTAMP_BLANK; //the entry is stale
+    }
+
+    /**
+     * Reads the dirty timestamp entry of the tile with the given key, without checking whether or not it's stale.
+     *
+     * @param keyBytes the tile's key
+     * @return the tile's dirty timestamp entry, or {@link ITileMetadata#TIMESTAMP_BLANK} if none is present
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected long readRawDirtyTimestamp(@NonNull byte[] keyBytes) {
+        byte[] dirtyTimestampBytes = this.db.get(this.cfTileDirtyTimestamp, keyBytes);
+        return dirtyTimestampBytes != null
+                ? decodeDirtyTimestamp(dirtyTimestampBytes)
+                : TIMESTAMP_BLANK;
+    }
+
+    /**
+     * Reads the timestamp of the tile with the given key.
+     * <p>
+     * Only the value's header will be copied out of the db, the tile data is skipped.
+     *
+     * @param keyBytes the tile's key
+     * @param tmp      a temporary buffer with a length of {@link #TILE_HEADER_SIZE}
+     * @return the tile's timestamp, or {@link ITileMetadata#TIMESTAMP_BLANK} if the tile doesn't exist
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected long readTimestamp(@NonNull byte[] keyBytes, @NonNull byte[] tmp) {
+        return this.db.get(this.cfTile, READ_OPTIONS, keyBytes, tmp) != RocksDB.NOT_FOUND
+                ? readLongLE(tmp) //timestamp for this tile exists, extract it from the byte array
+                : TIMESTAMP_BLANK;
+    }
+
+    /**
+     * Reads the raw value of the tile at the given position, serving it from the snapshot cache if possible.
+     *
+     * @param pos      the tile's position
+     * @param keyBytes the tile's key
+     * @return the tile's value, or {@code null} if the tile doesn't exist
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected byte[] readValue(@NonNull POS pos, @NonNull byte[] keyBytes) {
+        byte[] value = this.snapshotCache.getIfPresent(pos);
+        if (value == null) { //cache miss, read the value from the db
+            long version = this.snapshotCacheVersion.get();
+            value = this.resolveValue(keyBytes, this.db.get(this.cfTile, READ_OPTIONS, keyBytes));
+            if (value != null) {
+                this.cacheValue(pos, value, version);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Resolves a value which was read from the {@code tile} column family into the tile's full value, replacing a reference to a shared payload with the
+     * payload's contents.
+     * <p>
+     * The payload may have been deleted by a concurrent write since the value was read, in which case the value is read again.
+     * <p>
+     * Payload IDs aren't exposed outside of the storage, so deduplication currently only saves space on disk.
+     *
+     * @param keyBytes the tile's key
+     * @param value    the value which was read, or {@code null} if the tile doesn't exist
+     * @return the tile's full value, or {@code null} if the tile doesn't exist
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected byte[] resolveValue(@NonNull byte[] keyBytes, byte[] value) {
+        while (value != null && isPayloadReference(value, value.length)) {
+            byte[] data = this.readPayload(Arrays.copyOfRange(value, TILE_HEADER_SIZE, value.length));
+            if (data != null) {
+                return encodeTileValue(readLongLE(value), data);
+            }
+
+            //the payload no longer exists, which means that the tile has been modified since we read it
+            value = this.db.get(this.cfTile, READ_OPTIONS, keyBytes);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the contents of the shared payload with the given ID.
+     *
+     * @param id the payload's ID
+     * @return the payload's contents, or {@code null} if the payload doesn't exist
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected byte[] readPayload(@NonNull byte[] id) {
+        ByteBuffer key = ByteBuffer.wrap(id);
+        byte[] data = this.payloadCache.getIfPresent(key);
+        if (data == null && (data = this.db.get(this.cfTilePayload, READ_OPTIONS, id)) != null) {
+            this.payloadCache.put(key, data);
+        }
+        return data;
+    }
+
+    /**
+     * Counts the shared payloads and the references to them, for {@link #debugStats()}.
+     * <p>
+     * This requires a full scan of the {@code tile_payload_refcount} column family, so it's only done once the stats are first requested. The scan reads from a
+     * snapshot of the db taken while holding {@link #writeLock}, which is also held whenever the counters are updated: the counters' values at that point are
+     * already included in the snapshot, and are replaced with the results of the scan, while any changes committed since then are kept.
+     */
+    protected void countPayloads() {
+        long count = 0L;
+        long references = 0L;
+
+        Snapshot snapshot;
+        long countAtSnapshot;
+        long referencesAtSnapshot;
+        this.writeLock.lock();
+        try {
+            if (this.closing) {
+                return;
+            }
+
+            snapshot = this.db.getSnapshot();
+            countAtSnapshot = this.payloadCount.get();
+            referencesAtSnapshot = this.payloadReferences.get();
+        } finally {
+            this.writeLock.unlock();
+        }
+
+        try (ReadOptions options = new ReadOptions().setSnapshot(snapshot);
+             RocksIterator itr = this.db.newIterator(this.cfTilePayloadRefcount, options)) {
+            for (itr.seekToFirst(); itr.isValid() && !this.closing; itr.next()) {
+                count++;
+                references += readLongLE(itr.value());
+            }
+
+            if (!this.closing) {
+                this.payloadCount.addAndGet(count - countAtSnapshot);
+                this.payloadReferences.addAndGet(references - referencesAtSnapshot);
+                this.payloadsCounted = true;
+            }
+        } finally {
+            this.db.releaseSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * Adds a value which was read from the db to the snapshot cache.
+     *
+     * @param pos     the tile's position
+     * @param value   the tile's value
+     * @param version the value of {@link #snapshotCacheVersion} from before the value was read
+     */
+    protected void cacheValue(@NonNull POS pos, @NonNull byte[] value, long version) {
+        if (!this.snapshotCacheEnabled || (version & 1L) != 0L) { //the cache is disabled, or a batch was being written while the value was read
+            return;
+        }
+
+        this.snapshotCacheWeight.addAndGet(snapshotCacheWeight(value));
+        this.snapshotCache.put(pos, value);
+
+        if (this.snapshotCacheVersion.get() != version) { //a batch may have been written since the value was read, so the value we just cached may be outdated
+            this.snapshotCache.invalidate(pos);
+        }
+    }
+
+    /**
+     * Asynchronously reads the raw value of the tile at the given position.
+     * <p>
+     * If the value is cached, the returned future will already be complete. Otherwise, the value is read on an I/O thread, and concurrent requests for the same
+     * position will share a single read.
+     *
+     * @see #readValue(IFarPos, byte[])
+     */
+    protected CompletableFuture<byte[]> readValueAsync(@NonNull POS pos) {
+        byte[] cachedValue = this.snapshotCache.asMap().get(pos);
+        if (cachedValue != null) {
+            return CompletableFuture.completedFuture(cachedValue);
+        }
+
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existingFuture = this.pendingReads.putIfAbsent(pos, future);
+        if (existingFuture != null) { //another thread is already reading the same tile
+            return existingFuture;
+        }
+
+        this.executor.execute(() -> {
+            try {
+                future.complete(this.readValue(pos, pos.toBytes()));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                this.pendingReads.remove(pos, future);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Asynchronously reads the timestamp of the tile at the given position.
+     *
+     * @see ITileHandle#timestampAsync()
+     */
+    protected CompletableFuture<Long> readTimestampAsync(@NonNull POS pos) {
+        byte[] cachedValue = this.snapshotCache.asMap().get(pos);
+        if (cachedValue != null) {
+            return CompletableFuture.completedFuture(readLongLE(cachedValue));
+        }
+
+        CompletableFuture<byte[]> pendingRead = this.pendingReads.get(pos);
+        if (pendingRead != null) { //the whole tile is already being read, we might as well wait for that instead of reading it again
+            return pendingRead.thenApply(value -> value != null ? readLongLE(value) : TIMESTAMP_BLANK);
+        }
+
+        return CompletableFuture.supplyAsync(() -> this.readTimestamp(pos.toBytes(), new byte[TILE_HEADER_SIZE]), this.executor);
+    }
+
+    @Override
+    public ITileHandle<POS, T> handleFor(@NonNull POS pos) {
+        return this.handleCache.getUnchecked(pos);
+    }
+
+    @Override
+    public CompletableFuture<List<ITileSnapshot<POS, T>>> multiSnapshotAsync(@NonNull List<POS> positions) {
+        return CompletableFuture.supplyAsync(() -> this.multiSnapshot(positions), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<List<DirectTileSnapshot<POS, T>>> multiSnapshotDirectAsync(@NonNull List<POS> positions) {
+        return CompletableFuture.supplyAsync(() -> this.multiSnapshotDirect(positions), this.executor);
+    }
+
+    @Override
+    @SneakyThrows(RocksDBException.class)
+    public List<ITileSnapshot<POS, T>> multiSnapshot(@NonNull List<POS> positions) {
+        int length = positions.size();
+
+        if (length == 0) { //nothing to do!
+            return new ArrayList<>();
+        }
+
+        //serve as many values as possible from the snapshot cache, and remember the indices of the ones which need to be read from the db
+        byte[][] values = new byte[length][];
+        List<byte[]> missKeys = new ArrayList<>();
+        int[] missIndices = new int[length];
+        for (int i = 0; i < length; i++) {
+            POS pos = positions.get(i);
+            if ((values[i] = this.snapshotCache.getIfPresent(pos)) == null) {
+                missIndices[missKeys.size()] = i;
+                missKeys.add(pos.toBytes());
+            }
+        }
+
+        if (!missKeys.isEmpty()) { //read all the missing values from the db at once
+            long version = this.snapshotCacheVersion.get();
+            List<byte[]> missValues = this.db.multiGetAsList(READ_OPTIONS, Collections.nCopies(missKeys.size(), this.cfTile), missKeys);
+
+            for (int j = 0; j < missValues.size(); j++) {
+                byte[] value = this.resolveValue(missKeys.get(j), missValues.get(j));
+                if (value != null) {
+                    int i = missIndices[j];
+                    values[i] = value;
+                    this.cacheValue(positions.get(i), value, version);
+                }
+            }
+        }
+
+        List<ITileSnapshot<POS, T>> out = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            byte[] value = values[i];
+
+            out.add(value != null
+                    ? new TileSnapshot<>(positions.get(i), readLongLE(value), tileValueData(value))
+                    : null);
+        }
+        return out;
+    }
+
+    @Override
+    @SneakyThrows(RocksDBException.class)
+    public List<DirectTileSnapshot<POS, T>> multiSnapshotDirect(@NonNull List<POS> positions) {
+        int length = positions.size();
+
+        if (length == 0) { //nothing to do!
+            return new ArrayList<>();
+        }
+
+        List<DirectTileSnapshot<POS, T>> out = new ArrayList<>(Collections.nCopies(length, null));
+        List<ByteBuf> missKeys = new ArrayList<>();
+        List<ByteBuf> missValues = new ArrayList<>();
+        try {
+            //serve as many values as possible from the snapshot cache, and remember the indices of the ones which need to be read from the db
+            int[] missIndices = new int[length];
+            for (int i = 0; i < length; i++) {
+                POS pos = positions.get(i);
+                byte[] cachedValue = this.snapshotCache.getIfPresent(pos);
+                if (cachedValue != null) { //the value is cached, copy it into a direct buffer without touching the db
+                    out.set(i, new DirectTileSnapshot<>(pos, readLongLE(cachedValue), cachedValue.length > TILE_HEADER_SIZE
+                            ? ByteBufAllocator.DEFAULT.directBuffer(cachedValue.length - TILE_HEADER_SIZE).writeBytes(cachedValue, TILE_HEADER_SIZE, cachedValue.length - TILE_HEADER_SIZE)
+                            : null));
+                } else {
+                    ByteBuf key = ByteBufAllocator.DEFAULT.directBuffer();
+                    missKeys.add(key);
+                    pos.writePos(key);
+                    missIndices[missKeys.size() - 1] = i;
+                }
+            }
+
+            if (missKeys.isEmpty()) { //everything was cached
+                return out;
+            }
+
+            //read all the missing values straight into pooled direct buffers using a single multi-get. each buffer is then owned by the corresponding snapshot.
+            int sizeHint = this.directReadSizeHint;
+            for (int j = 0; j < missKeys.size(); j++) {
+                missValues.add(ByteBufAllocator.DEFAULT.directBuffer(sizeHint));
+            }
+
+            long version = this.snapshotCacheVersion.get();
+            List<ByteBufferGetStatus> results = this.db.multiGetByteBuffers(READ_OPTIONS, Collections.nCopies(missKeys.size(), this.cfTile),
+                    missKeys.stream().map(ByteBuf::nioBuffer).collect(Collectors.toList()),
+                    missValues.stream().map(value -> value.nioBuffer(0, value.capacity())).collect(Collectors.toList()));
+
+            for (int j = 0; j < missKeys.size(); j++) {
+                ByteBuf value = missValues.set(j, null); //we're now responsible for releasing the buffer
+                ByteBufferGetStatus result = results.get(j);
+
+                if (result.status.getCode() == Status.Code.NotFound) { //the tile hasn't been initialized
+                    value.release();
+                    continue;
+                } else if (result.status.getCode() != Status.Code.Ok) {
+                    value.release();
+                    throw new RocksDBException(result.status);
+                }
+
+                if (result.requiredSize > value.capacity()) { //the value was bigger than the buffer, so we have to read it again
+                    value.release();
+                    this.directReadSizeHint = max(this.directReadSizeHint, result.requiredSize);
+                    if ((value = get(this.db, READ_OPTIONS, this.cfTile, missKeys.get(j), result.requiredSize)) == null) { //the tile has been deleted since
+                        continue;
+                    }
+                } else {
+                    value.writerIndex(result.requiredSize);
+                }
+
+                int i = missIndices[j];
+                out.set(i, this.toDirectSnapshot(positions.get(i), value, version));
+            }
+            return out;
+        } catch (Throwable t) { //release any snapshots we've already read
+            out.forEach(snapshot -> {
+                if (snapshot != null) {
+                    snapshot.release();
+                }
+            });
+            throw t;
+        } finally {
+            missKeys.forEach(ByteBuf::release);
+            missValues.forEach(value -> {
+                if (value != null) {
+                    value.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates a {@link DirectTileSnapshot} from a raw value which was read from the db into a direct buffer, resolving references to shared payloads and adding the
+     * value to the snapshot cache.
+     *
+     * @param pos     the tile's position
+     * @param value   the buffer containing the raw value. Ownership of the buffer is transferred to this method.
+     * @param version the value of {@link #snapshotCacheVersion} from before the value was read
+     * @return the snapshot, or {@code null} if the tile has been deleted since the value was read
+     */
+    protected DirectTileSnapshot<POS, T> toDirectSnapshot(@NonNull POS pos, @NonNull ByteBuf value, long version) {
+        try {
+            if (isPayloadReference(value)) { //the tile data is stored in a shared payload, copy the resolved value into the buffer
+                byte[] reference = new byte[value.readableBytes()];
+                value.readBytes(reference);
+
+                byte[] resolved = this.resolveValue(pos.toBytes(), reference);
+                if (resolved == null) { //the tile has been deleted since we read it
+                    value.release();
+                    return null;
+                }
+                value.clear().writeBytes(resolved);
+            }
+
+            if (this.snapshotCacheEnabled) { //neighbouring tiles will likely need the same inputs soon, so we'll keep a copy of the value on the heap
+                byte[] heapValue = new byte[value.readableBytes()];
+                value.getBytes(value.readerIndex(), heapValue);
+                this.cacheValue(pos, heapValue, version);
+            }
+
+            long timestamp = value.readLongLE();
+            value.skipBytes(TILE_HEADER_SIZE - Long.BYTES); //flags
+
+            if (!value.isReadable()) { //the tile is empty
+                value.release();
+                value = null;
+            }
+            return new DirectTileSnapshot<>(pos, timestamp, value);
+        } catch (Throwable t) {
+            if (value != null && value.refCnt() > 0) {
+                value.release();
+            }
+            throw t;
+        }
+    }
+
+    @Override
+    public TileDictionary dictionary(int level) {
+        return this.dictionaries.get(level);
+    }
+
+    /**
+     * Loads all of the {@link TileDictionary tile dictionaries} which have been persisted to disk.
+     */
+    @SneakyThrows(IOException.class)
+    protected void loadDictionaries() {
+        for (int level = 0; level < MAX_LODS; level++) {
+            Path file = this.dictionaryFile(level);
+            if (!Files.exists(file)) { //no dictionary has been built for this level yet
+                continue;
+            }
+
+            ByteBuf buf = Unpooled.wrappedBuffer(Files.readAllBytes(file));
+            if (buf.readIntLE() != DICTIONARY_FORMAT_VERSION) { //the dictionary is stored in an old format, ignore it so that it'll be rebuilt
+                continue;
+            }
+
+            int samples = buf.readIntLE();
+            TileDictionary dictionary = new TileDictionary(buf);
+            checkState(dictionary.level() == level, "dictionary file %s contains a dictionary for level %d", file, dictionary.level());
+
+            this.dictionarySamples.set(level, samples);
+            this.dictionaries.set(level, dictionary);
+        }
+    }
+
+    protected Path dictionaryFile(int level) {
+        return this.dictionaryRoot.toPath().resolve(level + ".zdict");
+    }
+
+    /**
+     * Called after a non-empty tile has been written at the given level, in order to (re-)build the level's {@link TileDictionary} if necessary.
+     * <p>
+     * A level's dictionary is initially built once {@link #DICTIONARY_MIN_SAMPLES} tiles have been written to it. After that, the dictionary is rebuilt whenever the
+     * number of tiles written since the last build exceeds four times the number of samples the dictionary was built from, until it has been built from
+     * {@link #DICTIONARY_MAX_SAMPLES} samples.
+     * <p>
+     * Dictionaries are built in the background, so this doesn't hold up the thread which committed the write.
+     */
+    protected void tileWritten(int level) {
+        int samples = this.dictionarySamples.get(level);
+        if (samples >= DICTIONARY_MAX_SAMPLES) { //the dictionary is already as good as it's going to get
+            return;
+        }
+
+        if (this.dictionaryWrites.incrementAndGet(level) >= max(DICTIONARY_MIN_SAMPLES, samples << 2)
+            && this.dictionaryBuilding.compareAndSet(level, 0, 1)) { //we're the first thread to notice that the dictionary needs to be rebuilt
+            this.executor.execute(() -> {
+                //the storage will wait for us to finish before closing the db. if maintenance is currently running, we'll simply try again after the next write.
+                if (!this.maintenanceLock.tryLock()) {
+                    this.dictionaryBuilding.set(level, 0);
+                    return;
+                }
+                try {
+                    if (!this.closing) {
+                        this.buildDictionary(level);
+                    }
+                } catch (Throwable t) {
+                    FP2_LOG.error("failed to build tile dictionary for level " + level, t);
+                } finally {
+                    this.maintenanceLock.unlock();
+                    this.dictionaryBuilding.set(level, 0);
+                }
+            });
+        }
+    }
+
+    /**
+     * Builds a new {@link TileDictionary} for the given level from a sample of the tiles currently stored at that level, and persists it to disk.
+     * <p>
+     * Samples are taken at an even stride across the level's entire key range. Since keys are ordered along a space-filling curve, this spreads the samples over all
+     * of the level's tiles instead of concentrating them in a single corner of the world.
+     */
+    @SneakyThrows({ IOException.class, RocksDBException.class })
+    protected void buildDictionary(int level) {
+        //select the keys to sample in a single pass over the level's key range. we don't know how many keys there are in advance, so we start by taking every key
+        //  and double the stride (discarding every other selected key) whenever we've selected too many.
+        List<byte[]> keys = new ArrayList<>(DICTIONARY_MAX_SAMPLES << 1);
+        long stride = 1L;
+        try (RocksIterator itr = this.db.newIterator(this.cfTile)) {
+            //keys are prefixed with the level, so we can simply iterate over the level's key range
+            long index = 0L;
+            for (itr.seek(new byte[]{ (byte) level }); itr.isValid() && !this.closing; itr.next(), index++) {
+                byte[] key = itr.key();
+                if (key[0] != (byte) level) { //we've reached the end of the level's key range
+                    break;
+                }
+
+                if (index % stride == 0L) {
+                    keys.add(key);
+                    if (keys.size() == DICTIONARY_MAX_SAMPLES << 1) {
+                        for (int i = 0, j = 0; i < keys.size(); i += 2, j++) {
+                            keys.set(j, keys.get(i));
+                        }
+                        keys.subList(DICTIONARY_MAX_SAMPLES, keys.size()).clear();
+                        stride <<= 1L;
+                    }
+                }
+            }
+        }
+
+        if (this.closing) {
+            return;
+        }
+
+        if (keys.size() > DICTIONARY_MAX_SAMPLES) { //take an even subset of the selected keys
+            List<byte[]> subset = new ArrayList<>(DICTIONARY_MAX_SAMPLES);
+            for (int i = 0; i < DICTIONARY_MAX_SAMPLES; i++) {
+                subset.add(keys.get((int) ((long) i * keys.size() / DICTIONARY_MAX_SAMPLES)));
+            }
+            keys = subset;
+        }
+
+        //read all of the sampled tiles at once
+        List<byte[]> values = this.db.multiGetAsList(READ_OPTIONS, Collections.nCopies(keys.size(), this.cfTile), keys);
+        List<byte[]> samples = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] value = values.get(i) != null ? this.resolveValue(keys.get(i), values.get(i)) : null;
+            byte[] data = value != null ? tileValueData(value) : null;
+            if (data != null) { //skip empty tiles
+                samples.add(data);
+            }
+        }
+
+        TileDictionary oldDictionary = this.dictionaries.get(level);
+        TileDictionary dictionary = TileDictionary.build(level, oldDictionary != null ? oldDictionary.version() + 1 : 1, samples);
+        if (dictionary == null) { //there were no usable samples
+            return;
+        }
+
+        //write whole dictionary to temporary file and sync to storage device, then atomically replace the existing one
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeIntLE(DICTIONARY_FORMAT_VERSION).writeIntLE(samples.size());
+        dictionary.write(buf);
+
+        Path tempFile = this.dictionaryRoot.toPath().resolve(level + ".zdict.tmp");
+        Files.write(tempFile, Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.arrayOffset() + buf.writerIndex()), WRITE, CREATE, TRUNCATE_EXISTING, SYNC);
+        Files.move(tempFile, this.dictionaryFile(level), REPLACE_EXISTING, ATOMIC_MOVE);
+
+        this.dictionaryWrites.set(level, 0);
+        this.dictionarySamples.set(level, samples.size());
+        this.dictionaries.set(level, dictionary);
+    }
+
+    @Override
+    @SneakyThrows(RocksDBException.class)
+    public void forEachTileIn(@NonNull POS cell, int level, @NonNull Consumer<ITileSnapshot<POS, T>> callback) {
+        checkArg(level >= 0 && level <= cell.level(), "level (%d) must be between 0 and the cell's level (%d)", level, cell.level());
+        checkArg(cell.level() - level <= RANGE_SCAN_MAX_CELL_SHIFT, "cell at level %d is too large to scan tiles at level %d", cell.level(), level);
+
+        //the values are cached as they're read, so that reading them again shortly afterwards (e.g. if the caller has to discard an outdated snapshot) is cheap
+        long version = this.snapshotCacheVersion.get();
+        long[] indexVersions = this.timestampIndex.versions();
+
+        //all tiles in the cell occupy a single contiguous range of keys, starting with the cell's minimum corner. an iterator reads from an implicit snapshot
+        //  taken when it was created, so all of the values will be mutually consistent.
+        try (RocksIterator itr = this.db.newIterator(this.cfTile, READ_OPTIONS)) {
+            for (itr.seek(cell.downTo(level).toBytes()); itr.isValid(); itr.next()) {
+                POS pos = this.mode.readPos(Unpooled.wrappedBuffer(itr.key()));
+                if (pos.level() != level || !cell.equals(pos.upTo(cell.level()))) { //we've reached the end of the cell
+                    break;
+                }
+
+                byte[] value = this.resolveValue(itr.key(), itr.value());
+                if (value == null) {
+                    continue;
+                }
+
+                this.cacheValue(pos, value, version);
+
+                long timestamp = readLongLE(value);
+                this.timestampIndex.timestampLoaded(pos, indexVersions, timestamp);
+                callback.accept(new TileSnapshot<>(pos, timestamp, tileValueData(value)));
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> forEachTileInAsync(@NonNull POS cell, int level, @NonNull Consumer<ITileSnapshot<POS, T>> callback) {
+        return CompletableFuture.runAsync(() -> this.forEachTileIn(cell, level, callback), this.executor);
+    }
+
+    @Override
+    public void maintain(@NonNull IntAxisAlignedBB[] coordLimits, boolean recompress, @NonNull Consumer<String> progress) {
+        //the storage will wait for us to finish before closing the db. we check whether it's closing between each step, and give up if it is.
+        this.maintenanceLock.lock();
+        try {
+            if (this.closing) {
+                return;
+            }
+
+            progress.accept("Pruning out-of-bounds and blank tiles");
+            long prunedTiles = this.pruneTiles((pos, value) -> !pos.containedBy(coordLimits) || isBlankTileValue(value));
+            progress.accept(PStrings.fastFormat("Pruned %d tiles", prunedTiles));
+
+            progress.accept("Pruning out-of-bounds and orphaned vanilla terrain markers");
+            long prunedVanilla = this.pruneAnyVanillaExists(pos -> !pos.containedBy(coordLimits));
+            progress.accept(PStrings.fastFormat("Pruned %d vanilla terrain markers", prunedVanilla));
+
+            progress.accept("Pruning stale dirty timestamps");
+            long prunedDirty = this.pruneDirtyTimestamps();
+            progress.accept(PStrings.fastFormat("Pruned %d dirty timestamps", prunedDirty));
+
+            if (this.closing) {
+                return;
+            }
 
-    protected static final ColumnFamilyOptions CF_OPTIONS = new ColumnFamilyOptions()
-            .setCompressionType(CompressionType.ZSTD_COMPRESSION);
+            Map<String, ColumnFamilyHandle> columnFamilies = new LinkedHashMap<>();
+            columnFamilies.put(COLUMN_NAME_TILE, this.cfTile);
+            columnFamilies.put(COLUMN_NAME_TILE_DIRTY_TIMESTAMP, this.cfTileDirtyTimestamp);
+            columnFamilies.put(COLUMN_NAME_ANY_VANILLA_EXISTS, this.cfAnyVanillaExists);
+            columnFamilies.put(COLUMN_NAME_TILE_PAYLOAD, this.cfTilePayload);
+            columnFamilies.put(COLUMN_NAME_TILE_PAYLOAD_REFCOUNT, this.cfTilePayloadRefcount);
+            RocksStorageMaintenance.compact(this.db, columnFamilies, recompress, progress, () -> this.closing); //compacts in slices, so closing doesn't have to wait for long
+        } finally {
+            this.maintenanceLock.unlock();
+        }
+    }
 
-    protected static final ReadOptions READ_OPTIONS = new ReadOptions();
-    protected static final WriteOptions WRITE_OPTIONS = new WriteOptions();
-    protected static final FlushOptions FLUSH_OPTIONS = new FlushOptions().setWaitForFlush(true).setAllowWriteStall(true);
+    @Override
+    public void backup(@NonNull File backupRoot, @NonNull Consumer<String> progress) {
+        //as with maintenance, the storage will wait for the backup to finish before closing the db
+        this.maintenanceLock.lock();
+        try {
+            if (this.closing) {
+                return;
+            }
 
-    protected static final byte[] COLUMN_NAME_TILE_TIMESTAMP = "tile_timestamp".getBytes(StandardCharsets.UTF_8);
-    protected static final byte[] COLUMN_NAME_TILE_DIRTY_TIMESTAMP = "tile_dirty_timestamp".getBytes(StandardCharsets.UTF_8);
-    protected static final byte[] COLUMN_NAME_TILE_DATA = "tile_data".getBytes(StandardCharsets.UTF_8);
-    protected static final byte[] COLUMN_NAME_ANY_VANILLA_EXISTS = "tile_any_vanilla_terrain_exists".getBytes(StandardCharsets.UTF_8);
+            checkState(this.world != null, "storage doesn't belong to a world");
+            File backupDirectory = RocksStorageBackup.backupDirectoryFor(this.world.world().getSaveHandler().getWorldDirectory(), backupRoot, this.storageRoot);
+            if (!this.database.shared()) { //the shared db is backed up separately, since it contains the data of multiple storages
+                RocksStorageBackup.backupDatabase(this.db, backupDirectory, progress);
+            }
 
-    //
-    // rocksdb helper methods
-    //
+            //the dictionaries are copied after the db has been backed up, so they'll never be older than the tiles in the backup
+            List<File> files = new ArrayList<>();
+            files.add(this.markerFile);
+            for (int level = 0; level < MAX_LODS; level++) {
+                files.add(this.dictionaryFile(level).toFile());
+            }
+            RocksStorageBackup.backupFiles(this.storageRoot, backupDirectory, files);
+        } finally {
+            this.maintenanceLock.unlock();
+        }
+    }
 
+    /**
+     * Deletes all tiles matching the given filter.
+     *
+     * @param filter a function which is given each tile's position and raw value, and returns whether or not the tile should be deleted
+     * @return the number of deleted tiles
+     */
     @SneakyThrows(RocksDBException.class)
-    protected static ByteBuf get(@NonNull RocksDB db, @NonNull ColumnFamilyHandle handle, @NonNull ByteBuf key, int preallocateBytes) {
-        ByteBuffer keyNioBuffer = key.nioBuffer();
-
-        ByteBuf value = ByteBufAllocator.DEFAULT.directBuffer(preallocateBytes);
+    protected long pruneTiles(@NonNull BiPredicate<POS, byte[]> filter) {
+        long count = 0L;
 
-        int len = db.get(handle, READ_OPTIONS, keyNioBuffer, value.nioBuffer(value.readerIndex(), value.capacity()));
+        try (RocksIterator itr = this.db.newIterator(this.cfTile);
+             WriteBatch batch = new WriteBatch()) {
+            List<POS> positions = new ArrayList<>();
+            for (itr.seekToFirst(); itr.isValid() && !this.closing; itr.next()) {
+                byte[] key = itr.key();
+                POS pos = this.mode.readPos(Unpooled.wrappedBuffer(key));
+                if (filter.test(pos, itr.value())) {
+                    batch.delete(this.cfTile, key);
+                    batch.delete(this.cfTileDirtyTimestamp, key);
+                    positions.add(pos);
+
+                    if (positions.size() >= WRITE_BATCH_MAX_SIZE) { //write batch is full, write it to the db
+                        count += this.writePruneBatch(batch, positions);
+                    }
+                }
+            }
+            count += this.writePruneBatch(batch, positions);
+        }
+        return count;
+    }
 
-        if (len == RocksDB.NOT_FOUND) { //value wasn't found
-            value.release();
-            return null;
-        } else if (len > value.writableBytes()) { //value was found, but is bigger than the buffer
-            //grow buffer to required size and try again
-            value.ensureWritable(len);
+    protected int writePruneBatch(@NonNull WriteBatch batch, @NonNull List<POS> positions) throws RocksDBException {
+        int count = positions.size();
+        if (count == 0) {
+            return 0;
+        }
 
-            keyNioBuffer.rewind();
-            len = db.get(handle, READ_OPTIONS, keyNioBuffer, value.nioBuffer(value.readerIndex(), value.capacity()));
+        //the deletions have to be coherent with the caches in the same way as regular writes, so we hold the write lock to prevent concurrent commits and bump
+        //  the snapshot cache version around the write (see commitWrites)
+        this.writeLock.lock();
+        try {
+            //release the shared payloads referenced by the deleted tiles. this has to be done while holding the write lock, since the tiles could otherwise be
+            //  modified before the batch is written.
+            PayloadRefUpdates payloadRefs = new PayloadRefUpdates();
+            byte[] headerArray = new byte[TILE_HEADER_SIZE + PAYLOAD_ID_SIZE];
+            for (POS pos : positions) {
+                if (isPayloadReference(headerArray, this.db.get(this.cfTile, READ_OPTIONS, pos.toBytes(), headerArray))) {
+                    payloadRefs.release(Arrays.copyOfRange(headerArray, TILE_HEADER_SIZE, headerArray.length));
+                }
+            }
+            payloadRefs.write(batch);
+
+            this.snapshotCacheVersion.incrementAndGet();
+            try {
+                this.db.write(WRITE_OPTIONS, batch);
+                payloadRefs.written();
+            } finally {
+                for (POS pos : positions) {
+                    this.snapshotCache.invalidate(pos);
+
+                    //the timestamp index must stay coherent, so we reset the tile's entry rather than simply evicting it
+                    this.timestampIndex.deleted(pos);
+                }
+                this.snapshotCacheVersion.incrementAndGet();
+            }
+        } finally {
+            this.writeLock.unlock();
         }
-        return value.writerIndex(len);
+
+        batch.clear();
+        positions.clear();
+        return count;
     }
 
+    /**
+     * Deletes all vanilla terrain markers matching the given filter, as well as all orphaned markers (i.e. those whose tile doesn't exist).
+     * <p>
+     * Markers are no longer written, so there's no risk of deleting a marker which is being added concurrently.
+     *
+     * @return the number of deleted markers
+     */
     @SneakyThrows(RocksDBException.class)
-    protected static void put(@NonNull RocksDB db, @NonNull ColumnFamilyHandle handle, @NonNull ByteBuf key, @NonNull ByteBuf value) {
-        db.put(handle, WRITE_OPTIONS, key.nioBuffer(), value.nioBuffer());
+    protected long pruneAnyVanillaExists(@NonNull Predicate<POS> filter) {
+        long count = 0L;
+
+        try (RocksIterator itr = this.db.newIterator(this.cfAnyVanillaExists);
+             WriteBatch batch = new WriteBatch()) {
+            byte[] timestampArray = new byte[TILE_HEADER_SIZE];
+            for (itr.seekToFirst(); itr.isValid() && !this.closing; itr.next()) {
+                byte[] key = itr.key();
+                if (filter.test(this.mode.readPos(Unpooled.wrappedBuffer(key))) || this.readTimestamp(key, timestampArray) == TIMESTAMP_BLANK) {
+                    batch.delete(this.cfAnyVanillaExists, key);
+                    count++;
+
+                    if (batch.count() >= WRITE_BATCH_MAX_SIZE) { //write batch is full, write it to the db
+                        this.db.write(WRITE_OPTIONS, batch);
+                        batch.clear();
+                    }
+                }
+            }
+            this.db.write(WRITE_OPTIONS, batch);
+        }
+        return count;
     }
 
+    /**
+     * Deletes all stale dirty timestamps, i.e. those of tiles which don't exist or which have been written since they were marked as dirty.
+     * <p>
+     * Unlike {@link #cleanDirtyTimestamps()}, this is safe to run while the storage is in use. The dirty timestamps are checked and deleted in slices of at most
+     * {@link #WRITE_BATCH_MAX_SIZE} entries, each while holding both {@link #writeLock} (so that tiles can't be written concurrently) and the write lock of
+     * {@link #dirtyTimestampLock} (so that dirty timestamps can't be merged concurrently). Any dirty timestamps which were deferred while a slice was being
+     * processed are written after each slice.
+     *
+     * @return the number of deleted dirty timestamps
+     */
     @SneakyThrows(RocksDBException.class)
-    protected static void delete(@NonNull RocksDB db, @NonNull ColumnFamilyHandle handle, @NonNull ByteBuf key) {
-        db.delete(handle, WRITE_OPTIONS, key.nioBuffer());
-    }
+    protected long pruneDirtyTimestamps() {
+        long count = 0L;
+
+        try (RocksIterator itr = this.db.newIterator(this.cfTileDirtyTimestamp);
+             WriteBatch batch = new WriteBatch()) {
+            byte[] timestampArray = new byte[TILE_HEADER_SIZE];
+            List<byte[]> keys = new ArrayList<>(WRITE_BATCH_MAX_SIZE);
+            for (itr.seekToFirst(); itr.isValid() && !this.closing; ) {
+                //collect the keys of the next slice. the iterator's values may already be outdated, so they're read again once we hold the locks.
+                for (; itr.isValid() && keys.size() < WRITE_BATCH_MAX_SIZE; itr.next()) {
+                    keys.add(itr.key());
+                }
 
-    protected static long readLongLE(@NonNull byte[] src) {
-        return readLongLE(src, 0);
+                List<POS> positions = new ArrayList<>();
+                List<Long> dirtyTimestamps = new ArrayList<>();
+
+                this.writeLock.lock();
+                this.dirtyTimestampLock.writeLock().lock();
+                try {
+                    for (byte[] key : keys) {
+                        long dirtyTimestamp = this.readRawDirtyTimestamp(key);
+                        long timestamp = this.readTimestamp(key, timestampArray);
+                        if (dirtyTimestamp != TIMESTAMP_BLANK && (timestamp == TIMESTAMP_BLANK || dirtyTimestamp <= timestamp)) { //the entry is stale
+                            batch.delete(this.cfTileDirtyTimestamp, key);
+                            positions.add(this.mode.readPos(Unpooled.wrappedBuffer(key)));
+                            dirtyTimestamps.add(dirtyTimestamp);
+                        }
+                    }
+                    this.db.write(WRITE_OPTIONS, batch);
+
+                    for (int i = 0; i < positions.size(); i++) {
+                        this.timestampIndex.dirtyTimestampCleared(positions.get(i), dirtyTimestamps.get(i));
+                    }
+                } finally {
+                    this.dirtyTimestampLock.writeLock().unlock();
+                    this.writeLock.unlock();
+                }
+
+                //write any dirty timestamps which were deferred while we were holding the lock
+                this.writeDeferredDirtyMarks();
+
+                count += positions.size();
+                batch.clear();
+                keys.clear();
+            }
+        }
+        return count;
     }
 
-    protected static long readLongLE(@NonNull byte[] src, int index) {
-        checkRangeLen(src.length, index, Long.BYTES);
+    @Override
+    public void forEachDirtyPos(@NonNull Consumer<POS> callback) {
 
-        long val = PUnsafe.getLong(src, PUnsafe.ARRAY_BYTE_BASE_OFFSET + index);
-        return PlatformInfo.IS_BIG_ENDIAN ? Long.reverseBytes(val) : val;
+        try (RocksIterator itr = this.db.newIterator(this.cfTileDirtyTimestamp)) {
+            byte[] timestampArray = new byte[TILE_HEADER_SIZE];
+            for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+                byte[] key = itr.key();
+
+                long timestamp = this.readTimestamp(key, timestampArray);
+                if (timestamp != TIMESTAMP_BLANK && decodeDirtyTimestamp(itr.value()) > timestamp) { //skip stale entries
+                    callback.accept(this.mode.readPos(Unpooled.wrappedBuffer(key)));
+                }
+            }
+        }
     }
 
-    protected static byte[] writeLongLE(long val) {
-        byte[] dst = new byte[Long.BYTES];
-        writeLongLE(dst, 0, val);
-        return dst;
+    @Override
+    public List<Stream<POS>> dirtyPosShards(int shardsPerLevel) {
+        positive(shardsPerLevel, "shardsPerLevel");
+
+        //keys are prefixed with the tile's detail level, so each level occupies a contiguous range of keys. we split each level's range individually, in order to
+        //  keep shards from spanning multiple levels and to have sub-ranges which are actually of similar sizes.
+        List<Stream<POS>> shards = new ArrayList<>();
+        try (RocksIterator itr = this.db.newIterator(this.cfTileDirtyTimestamp)) {
+            for (itr.seekToFirst(); itr.isValid(); ) {
+                byte[] first = itr.key();
+                byte[] levelEnd = { (byte) (first[0] + 1) }; //sorts after all keys at the current level, since it's a prefix of all keys at the next one
+
+                itr.seekForPrev(levelEnd);
+                byte[] last = itr.key();
+
+                List<byte[]> bounds = splitKeyRange(first, last, shardsPerLevel);
+                for (int i = 0; i < bounds.size(); i++) {
+                    DirtyPosSpliterator spliterator = new DirtyPosSpliterator(bounds.get(i), i + 1 < bounds.size() ? bounds.get(i + 1) : levelEnd);
+                    shards.add(StreamSupport.stream(spliterator, false).onClose(spliterator));
+                }
+
+                itr.seek(levelEnd);
+            }
+        }
+        return shards;
     }
 
-    protected static void writeLongLE(@NonNull byte[] dst, int index, long val) {
-        checkRangeLen(dst.length, index, Long.BYTES);
+    @Override
+    @SneakyThrows(RocksDBException.class)
+    public Stream<POS> markAllDirty(@NonNull Stream<POS> positionsIn, long dirtyTimestamp) {
+        //dirty timestamps are combined using the max merge operator, so marking tiles as dirty is a pure blind write which doesn't have to read or lock anything.
+        //  readers ignore dirty timestamps which aren't newer than the tile's timestamp, so there's no need to check whether the tile exists or is older than the
+        //  new dirty timestamp. this is called from the server thread, which must never have to wait for tile storage.
 
-        PUnsafe.putLong(dst, PUnsafe.ARRAY_BYTE_BASE_OFFSET + index, PlatformInfo.IS_BIG_ENDIAN ? Long.reverseBytes(val) : val);
+        List<POS> positions = positionsIn.distinct().collect(Collectors.toList());
+
+        if (positions.isEmpty()) { //nothing to do!
+            return Stream.empty();
+        }
+
+        if (this.tryMergeDirtyTimestamps(positions, dirtyTimestamp)) {
+            this.notifyDirtyAsync(positions, dirtyTimestamp);
+        }
+        return positions.stream();
     }
 
-    protected final AbstractFarTileProvider<POS, T> world;
+    /**
+     * Merges the given dirty timestamp into the dirty timestamps of all of the given tiles, unless maintenance is currently deleting stale dirty timestamps.
+     * <p>
+     * If it is, the write is deferred until maintenance releases {@link #dirtyTimestampLock}, at which point the listeners will be notified asynchronously (see
+     * {@link #notifyDirtyAsync(List, long)}).
+     *
+     * @param positions      the positions of the tiles to mark as dirty
+     * @param dirtyTimestamp the new dirty timestamp
+     * @return whether or not the dirty timestamps were written immediately
+     */
+    protected boolean tryMergeDirtyTimestamps(@NonNull List<POS> positions, long dirtyTimestamp) throws RocksDBException {
+        Lock lock = this.dirtyTimestampLock.readLock();
+        if (!lock.tryLock()) { //maintenance is currently deleting stale dirty timestamps
+            this.deferredDirtyMarks.add(new DeferredDirtyMark<>(positions, dirtyTimestamp));
+
+            //maintenance could have released the lock and drained the queue before our write was added, so we have to try again
+            this.writeDeferredDirtyMarks();
+            return false;
+        }
 
-    protected final TransactionDB db;
-    protected final List<ColumnFamilyHandle> handles;
+        try {
+            this.mergeDirtyTimestamps(positions, dirtyTimestamp);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
 
-    protected final ColumnFamilyHandle cfTileTimestamp;
-    protected final ColumnFamilyHandle cfTileDirtyTimestamp;
-    protected final ColumnFamilyHandle cfTileData;
-    protected final ColumnFamilyHandle cfAnyVanillaExists;
+    /**
+     * Writes all deferred dirty timestamps, unless maintenance is currently deleting stale dirty timestamps (in which case it will write them once it's done).
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected void writeDeferredDirtyMarks() {
+        Lock lock = this.dirtyTimestampLock.readLock();
+        if (this.deferredDirtyMarks.isEmpty() || !lock.tryLock()) {
+            return;
+        }
 
-    protected final Set<Listener<POS, T>> listeners = new CopyOnWriteArraySet<>();
+        try {
+            for (DeferredDirtyMark<POS> mark; (mark = this.deferredDirtyMarks.poll()) != null; ) {
+                this.mergeDirtyTimestamps(mark.positions, mark.dirtyTimestamp);
+                this.notifyDirtyAsync(mark.positions, mark.dirtyTimestamp);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-    protected final int version;
+    protected void mergeDirtyTimestamps(@NonNull List<POS> positions, long dirtyTimestamp) throws RocksDBException {
+        byte[] dirtyTimestampBytes = encodeDirtyTimestamp(dirtyTimestamp);
+        try (WriteBatch batch = new WriteBatch()) {
+            for (POS pos : positions) {
+                batch.merge(this.cfTileDirtyTimestamp, pos.toBytes(), dirtyTimestampBytes);
+            }
+            this.db.write(WRITE_OPTIONS, batch);
+        }
 
-    protected final LoadingCache<POS, ITileHandle<POS, T>> handleCache = CacheBuilder.newBuilder()
-            .concurrencyLevel(FP2Config.global().performance().terrainThreads())
-            .weakValues()
-            .build(CacheLoader.from(pos -> new RocksTileHandle<>(pos, this)));
+        //update the cached dirty timestamps
+        for (POS pos : positions) {
+            this.timestampIndex.dirtyTimestampUpdated(pos, dirtyTimestamp);
+        }
+    }
+
+    /**
+     * Notifies the listeners of the given tiles which are actually dirty now.
+     * <p>
+     * Finding out which ones those are requires reading the tiles' timestamps, so it's done on an I/O thread rather than on the caller's thread.
+     */
+    protected void notifyDirtyAsync(@NonNull List<POS> positions, long dirtyTimestamp) {
+        this.executor.execute(() -> {
+            List<POS> dirtyPositions = this.dirtyPositions(positions, dirtyTimestamp);
+            if (!dirtyPositions.isEmpty()) {
+                this.listeners.forEach(listener -> listener.tilesDirty(dirtyPositions.stream()));
+            }
+        });
+    }
 
+    /**
+     * Determines which of the given tiles are dirty as of the given timestamp, i.e. which of them exist and have a timestamp older than the given one.
+     * <p>
+     * Timestamps cached in the {@link #timestampIndex} are used where possible, all others are read from the db using a single multi-get which only copies the values'
+     * headers.
+     *
+     * @param positions      the positions of the tiles to check
+     * @param dirtyTimestamp the dirty timestamp
+     * @return the positions of the tiles which are dirty
+     */
     @SneakyThrows(RocksDBException.class)
-    public RocksStorage(@NonNull AbstractFarTileProvider<POS, T> world, @NonNull File storageRoot) {
-        this.world = world;
-        this.version = world.mode().storageVersion();
+    protected List<POS> dirtyPositions(@NonNull List<POS> positions, long dirtyTimestamp) {
+        List<POS> out = new ArrayList<>(positions.size());
+        List<POS> uncachedPositions = new ArrayList<>();
+        for (POS pos : positions) {
+            long timestamp = this.timestampIndex.timestamp(pos);
+            if (timestamp != TileTimestampIndex.UNKNOWN) { //the timestamp is cached, no need to read anything
+                if (timestamp != TIMESTAMP_BLANK && dirtyTimestamp > timestamp) {
+                    out.add(pos);
+                }
+            } else {
+                uncachedPositions.add(pos);
+            }
+        }
 
-        File markerFile = new File(storageRoot, "v4");
-        if (PFiles.checkDirectoryExists(storageRoot) && !PFiles.checkFileExists(markerFile)) { //it's an old storage
-            PFiles.rmContentsParallel(storageRoot);
+        int length = uncachedPositions.size();
+        if (length == 0) { //nothing else to do!
+            return out;
         }
-        PFiles.ensureDirectoryExists(storageRoot);
 
-        List<ColumnFamilyDescriptor> descriptors = Arrays.asList(
-                new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, CF_OPTIONS),
-                new ColumnFamilyDescriptor(COLUMN_NAME_TILE_TIMESTAMP, CF_OPTIONS),
-                new ColumnFamilyDescriptor(COLUMN_NAME_TILE_DIRTY_TIMESTAMP, CF_OPTIONS),
-                new ColumnFamilyDescriptor(COLUMN_NAME_TILE_DATA, CF_OPTIONS),
-                new ColumnFamilyDescriptor(COLUMN_NAME_ANY_VANILLA_EXISTS, CF_OPTIONS));
-        this.handles = new ArrayList<>(descriptors.size());
+        ByteBuf keys = ByteBufAllocator.DEFAULT.directBuffer();
+        ByteBuf values = ByteBufAllocator.DEFAULT.directBuffer(length * TILE_HEADER_SIZE);
+        try {
+            //write all the keys into a single buffer
+            int[] keyOffsets = new int[length + 1];
+            for (int i = 0; i < length; i++) {
+                uncachedPositions.get(i).writePos(keys);
+                keyOffsets[i + 1] = keys.writerIndex();
+            }
 
-        this.db = TransactionDB.open(DB_OPTIONS, TX_DB_OPTIONS, storageRoot.getPath(), descriptors, this.handles);
+            //read each tile's header. values which don't fit in their buffer are truncated, so we won't copy any tile data.
+            List<ByteBuffer> keyBuffers = new ArrayList<>(length);
+            List<ByteBuffer> valueBuffers = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                keyBuffers.add(keys.nioBuffer(keyOffsets[i], keyOffsets[i + 1] - keyOffsets[i]));
+                valueBuffers.add(values.nioBuffer(i * TILE_HEADER_SIZE, TILE_HEADER_SIZE));
+            }
+            List<ByteBufferGetStatus> results = this.db.multiGetByteBuffers(READ_OPTIONS, Collections.nCopies(length, this.cfTile), keyBuffers, valueBuffers);
 
-        this.cfTileTimestamp = this.handles.get(1);
-        this.cfTileDirtyTimestamp = this.handles.get(2);
-        this.cfTileData = this.handles.get(3);
-        this.cfAnyVanillaExists = this.handles.get(4);
+            for (int i = 0; i < length; i++) {
+                ByteBufferGetStatus result = results.get(i);
+                if (result.status.getCode() == Status.Code.NotFound) { //the tile doesn't exist, so it can't be dirty
+                    continue;
+                } else if (result.status.getCode() != Status.Code.Ok) {
+                    throw new RocksDBException(result.status);
+                }
 
-        PFiles.ensureFileExists(markerFile); //create marker file
+                if (dirtyTimestamp > values.getLongLE(i * TILE_HEADER_SIZE)) {
+                    out.add(uncachedPositions.get(i));
+                }
+            }
+        } finally {
+            keys.release();
+            values.release();
+        }
+        return out;
     }
 
-    @Override
-    public ITileHandle<POS, T> handleFor(@NonNull POS pos) {
-        return this.handleCache.getUnchecked(pos);
+    /**
+     * Atomically sets the tile at the given position to the given data.
+     * <p>
+     * Writes from all threads are combined into batches: the tile is encoded on the calling thread and added to a queue, after which whichever thread holds the write lock
+     * commits all of the queued writes (up to {@link #WRITE_BATCH_MAX_SIZE} at a time) in a single transaction. The batching window is therefore bounded by both the batch
+     * size and the time it takes to commit the previous batch, so a single uncontended writer doesn't incur any additional latency.
+     * <p>
+     * Listeners are notified of the changed tiles once the write lock has been released, so that they don't hold up other writers. Only the outcome of the
+     * caller's own write is reported: if a batch committed on behalf of other threads fails, the failure is only reported to the threads whose writes it contained.
+     *
+     * @see ITileHandle#set(ITileMetadata, IFarTile)
+     */
+    protected boolean set(@NonNull POS pos, @NonNull ITileMetadata metadata, @NonNull T tile) {
+        PendingWrite<POS> write = this.enqueueWrite(pos, metadata, tile);
+
+        List<POS> changedPositions = new ArrayList<>();
+        this.writeLock.lock();
+        try {
+            while (!write.isDone()) { //keep committing batches until our own write has been committed (possibly by another thread)
+                try {
+                    changedPositions.addAll(this.commitPendingWrites());
+                } catch (Throwable t) {
+                    //a failed batch completes all of its writes exceptionally, so the failure has already been reported to the threads whose writes it contained.
+                    //  if our write was one of them, the loop will exit and join() will rethrow the failure; otherwise it's none of our business and we keep
+                    //  going until our own write has been committed.
+                }
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+        this.tilesChanged(changedPositions);
+
+        return this.writeCompleted(write, write.join());
     }
 
-    @Override
-    public void forEachDirtyPos(@NonNull Consumer<POS> callback) {
-        IFarRenderMode<POS, T> mode = this.world.mode();
+    /**
+     * Asynchronously sets the tile at the given position to the given data.
+     * <p>
+     * The tile is encoded on the calling thread and queued exactly like in {@link #set(IFarPos, ITileMetadata, IFarTile)}, but the batch is committed on an I/O
+     * thread. Since any I/O thread which commits will keep going until the queue is empty, concurrent asynchronous writes are combined into as few batches as
+     * possible.
+     *
+     * @see ITileHandle#setAsync(ITileMetadata, IFarTile)
+     */
+    protected CompletableFuture<Boolean> setAsync(@NonNull POS pos, @NonNull ITileMetadata metadata, @NonNull T tile) {
+        PendingWrite<POS> write = this.enqueueWrite(pos, metadata, tile);
+        this.executor.execute(this::commitAllPendingWrites);
+        return write.thenApply(result -> this.writeCompleted(write, result));
+    }
 
-        try (RocksIterator itr = this.db.newIterator(this.cfTileDirtyTimestamp)) {
-            for (itr.seekToFirst(); itr.isValid(); itr.next()) {
-                byte[] key = itr.key();
-                callback.accept(mode.readPos(Unpooled.wrappedBuffer(key)));
+    /**
+     * Commits batches of queued writes until the queue is empty.
+     */
+    protected void commitAllPendingWrites() {
+        if (this.pendingWrites.isEmpty()) { //another thread already committed our write
+            return;
+        }
+
+        List<POS> changedPositions = new ArrayList<>();
+        this.writeLock.lock();
+        try {
+            while (!this.pendingWrites.isEmpty()) {
+                changedPositions.addAll(this.commitPendingWrites());
             }
+        } finally {
+            this.writeLock.unlock();
         }
+        this.tilesChanged(changedPositions);
     }
 
-    @Override
-    @SneakyThrows(RocksDBException.class)
-    public Stream<POS> markAllDirty(@NonNull Stream<POS> positionsIn, long dirtyTimestamp) {
-        //we'll buffer all the positions, lock all of them at once, compare each one and then commit as many as needed. the logic here is identical to
-        //  RocksTileHandle#markDirty(long), but in bulk, and since RocksTileHandle doesn't cache anything internally, we don't need to get any instances
-        //  of RocksTileHandle or do any additional synchronization.
-
-        List<POS> positions = positionsIn.distinct().collect(Collectors.toList());
-        int length = positions.size();
+    /**
+     * Checks whether tile data of the given length is stored as a shared payload rather than inline.
+     * <p>
+     * Data which isn't longer than a payload ID is always stored inline, since a reference wouldn't be any smaller.
+     *
+     * @see #PAYLOAD_ID_SIZE
+     */
+    protected boolean storesAsPayload(int dataLength) {
+        return this.deduplicate && dataLength > PAYLOAD_ID_SIZE;
+    }
 
-        if (length == 0) { //nothing to do!
-            return Stream.empty();
+    /**
+     * Encodes the given tile and adds it to the queue of writes to be committed.
+     */
+    protected PendingWrite<POS> enqueueWrite(@NonNull POS pos, @NonNull ITileMetadata metadata, @NonNull T tile) {
+        //encode tile on the calling thread so that the committing thread doesn't have to
+        byte[] value;
+        ByteBuf buf = ByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            buf.writeLongLE(metadata.timestamp()).writeByte(0); //header, no flags are set
+            if (tile.write(buf)) { //the tile was empty, only the header will be stored
+                buf.writerIndex(TILE_HEADER_SIZE);
+            }
+            value = Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.arrayOffset() + buf.writerIndex());
+        } finally {
+            buf.release();
         }
 
-        try (Transaction txn = this.db.beginTransaction(WRITE_OPTIONS)) {
-            //convert positions to key bytes
-            byte[][] allKeyBytes = positions.stream().map(POS::toBytes).toArray(byte[][]::new);
+        //the payload ID is also computed here rather than while committing, since hashing is relatively expensive and commits are done while holding the write lock
+        int dataLength = value.length - TILE_HEADER_SIZE;
+        byte[] payloadId = this.storesAsPayload(dataLength) ? payloadId(Arrays.copyOfRange(value, TILE_HEADER_SIZE, value.length)) : null;
 
-            byte[][] get;
-            {
-                //double up the keys and column families to pass them to multiGetForUpdate
-                int doubleLength = multiplyExact(length, 2);
-                ColumnFamilyHandle[] handles = new ColumnFamilyHandle[doubleLength];
-                byte[][] keys = new byte[doubleLength][];
+        PendingWrite<POS> write = new PendingWrite<>(pos, metadata.timestamp(), value, payloadId);
+        this.pendingWrites.add(write);
+        return write;
+    }
+
+    /**
+     * Called once a queued write has been committed.
+     *
+     * @param write  the write
+     * @param result whether or not the write was applied
+     * @return {@code result}
+     */
+    protected boolean writeCompleted(@NonNull PendingWrite<POS> write, boolean result) {
+        if (result && write.value.length > TILE_HEADER_SIZE) {
+            this.tileWritten(write.pos.level());
+        }
+        return result;
+    }
 
-                for (int i = 0; i < doubleLength; ) {
-                    byte[] keyBytes = allKeyBytes[i >> 1];
+    /**
+     * Notifies all listeners that the tiles at the given positions have been changed.
+     * <p>
+     * Must not be called while holding {@link #writeLock}.
+     */
+    protected void tilesChanged(@NonNull List<POS> changedPositions) {
+        if (!changedPositions.isEmpty()) {
+            this.listeners.forEach(listener -> listener.tilesChanged(changedPositions.stream()));
+        }
+    }
 
-                    handles[i] = this.cfTileTimestamp;
-                    keys[i++] = keyBytes;
-                    handles[i] = this.cfTileDirtyTimestamp;
-                    keys[i++] = keyBytes;
-                }
+    /**
+     * Commits a single batch of queued writes.
+     * <p>
+     * Must only be called while holding {@link #writeLock}. The caller is responsible for notifying the listeners using {@link #tilesChanged(List)} once it has
+     * released the lock.
+     *
+     * @return the positions of the tiles which were changed
+     */
+    protected List<POS> commitPendingWrites() {
+        List<PendingWrite<POS>> writes = new ArrayList<>();
+        for (PendingWrite<POS> write; writes.size() < WRITE_BATCH_MAX_SIZE && (write = this.pendingWrites.poll()) != null; ) {
+            writes.add(write);
+        }
 
-                //obtain an exclusive lock on both timestamp keys to ensure coherency
+        if (writes.isEmpty()) { //nothing to do!
+            return Collections.emptyList();
+        }
 
-                final int MAX_BATCH_SIZE = 65536;
-                if (keys.length <= MAX_BATCH_SIZE) {
-                    get = txn.multiGetForUpdate(READ_OPTIONS, Arrays.asList(handles), keys);
-                } else { //workaround for https://github.com/facebook/rocksdb/issues/9006
-                    get = new byte[keys.length][];
+        List<POS> changedPositions;
+        try {
+            changedPositions = this.commitWrites(writes);
+        } catch (Throwable t) {
+            writes.forEach(write -> write.completeExceptionally(t));
+            throw t;
+        }
 
-                    for (int i = 0; i < keys.length; ) {
-                        int batchSize = min(keys.length - i, MAX_BATCH_SIZE);
+        if (WRITE_OPTIONS.disableWAL()) { //writes aren't being logged, so we need to flush them to disk periodically ourselves to limit how much could be lost
+            try {
+                this.flushIfNeeded();
+            } catch (Throwable t) { //the writes have already been committed, so they shouldn't be reported as having failed
+                FP2_LOG.error("failed to flush " + this.mode.name() + " storage at " + this.storageRoot, t);
+            }
+        }
+        return changedPositions;
+    }
 
-                        byte[][] tmp = txn.multiGetForUpdate(READ_OPTIONS, Arrays.asList(handles).subList(i, i + batchSize), Arrays.copyOfRange(keys, i, i + batchSize));
-                        System.arraycopy(tmp, 0, get, i, batchSize);
+    /**
+     * Flushes all column families if at least the configured flush interval has elapsed since the last flush.
+     * <p>
+     * Must only be called while holding {@link #writeLock}.
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected void flushIfNeeded() {
+        long now = System.nanoTime();
+        if (now - this.lastFlushTime >= TimeUnit.SECONDS.toNanos(FP2Config.global().performance().storageFlushInterval())) {
+            this.lastFlushTime = now;
+            this.db.flush(BACKGROUND_FLUSH_OPTIONS, this.handles);
+        }
+    }
 
-                        i += batchSize;
-                    }
+    /**
+     * Schedules a task which will call {@link #flushIfNeeded()} once the flush interval has elapsed, and then reschedule itself. This ensures that writes which
+     * aren't logged are eventually flushed to disk, even if no more writes are committed afterwards.
+     * <p>
+     * Must only be called while holding {@link #writeLock}.
+     */
+    protected void scheduleFlush() {
+        this.flushTask = this.executor.schedule(() -> {
+            this.writeLock.lock();
+            try {
+                if (!this.closing) { //the storage is closing, it'll flush everything itself
+                    this.flushIfNeeded();
+                    this.scheduleFlush();
                 }
+            } finally {
+                this.writeLock.unlock();
             }
+        }, FP2Config.global().performance().storageFlushInterval(), TimeUnit.SECONDS);
+    }
 
-            //iterate through positions, updating the dirty timestamps as needed
-            List<POS> out = new ArrayList<>(length);
-            byte[] dirtyTimestampArray = new byte[Long.BYTES];
+    @SneakyThrows(RocksDBException.class)
+    protected List<POS> commitWrites(@NonNull List<PendingWrite<POS>> writes) {
+        //sort the writes by position so that multiple writes to the same position are adjacent. this is a stable sort, so they will remain in the order they
+        //  were queued in.
+        writes.sort((a, b) -> a.pos.compareTo(b.pos));
+
+        //group the writes by position
+        List<POS> positions = new ArrayList<>(writes.size());
+        List<byte[]> allKeyBytes = new ArrayList<>(writes.size());
+        for (int i = 0; i < writes.size(); i++) {
+            POS pos = writes.get(i).pos;
+            if (i == 0 || !pos.equals(writes.get(i - 1).pos)) {
+                positions.add(pos);
+                allKeyBytes.add(pos.toBytes());
+            }
+        }
+        int length = positions.size();
+        List<POS> out = new ArrayList<>(length);
+        List<byte[]> outValues = new ArrayList<>(length);
+
+        PayloadRefUpdates payloadRefs = new PayloadRefUpdates();
+        try (WriteBatch batch = new WriteBatch()) {
+            byte[] headerArray = new byte[TILE_HEADER_SIZE + PAYLOAD_ID_SIZE];
+            for (int i = 0, writeIndex = 0; i < length; i++) {
+                byte[] keyBytes = allKeyBytes.get(i);
+
+                //tile values are only ever modified while holding the write lock, so the header can't change until the batch is written. we read enough of
+                //  the value to also get the ID of the shared payload referenced by the existing value, if any.
+                int existingLength = this.db.get(this.cfTile, READ_OPTIONS, keyBytes, headerArray);
+                long timestamp = existingLength != RocksDB.NOT_FOUND ? readLongLE(headerArray) : TIMESTAMP_BLANK;
+
+                //apply each write to this position in order, exactly as if they had been committed one at a time. only the last successful write will actually
+                //  be stored in the db, since it's guaranteed to have the newest timestamp.
+                PendingWrite<POS> newest = null;
+                for (PendingWrite<POS> write; writeIndex < writes.size() && (write = writes.get(writeIndex)).pos.equals(positions.get(i)); writeIndex++) {
+                    if (write.timestamp <= timestamp) { //the new timestamp isn't newer than the existing one, so we can't replace it
+                        write.result = false;
+                    } else {
+                        write.result = true;
+                        timestamp = write.timestamp;
+                        newest = write;
+                    }
+                }
 
-            for (int i = 0; i < length; i++) {
-                byte[] timestampBytes = get[(i << 1) + 0];
-                long timestamp = timestampBytes != null
-                        ? readLongLE(timestampBytes) //timestamp for this tile exists, extract it from the byte array
-                        : TIMESTAMP_BLANK;
-
-                byte[] dirtyTimestampBytes = get[(i << 1) + 1];
-                long existingDirtyTimestamp = dirtyTimestampBytes != null
-                        ? readLongLE(dirtyTimestampBytes) //dirty timestamp for this tile exists, extract it from the byte array
-                        : TIMESTAMP_BLANK;
-
-                if (timestamp == TIMESTAMP_BLANK //the tile doesn't exist, so we can't mark it as dirty
-                    || dirtyTimestamp <= timestamp || dirtyTimestamp <= existingDirtyTimestamp) { //the new dirty timestamp isn't newer than the existing one, so we can't replace it
-                    //skip this position
+                if (newest == null) { //none of the writes were able to be applied
                     continue;
                 }
 
-                //store new dirty timestamp in db
-                writeLongLE(dirtyTimestampArray, 0, dirtyTimestamp);
-                txn.put(this.cfTileDirtyTimestamp, allKeyBytes[i], dirtyTimestampArray);
+                //store new timestamp and tile data in db. the dirty timestamp is left untouched: if it isn't newer than the new timestamp it's now stale and will
+                //  be ignored, and we can't delete it without racing with concurrent blind writes to it.
+                if (isPayloadReference(headerArray, existingLength)) { //the old value referenced a shared payload, which it no longer will
+                    payloadRefs.release(Arrays.copyOfRange(headerArray, TILE_HEADER_SIZE, headerArray.length));
+                }
+                batch.put(this.cfTile, keyBytes, payloadRefs.encode(newest.value, newest.payloadId));
 
-                //save the position to return it as part of the result stream
                 out.add(positions.get(i));
+                outValues.add(newest.value);
             }
 
-            if (!out.isEmpty()) { //non-empty list indicates that at least some positions were modified, so we should commit the transaction
-                txn.commit();
+            if (!out.isEmpty()) { //at least one tile was modified, so we should write the batch
+                payloadRefs.write(batch);
+
+                this.snapshotCacheVersion.incrementAndGet();
+                boolean written = false;
+                try {
+                    this.db.write(WRITE_OPTIONS, batch);
+                    payloadRefs.written();
+                    written = true;
+                } finally {
+                    //replace the cached values of all the modified tiles, since they're likely to be requested again soon. if the write failed, we don't know
+                    //  what's actually in the db, so we'll simply discard them.
+                    for (int i = 0; i < out.size(); i++) {
+                        if (written && this.snapshotCacheEnabled) {
+                            this.snapshotCacheWeight.addAndGet(snapshotCacheWeight(outValues.get(i)));
+                            this.snapshotCache.put(out.get(i), outValues.get(i));
+                        } else {
+                            this.snapshotCache.invalidate(out.get(i));
+                        }
+                    }
+                    this.snapshotCacheVersion.incrementAndGet();
 
-                this.listeners.forEach(listener -> listener.tilesDirty(out.stream()));
-                return out.stream();
-            } else { //no positions were modified...
-                return Stream.empty();
+                    if (written) { //update the cached timestamps
+                        for (int i = 0; i < out.size(); i++) {
+                            this.timestampIndex.timestampUpdated(out.get(i), readLongLE(outValues.get(i)));
+                        }
+                    }
+                }
             }
         }
+
+        //notify all the waiting threads
+        writes.forEach(write -> write.complete(write.result));
+        return out;
     }
 
     /*@Override
@@ -366,13 +2372,53 @@ public class RocksStorage<POS extends IFarPos, T extends IFarTile> implements IF
 
     @Override
     public void close() throws IOException {
+        //wait for maintenance to stop, since it could still be using the db
+        this.closing = true;
+        this.maintenanceLock.lock();
+        this.maintenanceLock.unlock();
+
+        //commit any writes which are still queued
+        this.commitAllPendingWrites();
+
+        //stop the periodic flush task. it checks whether the storage is closing while holding the write lock, so it can't reschedule itself after this.
+        this.writeLock.lock();
+        try {
+            if (this.flushTask != null) {
+                this.flushTask.cancel(false);
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+
+        this.snapshotCache.invalidateAll();
+
         try {
             this.db.flush(FLUSH_OPTIONS, this.handles);
-            this.handles.forEach(ColumnFamilyHandle::close); //close column families before db
-            this.db.close();
         } catch (RocksDBException e) {
             throw new IOException(e);
         }
+
+        //the column families are owned by the db, which will close them once nothing else is using it
+        this.database.close();
+    }
+
+    @DebugOnly
+    @Override
+    public DebugStats.Storage debugStats() {
+        CacheStats snapshotCacheStats = this.snapshotCache.stats();
+
+        if (!this.payloadsCounted && this.payloadCountRequested.compareAndSet(false, true)) { //the payloads haven't been counted yet, start counting them
+            this.executor.execute(this::countPayloads);
+        }
+
+        return DebugStats.Storage.builder()
+                .snapshotCacheHits(snapshotCacheStats.hitCount())
+                .snapshotCacheMisses(snapshotCacheStats.missCount())
+                .snapshotCacheCount(this.snapshotCache.size())
+                .snapshotCacheSize(this.snapshotCacheWeight.get())
+                .tilePayloads(this.payloadsCounted ? this.payloadCount.get() : 0L) //the counts are only reported once they are accurate
+                .tilePayloadReferences(this.payloadsCounted ? this.payloadReferences.get() : 0L)
+                .build();
     }
 
     @Override
@@ -384,4 +2430,181 @@ public class RocksStorage<POS extends IFarPos, T extends IFarTile> implements IF
     public void removeListener(@NonNull Listener<POS, T> listener) {
         checkState(this.listeners.remove(listener), "listener %s not present?!?", listener);
     }
+
+    /**
+     * Iterates over the positions of all dirty tiles in a given range of keys, skipping stale entries.
+     * <p>
+     * The underlying {@link RocksIterator} is only created once the first position is requested, so that callers can hold on to many shards without pinning
+     * lots of native resources. It is released by {@link #run()}, which is registered as the owning stream's close handler.
+     *
+     * @author DaPorkchop_
+     */
+    protected class DirtyPosSpliterator extends Spliterators.AbstractSpliterator<POS> implements Runnable {
+        protected final byte[] lowerBound; //inclusive
+        protected final byte[] upperBound; //exclusive
+
+        protected final byte[] timestampArray = new byte[TILE_HEADER_SIZE];
+        protected RocksIterator itr;
+
+        public DirtyPosSpliterator(@NonNull byte[] lowerBound, @NonNull byte[] upperBound) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | NONNULL);
+
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+        }
+
+        @Override
+        public boolean tryAdvance(@NonNull Consumer<? super POS> action) {
+            if (this.itr == null) {
+                this.itr = RocksStorage.this.db.newIterator(RocksStorage.this.cfTileDirtyTimestamp);
+                this.itr.seek(this.lowerBound);
+            }
+
+            for (; this.itr.isValid(); this.itr.next()) {
+                byte[] key = this.itr.key();
+                if (compareKeys(key, this.upperBound) >= 0) { //we've reached the end of the range
+                    break;
+                }
+
+                long timestamp = RocksStorage.this.readTimestamp(key, this.timestampArray);
+                if (timestamp != TIMESTAMP_BLANK && decodeDirtyTimestamp(this.itr.value()) > timestamp) { //skip stale entries
+                    this.itr.next();
+                    action.accept(RocksStorage.this.mode.readPos(Unpooled.wrappedBuffer(key)));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            if (this.itr != null) {
+                this.itr.close();
+                this.itr = null;
+            }
+        }
+    }
+
+    /**
+     * Accumulates the changes to the reference counts of shared payloads made by a single batch of writes.
+     * <p>
+     * Reference counts are only ever modified while holding {@link #writeLock}, so they can be updated with a simple read-modify-write.
+     *
+     * @author DaPorkchop_
+     */
+    protected class PayloadRefUpdates {
+        protected final Map<ByteBuffer, Long> deltas = new HashMap<>();
+        protected final Map<ByteBuffer, byte[]> payloads = new HashMap<>(); //the contents of every payload referenced by the batch
+
+        protected long payloadCountDelta;
+        protected long payloadReferencesDelta;
+
+        /**
+         * Encodes the value to store in the {@code tile} column family for the given tile value, adding a reference to a shared payload if necessary.
+         *
+         * @param value the tile's full value
+         * @param id    the ID of the payload containing the tile's data, or {@code null} if the data is stored inline (see {@link #storesAsPayload(int)})
+         * @return the value to store
+         */
+        public byte[] encode(@NonNull byte[] value, byte[] id) {
+            if (id == null) { //the data is stored inline
+                return value;
+            }
+
+            byte[] data = Arrays.copyOfRange(value, TILE_HEADER_SIZE, value.length);
+
+            ByteBuffer key = ByteBuffer.wrap(id);
+            this.deltas.merge(key, 1L, Long::sum);
+            this.payloads.put(key, data);
+
+            byte[] reference = Arrays.copyOf(value, TILE_HEADER_SIZE + PAYLOAD_ID_SIZE);
+            reference[TILE_HEADER_FLAGS_OFFSET] |= TILE_FLAG_PAYLOAD_REFERENCE;
+            System.arraycopy(id, 0, reference, TILE_HEADER_SIZE, PAYLOAD_ID_SIZE);
+            return reference;
+        }
+
+        /**
+         * Removes a reference to the shared payload with the given ID.
+         *
+         * @param id the payload's ID
+         */
+        public void release(@NonNull byte[] id) {
+            this.deltas.merge(ByteBuffer.wrap(id), -1L, Long::sum);
+        }
+
+        /**
+         * Adds the updated reference counts to the given batch, creating payloads which are newly referenced and deleting ones which are no longer referenced.
+         *
+         * @param batch the batch
+         */
+        @SneakyThrows(RocksDBException.class)
+        public void write(@NonNull WriteBatch batch) {
+            this.deltas.values().removeIf(delta -> delta == 0L);
+            if (this.deltas.isEmpty()) {
+                return;
+            }
+
+            List<ByteBuffer> keys = new ArrayList<>(this.deltas.keySet());
+            List<byte[]> ids = keys.stream().map(ByteBuffer::array).collect(Collectors.toList());
+            List<byte[]> refcounts = RocksStorage.this.db.multiGetAsList(READ_OPTIONS, Collections.nCopies(ids.size(), RocksStorage.this.cfTilePayloadRefcount), ids);
+
+            for (int i = 0; i < ids.size(); i++) {
+                byte[] id = ids.get(i);
+                long oldRefcount = refcounts.get(i) != null ? readLongLE(refcounts.get(i)) : 0L;
+                long newRefcount = max(oldRefcount + this.deltas.get(keys.get(i)), 0L);
+
+                if (newRefcount == 0L) { //nothing references the payload any more
+                    batch.delete(RocksStorage.this.cfTilePayloadRefcount, id);
+                    batch.delete(RocksStorage.this.cfTilePayload, id);
+                } else {
+                    batch.put(RocksStorage.this.cfTilePayloadRefcount, id, writeLongLE(newRefcount));
+                    if (oldRefcount == 0L) { //the payload is new
+                        batch.put(RocksStorage.this.cfTilePayload, id, this.payloads.get(keys.get(i)));
+                    }
+                }
+
+                this.payloadCountDelta += Long.signum(newRefcount) - Long.signum(oldRefcount);
+                this.payloadReferencesDelta += newRefcount - oldRefcount;
+            }
+        }
+
+        /**
+         * Called once the batch has been written.
+         */
+        public void written() {
+            RocksStorage.this.payloadCount.addAndGet(this.payloadCountDelta);
+            RocksStorage.this.payloadReferences.addAndGet(this.payloadReferencesDelta);
+
+            //the payloads are likely to be needed again soon
+            this.payloads.forEach(RocksStorage.this.payloadCache::put);
+        }
+    }
+
+    /**
+     * A tile write which has been queued for the next batch.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    protected static class PendingWrite<POS extends IFarPos> extends CompletableFuture<Boolean> {
+        @NonNull
+        protected final POS pos;
+        protected final long timestamp;
+        protected final byte[] value; //the encoded value to store in the tile column family
+        protected final byte[] payloadId; //the ID of the shared payload containing the tile data, or null if the data is stored inline
+
+        protected boolean result;
+    }
+
+    /**
+     * A dirty timestamp write which was deferred while maintenance was deleting stale dirty timestamps.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    protected static class DeferredDirtyMark<POS extends IFarPos> {
+        @NonNull
+        protected final List<POS> positions;
+        protected final long dirtyTimestamp;
+    }
 }
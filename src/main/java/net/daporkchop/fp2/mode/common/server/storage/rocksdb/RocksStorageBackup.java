@@ -0,0 +1,247 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.lib.common.misc.string.PStrings;
+import org.rocksdb.BackupEngine;
+import org.rocksdb.BackupEngineOptions;
+import org.rocksdb.BackupInfo;
+import org.rocksdb.Env;
+import org.rocksdb.RestoreOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardCopyOption.*;
+import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
+
+/**
+ * Creates and restores backups of {@link RocksStorage}s.
+ * <p>
+ * Backups are made using RocksDB's {@link BackupEngine}, which can back up a db while it's in use without blocking writes to it. Backups are incremental: each
+ * SST file is only copied into the backup directory once, and is shared by every backup which contains it. Since SST files are never modified, this means that
+ * only data which was written since the previous backup needs to be copied.
+ * <p>
+ * The backups of all the storages in a world are stored in a single backup directory whose layout mirrors that of the world's save directory. For each storage
+ * directory in the world, the backup contains a directory at the same relative path with the following contents:
+ * <ul>
+ *     <li>{@code db/}: the {@link BackupEngine}'s backups of the db stored in the storage directory, if any</li>
+ *     <li>{@code files/}: copies of any other files in the storage directory which need to be kept (such as the tile dictionaries)</li>
+ * </ul>
+ * <p>
+ * A backup can be restored into a world (which may be a completely new world) by executing this class' {@link #main(String...) main method} while the world
+ * isn't loaded:
+ * <blockquote><pre>{@code
+ * java -cp <classpath> net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorageBackup <backup directory> <world directory>
+ * }</pre></blockquote>
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class RocksStorageBackup {
+    /**
+     * The number of backups of each db which are kept. Whenever a new backup is created, the oldest backups are deleted until no more than this many remain.
+     */
+    public final int BACKUPS_TO_KEEP = 3;
+
+    private final String DB_DIRECTORY = "db";
+    private final String FILES_DIRECTORY = "files";
+
+    public void main(@NonNull String... args) {
+        if (args.length != 2) {
+            System.err.println("Usage: RocksStorageBackup <backup directory> <world directory>");
+            System.exit(1);
+        }
+
+        RocksDB.loadLibrary();
+        restore(new File(args[0]), new File(args[1]), System.out::println);
+    }
+
+    /**
+     * Gets the directory which the backup of the given storage directory should be placed in.
+     *
+     * @param worldDirectory   the world's save directory
+     * @param backupRoot       the backup directory for the world
+     * @param storageDirectory the storage directory
+     * @return the directory in which to store the storage directory's backup
+     */
+    public File backupDirectoryFor(@NonNull File worldDirectory, @NonNull File backupRoot, @NonNull File storageDirectory) {
+        return backupRoot.toPath().resolve(worldDirectory.getAbsoluteFile().toPath().relativize(storageDirectory.getAbsoluteFile().toPath())).toFile();
+    }
+
+    /**
+     * Creates a new incremental backup of the given db, and then deletes old backups if there are more than {@link #BACKUPS_TO_KEEP}.
+     * <p>
+     * The db may continue to be used normally while it's being backed up.
+     *
+     * @param db              the db
+     * @param backupDirectory the directory containing the storage directory's backup
+     * @param progress        a callback which will be notified as the backup progresses
+     */
+    @SneakyThrows(RocksDBException.class)
+    public void backupDatabase(@NonNull RocksDB db, @NonNull File backupDirectory, @NonNull Consumer<String> progress) {
+        File directory = new File(backupDirectory, DB_DIRECTORY);
+        PFiles.ensureDirectoryExists(directory);
+
+        try (BackupEngineOptions options = new BackupEngineOptions(directory.getPath());
+             BackupEngine engine = BackupEngine.open(Env.getDefault(), options)) {
+            progress.accept("Backing up db to " + directory);
+
+            //the memtables are flushed first so that the backup doesn't depend on the write-ahead log, which may be disabled
+            engine.createNewBackup(db, true);
+            engine.purgeOldBackups(BACKUPS_TO_KEEP);
+
+            List<BackupInfo> backups = engine.getBackupInfo();
+            BackupInfo latest = backups.get(backups.size() - 1);
+            progress.accept(PStrings.fastFormat("Created backup #%d (%d files, %.2f MiB), %d backups retained",
+                    latest.backupId(), latest.numberFiles(), latest.size() / (double) (1L << 20L), backups.size()));
+        }
+    }
+
+    /**
+     * Copies the given files from a storage directory into its backup.
+     * <p>
+     * Any files which were previously backed up are replaced. Files which don't exist are skipped.
+     *
+     * @param storageDirectory the storage directory
+     * @param backupDirectory  the directory containing the storage directory's backup
+     * @param files            the files to copy. All must be inside the storage directory.
+     */
+    @SneakyThrows(IOException.class)
+    public void backupFiles(@NonNull File storageDirectory, @NonNull File backupDirectory, @NonNull Collection<File> files) {
+        Path src = storageDirectory.getAbsoluteFile().toPath();
+        Path dst = new File(backupDirectory, FILES_DIRECTORY).toPath();
+
+        if (PFiles.checkDirectoryExists(dst.toFile())) {
+            PFiles.rm(dst.toFile());
+        }
+
+        for (File file : files) {
+            if (PFiles.checkFileExists(file)) {
+                Path target = dst.resolve(src.relativize(file.getAbsoluteFile().toPath()));
+                PFiles.ensureDirectoryExists(target.getParent().toFile());
+                Files.copy(file.toPath(), target, REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Backs up the shared db of the given world, if it's currently open.
+     *
+     * @param worldDirectory the world's save directory
+     * @param backupRoot     the backup directory for the world
+     * @param progress       a callback which will be notified as the backup progresses
+     */
+    public void backupSharedDatabase(@NonNull File worldDirectory, @NonNull File backupRoot, @NonNull Consumer<String> progress) {
+        File sharedDirectory = new File(worldDirectory, SHARED_DATABASE_DIRECTORY);
+        RocksDatabase database = RocksDatabase.retainShared(sharedDirectory);
+        if (database == null) { //the shared db isn't in use
+            return;
+        }
+
+        try {
+            backupDatabase(database.db(), backupDirectoryFor(worldDirectory, backupRoot, sharedDirectory), progress);
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Restores the latest backup of every storage in a world's backup directory into the given world.
+     * <p>
+     * The world must not be loaded. Every storage directory contained in the backup will be completely replaced, while any other storage directories in the
+     * world are left untouched. The target world doesn't need to be the one the backup was made from, so this may also be used to initialize a new world.
+     *
+     * @param backupRoot     the backup directory for the world
+     * @param worldDirectory the world's save directory
+     * @param progress       a callback which will be notified as the restore progresses
+     */
+    @SneakyThrows(IOException.class)
+    public void restore(@NonNull File backupRoot, @NonNull File worldDirectory, @NonNull Consumer<String> progress) {
+        Path root = backupRoot.toPath();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                File db = dir.resolve(DB_DIRECTORY).toFile();
+                File files = dir.resolve(FILES_DIRECTORY).toFile();
+                if (!PFiles.checkDirectoryExists(db) && !PFiles.checkDirectoryExists(files)) { //not a storage directory's backup, keep searching
+                    return FileVisitResult.CONTINUE;
+                }
+
+                File storageDirectory = worldDirectory.toPath().resolve(root.relativize(dir)).toFile();
+                progress.accept("Restoring " + storageDirectory);
+
+                if (PFiles.checkDirectoryExists(storageDirectory)) {
+                    PFiles.rmContentsParallel(storageDirectory);
+                }
+                PFiles.ensureDirectoryExists(storageDirectory);
+
+                if (PFiles.checkDirectoryExists(db)) {
+                    restoreDatabase(db, storageDirectory);
+                }
+                if (PFiles.checkDirectoryExists(files)) {
+                    copyRecursive(files.toPath(), storageDirectory.toPath());
+                }
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+        });
+        progress.accept("Restore complete.");
+    }
+
+    @SneakyThrows(RocksDBException.class)
+    private void restoreDatabase(@NonNull File backupDirectory, @NonNull File dbDirectory) {
+        try (BackupEngineOptions options = new BackupEngineOptions(backupDirectory.getPath());
+             BackupEngine engine = BackupEngine.open(Env.getDefault(), options);
+             RestoreOptions restoreOptions = new RestoreOptions(false)) {
+            engine.restoreDbFromLatestBackup(dbDirectory.getPath(), dbDirectory.getPath(), restoreOptions);
+        }
+    }
+
+    private void copyRecursive(@NonNull Path src, @NonNull Path dst) throws IOException {
+        Files.walkFileTree(src, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(dst.resolve(src.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, dst.resolve(src.relativize(file)), REPLACE_EXISTING);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.lib.common.misc.string.PStrings;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompactRangeOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.LiveFileMetaData;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.mode.api.tile.ITileMetadata.*;
+import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
+
+/**
+ * Maintenance operations for reclaiming disk space used by {@link RocksStorage}s.
+ * <p>
+ * Most maintenance is done through {@link RocksStorage#maintain}, which needs the storage to be open in a running world. The operations in this class don't
+ * depend on the game, and can also be run on an fp2 database which isn't currently in use by executing this class' {@link #main(String...) main method}
+ * directly:
+ * <blockquote><pre>{@code
+ * java -cp <classpath> net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorageMaintenance <db directory> [--drop <column family prefix>]... [--recompress]
+ * }</pre></blockquote>
+ * e.g. {@code world/fp2/shared --drop DIM7/} will drop all data belonging to dimension 7 from the shared db, prune stale entries from everything else and then
+ * compact it. RocksDB only allows a db to be opened by one process at a time, so this can't be used on a world which is currently loaded.
+ * <p>
+ * The standalone tool can't prune out-of-bounds tiles: decoding tile positions requires the render modes, and the coordinate limits depend on the world's
+ * configuration, neither of which are available without the game. Use {@code /fp2maintenance} for that.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class RocksStorageMaintenance {
+    private final Pattern DIMENSION_DIRECTORY_PATTERN = Pattern.compile("^DIM(-?\\d+)$");
+    private final Pattern DIMENSION_PREFIX_PATTERN = Pattern.compile("^DIM(-?\\d+)/");
+
+    /**
+     * The maximum number of SST files which are compacted at once by {@link #compact(RocksDB, Map, Consumer, BooleanSupplier)}.
+     */
+    private final int COMPACTION_SLICE_FILES = 8;
+
+    private final String USAGE = "Usage: RocksStorageMaintenance <db directory> [--drop <column family prefix>]... [--recompress]";
+
+    @SneakyThrows(RocksDBException.class)
+    public void main(@NonNull String... args) {
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        File root = new File(args[0]);
+        if (!PFiles.checkFileExists(new File(root, "CURRENT"))) {
+            System.err.println("Not a RocksDB database: " + root);
+            System.exit(1);
+        }
+
+        List<String> dropPrefixes = new ArrayList<>();
+        boolean recompress = false;
+        for (int i = 1; i < args.length; i++) {
+            if ("--drop".equals(args[i]) && i + 1 < args.length) {
+                dropPrefixes.add(args[++i]);
+            } else if ("--recompress".equals(args[i])) {
+                recompress = true;
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.err.println(USAGE);
+                System.exit(1);
+            }
+        }
+
+        RocksDB.loadLibrary();
+
+        //open the db using the same column family options as RocksStorage, which are needed to be able to merge dirty timestamps and to rewrite the tile data
+        //  using the current compression settings
+        List<byte[]> names;
+        try (Options options = new Options()) {
+            names = RocksDB.listColumnFamilies(options, root.getPath());
+        }
+
+        BlockBasedTableConfig tableFormatConfig = RocksOptions.tableFormatConfig(null, 10);
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<>(names.size());
+        for (byte[] name : names) {
+            descriptors.add(new ColumnFamilyDescriptor(name, columnFamilyOptions(new String(name, StandardCharsets.UTF_8), tableFormatConfig)));
+        }
+
+        List<ColumnFamilyHandle> handles = new ArrayList<>(descriptors.size());
+        try (DBOptions dbOptions = new DBOptions().setKeepLogFileNum(1L);
+             RocksDB db = RocksDB.open(dbOptions, root.getPath(), descriptors, handles)) {
+            Map<String, ColumnFamilyHandle> columnFamilies = new LinkedHashMap<>();
+            for (int i = 0; i < descriptors.size(); i++) {
+                String name = new String(descriptors.get(i).getName(), StandardCharsets.UTF_8);
+                if (Arrays.equals(descriptors.get(i).getName(), RocksDB.DEFAULT_COLUMN_FAMILY) || dropPrefixes.stream().noneMatch(name::startsWith)) {
+                    columnFamilies.put(name, handles.get(i));
+                } else {
+                    System.out.println("Dropping column family '" + name + '\'');
+                    db.dropColumnFamily(handles.get(i));
+                }
+            }
+
+            pruneStaleEntries(db, columnFamilies, System.out::println);
+            compact(db, columnFamilies, recompress, System.out::println);
+        } finally {
+            handles.forEach(ColumnFamilyHandle::close);
+            descriptors.forEach(descriptor -> descriptor.getOptions().close());
+        }
+    }
+
+    private ColumnFamilyOptions columnFamilyOptions(@NonNull String name, @NonNull BlockBasedTableConfig tableFormatConfig) {
+        switch (name.substring(name.lastIndexOf('/') + 1)) {
+            case COLUMN_NAME_TILE:
+            case COLUMN_NAME_TILE_PAYLOAD:
+                return RocksOptions.tileColumnFamilyOptions(tableFormatConfig);
+            case COLUMN_NAME_TILE_DIRTY_TIMESTAMP:
+                return RocksOptions.dirtyTimestampColumnFamilyOptions(tableFormatConfig);
+            default:
+                return RocksOptions.metadataColumnFamilyOptions(tableFormatConfig);
+        }
+    }
+
+    /**
+     * Compacts all of the data in the given column families, physically removing deleted entries.
+     *
+     * @param db             the db
+     * @param columnFamilies the column families to compact, indexed by name
+     * @param recompress     whether or not to also rewrite data which doesn't contain any deleted entries, recompressing it using the column families' current
+     *                       compression settings
+     * @param progress       a callback which will be notified as the compaction progresses
+     */
+    public void compact(@NonNull RocksDB db, @NonNull Map<String, ColumnFamilyHandle> columnFamilies, boolean recompress, @NonNull Consumer<String> progress) {
+        compact(db, columnFamilies, recompress, progress, () -> false);
+    }
+
+    /**
+     * Compacts all of the data in the given column families, physically removing deleted entries.
+     * <p>
+     * Normally, files in the bottommost level are only rewritten if data from a higher level is merged into them. If {@code recompress} is set, every file is
+     * rewritten, which recompresses all of the data using the column families' current compression settings (e.g. after the compression options have been
+     * changed, or to retrain the tile column family's zstd dictionaries). This is considerably slower.
+     * <p>
+     * Each column family is compacted in slices of at most {@link #COMPACTION_SLICE_FILES} SST files, and {@code cancelled} is checked between slices. This
+     * bounds the time it takes for a running compaction to stop, which would otherwise only happen once the whole column family had been rewritten.
+     *
+     * @param db             the db
+     * @param columnFamilies the column families to compact, indexed by name
+     * @param recompress     whether or not to also rewrite data which doesn't contain any deleted entries
+     * @param progress       a callback which will be notified as the compaction progresses
+     * @param cancelled      checked between slices, the compaction stops early if it returns {@code true}
+     */
+    @SneakyThrows(RocksDBException.class)
+    public void compact(@NonNull RocksDB db, @NonNull Map<String, ColumnFamilyHandle> columnFamilies, boolean recompress, @NonNull Consumer<String> progress,
+                        @NonNull BooleanSupplier cancelled) {
+        long totalSizeBefore = 0L;
+        long totalSizeAfter = 0L;
+
+        List<LiveFileMetaData> files = db.getLiveFilesMetaData();
+
+        try (CompactRangeOptions options = new CompactRangeOptions()
+                .setBottommostLevelCompaction(recompress
+                        ? CompactRangeOptions.BottommostLevelCompaction.kForce
+                        : CompactRangeOptions.BottommostLevelCompaction.kIfHaveCompactionFilter)) {
+            int i = 0;
+            for (Map.Entry<String, ColumnFamilyHandle> entry : columnFamilies.entrySet()) {
+                if (cancelled.getAsBoolean()) {
+                    progress.accept("Compaction cancelled");
+                    return;
+                }
+
+                long sizeBefore = db.getLongProperty(entry.getValue(), "rocksdb.total-sst-files-size");
+                progress.accept(PStrings.fastFormat("%s column family '%s' (%d/%d, %s)",
+                        recompress ? "Recompressing" : "Compacting", entry.getKey(), ++i, columnFamilies.size(), formatSize(sizeBefore)));
+
+                List<byte[]> boundaries = sliceBoundaries(files, entry.getValue().getName());
+                for (int slice = 0; slice <= boundaries.size(); slice++) {
+                    if (slice != 0 && cancelled.getAsBoolean()) {
+                        progress.accept("Compaction cancelled");
+                        return;
+                    }
+
+                    db.compactRange(entry.getValue(),
+                            slice == 0 ? null : boundaries.get(slice - 1),
+                            slice == boundaries.size() ? null : boundaries.get(slice),
+                            options);
+                }
+
+                totalSizeBefore += sizeBefore;
+                totalSizeAfter += db.getLongProperty(entry.getValue(), "rocksdb.total-sst-files-size");
+            }
+        }
+
+        progress.accept(PStrings.fastFormat("Compaction complete: %s -> %s", formatSize(totalSizeBefore), formatSize(totalSizeAfter)));
+    }
+
+    /**
+     * Deletes all stale dirty timestamps and orphaned vanilla terrain markers from every storage in the given db.
+     * <p>
+     * Unlike {@link RocksStorage#maintain}, this only looks at the keys, so it doesn't need to know anything about the storages' render modes. It must not be used
+     * on a db which is currently in use, as it doesn't synchronize with concurrent writes.
+     *
+     * @param db             the db
+     * @param columnFamilies all of the db's column families, indexed by name
+     * @param progress       a callback which will be notified as the operation progresses
+     */
+    @SneakyThrows(RocksDBException.class)
+    public void pruneStaleEntries(@NonNull RocksDB db, @NonNull Map<String, ColumnFamilyHandle> columnFamilies, @NonNull Consumer<String> progress) {
+        for (String name : columnFamilies.keySet()) {
+            String prefix = name.substring(0, max(name.length() - COLUMN_NAME_TILE.length(), 0));
+            if (!name.equals(prefix + COLUMN_NAME_TILE) || !(prefix.isEmpty() || prefix.endsWith("/"))) { //not the tile column family of a storage
+                continue;
+            }
+
+            ColumnFamilyHandle cfTile = columnFamilies.get(name);
+            ColumnFamilyHandle cfTileDirtyTimestamp = columnFamilies.get(prefix + COLUMN_NAME_TILE_DIRTY_TIMESTAMP);
+            ColumnFamilyHandle cfAnyVanillaExists = columnFamilies.get(prefix + COLUMN_NAME_ANY_VANILLA_EXISTS);
+
+            long prunedDirty = 0L;
+            if (cfTileDirtyTimestamp != null
+                && db.get((prefix + KEY_DIRTY_TIMESTAMP_ENCODING).getBytes(StandardCharsets.UTF_8)) != null) { //legacy dirty timestamps are cleaned when the storage is opened
+                prunedDirty = pruneEntries(db, cfTileDirtyTimestamp, cfTile, (value, timestamp) -> timestamp == TIMESTAMP_BLANK || decodeDirtyTimestamp(value) <= timestamp);
+            }
+
+            long prunedVanilla = 0L;
+            if (cfAnyVanillaExists != null) {
+                prunedVanilla = pruneEntries(db, cfAnyVanillaExists, cfTile, (value, timestamp) -> timestamp == TIMESTAMP_BLANK);
+            }
+
+            progress.accept(PStrings.fastFormat("Pruned %d dirty timestamps and %d vanilla terrain markers from '%s'", prunedDirty, prunedVanilla, name));
+        }
+    }
+
+    /**
+     * Deletes all entries from the given column family which match the given filter.
+     *
+     * @param filter a function which is given each entry's value and the timestamp of the tile with the same key, and returns whether the entry should be deleted
+     * @return the number of deleted entries
+     */
+    private long pruneEntries(@NonNull RocksDB db, @NonNull ColumnFamilyHandle cf, @NonNull ColumnFamilyHandle cfTile, @NonNull EntryFilter filter) throws RocksDBException {
+        long count = 0L;
+        try (RocksIterator itr = db.newIterator(cf);
+             WriteBatch batch = new WriteBatch()) {
+            byte[] timestampArray = new byte[TILE_HEADER_SIZE];
+            for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+                byte[] key = itr.key();
+                long timestamp = db.get(cfTile, key, timestampArray) != RocksDB.NOT_FOUND ? readLongLE(timestampArray) : TIMESTAMP_BLANK;
+                if (filter.test(itr.value(), timestamp)) {
+                    batch.delete(cf, key);
+                    count++;
+
+                    if (batch.count() >= WRITE_BATCH_MAX_SIZE) { //write batch is full, write it to the db
+                        db.write(WRITE_OPTIONS, batch);
+                        batch.clear();
+                    }
+                }
+            }
+            db.write(WRITE_OPTIONS, batch);
+        }
+        return count;
+    }
+
+    /**
+     * Splits the key space of a column family into slices which each contain approximately {@link #COMPACTION_SLICE_FILES} of its SST files.
+     *
+     * @param files the metadata of all of the db's live SST files
+     * @param name  the column family's name
+     * @return the sorted keys at which the slices are split
+     */
+    private List<byte[]> sliceBoundaries(@NonNull List<LiveFileMetaData> files, @NonNull byte[] name) {
+        List<byte[]> smallestKeys = new ArrayList<>();
+        for (LiveFileMetaData file : files) {
+            if (Arrays.equals(file.columnFamilyName(), name)) {
+                smallestKeys.add(file.smallestKey());
+            }
+        }
+        smallestKeys.sort(RocksStorage::compareKeys);
+
+        List<byte[]> boundaries = new ArrayList<>();
+        for (int i = COMPACTION_SLICE_FILES; i < smallestKeys.size(); i += COMPACTION_SLICE_FILES) {
+            byte[] boundary = smallestKeys.get(i);
+            if (boundaries.isEmpty() || RocksStorage.compareKeys(boundaries.get(boundaries.size() - 1), boundary) < 0) { //files on different levels may overlap
+                boundaries.add(boundary);
+            }
+        }
+        return boundaries;
+    }
+
+    /**
+     * Deletes all fp2 data belonging to dimensions which no longer exist.
+     * <p>
+     * This removes the exclusive storage directories of the removed dimensions, and drops their column families from the shared db (if present).
+     *
+     * @param worldDirectory  the world's save directory
+     * @param dimensionExists a function which checks whether or not the dimension with the given ID still exists
+     * @param progress        a callback which will be notified as the operation progresses
+     */
+    public void pruneRemovedDimensions(@NonNull File worldDirectory, @NonNull IntPredicate dimensionExists, @NonNull Consumer<String> progress) {
+        File[] dimensionDirectories = worldDirectory.listFiles(File::isDirectory);
+        if (dimensionDirectories != null) {
+            for (File dimensionDirectory : dimensionDirectories) {
+                Matcher matcher = DIMENSION_DIRECTORY_PATTERN.matcher(dimensionDirectory.getName());
+                File storageDirectory = new File(dimensionDirectory, "fp2");
+                if (matcher.matches() && !dimensionExists.test(Integer.parseInt(matcher.group(1))) && PFiles.checkDirectoryExists(storageDirectory)) {
+                    progress.accept("Deleting " + storageDirectory);
+                    PFiles.rm(storageDirectory);
+                }
+            }
+        }
+
+        File sharedDirectory = new File(worldDirectory, SHARED_DATABASE_DIRECTORY);
+        if (PFiles.checkDirectoryExists(sharedDirectory)) {
+            RocksDatabase database = RocksDatabase.openShared(sharedDirectory);
+            try {
+                for (String name : database.columnFamilyNames()) {
+                    Matcher matcher = DIMENSION_PREFIX_PATTERN.matcher(name);
+                    if (matcher.find() && !dimensionExists.test(Integer.parseInt(matcher.group(1)))) {
+                        progress.accept("Dropping column family '" + name + "' from the shared db");
+                        database.dropColumnFamily(name);
+                    }
+                }
+            } finally {
+                database.close();
+            }
+        }
+    }
+
+    /**
+     * A filter for entries of a column family whose keys are tile positions.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    private interface EntryFilter {
+        boolean test(@NonNull byte[] value, long timestamp);
+    }
+
+    private String formatSize(long bytes) {
+        return PStrings.fastFormat("%.2f MiB", bytes / (double) (1L << 20L));
+    }
+}
@@ -20,11 +20,6 @@
 
 package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
 
-import com.google.common.collect.ImmutableList;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufAllocator;
-import io.netty.buffer.Unpooled;
-import io.netty.buffer.UnpooledByteBufAllocator;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -36,15 +31,20 @@ import net.daporkchop.fp2.mode.api.tile.ITileMetadata;
 import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
 import net.daporkchop.fp2.mode.api.tile.TileSnapshot;
 import org.rocksdb.RocksDBException;
-import org.rocksdb.Transaction;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
 
 /**
+ * A handle to a single tile in a {@link RocksStorage}.
+ * <p>
+ * Handles don't hold any state of their own: the tile's timestamp and dirty timestamp are cached in the storage's {@link RocksStorage#timestampIndex}, so that
+ * repeated checks (e.g. from tile trackers) don't have to hit the db, even if the handle itself has been garbage collected in the meantime. Values which aren't
+ * cached are lazily read from the db and then added to the index, unless the tile was modified while they were being read.
+ *
  * @author DaPorkchop_
  */
 @RequiredArgsConstructor
@@ -55,152 +55,125 @@ public class RocksTileHandle<POS extends IFarPos, T extends IFarTile> implements
     @NonNull
     protected final RocksStorage<POS, T> storage;
 
+    protected long rawDirtyTimestamp() {
+        long dirtyTimestamp = this.storage.timestampIndex.dirtyTimestamp(this.pos);
+        if (dirtyTimestamp == TileTimestampIndex.UNKNOWN) {
+            long version = this.storage.timestampIndex.version(this.pos);
+            dirtyTimestamp = this.storage.readRawDirtyTimestamp(this.pos.toBytes());
+            this.storage.timestampIndex.dirtyTimestampLoaded(this.pos, version, dirtyTimestamp);
+        }
+        return dirtyTimestamp;
+    }
+
     @Override
-    @SneakyThrows(RocksDBException.class)
     public long timestamp() {
-        byte[] timestampBytes = this.storage.db.get(this.storage.cfTileTimestamp, this.pos.toBytes());
-        return timestampBytes != null
-                ? readLongLE(timestampBytes) //timestamp for this tile exists, extract it from the byte array
-                : TIMESTAMP_BLANK;
+        long timestamp = this.storage.timestampIndex.timestamp(this.pos);
+        if (timestamp == TileTimestampIndex.UNKNOWN) {
+            long version = this.storage.timestampIndex.version(this.pos);
+            timestamp = this.storage.readTimestamp(this.pos.toBytes(), new byte[TILE_HEADER_SIZE]);
+            this.storage.timestampIndex.timestampLoaded(this.pos, version, timestamp);
+        }
+        return timestamp;
     }
 
     @Override
-    @SneakyThrows(RocksDBException.class)
     public ITileSnapshot<POS, T> snapshot() {
-        byte[] keyBytes = this.pos.toBytes();
-
-        //read timestamp and tile bytes using multiGet to ensure coherency
-        List<byte[]> valueBytes = this.storage.db.multiGetAsList(
-                ImmutableList.of(this.storage.cfTileTimestamp, this.storage.cfTileData),
-                ImmutableList.of(keyBytes, keyBytes));
+        //the timestamp and tile data are stored together, so a single read is coherent
+        long version = this.storage.timestampIndex.version(this.pos);
+        return this.toSnapshot(this.storage.readValue(this.pos, this.pos.toBytes()), version);
+    }
 
-        byte[] timestampBytes = valueBytes.get(0);
-        byte[] tileBytes = valueBytes.get(1);
+    protected ITileSnapshot<POS, T> toSnapshot(byte[] value, long version) {
+        if (value == null) {
+            this.storage.timestampIndex.timestampLoaded(this.pos, version, TIMESTAMP_BLANK);
+            return null;
+        }
 
-        return timestampBytes != null
-                ? new TileSnapshot<>(this.pos, readLongLE(timestampBytes), tileBytes)
-                : null;
+        long timestamp = readLongLE(value);
+        this.storage.timestampIndex.timestampLoaded(this.pos, version, timestamp);
+        return new TileSnapshot<>(this.pos, timestamp, tileValueData(value));
     }
 
     @Override
-    @SneakyThrows(RocksDBException.class)
-    public boolean set(@NonNull ITileMetadata metadata, @NonNull T tile) {
-        try (Transaction txn = this.storage.db.beginTransaction(WRITE_OPTIONS)) {
-            byte[] keyBytes = this.pos.toBytes();
-
-            //obtain an exclusive lock on both timestamp keys to ensure coherency
-            byte[][] get = txn.multiGetForUpdate(READ_OPTIONS,
-                    ImmutableList.of(this.storage.cfTileTimestamp, this.storage.cfTileDirtyTimestamp),
-                    new byte[][]{ keyBytes, keyBytes });
-
-            byte[] timestampBytes = get[0];
-            long timestamp = timestampBytes != null
-                    ? readLongLE(timestampBytes) //timestamp for this tile exists, extract it from the byte array
-                    : TIMESTAMP_BLANK;
-
-            byte[] dirtyTimestampBytes = get[1];
-            long dirtyTimestamp = dirtyTimestampBytes != null
-                    ? readLongLE(dirtyTimestampBytes) //dirty timestamp for this tile exists, extract it from the byte array
-                    : TIMESTAMP_BLANK;
-
-            if (metadata.timestamp() <= timestamp) { //the new timestamp isn't newer than the existing one, so we can't replace it
-                //exit without committing the transaction
-                return false;
-            }
-
-            //store new timestamp in db
-            txn.put(this.storage.cfTileTimestamp, keyBytes, writeLongLE(metadata.timestamp()));
-
-            //clear dirty timestamp if needed
-            if (metadata.timestamp() >= dirtyTimestamp) {
-                txn.delete(this.storage.cfTileDirtyTimestamp, keyBytes);
-            }
-
-            //encode tile and store it in db
-            ByteBuf buf = ByteBufAllocator.DEFAULT.heapBuffer();
-            try {
-                if (tile.write(buf)) { //the tile was empty, remove it from the db!
-                    txn.delete(this.storage.cfTileData, keyBytes);
-                } else { //the tile was non-empty, store it in the db
-                    txn.put(this.storage.cfTileData, keyBytes, Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.arrayOffset() + buf.writerIndex()));
-                }
-            } finally {
-                buf.release();
-            }
-
-            //commit transaction and report that a change was made
-            txn.commit();
-
-            this.storage.listeners.forEach(listener -> listener.tilesChanged(Stream.of(this.pos)));
-            return true;
+    public CompletableFuture<Long> timestampAsync() {
+        long timestamp = this.storage.timestampIndex.timestamp(this.pos);
+        if (timestamp != TileTimestampIndex.UNKNOWN) {
+            return CompletableFuture.completedFuture(timestamp);
         }
+
+        long version = this.storage.timestampIndex.version(this.pos);
+        return this.storage.readTimestampAsync(this.pos).thenApply(readTimestamp -> {
+            this.storage.timestampIndex.timestampLoaded(this.pos, version, readTimestamp);
+            return readTimestamp;
+        });
     }
 
     @Override
-    @SneakyThrows(RocksDBException.class)
-    public long dirtyTimestamp() {
-        byte[] dirtyTimestampBytes = this.storage.db.get(this.storage.cfTileDirtyTimestamp, this.pos.toBytes());
-        return dirtyTimestampBytes != null
-                ? Unpooled.wrappedBuffer(dirtyTimestampBytes).readLongLE() //dirty timestamp for this tile exists, extract it from the byte array
-                : TIMESTAMP_BLANK;
+    public CompletableFuture<ITileSnapshot<POS, T>> snapshotAsync() {
+        long version = this.storage.timestampIndex.version(this.pos);
+        return this.storage.readValueAsync(this.pos).thenApply(value -> this.toSnapshot(value, version));
     }
 
     @Override
-    @SneakyThrows(RocksDBException.class)
-    public boolean markDirty(long dirtyTimestamp) {
-        try (Transaction txn = this.storage.db.beginTransaction(WRITE_OPTIONS)) {
-            byte[] keyBytes = this.pos.toBytes();
-
-            //obtain an exclusive lock on both timestamp keys to ensure coherency
-            byte[][] get = txn.multiGetForUpdate(READ_OPTIONS,
-                    ImmutableList.of(this.storage.cfTileTimestamp, this.storage.cfTileDirtyTimestamp),
-                    new byte[][]{ keyBytes, keyBytes });
-
-            byte[] timestampBytes = get[0];
-            long timestamp = timestampBytes != null
-                    ? Unpooled.wrappedBuffer(timestampBytes).readLongLE() //timestamp for this tile exists, extract it from the byte array
-                    : TIMESTAMP_BLANK;
+    public boolean set(@NonNull ITileMetadata metadata, @NonNull T tile) {
+        return this.storage.set(this.pos, metadata, tile);
+    }
 
-            byte[] dirtyTimestampBytes = get[1];
-            long existingDirtyTimestamp = dirtyTimestampBytes != null
-                    ? Unpooled.wrappedBuffer(dirtyTimestampBytes).readLongLE() //dirty timestamp for this tile exists, extract it from the byte array
-                    : TIMESTAMP_BLANK;
+    @Override
+    public CompletableFuture<Boolean> setAsync(@NonNull ITileMetadata metadata, @NonNull T tile) {
+        return this.storage.setAsync(this.pos, metadata, tile);
+    }
 
-            if (timestamp == TIMESTAMP_BLANK //the tile doesn't exist, so we can't mark it as dirty
-                    || dirtyTimestamp <= timestamp || dirtyTimestamp <= existingDirtyTimestamp) { //the new dirty timestamp isn't newer than the existing one, so we can't replace it
-                //exit without committing the transaction
-                return false;
-            }
+    @Override
+    public long dirtyTimestamp() {
+        long dirtyTimestamp = this.rawDirtyTimestamp();
+        if (dirtyTimestamp == TIMESTAMP_BLANK) { //fast path: the tile isn't dirty, no need to check the timestamp
+            return TIMESTAMP_BLANK;
+        }
 
-            //store new dirty timestamp in db
-            txn.put(this.storage.cfTileDirtyTimestamp, keyBytes, UnpooledByteBufAllocator.DEFAULT.heapBuffer(Long.BYTES, Long.BYTES).writeLongLE(dirtyTimestamp).array());
+        long timestamp = this.timestamp();
+        return timestamp != TIMESTAMP_BLANK && dirtyTimestamp > timestamp
+                ? dirtyTimestamp
+                : TIMESTAMP_BLANK; //the entry is stale
+    }
 
-            //commit transaction and report that a change was made
-            txn.commit();
+    @Override
+    @SneakyThrows(RocksDBException.class)
+    public boolean markDirty(long dirtyTimestamp) {
+        //none of these checks need to be locked: the dirty timestamp is combined using the max merge operator, so a concurrent update can never cause a newer
+        //  dirty timestamp to be overwritten by an older one. at worst, we report a change which was made redundant by a concurrent tile write.
+        long timestamp = this.timestamp();
+        if (timestamp == TIMESTAMP_BLANK //the tile doesn't exist, so we can't mark it as dirty
+            || dirtyTimestamp <= timestamp || dirtyTimestamp <= this.rawDirtyTimestamp()) { //the new dirty timestamp isn't newer than the existing one
+            return false;
+        }
 
+        //store new dirty timestamp in db. if maintenance is currently deleting stale dirty timestamps, the write is deferred and the listeners will be notified
+        //  once it's been written.
+        if (this.storage.tryMergeDirtyTimestamps(Collections.singletonList(this.pos), dirtyTimestamp)) {
             this.storage.listeners.forEach(listener -> listener.tilesDirty(Stream.of(this.pos)));
-            return true;
         }
+        return true;
     }
 
     @Override
     @SneakyThrows(RocksDBException.class)
     public boolean clearDirty() {
-        try (Transaction txn = this.storage.db.beginTransaction(WRITE_OPTIONS)) {
-            byte[] keyBytes = this.pos.toBytes();
+        long dirtyTimestamp = this.rawDirtyTimestamp();
+        if (dirtyTimestamp == TIMESTAMP_BLANK) { //the tile isn't dirty
+            return false;
+        }
 
-            if (txn.getForUpdate(READ_OPTIONS, this.storage.cfTileDirtyTimestamp, keyBytes, true) == null) { //the tile isn't dirty
-                //exit without committing the transaction
-                return false;
-            }
+        long timestamp = this.timestamp();
+        if (timestamp == TIMESTAMP_BLANK || dirtyTimestamp <= timestamp) { //the entry is stale
+            return false;
+        }
 
-            //store new dirty timestamp in db
-            txn.delete(this.storage.cfTileDirtyTimestamp, keyBytes);
+        //delete the dirty timestamp. this could race with a concurrent markDirty, but a tile is only ever forcibly un-marked when it can't be generated anyway
+        this.storage.db.delete(this.storage.cfTileDirtyTimestamp, WRITE_OPTIONS, this.pos.toBytes());
 
-            //commit transaction and report that a change was made
-            txn.commit();
-            return true;
-        }
+        this.storage.timestampIndex.dirtyTimestampCleared(this.pos, dirtyTimestamp);
+        return true;
     }
 
     @Override
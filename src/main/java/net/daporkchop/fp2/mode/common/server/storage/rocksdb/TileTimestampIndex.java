@@ -0,0 +1,379 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.IFarDirectPosAccess;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.tile.ITileMetadata;
+
+import static net.daporkchop.fp2.mode.api.tile.ITileMetadata.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A bounded cache of the timestamps and dirty timestamps of recently accessed tiles in a {@link RocksStorage}.
+ * <p>
+ * Unlike values cached by tile handles (which are only weakly referenced by the storage, and therefore lost whenever the garbage collector runs), entries are
+ * strongly held in flat primitive arrays, keyed by the tile's position packed into two {@code long}s. The cache is {@link #WAYS}-way set-associative: each
+ * position may only be stored in one of the {@link #WAYS} slots of the set it hashes to, and when all of them are occupied the slots are replaced in a round-robin
+ * fashion.
+ * <p>
+ * Entries are kept coherent with the db using a version counter for each lock stripe. Every modification made by the storage increments the version of the
+ * affected stripe after the db has been written, while values read from the db are only inserted if the version hasn't changed since before they were read
+ * (see {@link #version(IFarPos)}). This prevents a stale value read concurrently with a write from replacing the newer one.
+ *
+ * @author DaPorkchop_
+ */
+public class TileTimestampIndex<POS extends IFarPos> {
+    /**
+     * Returned by {@link #timestamp(IFarPos)} and {@link #dirtyTimestamp(IFarPos)} if the requested value isn't cached.
+     * <p>
+     * This lies between {@link ITileMetadata#TIMESTAMP_BLANK} and {@link ITileMetadata#TIMESTAMP_GENERATED}, so it can never be confused with a real timestamp.
+     */
+    public static final long UNKNOWN = TIMESTAMP_BLANK + 1L;
+
+    protected static final int WAYS = 4;
+    protected static final int LOCK_STRIPES = 1024;
+
+    protected static final byte FLAG_PRESENT = 1;
+    protected static final byte FLAG_TIMESTAMP = 2;
+    protected static final byte FLAG_DIRTY_TIMESTAMP = 4;
+
+    protected static long mix(long key) {
+        key = (key ^ (key >>> 33L)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33L)) * 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33L);
+    }
+
+    protected final IFarDirectPosAccess<POS> access;
+
+    protected final int setMask;
+
+    protected final long[] keys0;
+    protected final long[] keys1;
+    protected final long[] timestamps;
+    protected final long[] dirtyTimestamps;
+    protected final byte[] flags;
+    protected final byte[] nextVictims;
+
+    protected final Object[] locks;
+    protected final long[] versions;
+
+    /**
+     * @param access   a {@link IFarDirectPosAccess} for the positions to be cached
+     * @param capacity the maximum number of tiles to cache. This will be rounded up to a power of two, and must be at least {@link #WAYS}.
+     */
+    public TileTimestampIndex(@NonNull IFarDirectPosAccess<POS> access, int capacity) {
+        checkArg(access.axisCount() <= 3, "unsupported axis count: %d", access.axisCount());
+        checkArg(capacity >= WAYS, "capacity (%d) must be at least %d", capacity, WAYS);
+
+        this.access = access;
+
+        int sets = Integer.highestOneBit((capacity + WAYS - 1) / WAYS - 1) << 1;
+        if (sets == 0) { //capacity is exactly WAYS
+            sets = 1;
+        }
+        this.setMask = sets - 1;
+
+        this.keys0 = new long[sets * WAYS];
+        this.keys1 = new long[sets * WAYS];
+        this.timestamps = new long[sets * WAYS];
+        this.dirtyTimestamps = new long[sets * WAYS];
+        this.flags = new byte[sets * WAYS];
+        this.nextVictims = new byte[sets];
+
+        this.locks = new Object[Math.min(sets, LOCK_STRIPES)];
+        for (int i = 0; i < this.locks.length; i++) {
+            this.locks[i] = new Object();
+        }
+        this.versions = new long[this.locks.length];
+    }
+
+    protected long key0(@NonNull POS pos) {
+        return ((long) this.access.getAxisHeap(pos, 0) << 32L) | (this.access.getAxisHeap(pos, 1) & 0xFFFFFFFFL);
+    }
+
+    protected long key1(@NonNull POS pos) {
+        return this.access.axisCount() > 2
+                ? ((long) this.access.getAxisHeap(pos, 2) << 32L) | (pos.level() & 0xFFFFFFFFL)
+                : pos.level() & 0xFFFFFFFFL;
+    }
+
+    protected int set(long key0, long key1) {
+        return (int) mix(key0 * 31L + key1) & this.setMask;
+    }
+
+    protected int stripe(int set) {
+        return set & (this.locks.length - 1);
+    }
+
+    /**
+     * @return the slot containing the given key, or {@code -1} if it isn't cached
+     */
+    protected int find(int set, long key0, long key1) {
+        for (int slot = set * WAYS, end = slot + WAYS; slot < end; slot++) {
+            if ((this.flags[slot] & FLAG_PRESENT) != 0 && this.keys0[slot] == key0 && this.keys1[slot] == key1) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the slot containing the given key, inserting a new empty entry (possibly replacing an existing one) if it isn't cached
+     */
+    protected int findOrInsert(int set, long key0, long key1) {
+        int slot = this.find(set, key0, key1);
+        if (slot < 0) {
+            slot = set * WAYS;
+            for (int i = slot, end = slot + WAYS; i < end; i++) { //prefer an unused slot
+                if (this.flags[i] == 0) {
+                    slot = i;
+                    break;
+                }
+            }
+            if (this.flags[slot] != 0) { //the set is full, replace the next victim
+                slot += this.nextVictims[set];
+                this.nextVictims[set] = (byte) ((this.nextVictims[set] + 1) & (WAYS - 1));
+            }
+
+            this.keys0[slot] = key0;
+            this.keys1[slot] = key1;
+            this.flags[slot] = FLAG_PRESENT;
+        }
+        return slot;
+    }
+
+    /**
+     * Gets the current version of the stripe the given tile belongs to.
+     * <p>
+     * This must be called before reading any of the tile's timestamps from the db, and the result passed to {@link #timestampLoaded(IFarPos, long, long)} or
+     * {@link #dirtyTimestampLoaded(IFarPos, long, long)} afterwards.
+     *
+     * @param pos the tile's position
+     * @return the version
+     */
+    public long version(@NonNull POS pos) {
+        int stripe = this.stripe(this.set(this.key0(pos), this.key1(pos)));
+        synchronized (this.locks[stripe]) {
+            return this.versions[stripe];
+        }
+    }
+
+    /**
+     * Gets the current versions of all of the stripes at once.
+     * <p>
+     * This is intended for bulk reads which don't know in advance which tiles they'll encounter, such as range scans. It must be called before beginning the
+     * read, and the result passed to {@link #timestampLoaded(IFarPos, long[], long)} afterwards.
+     *
+     * @return the versions
+     */
+    public long[] versions() {
+        long[] versions = new long[this.versions.length];
+        for (int stripe = 0; stripe < versions.length; stripe++) {
+            synchronized (this.locks[stripe]) {
+                versions[stripe] = this.versions[stripe];
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * @param pos the tile's position
+     * @return the tile's cached timestamp, or {@link #UNKNOWN} if it isn't cached
+     */
+    public long timestamp(@NonNull POS pos) {
+        long key0 = this.key0(pos);
+        long key1 = this.key1(pos);
+        int set = this.set(key0, key1);
+        synchronized (this.locks[this.stripe(set)]) {
+            int slot = this.find(set, key0, key1);
+            return slot >= 0 && (this.flags[slot] & FLAG_TIMESTAMP) != 0 ? this.timestamps[slot] : UNKNOWN;
+        }
+    }
+
+    /**
+     * @param pos the tile's position
+     * @return the tile's cached raw dirty timestamp (which may be stale if the tile has been written since it was set), or {@link #UNKNOWN} if it isn't cached
+     */
+    public long dirtyTimestamp(@NonNull POS pos) {
+        long key0 = this.key0(pos);
+        long key1 = this.key1(pos);
+        int set = this.set(key0, key1);
+        synchronized (this.locks[this.stripe(set)]) {
+            int slot = this.find(set, key0, key1);
+            return slot >= 0 && (this.flags[slot] & FLAG_DIRTY_TIMESTAMP) != 0 ? this.dirtyTimestamps[slot] : UNKNOWN;
+        }
+    }
+
+    /**
+     * Caches a tile's timestamp which was read from the db.
+     *
+     * @param pos       the tile's position
+     * @param version   the version returned by {@link #version(IFarPos)} before the timestamp was read
+     * @param timestamp the timestamp
+     */
+    public void timestampLoaded(@NonNull POS pos, long version, long timestamp) {
+        long key0 = this.key0(pos);
+        long key1 = this.key1(pos);
+        int set = this.set(key0, key1);
+        int stripe = this.stripe(set);
+        synchronized (this.locks[stripe]) {
+            if (this.versions[stripe] == version) { //the tile hasn't been modified since the timestamp was read
+                this.putTimestamp(set, key0, key1, timestamp);
+            }
+        }
+    }
+
+    /**
+     * Caches a tile's timestamp which was read from the db as part of a bulk read.
+     *
+     * @param pos       the tile's position
+     * @param versions  the versions returned by {@link #versions()} before the bulk read was started
+     * @param timestamp the timestamp
+     */
+    public void timestampLoaded(@NonNull POS pos, @NonNull long[] versions, long timestamp) {
+        long key0 = this.key0(pos);
+        long key1 = this.key1(pos);
+        int set = this.set(key0, key1);
+        int stripe = this.stripe(set);
+        synchronized (this.locks[stripe]) {
+            if (this.versions[stripe] == versions[stripe]) { //the tile hasn't been modified since the bulk read was started
+                this.putTimestamp(set, key0, key1, timestamp);
+            }
+        }
+    }
+
+    protected void putTimestamp(int set, long key0, long key1, long timestamp) {
+        int slot = this.findOrInsert(set, key0, key1);
+        this.timestamps[slot] = (this.flags[slot] & FLAG_TIMESTAMP) != 0 ? Math.max(this.timestamps[slot], timestamp) : timestamp;
+        this.flags[slot] |= FLAG_TIMESTAMP;
+    }
+
+    /**
+     * Caches a tile's raw dirty timestamp which was read from the db.
+     *
+     * @param pos            the tile's position
+     * @param version        the version returned by {@link #version(IFarPos)} before the dirty timestamp was read
+     * @param dirtyTimestamp the raw dirty timestamp
+     */
+    public void dirtyTimestampLoaded(@NonNull POS pos, long version, long dirtyTimestamp) {
+        long key0 = this.key0(pos);
+        long key1 = this.key1(pos);
+        int set = this.set(key0, key1);
+        int stripe = this.stripe(set);
+        synchronized (this.locks[stripe]) {
+            if (this.versions[stripe] == version) { //the tile hasn't been modified since the dirty timestamp was read
+                int slot = this.findOrInsert(set, key0, key1);
+                this.dirtyTimestamps[slot] = (this.flags[slot] & FLAG_DIRTY_TIMESTAMP) != 0 ? Math.max(this.dirtyTimestamps[slot], dirtyTimestamp) : dirtyTimestamp;
+                this.flags[slot] |= FLAG_DIRTY_TIMESTAMP;
+            }
+        }
+    }
+
+    /**
+     * Called by the storage after a new value has been written for a tile.
+     * <p>
+     * The tile is cached even if it wasn't before, as it's likely to be accessed again soon.
+     *
+     * @param pos       the tile's position
+     * @param timestamp the tile's new timestamp
+     */
+    public void timestampUpdated(@NonNull POS pos, long timestamp) {
+        long key0 = this.key0(pos);
+        long key1 = this.key1(pos);
+        int set = this.set(key0, key1);
+        int stripe = this.stripe(set);
+        synchronized (this.locks[stripe]) {
+            this.versions[stripe]++;
+            this.putTimestamp(set, key0, key1, timestamp);
+        }
+    }
+
+    /**
+     * Called by the storage after a tile's dirty timestamp has been merged with a new value.
+     * <p>
+     * The cached value is only updated if it was already known, as the db's value is now the maximum of the new value and a value which we don't know.
+     *
+     * @param pos            the tile's position
+     * @param dirtyTimestamp the new dirty timestamp
+     */
+    public void dirtyTimestampUpdated(@NonNull POS pos, long dirtyTimestamp) {
+        long key0 = this.key0(pos);
+        long key1 = this.key1(pos);
+        int set = this.set(key0, key1);
+        int stripe = this.stripe(set);
+        synchronized (this.locks[stripe]) {
+            this.versions[stripe]++;
+
+            int slot = this.find(set, key0, key1);
+            if (slot >= 0 && (this.flags[slot] & FLAG_DIRTY_TIMESTAMP) != 0) {
+                this.dirtyTimestamps[slot] = Math.max(this.dirtyTimestamps[slot], dirtyTimestamp);
+            }
+        }
+    }
+
+    /**
+     * Called by the storage after a tile's dirty timestamp has been deleted.
+     * <p>
+     * The cached value is only cleared if it's still the one which was observed before the deletion: a concurrent update may have replaced it in the meantime,
+     * in which case it isn't ours to overwrite.
+     *
+     * @param pos                    the tile's position
+     * @param expectedDirtyTimestamp the dirty timestamp which was deleted
+     */
+    public void dirtyTimestampCleared(@NonNull POS pos, long expectedDirtyTimestamp) {
+        long key0 = this.key0(pos);
+        long key1 = this.key1(pos);
+        int set = this.set(key0, key1);
+        int stripe = this.stripe(set);
+        synchronized (this.locks[stripe]) {
+            this.versions[stripe]++;
+
+            int slot = this.find(set, key0, key1);
+            if (slot >= 0 && (this.flags[slot] & FLAG_DIRTY_TIMESTAMP) != 0 && this.dirtyTimestamps[slot] == expectedDirtyTimestamp) {
+                this.dirtyTimestamps[slot] = TIMESTAMP_BLANK;
+            }
+        }
+    }
+
+    /**
+     * Called by the storage after a tile has been deleted.
+     * <p>
+     * This is the only case in which a tile's timestamp may decrease, so the cached values are replaced rather than being combined with the new ones.
+     *
+     * @param pos the tile's position
+     */
+    public void deleted(@NonNull POS pos) {
+        long key0 = this.key0(pos);
+        long key1 = this.key1(pos);
+        int set = this.set(key0, key1);
+        int stripe = this.stripe(set);
+        synchronized (this.locks[stripe]) {
+            this.versions[stripe]++;
+
+            int slot = this.findOrInsert(set, key0, key1);
+            this.timestamps[slot] = TIMESTAMP_BLANK;
+            this.dirtyTimestamps[slot] = TIMESTAMP_BLANK;
+            this.flags[slot] = FLAG_PRESENT | FLAG_TIMESTAMP | FLAG_DIRTY_TIMESTAMP;
+        }
+    }
+}
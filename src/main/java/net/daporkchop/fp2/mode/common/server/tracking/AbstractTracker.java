@@ -28,6 +28,7 @@ import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.ctx.IFarServerContext;
 import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
+import net.daporkchop.fp2.mode.api.server.storage.IFarStorage;
 import net.daporkchop.fp2.mode.api.server.tracking.IFarTracker;
 import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
 import net.daporkchop.fp2.util.annotation.CalledFromAnyThread;
@@ -42,13 +43,19 @@ import net.daporkchop.lib.unsafe.PUnsafe;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+import static java.lang.Math.*;
 import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.fp2.util.math.MathUtil.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
@@ -65,6 +72,25 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
      */
     protected static final double UPDATE_TRIGGER_DISTANCE_SQUARED = sq(T_VOXELS >> 1);
 
+    /**
+     * The tracker whose load queue is currently being filled by {@link #updateWaiting()} on the current thread, if any.
+     */
+    protected static final ThreadLocal<AbstractTracker<?, ?, ?>> FILLING_TRACKER = new ThreadLocal<>();
+
+    /**
+     * The number of positions at the front of the load queue which are prefetched from storage at once.
+     * <p>
+     * The next batch is prefetched once fewer than half of the previously prefetched positions remain in the queue.
+     */
+    protected static final int PREFETCH_BATCH_SIZE = 1024;
+
+    /**
+     * The maximum number of levels above the prefetched tiles' level that a single prefetch cell may cover.
+     * <p>
+     * Cells are never larger than twice the {@link #PREFETCH_BATCH_SIZE} anyway, so this only needs to be high enough not to limit them.
+     */
+    protected static final int PREFETCH_MAX_CELL_SHIFT = 8;
+
     protected final AbstractTrackerManager<POS, T> manager;
     protected final IFarRenderMode<POS, T> mode;
 
@@ -75,12 +101,16 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
     protected final SimpleSet<POS> loadedPositions;
     protected final Set<POS> waitingPositions = ConcurrentHashMap.newKeySet();
     protected final Queue<POS> doneWaitingPositions = new ConcurrentLinkedQueue<>();
+    protected int prefetchedPositions; //the number of positions at the front of queuedPositions which have already been prefetched
+    protected final Map<POS, ITileSnapshot<POS, T>> prefetchedSnapshots = new ConcurrentHashMap<>(); //snapshots of prefetched tiles which haven't been tracked yet
 
     //these are using a single object reference instead of flattened fields to allow the value to be replaced atomically. to ensure coherent access to the values,
     // readers must take care never to dereference the fields more than once.
     protected volatile STATE lastState;
     protected volatile STATE nextState;
 
+    protected volatile POS origin; //the level-0 tile position containing the player in lastState, used for prioritizing tile tasks
+
     protected volatile boolean queuePaused = false;
     protected volatile boolean closed = false;
 
@@ -126,6 +156,7 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
                 //inform the server thread that this update has started, by updating the current state and clearing the next one
                 this.lastState = nextState;
                 this.nextState = null;
+                this.origin = this.originFor(nextState);
 
                 //untrack all the currently waiting tiles
                 //  this makes tile loading more responsive by forcing high-priority tiles to the front of the execution queue, and simplifies
@@ -175,6 +206,8 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
 
         //sort queue
         this.queuedPositions.sort(this.comparatorFor(nextState));
+        this.prefetchedPositions = 0;
+        this.prefetchedSnapshots.clear();
 
         this.lastUpdateTime = System.nanoTime() - startTime;
     }
@@ -222,8 +255,24 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
      * Mark completed tiles as loaded, and replaces them by beginning to wait on new positions from the queue (if possible).
      */
     protected void updateWaiting() {
+        AbstractTracker<?, ?, ?> prevFillingTracker = FILLING_TRACKER.get();
+        if (prevFillingTracker == this) { //this thread is already filling the load queue further up the stack (tiles which are already loaded may be reported as
+            //  changed while we begin tracking them). the outer loop will notice any positions which are now done waiting, so there's no need to recurse.
+            return;
+        }
+
+        FILLING_TRACKER.set(this);
+        try {
+            this.updateWaiting0();
+        } finally {
+            FILLING_TRACKER.set(prevFillingTracker);
+        }
+    }
+
+    protected void updateWaiting0() {
         int targetLoadQueueSize = FP2Config.global().performance().terrainThreads();
         List<POS> positions = new ArrayList<>();
+        List<POS> prefetchPositions = new ArrayList<>();
 
         do {
             if (this.queuePaused) { //the tracker update thread has specifically requested to pause queue polling, so we shouldn't do anything here
@@ -260,17 +309,89 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
                     //buffer the positions we want to add in a list (we don't want to being tracking them while holding the monitor since that could deadlock)
                     positions.add(pos);
                 }
+
+                //prefetch the positions which will be polled next, so that the storage can read them in a few sequential scans rather than lots of random reads
+                this.prefetchedPositions = max(this.prefetchedPositions - positions.size(), 0);
+                if (this.prefetchedPositions <= (PREFETCH_BATCH_SIZE >> 1)) {
+                    Iterator<POS> itr = this.queuedPositions.iterator();
+                    for (int i = 0; i < this.prefetchedPositions && itr.hasNext(); i++) { //skip positions which were already prefetched
+                        itr.next();
+                    }
+                    for (int i = 0; i < PREFETCH_BATCH_SIZE && itr.hasNext(); i++) {
+                        prefetchPositions.add(itr.next());
+                    }
+                    this.prefetchedPositions += prefetchPositions.size();
+                }
             } finally {
                 PUnsafe.monitorExit(this);
             }
 
+            if (!prefetchPositions.isEmpty()) {
+                this.prefetch(prefetchPositions);
+                prefetchPositions.clear();
+            }
+
             //begin tracking all of the added positions
             this.waitingPositions.addAll(positions);
-            positions.forEach(pos -> this.manager.beginTracking(this, pos));
+            this.manager.beginTracking(this, positions);
             positions.clear();
         } while (!this.doneWaitingPositions.isEmpty() || this.waitingPositions.size() < targetLoadQueueSize);
     }
 
+    /**
+     * Asynchronously reads the tiles at the given positions, so that they can be used once the positions are polled from the queue.
+     * <p>
+     * Rather than reading each tile individually, the positions are grouped into cells which are scanned using {@link IFarStorage#forEachTileInAsync}. The
+     * resulting snapshots are stored in {@link #prefetchedSnapshots}, where they are picked up by {@link AbstractTrackerManager#beginTracking} later on.
+     *
+     * @param positions the positions to prefetch
+     */
+    protected void prefetch(@NonNull List<POS> positions) {
+        IFarStorage<POS, T> storage = this.manager.tileProvider().storage();
+        Set<POS> positionsSet = new HashSet<>(positions);
+
+        Map<Integer, List<POS>> positionsByLevel = positions.stream().collect(Collectors.groupingBy(IFarPos::level, TreeMap::new, Collectors.toList()));
+        positionsByLevel.forEach((level, levelPositions) -> {
+            for (POS cell : this.prefetchCells(levelPositions, level)) {
+                storage.forEachTileInAsync(cell, level, snapshot -> {
+                    if (positionsSet.contains(snapshot.pos())) {
+                        this.prefetchedSnapshots.put(snapshot.pos(), snapshot);
+                    }
+                }).exceptionally(t -> {
+                    //prefetching is only an optimization, so a failure isn't fatal to the tracker. we still want to know about it, though.
+                    FP2_LOG.error("failed to prefetch " + this.mode.name() + " tiles", t);
+                    return null;
+                });
+            }
+        });
+    }
+
+    /**
+     * Groups positions at a single detail level into cells, each of which may be scanned by the storage in a single pass.
+     * <p>
+     * Cells are made as large as possible while at least half of the positions they contain are ones which were requested, which bounds the number of unneeded
+     * tiles which are read while scanning them. They are returned in the order in which they are first encountered, so cells containing higher priority
+     * positions are scanned first.
+     *
+     * @param positions the positions, all of which must be at the given level
+     * @param level     the detail level
+     * @return the cells containing all of the positions
+     */
+    protected List<POS> prefetchCells(@NonNull List<POS> positions, int level) {
+        int axisCount = this.mode.directPosAccess().axisCount();
+
+        List<POS> cells = positions;
+        for (int shift = 1; shift <= PREFETCH_MAX_CELL_SHIFT; shift++) {
+            int cellLevel = level + shift;
+            List<POS> parentCells = cells.stream().<POS>map(pos -> uncheckedCast(pos.upTo(cellLevel))).distinct().collect(Collectors.toList());
+            if ((long) positions.size() << 1L < (long) parentCells.size() << (shift * axisCount)) { //less than half of the positions in the larger cells were requested
+                break;
+            }
+            cells = parentCells;
+        }
+        return cells;
+    }
+
     /**
      * Notifies the tracker that the tile data at the given position has been modified.
      * <p>
@@ -318,6 +439,9 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
         //pause the queue to prevent workers from doing anything else
         this.pauseQueue();
 
+        //tiles should no longer be prioritized based on our position
+        this.manager.trackerClosed(this);
+
         //tell the client to unload all tiles
         this.context.sendMultiTileUnload(this.loadedPositions);
 
@@ -331,6 +455,7 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
         }
 
         //release everything
+        this.prefetchedSnapshots.clear();
         this.queuedPositions.close();
         this.loadedPositions.close();
         this.waitingPositions.clear();
@@ -403,4 +528,12 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
      * @return a {@link Comparator} for sorting visible tile positions
      */
     protected abstract Comparator<POS> comparatorFor(@NonNull STATE state);
+
+    /**
+     * Gets the level-0 tile position which contains the player in the given {@link STATE}.
+     *
+     * @param state the {@link STATE}
+     * @return the player's tile position
+     */
+    protected abstract POS originFor(@NonNull STATE state);
 }
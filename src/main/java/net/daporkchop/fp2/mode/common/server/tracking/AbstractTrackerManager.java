@@ -28,7 +28,6 @@ import net.daporkchop.fp2.config.FP2Config;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.ctx.IFarServerContext;
-import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
 import net.daporkchop.fp2.mode.api.server.IFarTileProvider;
 import net.daporkchop.fp2.mode.api.server.storage.IFarStorage;
 import net.daporkchop.fp2.mode.api.server.tracking.IFarTracker;
@@ -42,11 +41,14 @@ import net.daporkchop.fp2.util.datastructure.CompactReferenceArraySet;
 import net.daporkchop.fp2.util.threading.ThreadingHelper;
 import net.daporkchop.fp2.util.threading.scheduler.NoFutureScheduler;
 import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
-import net.daporkchop.lib.common.misc.string.PStrings;
+import net.daporkchop.fp2.util.threading.workergroup.SharedWorkerPool;
 import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
 import net.daporkchop.lib.unsafe.PUnsafe;
 
+import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -56,6 +58,7 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
+import static java.lang.Math.*;
 import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
 
@@ -64,14 +67,20 @@ import static net.daporkchop.lib.common.util.PValidation.*;
  */
 @Getter
 public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFarTile> implements IFarTrackerManager<POS, T>, IFarStorage.Listener<POS, T> {
+    /**
+     * The {@link SharedWorkerPool} used for updating trackers in all dimensions and render modes.
+     */
+    protected static final SharedWorkerPool TRACKER_WORKER_POOL = new SharedWorkerPool(
+            () -> FP2Config.global().performance().trackingThreads(),
+            PThreadFactories.builder().daemon().minPriority().collapsingId().name("FP2 Tracker #%d").build());
+
     protected final IFarTileProvider<POS, T> tileProvider;
 
     protected final Map<POS, Entry> entries = new ConcurrentHashMap<>();
     protected final Map<IFarServerContext<POS, T>, AbstractTracker<POS, T, ?>> trackers = new IdentityHashMap<>();
+    protected final Set<AbstractTracker<POS, T, ?>> activeTrackers = ConcurrentHashMap.newKeySet(); //copy of trackers.values() which is safe to read from any thread
 
-    protected final Scheduler<AbstractTracker<POS, T, ?>, Void> scheduler; //TODO: make this global rather than per-mode and per-dimension
-
-    protected final int generationThreads = FP2Config.global().performance().terrainThreads();
+    protected final Scheduler<AbstractTracker<POS, T, ?>, Void> scheduler;
 
     public AbstractTrackerManager(@NonNull IFarTileProvider<POS, T> tileProvider) {
         this.tileProvider = tileProvider;
@@ -79,9 +88,7 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
         this.scheduler = new NoFutureScheduler<>(AbstractTracker::doUpdate,
                 ThreadingHelper.workerGroupBuilder()
                         .world(tileProvider.world())
-                        .threads(FP2Config.global().performance().trackingThreads())
-                        .threadFactory(PThreadFactories.builder().daemon().minPriority().collapsingId()
-                                .name(PStrings.fastFormat("FP2 %s DIM%d Tracker #%%d", tileProvider.mode().name(), ((IFarWorldServer) tileProvider.world()).fp2_IFarWorld_dimensionId())).build()));
+                        .pool(TRACKER_WORKER_POOL));
 
         tileProvider.storage().addListener(this);
     }
@@ -100,10 +107,36 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
         return this.trackers.compute(context, (ctx, tracker) -> {
             checkArg(tracker == null, "tracker for %s already exists!", ctx);
 
-            return this.createTrackerFor(ctx);
+            tracker = this.createTrackerFor(ctx);
+            this.activeTrackers.add(tracker);
+            return tracker;
         });
     }
 
+    /**
+     * Called by an {@link AbstractTracker} when it is closed.
+     *
+     * @param tracker the {@link AbstractTracker}
+     */
+    @CalledFromServerThread
+    protected void trackerClosed(@NonNull AbstractTracker<POS, T, ?> tracker) {
+        checkState(this.trackers.remove(tracker.context, tracker), "tracker %s isn't active!", tracker);
+        this.activeTrackers.remove(tracker);
+    }
+
+    @Override
+    public int distanceToClosestTracker(@NonNull POS pos) {
+        int distance = Integer.MAX_VALUE;
+        for (AbstractTracker<POS, T, ?> tracker : this.activeTrackers) {
+            POS origin = tracker.origin;
+            if (origin != null) { //the tracker has been updated at least once
+                //the origin is at level 0, so the distance will be measured in level-0 tiles
+                distance = min(distance, origin.manhattanDistance(pos) >> pos.level());
+            }
+        }
+        return distance;
+    }
+
     /**
      * Creates a new {@link AbstractTracker} instance for the given {@link IFarServerContext}.
      *
@@ -166,7 +199,43 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
         //TODO: this
     }
 
-    protected void beginTracking(@NonNull AbstractTracker<POS, T, ?> tracker, @NonNull POS posIn) {
+    protected void beginTracking(@NonNull AbstractTracker<POS, T, ?> tracker, @NonNull List<POS> positions) {
+        if (positions.isEmpty()) { //nothing to do!
+            return;
+        }
+
+        //tiles which have already been initialized can be sent to the tracker immediately, without having to go through the scheduler. we use the tracker's
+        //  prefetched snapshots where possible (unless the tile has been modified since it was prefetched), and read all the remaining tiles at once.
+        IFarStorage<POS, T> storage = this.tileProvider.storage();
+        List<ITileSnapshot<POS, T>> snapshots = new ArrayList<>(positions.size());
+        List<POS> unprefetchedPositions = new ArrayList<>();
+        for (POS pos : positions) {
+            ITileSnapshot<POS, T> snapshot = tracker.prefetchedSnapshots.remove(pos);
+            if (snapshot != null && snapshot.timestamp() != storage.handleFor(pos).timestamp()) { //the prefetched snapshot is outdated
+                snapshot = null;
+            }
+
+            snapshots.add(snapshot);
+            if (snapshot == null) {
+                unprefetchedPositions.add(pos);
+            }
+        }
+
+        if (!unprefetchedPositions.isEmpty()) {
+            Iterator<ITileSnapshot<POS, T>> itr = storage.multiSnapshot(unprefetchedPositions).iterator();
+            for (int i = 0; i < snapshots.size(); i++) {
+                if (snapshots.get(i) == null) {
+                    snapshots.set(i, itr.next());
+                }
+            }
+        }
+
+        for (int i = 0; i < positions.size(); i++) {
+            this.beginTracking(tracker, positions.get(i), snapshots.get(i));
+        }
+    }
+
+    protected void beginTracking(@NonNull AbstractTracker<POS, T, ?> tracker, @NonNull POS posIn, ITileSnapshot<POS, T> snapshot) {
         class State implements BiFunction<POS, Entry, Entry>, Runnable {
             Entry entry;
 
@@ -184,7 +253,7 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
             @Override
             public void run() {
                 try {
-                    this.entry.addTracker(tracker);
+                    this.entry.addTracker(tracker, snapshot);
                 } finally {
                     PUnsafe.monitorExit(this.entry);
                 }
@@ -276,6 +345,7 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
         //  pointer chasing.
 
         protected final POS pos;
+        protected final ITileHandle<POS, T> handle; //keep a strong reference to the tile's handle so that its cached timestamps aren't lost while the tile is tracked
 
         protected CompletableFuture<ITileHandle<POS, T>> loadFuture;
         protected CompletableFuture<ITileHandle<POS, T>> updateFuture;
@@ -285,12 +355,20 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
 
         public Entry(@NonNull POS pos) {
             this.pos = pos;
+            this.handle = AbstractTrackerManager.this.tileProvider.storage().handleFor(pos);
         }
 
-        public void addTracker(@NonNull AbstractTracker<POS, T, ?> tracker) {
+        public void addTracker(@NonNull AbstractTracker<POS, T, ?> tracker, ITileSnapshot<POS, T> snapshot) {
             checkState(super.add(tracker), "player %s was already added to entry %s!", tracker, this);
 
-            this.addWaitingForLoad(tracker);
+            if (snapshot != null && snapshot.timestamp() >= this.lastSentTimestamp) {
+                //the tile has already been initialized, and the snapshot we were given is at least as new as the last one which was sent. there's no need to
+                //  schedule a load task, we can treat the tile as loaded right away.
+                this.addWaitingForLoad(tracker, false);
+                this.tileLoaded(this.handle, snapshot);
+            } else {
+                this.addWaitingForLoad(tracker, true);
+            }
         }
 
         public Entry removeTracker(@NonNull AbstractTracker<POS, T, ?> tracker) {
@@ -315,14 +393,14 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
             }
         }
 
-        protected void addWaitingForLoad(@NonNull AbstractTracker<POS, T, ?> tracker) {
+        protected void addWaitingForLoad(@NonNull AbstractTracker<POS, T, ?> tracker, boolean scheduleLoad) {
             if (this.trackersWaitingForLoad == null) {
                 this.trackersWaitingForLoad = new CompactReferenceArraySet<>();
             }
 
             checkState(this.trackersWaitingForLoad.add(tracker), "already waiting for load: %s", tracker);
 
-            if (this.loadFuture == null) { //loadFuture isn't set, schedule a new one
+            if (scheduleLoad && this.loadFuture == null) { //loadFuture isn't set, schedule a new one
                 this.loadFuture = AbstractTrackerManager.this.tileProvider.requestLoad(this.pos);
                 this.loadFuture.thenAccept(this);
             }
@@ -361,14 +439,17 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
         }
 
         public void tileLoaded(@NonNull ITileHandle<POS, T> handle) {
-            checkState(handle.isInitialized(), "handle at %s hasn't been initialized yet!", this.pos);
+            this.tileLoaded(handle, handle.snapshot());
+        }
+
+        protected void tileLoaded(@NonNull ITileHandle<POS, T> handle, ITileSnapshot<POS, T> snapshot) {
+            checkState(snapshot != null && snapshot.isInitialized(), "handle at %s hasn't been initialized yet!", this.pos);
 
             if (this.loadFuture != null) { //cancel loadFuture if needed
                 this.loadFuture.cancel(false);
                 this.loadFuture = null;
             }
 
-            ITileSnapshot<POS, T> snapshot = handle.snapshot();
             if (snapshot.timestamp() > this.lastSentTimestamp) { //tile is newer than the tile previously sent to all trackers, so we'll broadcast it to everyone
                 this.lastSentTimestamp = snapshot.timestamp();
 
@@ -407,7 +488,7 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
         }
 
         public void tileDirty() {
-            this.checkDirty(AbstractTrackerManager.this.tileProvider.storage().handleFor(this.pos));
+            this.checkDirty(this.handle);
         }
 
         protected void checkDirty(@NonNull ITileHandle<POS, T> handle) {
@@ -33,7 +33,7 @@ import static net.daporkchop.fp2.util.Constants.*;
  */
 @UtilityClass
 public class HeightmapConstants {
-    public static final int STORAGE_VERSION = 10;
+    public static final int STORAGE_VERSION = 11;
 
     /**
      * The maximum number of layers allowed per block in a tile.
@@ -31,10 +31,14 @@ import net.minecraft.init.Blocks;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.biome.Biome;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static net.daporkchop.fp2.mode.heightmap.HeightmapConstants.*;
 import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.fp2.util.math.MathUtil.*;
 import static net.daporkchop.lib.common.math.PMath.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
 
 /**
  * @author DaPorkchop_
@@ -44,6 +48,17 @@ public class CWGHeightmapGenerator extends AbstractRoughHeightmapGenerator {
     public static final int HMAP_MAX = T_VOXELS + 1;
     public static final int HMAP_SIZE = HMAP_MAX - HMAP_MIN;
 
+    /**
+     * The number of tiles along each axis of a batch.
+     */
+    public static final int BATCH_SIZE = 4;
+
+    /**
+     * The side length of the region sampled when generating an entire batch at once. This is the same as {@link #HMAP_SIZE}, except that the overlap between
+     * adjacent tiles is only sampled once.
+     */
+    public static final int BATCH_HMAP_SIZE = BATCH_SIZE * T_VOXELS + (HMAP_SIZE - T_VOXELS);
+
     protected static final int[] SEARCH_AROUND_WATER_OFFSETS = {
             heightsIndex(HMAP_MIN - 1, HMAP_MIN - 1),
             heightsIndex(HMAP_MIN - 1, HMAP_MIN + 0),
@@ -62,10 +77,14 @@ public class CWGHeightmapGenerator extends AbstractRoughHeightmapGenerator {
     protected final Cached<CWGContext> ctx;
     protected final Cached<double[]> hmapCache = Cached.threadLocal(() -> new double[sq(HMAP_SIZE)], ReferenceStrength.WEAK);
 
+    protected final Cached<CWGContext> batchCtx;
+    protected final Cached<double[]> batchHmapCache = Cached.threadLocal(() -> new double[sq(BATCH_HMAP_SIZE)], ReferenceStrength.WEAK);
+
     public CWGHeightmapGenerator(@NonNull WorldServer world) {
         super(world);
 
         this.ctx = Cached.threadLocal(() -> new CWGContext(world, HMAP_SIZE, 2), ReferenceStrength.WEAK);
+        this.batchCtx = Cached.threadLocal(() -> new CWGContext(world, BATCH_HMAP_SIZE, 2), ReferenceStrength.WEAK);
     }
 
     @Override
@@ -79,14 +98,68 @@ public class CWGHeightmapGenerator extends AbstractRoughHeightmapGenerator {
         int baseX = posIn.blockX();
         int baseZ = posIn.blockZ();
 
-        HeightmapData data = new HeightmapData();
-
         CWGContext ctx = this.ctx.get();
         ctx.init(baseX + (HMAP_MIN << level), baseZ + (HMAP_MIN << level), level);
 
         double[] hmap = this.hmapCache.get();
         ctx.getHeights(hmap);
 
+        this.generateFromHeights(ctx, hmap, baseX, baseZ, level, tile);
+    }
+
+    @Override
+    public List<HeightmapPos> batch(@NonNull HeightmapPos pos) {
+        int level = pos.level();
+        int batchX = pos.x() & -BATCH_SIZE;
+        int batchZ = pos.z() & -BATCH_SIZE;
+
+        List<HeightmapPos> batch = new ArrayList<>(sq(BATCH_SIZE));
+        for (int dx = 0; dx < BATCH_SIZE; dx++) {
+            for (int dz = 0; dz < BATCH_SIZE; dz++) {
+                batch.add(new HeightmapPos(level, batchX + dx, batchZ + dz));
+            }
+        }
+        return batch;
+    }
+
+    @Override
+    public void generate(@NonNull List<HeightmapPos> positions, @NonNull List<HeightmapTile> tiles) {
+        checkArg(positions.size() == tiles.size(), "positions (%d) and tiles (%d) must have the same length", positions.size(), tiles.size());
+        if (positions.size() == 1) { //sampling the whole batch would be a waste of time
+            this.generate(positions.get(0), tiles.get(0));
+            return;
+        }
+
+        HeightmapPos firstPos = positions.get(0);
+        int level = firstPos.level();
+        HeightmapPos batchPos = new HeightmapPos(level, firstPos.x() & -BATCH_SIZE, firstPos.z() & -BATCH_SIZE);
+
+        //estimate the heights for the whole batch at once, so that the biomes and the overlapping regions between tiles only need to be computed once
+        CWGContext ctx = this.batchCtx.get();
+        ctx.init(batchPos.blockX() + (HMAP_MIN << level), batchPos.blockZ() + (HMAP_MIN << level), level);
+        double[] batchHmap = this.batchHmapCache.get();
+        ctx.getHeights(batchHmap);
+
+        double[] hmap = this.hmapCache.get();
+        for (int i = 0; i < positions.size(); i++) {
+            HeightmapPos pos = positions.get(i);
+            int offsetX = (pos.x() - batchPos.x()) << T_SHIFT;
+            int offsetZ = (pos.z() - batchPos.z()) << T_SHIFT;
+            checkArg(pos.level() == level && offsetX >= 0 && offsetX < BATCH_SIZE * T_VOXELS && offsetZ >= 0 && offsetZ < BATCH_SIZE * T_VOXELS,
+                    "%s isn't in the same batch as %s", pos, batchPos);
+
+            //copy the tile's region out of the batch's heightmap
+            for (int x = 0; x < HMAP_SIZE; x++) {
+                System.arraycopy(batchHmap, (offsetX + x) * BATCH_HMAP_SIZE + offsetZ, hmap, x * HMAP_SIZE, HMAP_SIZE);
+            }
+
+            this.generateFromHeights(ctx, hmap, pos.blockX(), pos.blockZ(), level, tiles.get(i));
+        }
+    }
+
+    protected void generateFromHeights(CWGContext ctx, double[] hmap, int baseX, int baseZ, int level, HeightmapTile tile) {
+        HeightmapData data = new HeightmapData();
+
         for (int x = 0; x < T_VOXELS; x++) {
             for (int z = 0, inIdx = heightsIndex(x, z); z < T_VOXELS; z++, inIdx++) {
                 double height = hmap[inIdx];
@@ -168,4 +168,9 @@ public class HeightmapTracker extends AbstractTracker<HeightmapPos, HeightmapTil
 
         return new HeightmapPosAndComparator(0, asrRound(floorI(state.x()), T_SHIFT), asrRound(floorI(state.z()), T_SHIFT));
     }
+
+    @Override
+    protected HeightmapPos originFor(@NonNull TrackingState state) {
+        return new HeightmapPos(0, asrRound(floorI(state.x()), T_SHIFT), asrRound(floorI(state.z()), T_SHIFT));
+    }
 }
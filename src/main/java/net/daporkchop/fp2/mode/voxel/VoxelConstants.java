@@ -31,7 +31,7 @@ import static net.daporkchop.fp2.util.Constants.*;
  */
 @UtilityClass
 public class VoxelConstants {
-    public static final int STORAGE_VERSION = 6;
+    public static final int STORAGE_VERSION = 7;
 
     /**
      * The size of the fractional part of a voxel position, in bits.
@@ -32,21 +32,48 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.world.WorldServer;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static java.lang.Math.*;
 import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.fp2.util.math.MathUtil.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
 
 /**
  * @author DaPorkchop_
  */
 public class CWGVoxelGenerator extends AbstractRoughVoxelGenerator<CWGContext> implements IFarGeneratorRough<VoxelPos, VoxelTile> {
+    /**
+     * The number of tiles along each axis of a batch.
+     */
+    public static final int BATCH_SIZE = 2;
+
+    /**
+     * The side length of the region sampled when generating an entire batch at once. This is the same as {@link #CACHE_SIZE}, except that the overlap between
+     * adjacent tiles is only sampled once.
+     */
+    public static final int BATCH_CACHE_SIZE = BATCH_SIZE * T_VOXELS + (CACHE_SIZE - T_VOXELS);
+
     protected final Cached<CWGContext> ctx;
+    protected final Cached<CWGContext> batchCtx;
+    protected final Cached<double[]> batchDensityMapCache = Cached.threadLocal(() -> new double[cb(BATCH_CACHE_SIZE)], ReferenceStrength.WEAK);
 
     public CWGVoxelGenerator(@NonNull WorldServer world) {
         super(world);
 
         this.ctx = Cached.threadLocal(() -> new CWGContext(world, CACHE_SIZE, 2), ReferenceStrength.WEAK);
+        this.batchCtx = Cached.threadLocal(() -> new CWGContext(world, BATCH_CACHE_SIZE, 2), ReferenceStrength.WEAK);
+    }
+
+    protected void fillWater(@NonNull double[] densityMap, int baseY, int level) {
+        double scaleFactor = 1.0d / (1 << level);
+        for (int x = CACHE_MIN; x < CACHE_MAX; x++) {
+            for (int y = CACHE_MIN; y < CACHE_MAX; y++) {
+                Arrays.fill(densityMap, cacheIndex(x, y, CACHE_MIN), cacheIndex(x, y, CACHE_MAX), ((this.seaLevel - 0.125d) - (baseY + (y << level))) * scaleFactor);
+            }
+        }
     }
 
     @Override
@@ -61,12 +88,7 @@ public class CWGVoxelGenerator extends AbstractRoughVoxelGenerator<CWGContext> i
         double[][] densityMap = this.densityMapCache.get();
 
         //water
-        double scaleFactor = 1.0d / (1 << level);
-        for (int x = CACHE_MIN; x < CACHE_MAX; x++) {
-            for (int y = CACHE_MIN; y < CACHE_MAX; y++) {
-                Arrays.fill(densityMap[0], cacheIndex(x, y, CACHE_MIN), cacheIndex(x, y, CACHE_MAX), ((this.seaLevel - 0.125d) - (baseY + (y << level))) * scaleFactor);
-            }
-        }
+        this.fillWater(densityMap[0], baseY, level);
 
         //blocks
         ctx.get3d(densityMap[1], baseY + (CACHE_MIN << level));
@@ -75,6 +97,66 @@ public class CWGVoxelGenerator extends AbstractRoughVoxelGenerator<CWGContext> i
         this.dualContour(baseX, baseY, baseZ, level, tile, densityMap, ctx);
     }
 
+    @Override
+    public List<VoxelPos> batch(@NonNull VoxelPos pos) {
+        int level = pos.level();
+        int batchX = pos.x() & -BATCH_SIZE;
+        int batchY = pos.y() & -BATCH_SIZE;
+        int batchZ = pos.z() & -BATCH_SIZE;
+
+        List<VoxelPos> batch = new ArrayList<>(cb(BATCH_SIZE));
+        for (int dx = 0; dx < BATCH_SIZE; dx++) {
+            for (int dy = 0; dy < BATCH_SIZE; dy++) {
+                for (int dz = 0; dz < BATCH_SIZE; dz++) {
+                    batch.add(new VoxelPos(level, batchX + dx, batchY + dy, batchZ + dz));
+                }
+            }
+        }
+        return batch;
+    }
+
+    @Override
+    public void generate(@NonNull List<VoxelPos> positions, @NonNull List<VoxelTile> tiles) {
+        checkArg(positions.size() == tiles.size(), "positions (%d) and tiles (%d) must have the same length", positions.size(), tiles.size());
+        if (positions.size() == 1) { //sampling the whole batch would be a waste of time
+            this.generate(positions.get(0), tiles.get(0));
+            return;
+        }
+
+        VoxelPos firstPos = positions.get(0);
+        int level = firstPos.level();
+        VoxelPos batchPos = new VoxelPos(level, firstPos.x() & -BATCH_SIZE, firstPos.y() & -BATCH_SIZE, firstPos.z() & -BATCH_SIZE);
+
+        //sample the noise for the whole batch at once, so that the biomes and the overlapping regions between tiles only need to be computed once
+        CWGContext ctx = this.batchCtx.get();
+        ctx.init(batchPos.blockX() + (CACHE_MIN << level), batchPos.blockZ() + (CACHE_MIN << level), level);
+        double[] batchDensityMap = this.batchDensityMapCache.get();
+        ctx.get3d(batchDensityMap, batchPos.blockY() + (CACHE_MIN << level));
+
+        double[][] densityMap = this.densityMapCache.get();
+        for (int i = 0; i < positions.size(); i++) {
+            VoxelPos pos = positions.get(i);
+            int offsetX = (pos.x() - batchPos.x()) << T_SHIFT;
+            int offsetY = (pos.y() - batchPos.y()) << T_SHIFT;
+            int offsetZ = (pos.z() - batchPos.z()) << T_SHIFT;
+            checkArg(pos.level() == level && offsetX >= 0 && offsetX < BATCH_SIZE * T_VOXELS && offsetY >= 0 && offsetY < BATCH_SIZE * T_VOXELS && offsetZ >= 0 && offsetZ < BATCH_SIZE * T_VOXELS,
+                    "%s isn't in the same batch as %s", pos, batchPos);
+
+            //water
+            this.fillWater(densityMap[0], pos.blockY(), level);
+
+            //blocks: copy the tile's region out of the batch's density map
+            for (int x = 0; x < CACHE_SIZE; x++) {
+                for (int y = 0; y < CACHE_SIZE; y++) {
+                    System.arraycopy(batchDensityMap, ((offsetX + x) * BATCH_CACHE_SIZE + offsetY + y) * BATCH_CACHE_SIZE + offsetZ,
+                            densityMap[1], cacheIndex(CACHE_MIN + x, CACHE_MIN + y, CACHE_MIN), CACHE_SIZE);
+                }
+            }
+
+            this.dualContour(pos.blockX(), pos.blockY(), pos.blockZ(), level, tiles.get(i), densityMap, ctx);
+        }
+    }
+
     @Override
     protected int getFaceState(int blockX, int blockY, int blockZ, int level, double nx, double ny, double nz, double density0, double density1, int edge, int layer, CWGContext ctx) {
         if (layer == 0) { //layer 0 is always water lol
@@ -188,4 +188,9 @@ public class VoxelTracker extends AbstractTracker<VoxelPos, VoxelTile, TrackingS
 
         return new VoxelPosAndComparator(0, asrRound(floorI(state.x()), T_SHIFT), asrRound(floorI(state.y()), T_SHIFT), asrRound(floorI(state.z()), T_SHIFT));
     }
+
+    @Override
+    protected VoxelPos originFor(@NonNull TrackingState state) {
+        return new VoxelPos(0, asrRound(floorI(state.x()), T_SHIFT), asrRound(floorI(state.y()), T_SHIFT), asrRound(floorI(state.z()), T_SHIFT));
+    }
 }
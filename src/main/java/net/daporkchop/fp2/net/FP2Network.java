@@ -30,6 +30,7 @@ import net.daporkchop.fp2.net.packet.standard.server.SPacketHandshake;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketSessionBegin;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketSessionEnd;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketTileData;
+import net.daporkchop.fp2.net.packet.standard.server.SPacketTileDictionary;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUnloadTile;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUnloadTiles;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUpdateConfig;
@@ -108,6 +109,7 @@ public class FP2Network {
         PROTOCOL_FP2.registerMessage(clientboundHandler, SPacketUnloadTiles.class, id++, Side.CLIENT);
         PROTOCOL_FP2.registerMessage(clientboundHandler, SPacketUpdateConfig.Merged.class, id++, Side.CLIENT);
         PROTOCOL_FP2.registerMessage(clientboundHandler, SPacketUpdateConfig.Server.class, id++, Side.CLIENT);
+        PROTOCOL_FP2.registerMessage(clientboundHandler, SPacketTileDictionary.class, id++, Side.CLIENT);
     }
 
     @DebugOnly(RemovalPolicy.DROP)
@@ -37,14 +37,23 @@ import static net.daporkchop.fp2.util.Constants.*;
 @DebugOnly
 public class SPacketDebugUpdateStatistics implements IMessage {
     protected DebugStats.Tracking tracking;
+    protected DebugStats.Storage storage;
+    protected DebugStats.Scheduler scheduler;
+    protected DebugStats.Throttle throttle;
 
     @Override
     public void fromBytes(ByteBuf buf) {
         this.tracking = GSON.fromJson(readString(buf), DebugStats.Tracking.class);
+        this.storage = GSON.fromJson(readString(buf), DebugStats.Storage.class);
+        this.scheduler = GSON.fromJson(readString(buf), DebugStats.Scheduler.class);
+        this.throttle = GSON.fromJson(readString(buf), DebugStats.Throttle.class);
     }
 
     @Override
     public void toBytes(ByteBuf buf) {
         writeString(buf, GSON.toJson(this.tracking));
+        writeString(buf, GSON.toJson(this.storage));
+        writeString(buf, GSON.toJson(this.scheduler));
+        writeString(buf, GSON.toJson(this.throttle));
     }
 }
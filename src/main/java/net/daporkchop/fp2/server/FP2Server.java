@@ -20,11 +20,15 @@
 
 package net.daporkchop.fp2.server;
 
+import lombok.NonNull;
 import lombok.experimental.UtilityClass;
 import net.daporkchop.fp2.config.FP2Config;
 import net.daporkchop.fp2.config.listener.ConfigListenerManager;
 import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.player.IFarPlayerServer;
+import net.daporkchop.fp2.server.command.FP2BackupCommand;
+import net.daporkchop.fp2.server.command.FP2MaintenanceCommand;
+import net.daporkchop.fp2.server.command.FP2StatsCommand;
 import net.daporkchop.fp2.util.Constants;
 import net.daporkchop.lib.common.system.PlatformInfo;
 import net.daporkchop.lib.compression.zstd.Zstd;
@@ -34,6 +38,7 @@ import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
+import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
 
 import static net.daporkchop.fp2.util.Constants.*;
 
@@ -81,4 +86,13 @@ public class FP2Server {
     public void postInit() {
         PUnsafe.ensureClassInitialized(IFarRenderMode.class);
     }
+
+    /**
+     * Called during {@link FMLServerStartingEvent}.
+     */
+    public void serverStarting(@NonNull FMLServerStartingEvent event) {
+        event.registerServerCommand(new FP2BackupCommand());
+        event.registerServerCommand(new FP2MaintenanceCommand());
+        event.registerServerCommand(new FP2StatsCommand());
+    }
 }
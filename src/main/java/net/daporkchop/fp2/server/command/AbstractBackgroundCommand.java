@@ -0,0 +1,105 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.server.command;
+
+import lombok.NonNull;
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static net.daporkchop.fp2.util.Constants.*;
+
+/**
+ * Base implementation of a command which runs a long operation on a separate thread, reporting its progress to the command sender as it goes.
+ * <p>
+ * Only one instance of the operation may run at a time.
+ *
+ * @author DaPorkchop_
+ */
+public abstract class AbstractBackgroundCommand extends CommandBase {
+    protected final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * @return a human-readable name for the operation run by this command
+     */
+    protected abstract String operationName();
+
+    /**
+     * Collects the tasks which make up the operation.
+     * <p>
+     * This is called on the server thread, and should only gather the information needed by the tasks. The tasks themselves will be run in order on a separate
+     * thread.
+     *
+     * @param server   the server
+     * @param args     the command arguments
+     * @param tasks    the list to add the tasks to
+     * @param progress a callback which tasks should notify as the operation progresses
+     */
+    protected abstract void collectTasks(@NonNull MinecraftServer server, @NonNull String[] args, @NonNull List<Runnable> tasks, @NonNull Consumer<String> progress) throws CommandException;
+
+    @Override
+    public int getRequiredPermissionLevel() {
+        return 4;
+    }
+
+    @Override
+    public void execute(@NonNull MinecraftServer server, @NonNull ICommandSender sender, @NonNull String[] args) throws CommandException {
+        String name = this.operationName();
+        if (!this.running.compareAndSet(false, true)) {
+            throw new CommandException(name + " is already running!");
+        }
+
+        Consumer<String> progress = msg -> {
+            FP2_LOG.info("[{}] {}", name, msg);
+            server.addScheduledTask(() -> sender.sendMessage(new TextComponentString(msg)));
+        };
+
+        try {
+            //collect everything which needs to be done while we're still on the server thread
+            List<Runnable> tasks = new ArrayList<>();
+            this.collectTasks(server, args, tasks, progress);
+
+            PThreadFactories.builder().daemon().minPriority().name(name).build().newThread(() -> {
+                try {
+                    progress.accept("Starting " + name + "...");
+                    tasks.forEach(Runnable::run);
+                    progress.accept(name + " complete.");
+                } catch (Throwable t) {
+                    FP2_LOG.error(name + " failed", t);
+                    progress.accept(name + " failed: " + t);
+                } finally {
+                    this.running.set(false);
+                }
+            }).start();
+        } catch (Throwable t) {
+            this.running.set(false);
+            throw t;
+        }
+    }
+}
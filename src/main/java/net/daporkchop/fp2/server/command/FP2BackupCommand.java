@@ -0,0 +1,75 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.server.command;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.ctx.IFarWorld;
+import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorageBackup;
+import net.daporkchop.lib.common.misc.string.PStrings;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.WorldServer;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * {@code /fp2backup}: creates an incremental backup of the far terrain storage of every loaded world.
+ * <p>
+ * Backups are stored in {@code fp2-backups/<world name>} in the server's directory, and can be restored using {@link RocksStorageBackup}.
+ *
+ * @author DaPorkchop_
+ * @see net.daporkchop.fp2.mode.api.server.storage.IFarStorage#backup(File, Consumer)
+ */
+public class FP2BackupCommand extends AbstractBackgroundCommand {
+    @Override
+    public String getName() {
+        return "fp2backup";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/fp2backup";
+    }
+
+    @Override
+    protected String operationName() {
+        return "FP2 Backup";
+    }
+
+    @Override
+    protected void collectTasks(@NonNull MinecraftServer server, @NonNull String[] args, @NonNull List<Runnable> tasks, @NonNull Consumer<String> progress) {
+        File worldDirectory = server.getWorld(0).getSaveHandler().getWorldDirectory();
+        File backupRoot = new File(server.getDataDirectory(), "fp2-backups/" + server.getFolderName());
+
+        for (WorldServer world : server.worlds) {
+            int dimension = ((IFarWorld) world).fp2_IFarWorld_dimensionId();
+            ((IFarWorldServer) world).fp2_IFarWorldServer_forEachTileProvider(provider -> {
+                String prefix = PStrings.fastFormat("[DIM%d %s] ", dimension, provider.mode().name());
+                tasks.add(() -> provider.storage().backup(backupRoot, msg -> progress.accept(prefix + msg)));
+            });
+        }
+
+        tasks.add(() -> RocksStorageBackup.backupSharedDatabase(worldDirectory, backupRoot, msg -> progress.accept("[shared] " + msg)));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.server.command;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.debug.util.DebugStats;
+import net.daporkchop.fp2.mode.api.ctx.IFarWorld;
+import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
+import net.daporkchop.lib.common.misc.string.PStrings;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.world.WorldServer;
+
+import java.util.Map;
+
+/**
+ * {@code /fp2stats}: prints the task scheduling and tile generation statistics of every loaded world.
+ * <p>
+ * All durations are given in milliseconds. Categories in which nothing has happened yet are omitted.
+ *
+ * @author DaPorkchop_
+ */
+public class FP2StatsCommand extends CommandBase {
+    protected static String formatHistogram(@NonNull DebugStats.Histogram histogram) {
+        return String.format("n=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+                histogram.count(), histogram.mean() / 1e6d, histogram.p50() / 1e6d, histogram.p90() / 1e6d, histogram.p99() / 1e6d, histogram.max() / 1e6d);
+    }
+
+    @Override
+    public String getName() {
+        return "fp2stats";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/fp2stats";
+    }
+
+    @Override
+    public int getRequiredPermissionLevel() {
+        return 4;
+    }
+
+    @Override
+    public void execute(@NonNull MinecraftServer server, @NonNull ICommandSender sender, @NonNull String[] args) {
+        for (WorldServer world : server.worlds) {
+            int dimension = ((IFarWorld) world).fp2_IFarWorld_dimensionId();
+            ((IFarWorldServer) world).fp2_IFarWorldServer_forEachTileProvider(provider -> {
+                Map<String, DebugStats.Tasks> tasks = provider.debugTaskStats();
+                Map<String, DebugStats.Histogram> generation = provider.debugGenerationStats();
+                if (tasks.isEmpty() && generation.isEmpty()) {
+                    return;
+                }
+
+                sender.sendMessage(new TextComponentString(PStrings.fastFormat("[DIM%d %s]", dimension, provider.mode().name())));
+                tasks.forEach((name, stats) -> {
+                    sender.sendMessage(new TextComponentString(PStrings.fastFormat(" task %s: queued=%d deduplicated=%d", name, stats.queuedTasks(), stats.deduplicatedTasks())));
+                    sender.sendMessage(new TextComponentString("  wait: " + formatHistogram(stats.waitTime())));
+                    sender.sendMessage(new TextComponentString("  execute: " + formatHistogram(stats.executionTime())));
+                });
+                generation.forEach((name, stats) -> sender.sendMessage(new TextComponentString(" generate " + name + ": " + formatHistogram(stats))));
+            });
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.util.datastructure;
+
+import lombok.NonNull;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+import static net.daporkchop.lib.common.util.PorkUtil.*;
+
+/**
+ * Alternative to {@link ConcurrentUnboundedPriorityBlockingQueue} for elements whose priority is one of a small number of discrete levels.
+ * <p>
+ * Each priority level (referred to as a "bucket") is backed by a lock-free FIFO queue, and a two-level bitmap keeps track of which buckets may be non-empty. Elements
+ * are always polled from the lowest non-empty bucket, and elements in the same bucket are polled in insertion order. This makes all operations except
+ * {@link #remove(Object)} run in constant time, regardless of the number of queued elements. The FIFO queue for each bucket is only allocated once the first
+ * element is added to it, so unused buckets are cheap.
+ * <p>
+ * Unlike {@link ConcurrentUnboundedPriorityBlockingQueue}, duplicate elements are permitted.
+ *
+ * @author DaPorkchop_
+ */
+public class ConcurrentBucketedPriorityBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    /**
+     * The maximum number of buckets supported by this implementation.
+     */
+    public static final int MAX_BUCKETS = Long.SIZE * Long.SIZE;
+
+    protected final Semaphore lock = new Semaphore(0);
+    protected final AtomicReferenceArray<ConcurrentLinkedQueue<E>> buckets;
+    protected final ToIntFunction<? super E> bucketFunction;
+
+    //bit i of word w is set if bucket (w * 64 + i) may be non-empty, and bit w of nonEmptyWords is set if word w may be non-zero. bits may be set even if the
+    //  corresponding bucket is empty, but never the other way around.
+    protected final AtomicLongArray nonEmptyBuckets;
+    protected final AtomicLong nonEmptyWords = new AtomicLong();
+
+    /**
+     * @param buckets        the number of buckets
+     * @param bucketFunction a function which maps each element to the index of the bucket it belongs to. Elements in lower buckets will be polled first.
+     */
+    public ConcurrentBucketedPriorityBlockingQueue(int buckets, @NonNull ToIntFunction<? super E> bucketFunction) {
+        checkArg(buckets > 0 && buckets <= MAX_BUCKETS, "buckets (%d) must be in range [1,%d]", buckets, MAX_BUCKETS);
+
+        this.buckets = new AtomicReferenceArray<>(buckets);
+        this.nonEmptyBuckets = new AtomicLongArray((buckets + Long.SIZE - 1) / Long.SIZE);
+        this.bucketFunction = bucketFunction;
+    }
+
+    protected int bucket(@NonNull E e) {
+        return checkIndex(this.buckets.length(), this.bucketFunction.applyAsInt(e));
+    }
+
+    protected ConcurrentLinkedQueue<E> bucketQueue(int bucket) {
+        ConcurrentLinkedQueue<E> queue = this.buckets.get(bucket);
+        if (queue == null) { //the bucket hasn't been used yet, race to allocate it
+            if (!this.buckets.compareAndSet(bucket, null, queue = new ConcurrentLinkedQueue<>())) { //we lost the race, use the other thread's queue
+                queue = this.buckets.get(bucket);
+            }
+        }
+        return queue;
+    }
+
+    protected void markNonEmpty(int bucket) {
+        int word = bucket >>> 6;
+
+        long bit = 1L << bucket;
+        if ((this.nonEmptyBuckets.get(word) & bit) == 0L) { //avoid the atomic operation if the bit is already set
+            this.nonEmptyBuckets.getAndAccumulate(word, bit, (a, b) -> a | b);
+        }
+
+        long wordBit = 1L << word;
+        if ((this.nonEmptyWords.get() & wordBit) == 0L) {
+            this.nonEmptyWords.getAndAccumulate(wordBit, (a, b) -> a | b);
+        }
+    }
+
+    protected void markEmpty(int bucket) {
+        int word = bucket >>> 6;
+        long bits = this.nonEmptyBuckets.accumulateAndGet(word, ~(1L << bucket), (a, b) -> a & b);
+
+        //an element may have been added after we found the bucket to be empty, in which case its bit would have been set before we cleared it. we have to check
+        //  again to make sure the bit isn't left unset for a non-empty bucket.
+        if (!this.buckets.get(bucket).isEmpty()) {
+            this.markNonEmpty(bucket);
+        } else if (bits == 0L) { //the whole word is now empty, so we can clear its bit as well (using the same logic)
+            this.nonEmptyWords.getAndAccumulate(~(1L << word), (a, b) -> a & b);
+            if (this.nonEmptyBuckets.get(word) != 0L) {
+                this.nonEmptyWords.getAndAccumulate(1L << word, (a, b) -> a | b);
+            }
+        }
+    }
+
+    /**
+     * Polls an element from the lowest non-empty bucket whose index is less than the given limit.
+     * <p>
+     * The caller must have already acquired a permit.
+     */
+    protected E pollBuckets(int limit) {
+        if (limit <= 0) {
+            return null;
+        }
+
+        int lastWord = (limit - 1) >>> 6;
+        long lastWordMask = -1L >>> (~(limit - 1) & 63);
+        for (long words = this.nonEmptyWords.get() & (-1L >>> (~lastWord & 63)); words != 0L; words &= words - 1L) {
+            int word = Long.numberOfTrailingZeros(words);
+            long mask = word == lastWord ? lastWordMask : -1L;
+
+            for (long bits; (bits = this.nonEmptyBuckets.get(word) & mask) != 0L; ) {
+                int bucket = (word << 6) | Long.numberOfTrailingZeros(bits);
+                E e = this.buckets.get(bucket).poll();
+                if (e != null) {
+                    return e;
+                }
+                this.markEmpty(bucket);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Polls an element, spinning until one is found.
+     * <p>
+     * The caller must have already acquired a permit, which guarantees that there is an element available for it.
+     */
+    protected E pollAcquired() {
+        E e;
+        while ((e = this.pollBuckets(this.buckets.length())) == null) {
+            //another thread is in the middle of updating the bitmap, it'll be visible to us in a moment
+            Thread.yield();
+        }
+        return e;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return IntStream.range(0, this.buckets.length())
+                .mapToObj(this.buckets::get)
+                .filter(Objects::nonNull)
+                .flatMap(Collection::stream)
+                .iterator();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.lock.availablePermits() == 0;
+    }
+
+    @Override
+    public int size() {
+        return this.lock.availablePermits();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean add(E e) {
+        int bucket = this.bucket(e);
+        this.bucketQueue(bucket).add(e);
+        this.markNonEmpty(bucket);
+        this.lock.release();
+        return true;
+    }
+
+    /**
+     * @implNote this runs in linear time with regards to the number of elements in the element's bucket
+     */
+    @Override
+    public boolean remove(Object o) {
+        ConcurrentLinkedQueue<E> queue = this.buckets.get(this.bucket(uncheckedCast(o)));
+        if (queue != null && this.lock.tryAcquire()) {
+            if (queue.remove(o)) {
+                return true;
+            }
+            this.lock.release();
+        }
+        return false;
+    }
+
+    @Override
+    public E poll() {
+        return this.lock.tryAcquire() ? this.pollAcquired() : null;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.lock.tryAcquire(timeout, unit) ? this.pollAcquired() : null;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        this.lock.acquire();
+        return this.pollAcquired();
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super E> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super E> c, int maxElements) {
+        int added = 0;
+        for (E value; added < maxElements && (value = this.poll()) != null; added++) {
+            c.add(value);
+        }
+        return added;
+    }
+
+    @Override
+    public E peek() {
+        for (long words = this.nonEmptyWords.get(); words != 0L; words &= words - 1L) {
+            int word = Long.numberOfTrailingZeros(words);
+            for (long bits = this.nonEmptyBuckets.get(word); bits != 0L; bits &= bits - 1L) {
+                E e = this.buckets.get((word << 6) | Long.numberOfTrailingZeros(bits)).peek();
+                if (e != null) {
+                    return e;
+                }
+            }
+        }
+        return null;
+    }
+
+    //delegate methods
+
+    @Override
+    public void put(E e) {
+        this.add(e);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        this.add(e);
+        return true;
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        this.add(e);
+        return true;
+    }
+
+    //custom methods
+
+    /**
+     * Polls an element whose bucket is strictly lower than the given element's bucket.
+     *
+     * @param curr the element
+     * @return the polled element, or {@code null} if there are no elements in any lower buckets
+     */
+    public E pollLess(@NonNull E curr) {
+        return this.pollBelow(this.bucket(curr));
+    }
+
+    /**
+     * Polls an element whose bucket is strictly lower than the given bucket.
+     *
+     * @param bucket the bucket index
+     * @return the polled element, or {@code null} if there are no elements in any lower buckets
+     */
+    public E pollBelow(int bucket) {
+        if (bucket > 0 && this.lock.tryAcquire()) {
+            E e = this.pollBuckets(bucket);
+            if (e != null) {
+                return e;
+            }
+            this.lock.release();
+        }
+        return null;
+    }
+}
@@ -30,6 +30,8 @@ import net.daporkchop.fp2.util.threading.futureexecutor.MarkedFutureExecutor;
 import net.daporkchop.fp2.util.threading.futureexecutor.MarkingForwardingFutureExecutor;
 import net.daporkchop.fp2.util.threading.futureexecutor.ServerThreadMarkedFutureExecutor;
 import net.daporkchop.fp2.util.threading.futureexecutor.ThreadValidatingForwardingFutureExecutor;
+import net.daporkchop.fp2.util.threading.workergroup.PooledWorkerGroup;
+import net.daporkchop.fp2.util.threading.workergroup.SharedWorkerPool;
 import net.daporkchop.fp2.util.threading.workergroup.WorkerGroupBuilder;
 import net.daporkchop.fp2.util.threading.workergroup.WorldWorkerGroup;
 import net.daporkchop.lib.common.misc.release.AbstractReleasable;
@@ -41,6 +43,8 @@ import net.minecraft.world.World;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.relauncher.Side;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -52,6 +56,7 @@ import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
+import static java.lang.Math.*;
 import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
 
@@ -73,8 +78,16 @@ public class ThreadingHelper {
             @Override
             public WorldWorkerGroup build(@NonNull Runnable task) {
                 this.validate();
+                checkState(this.pool == null, "cannot build a worker group with its own threads when a pool is set!");
                 return new DefaultWorldWorkerGroup(this, task);
             }
+
+            @Override
+            public PooledWorkerGroup buildPooled(@NonNull SharedWorkerPool.TaskSource source) {
+                this.validate();
+                checkState(this.pool != null, "cannot build a pooled worker group without a pool!");
+                return new PooledWorldWorkerGroup(this, source);
+            }
         };
     }
 
@@ -279,4 +292,117 @@ public class ThreadingHelper {
             }
         }
     }
+
+    private static class PooledWorldWorkerGroup extends AbstractReleasable implements PooledWorkerGroup, SharedWorkerPool.TaskSource {
+        @Getter
+        private final World world;
+        @Getter
+        private final FutureExecutor worldExecutor;
+
+        private final SharedWorkerPool.TaskSource source;
+        private final SharedWorkerPool.Registration registration;
+
+        private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        private volatile boolean closed = false;
+
+        public PooledWorldWorkerGroup(@NonNull WorkerGroupBuilder builder, @NonNull SharedWorkerPool.TaskSource source) {
+            this.world = builder.world();
+            this.source = source;
+
+            this.worldExecutor = new ThreadValidatingForwardingFutureExecutor(
+                    new MarkingForwardingFutureExecutor(rootExecutorFor(this.world)),
+                    this.threads::contains);
+
+            this.registration = builder.pool().register(this);
+        }
+
+        @Override
+        public SharedWorkerPool pool() {
+            return this.registration.pool();
+        }
+
+        @Override
+        public Collection<Thread> threads() {
+            return Collections.unmodifiableSet(this.threads);
+        }
+
+        @Override
+        public void workAvailable() {
+            this.registration.workAvailable();
+        }
+
+        @Override
+        public long executedTasks() {
+            return this.registration.executedTasks();
+        }
+
+        @Override
+        public long busyTime() {
+            return this.registration.busyTime();
+        }
+
+        @Override
+        public int queuedTasks() {
+            return this.closed ? 0 : this.source.queuedTasks();
+        }
+
+        @Override
+        public int weight() {
+            //worlds with more players need more tiles generated, so they get a proportionally larger share of the pool. the player list is only modified on the
+            //  server thread, but reading its size from another thread is harmless since the weight doesn't need to be exact.
+            return max(this.world.playerEntities.size(), 1);
+        }
+
+        @Override
+        public boolean runSingleTask() {
+            Thread thread = Thread.currentThread();
+
+            //temporarily make the pool thread a member of this group, so that any tasks it submits will be sent to the correct world
+            checkState(THREADS_TO_GROUPS.putIfAbsent(thread, this) == null, "thread %s is already a member of a worker group?!?", thread);
+            this.threads.add(thread);
+            try {
+                //we have to check this AFTER adding the thread, otherwise we could start executing a task right after release() has finished waiting for us
+                return !this.closed && this.source.runSingleTask();
+            } finally {
+                this.threads.remove(thread);
+                checkState(THREADS_TO_GROUPS.remove(thread, this), "unable to remove thread->group mapping %s->%s from THREADS_TO_GROUPS map?!?", thread, this);
+            }
+        }
+
+        @Override
+        public void release() throws AlreadyReleasedException {
+            checkState(!this.threads.contains(Thread.currentThread()), "thread %s cannot release it's own worker group!", Thread.currentThread());
+            super.release();
+        }
+
+        @Override
+        protected void doRelease() {
+            //prevent the pool from starting any new tasks from this group
+            this.closed = true;
+
+            //closing the world executor will cancel all tasks which might have been pending execution on the server thread, thus preventing a deadlock in the case where
+            //  we're currently on the server thread, but any of the pool threads was waiting for the server thread to do something.
+            this.worldExecutor.close();
+
+            //wait for all pool threads to finish executing our tasks
+            boolean interrupted = false;
+            while (!this.threads.isEmpty()) {
+                this.threads.forEach(ThreadingHelper::externalManagedUnblock);
+
+                try {
+                    Thread.sleep(1L);
+                } catch (InterruptedException e) {
+                    FP2_LOG.error(PStrings.fastFormat("%s was interrupted while waiting for %s to become idle", Thread.currentThread(), this), e);
+                    interrupted = true;
+                }
+            }
+
+            //the pool doesn't need to know about us any more
+            this.registration.unregister();
+
+            if (interrupted) { //restore interrupted state
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
@@ -21,13 +21,14 @@
 package net.daporkchop.fp2.util.threading.scheduler;
 
 import lombok.NonNull;
-import net.daporkchop.fp2.util.datastructure.ConcurrentUnboundedPriorityBlockingQueue;
+import net.daporkchop.fp2.debug.util.DebugStats;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
+import net.daporkchop.fp2.util.datastructure.ConcurrentBucketedPriorityBlockingQueue;
 import net.daporkchop.fp2.util.threading.workergroup.WorkerGroupBuilder;
 import net.daporkchop.lib.common.util.PorkUtil;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
@@ -37,6 +38,9 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static net.daporkchop.lib.common.util.PValidation.*;
 import static net.daporkchop.lib.common.util.PorkUtil.*;
@@ -45,25 +49,95 @@ import static net.daporkchop.lib.common.util.PorkUtil.*;
  * Implementation of {@link Scheduler} whose {@link CompletableFuture}s are shared for all occurrences of the same parameter value, and whose tasks are executed approximately
  * in priority.
  * <p>
- * This functions similarly to {@link SharedFutureScheduler}, but is initialized with a {@link Comparator}. The {@link Comparator} does not have to provide accurate comparison
- * across all possible parameter values, but only needs to partition parameters into smaller parameter spaces. Tasks are executed in comparison order as much as reasonably
- * possible (i.e. it may not be perfect). Accuracy can be improved by reducing the duration of an individual task and splitting tasks up into multiple sub-tasks which can
- * be executed recursively or using {@link #scatterGather(List)}, although this is not recommended as the overhead imposed by each task is fairly substantial. Recursive
- * tasks are only permitted to recurse into parameters which are strictly less than the current one, attempts to do otherwise will throw an exception.
+ * This functions similarly to {@link SharedFutureScheduler}, but is initialized with a priority function which partitions parameters into a small number of discrete
+ * priority levels. Tasks with a lower priority value are executed first, and tasks with the same priority value are executed in the order they were scheduled. This is done
+ * as much as reasonably possible (i.e. it may not be perfect). Accuracy can be improved by reducing the duration of an individual task and splitting tasks up into
+ * multiple sub-tasks which can be executed recursively or using {@link #scatterGather(List)}, although this is not recommended as the overhead imposed by each task is
+ * fairly substantial. Recursive tasks are only permitted to recurse into parameters whose priority value is strictly less than the current one, attempts to do otherwise
+ * will throw an exception.
  * <p>
- * It is, of course, possible to use a {@link Comparator} which does accurate comparisons between all distinct parameter values. However, this will likely result in
- * an undesirable bias towards a certain keys when doing recursive actions.
+ * Tasks may additionally be given a secondary priority, which is used to order tasks with the same priority value. Unlike the primary priority, the secondary priority
+ * may change over time: it is re-evaluated whenever a task is polled from the queue (tasks which have become less urgent are moved further back in the queue), and
+ * whenever an already queued task is scheduled again or passed to {@link #reprioritize(Object)} (tasks which have become more urgent are moved further forward in the
+ * queue). The secondary priority is not taken into account when checking the validity of recursive tasks.
+ * <p>
+ * Tasks are queued using a {@link ConcurrentBucketedPriorityBlockingQueue}, so the total number of distinct combinations of primary and secondary priorities is limited
+ * to {@link ConcurrentBucketedPriorityBlockingQueue#MAX_BUCKETS}.
  *
  * @author DaPorkchop_
  */
 public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedFutureScheduler<P, V> {
+    /**
+     * The maximum number of tasks which may be moved to a less urgent position in the queue during a single poll. Once this many tasks have been moved, the next
+     * live task is returned as-is, even if it has become less urgent.
+     */
+    protected static final int MAX_DEMOTIONS_PER_POLL = 16;
+
     protected final AtomicLong ctr = new AtomicLong(Long.MIN_VALUE); //we assume this will never overflow - a perhaps naïve assumption, but still, 2⁶⁴ IS a very large number...
-    protected final Comparator<P> initialComparator;
+    protected final ToIntFunction<P> priorityFunction;
+    protected final int priorities;
+    protected final ToIntFunction<P> secondaryPriorityFunction;
+    protected final int secondaryPriorities;
+
+    protected final TaskMetrics[] priorityMetrics;
+
+    /**
+     * @param functionFactory  the factory for the function which will be used to execute tasks
+     * @param builder          the {@link WorkerGroupBuilder} to use for creating the worker group
+     * @param priorities       the number of distinct priority levels
+     * @param priorityFunction a function which maps parameters to their priority level, in range {@code [0, priorities)}
+     */
+    public ApproximatelyPrioritizedSharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder, int priorities, @NonNull ToIntFunction<P> priorityFunction) {
+        this(functionFactory, builder, priorities, priorityFunction, 1, param -> 0);
+    }
 
-    public ApproximatelyPrioritizedSharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder, @NonNull Comparator<P> initialComparator) {
+    /**
+     * @param functionFactory           the factory for the function which will be used to execute tasks
+     * @param builder                   the {@link WorkerGroupBuilder} to use for creating the worker group
+     * @param priorities                the number of distinct priority levels
+     * @param priorityFunction          a function which maps parameters to their priority level, in range {@code [0, priorities)}
+     * @param secondaryPriorities       the number of distinct secondary priority levels
+     * @param secondaryPriorityFunction a function which maps parameters to their current secondary priority level, in range {@code [0, secondaryPriorities)}. This
+     *                                  may be called from any thread at any time, and may return different values for the same parameter over time.
+     */
+    public ApproximatelyPrioritizedSharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder,
+                                                         int priorities, @NonNull ToIntFunction<P> priorityFunction,
+                                                         int secondaryPriorities, @NonNull ToIntFunction<P> secondaryPriorityFunction) {
         super(functionFactory, builder);
+        positive(priorities, "priorities");
+        positive(secondaryPriorities, "secondaryPriorities");
+        checkArg((long) priorities * secondaryPriorities <= ConcurrentBucketedPriorityBlockingQueue.MAX_BUCKETS, "priorities (%d) * secondaryPriorities (%d) must not exceed %d",
+                priorities, secondaryPriorities, ConcurrentBucketedPriorityBlockingQueue.MAX_BUCKETS);
+
+        this.priorityFunction = priorityFunction;
+        this.priorities = priorities;
+        this.secondaryPriorityFunction = secondaryPriorityFunction;
+        this.secondaryPriorities = secondaryPriorities;
 
-        this.initialComparator = initialComparator;
+        this.priorityMetrics = new TaskMetrics[priorities];
+        for (int i = 0; i < priorities; i++) {
+            this.priorityMetrics[i] = new TaskMetrics();
+        }
+    }
+
+    @Override
+    protected TaskMetrics metrics(@NonNull SharedFutureScheduler<P, V>.Task task) {
+        return this.priorityMetrics[((Task) task).priority];
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Tasks are categorized by their priority, so the statistics at each index correspond to the tasks with that priority.
+     */
+    @DebugOnly
+    @Override
+    public List<DebugStats.Tasks> debugTaskStats() {
+        return Stream.of(this.priorityMetrics).map(TaskMetrics::debugStats).collect(Collectors.toList());
+    }
+
+    protected int secondaryPriority(@NonNull P param) {
+        return checkIndex(this.secondaryPriorities, this.secondaryPriorityFunction.applyAsInt(param));
     }
 
     @Override
@@ -79,7 +153,12 @@ public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedF
 
     @Override
     protected BlockingQueue<SharedFutureScheduler<P, V>.Task> createTaskQueue() {
-        return new ConcurrentUnboundedPriorityBlockingQueue<>();
+        //this is called from the superclass constructor, so we can't use any of our own fields yet. the bucket function is only called once tasks are being
+        //  scheduled, at which point the fields will have been initialized.
+        return new ConcurrentBucketedPriorityBlockingQueue<>(ConcurrentBucketedPriorityBlockingQueue.MAX_BUCKETS, task -> {
+            Task t = uncheckedCast(task);
+            return t.priority * this.secondaryPriorities + t.secondaryPriority;
+        });
     }
 
     @Override
@@ -87,9 +166,40 @@ public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedF
         return new Task(param);
     }
 
+    @Override
+    public CompletableFuture<V> schedule(@NonNull P param) {
+        CompletableFuture<V> future = super.schedule(param);
+
+        //if the task was already queued, it may have become more urgent since it was first scheduled
+        this.reprioritize(param);
+        return future;
+    }
+
+    @Override
+    public void reprioritize(@NonNull P param) {
+        if (this.secondaryPriorities == 1) { //secondary priorities aren't being used, so there's nothing to do
+            return;
+        }
+
+        Task task = uncheckedCast(this.tasks.get(param));
+        int state;
+        if (task != null
+            && (state = task.state) > 0 //the task hasn't started execution yet
+            && (state & TASK_STATE_FLAG_DEFERRED) == 0) { //the task has been added to the queue (re-scheduled tasks are only queued once the previous task is complete)
+            int secondaryPriority = this.secondaryPriority(param);
+            if (secondaryPriority < task.secondaryPriority) { //the task has become more urgent since it was queued
+                //add the task to the queue again in the correct bucket. the old queue entry will be discarded once a worker gets to it, since the task will
+                //  already have been started. if multiple threads race to do this, the task may end up being queued more than once, which is harmless.
+                task.secondaryPriority = secondaryPriority;
+                this.requeue(task);
+            }
+        }
+    }
+
     @Override
     protected void unqueue(@NonNull SharedFutureScheduler<P, V>.Task task) {
-        this.queue.remove(task);
+        //do nothing - removing an arbitrary element from the queue is O(n), so we simply leave the task in the queue. the worker threads will discard it once they
+        //  get to it, since it'll either have already been started or no longer be present in the task map.
     }
 
     @Override
@@ -107,10 +217,66 @@ public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedF
 
     @Override
     protected SharedFutureScheduler<P, V>.Task pollSingleTask() {
+        int demotions = 0;
+        while (true) {
+            Task task = uncheckedCast(this.pollSingleTask0());
+            if (task == null) { //queue is empty
+                return null;
+            } else if (this.isStale(task)) { //discard the entry instead of returning it, it doesn't count towards the demotion limit since it's gone for good
+                this.dequeued(task);
+            } else if (demotions >= MAX_DEMOTIONS_PER_POLL || !this.demote(task)) {
+                return task;
+            } else {
+                demotions++;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given queue entry is stale, i.e. the task can neither be started nor resumed.
+     * <p>
+     * This is the case if the task has already been started, released or completed, or if it was re-scheduled and is waiting for the previous task to complete
+     * (see {@link #reprioritize(Object)}).
+     *
+     * @param task a task which was just polled from the queue
+     */
+    protected boolean isStale(@NonNull Task task) {
+        if (task.continuation != null) { //the task was suspended and is ready to be resumed
+            return false;
+        }
+
+        int state = task.state;
+        return state <= 0 || (state & TASK_STATE_FLAG_DEFERRED) != 0;
+    }
+
+    /**
+     * Checks whether the given task has become less urgent since it was queued, and if so, moves it back to the correct position in the queue.
+     *
+     * @param task a task which was just polled from the queue, whose entry isn't {@link #isStale(Task) stale}
+     * @return whether or not the task was moved
+     */
+    protected boolean demote(@NonNull Task task) {
+        if (this.secondaryPriorities == 1) { //secondary priorities aren't being used
+            return false;
+        }
+
+        int secondaryPriority = this.secondaryPriority(task.param);
+        if (secondaryPriority <= task.secondaryPriority) { //the task is at least as urgent as it was when it was queued, we can execute it now
+            return false;
+        }
+
+        //add the task to the queue again in the correct bucket. we don't need to notify anyone since the current thread will continue polling.
+        task.secondaryPriority = secondaryPriority;
+        checkState(this.queue.add(task));
+        return true;
+    }
+
+    protected SharedFutureScheduler<P, V>.Task pollSingleTask0() {
         Deque<SharedFutureScheduler<P, V>.Task> recursionStack = this.recursionStack.get();
         Task parent = uncheckedCast(recursionStack.peekFirst());
         if (parent != null) { //this is a recursive task! we should make sure that the task we get is less than the current one
-            Task polledTask = PorkUtil.<ConcurrentUnboundedPriorityBlockingQueue<Task>>uncheckedCast(this.queue).pollLess(parent);
+            //only the primary priority counts here, so we can take tasks from any bucket with a lower primary priority regardless of their secondary priority
+            Task polledTask = PorkUtil.<ConcurrentBucketedPriorityBlockingQueue<Task>>uncheckedCast(this.queue).pollBelow(parent.priority * this.secondaryPriorities);
             if (polledTask == null) {
                 //sleep to avoid high CPU while spinning...
                 //this is actually pretty yucky, but unfortunately i don't see any way to avoid having to spin here other than making some kind of semaphore which
@@ -125,15 +291,25 @@ public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedF
 
     @Override
     public List<V> scatterGather(@NonNull List<P> params) {
+        this.checkRecursion(params);
+        return super.scatterGather(params);
+    }
+
+    @Override
+    public V scatterGatherThen(@NonNull List<P> params, @NonNull Function<List<V>, V> continuation) {
+        //suspended tasks don't occupy a worker thread, but we still need to prevent dependency loops
+        this.checkRecursion(params);
+        return super.scatterGatherThen(params, continuation);
+    }
+
+    protected void checkRecursion(@NonNull List<P> params) {
         Deque<SharedFutureScheduler<P, V>.Task> recursionStack = this.recursionStack.get();
         Task parent = uncheckedCast(recursionStack.peekFirst());
         if (parent != null) { //this is a recursive task! we should make sure that all of the child tasks are less than the current one
             for (P param : params) {
-                checkArg(this.initialComparator.compare(parent.param, param) > 0, "task %s tried to recurse upwards to %s!", parent.param, param);
+                checkArg(parent.priority > this.priorityFunction.applyAsInt(param), "task %s tried to recurse upwards to %s!", parent.param, param);
             }
         }
-
-        return super.scatterGather(params);
     }
 
     @Override
@@ -152,15 +328,22 @@ public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedF
      */
     protected class Task extends SharedFutureScheduler<P, V>.Task implements Comparable<Task> {
         protected final long tieBreak = ApproximatelyPrioritizedSharedFutureScheduler.this.ctr.getAndIncrement();
+        protected final int priority;
+
+        //the secondary priority which was used the last time this task was added to the queue
+        protected volatile int secondaryPriority;
 
         public Task(@NonNull P param) {
             super(param);
+
+            this.priority = checkIndex(ApproximatelyPrioritizedSharedFutureScheduler.this.priorities, ApproximatelyPrioritizedSharedFutureScheduler.this.priorityFunction.applyAsInt(param));
+            this.secondaryPriority = ApproximatelyPrioritizedSharedFutureScheduler.this.secondaryPriority(param);
         }
 
         @Override
         public int compareTo(Task o) {
             int d;
-            if ((d = ApproximatelyPrioritizedSharedFutureScheduler.this.initialComparator.compare(this.param, o.param)) != 0
+            if ((d = Integer.compare(this.priority, o.priority)) != 0
                 || (d = Long.compare(this.tieBreak, o.tieBreak)) != 0) {
                 return d;
             }
@@ -21,7 +21,11 @@
 package net.daporkchop.fp2.util.threading.scheduler;
 
 import lombok.NonNull;
+import net.daporkchop.fp2.debug.util.DebugStats;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
 import net.daporkchop.fp2.util.threading.ThreadingHelper;
+import net.daporkchop.fp2.util.threading.workergroup.PooledWorkerGroup;
+import net.daporkchop.fp2.util.threading.workergroup.SharedWorkerPool;
 import net.daporkchop.fp2.util.threading.workergroup.WorkerGroupBuilder;
 import net.daporkchop.fp2.util.threading.workergroup.WorldWorkerGroup;
 
@@ -32,7 +36,9 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
@@ -43,12 +49,13 @@ import static net.daporkchop.lib.common.util.PValidation.*;
  * Due to the lack of {@link CompletableFuture}s, there are a number of major restrictions:<ul>
  * <li>it is impossible to cancel an already scheduled task</li>
  * <li>it is impossible to block until a given task is complete</li>
- * <li>recursive execution and all use of {@link #scatterGather(List)} is impossible, since there's no way of knowing when a task is complete</li>
+ * <li>recursive execution and all use of {@link #scatterGather(List)} and {@link #scatterGatherThen(List, Function)} is impossible, since there's no way of knowing
+ * when a task is complete</li>
  * </ul>
  *
  * @author DaPorkchop_
  */
-public class NoFutureScheduler<P> implements Scheduler<P, Void>, Runnable {
+public class NoFutureScheduler<P> implements Scheduler<P, Void>, Runnable, SharedWorkerPool.TaskSource {
     protected static final Object ADDED_STATE = new Object[0];
     protected static final Object RUNNING_STATE = new Object[0];
 
@@ -60,10 +67,12 @@ public class NoFutureScheduler<P> implements Scheduler<P, Void>, Runnable {
     protected final WorldWorkerGroup group;
     protected volatile boolean running = true;
 
+    protected final LongAdder executedTasks = new LongAdder();
+
     public NoFutureScheduler(@NonNull Consumer<P> function, @NonNull WorkerGroupBuilder builder) {
         this.function = function;
 
-        this.group = builder.build(this);
+        this.group = builder.pool() != null ? builder.buildPooled(this) : builder.build(this);
     }
 
     protected Map<P, Object> createParameterStateMap() {
@@ -76,6 +85,10 @@ public class NoFutureScheduler<P> implements Scheduler<P, Void>, Runnable {
 
     protected void enqueue(@NonNull P param) {
         checkState(this.queue.add(param), "unable to add %s to queue!", param);
+
+        if (this.group instanceof PooledWorkerGroup) { //wake up a thread from the pool to execute the task
+            ((PooledWorkerGroup) this.group).workAvailable();
+        }
     }
 
     @Override
@@ -97,6 +110,11 @@ public class NoFutureScheduler<P> implements Scheduler<P, Void>, Runnable {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public Void scatterGatherThen(@NonNull List<P> params, @NonNull Function<List<Void>, Void> continuation) {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * @deprecated internal API, do not touch!
      */
@@ -113,27 +131,72 @@ public class NoFutureScheduler<P> implements Scheduler<P, Void>, Runnable {
                     continue;
                 }
 
-                try {
-                    //mark the parameter as "running" so that we'll be able to determine whether or not it's been re-scheduled while the task was running
-                    checkState(this.parameterStates.replace(param, ADDED_STATE, RUNNING_STATE));
-
-                    //pass the parameter to the function
-                    this.function.accept(param);
-                } catch (Throwable t) {
-                    ThreadingHelper.handle(this.group.world(), t);
-                } finally {
-                    //if the parameter was re-scheduled while running the function, it'll have been mapped to ADDED again and this removal will fail. it's our
-                    //  responsibility to add it to the queue again now that execution has finished.
-                    if (!this.parameterStates.remove(param, RUNNING_STATE)) {
-                        this.enqueue(param);
-                    }
-                }
+                this.execute(param);
             }
         } catch (Exception e) { //should be impossible, but whatever
             FP2_LOG.error(Thread.currentThread().getName(), e);
         }
     }
 
+    /**
+     * @deprecated internal API, do not touch!
+     */
+    @Override
+    @Deprecated
+    public int queuedTasks() {
+        return this.queue.size();
+    }
+
+    /**
+     * @deprecated internal API, do not touch!
+     */
+    @Override
+    @Deprecated
+    public boolean runSingleTask() {
+        P param;
+        if (!this.running //the scheduler is shutting down, the pool will stop giving us threads soon
+            || (param = this.queue.poll()) == null) { //the queue was empty
+            return false;
+        }
+
+        this.execute(param);
+        return true;
+    }
+
+    protected void execute(@NonNull P param) {
+        try {
+            //mark the parameter as "running" so that we'll be able to determine whether or not it's been re-scheduled while the task was running
+            checkState(this.parameterStates.replace(param, ADDED_STATE, RUNNING_STATE));
+
+            //pass the parameter to the function
+            this.executedTasks.increment();
+            this.function.accept(param);
+        } catch (Throwable t) {
+            ThreadingHelper.handle(this.group.world(), t);
+        } finally {
+            //if the parameter was re-scheduled while running the function, it'll have been mapped to ADDED again and this removal will fail. it's our
+            //  responsibility to add it to the queue again now that execution has finished.
+            if (!this.parameterStates.remove(param, RUNNING_STATE)) {
+                this.enqueue(param);
+            }
+        }
+    }
+
+    @DebugOnly
+    @Override
+    public DebugStats.Scheduler debugStats() {
+        DebugStats.Scheduler.SchedulerBuilder builder = DebugStats.Scheduler.builder()
+                .queuedTasks(this.queue.size())
+                .executedTasks(this.executedTasks.sum());
+        if (this.group instanceof PooledWorkerGroup) {
+            PooledWorkerGroup group = (PooledWorkerGroup) this.group;
+            builder.busyTime(group.busyTime())
+                    .poolBusyTime(group.pool().busyTime())
+                    .poolThreads(group.pool().threads());
+        }
+        return builder.build();
+    }
+
     @Override
     public void close() {
         //notify workers that we're shutting down
@@ -21,7 +21,10 @@
 package net.daporkchop.fp2.util.threading.scheduler;
 
 import lombok.NonNull;
+import net.daporkchop.fp2.debug.util.DebugStats;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ForkJoinPool;
@@ -47,7 +50,11 @@ import java.util.stream.Collectors;
  * for a {@link ForkJoinPool}. Therefore, dependency loops will result in undefined behavior. Implementations may impose further restrictions on recursive parameter
  * values.<br>
  * Implementing a recursive task by {@link CompletableFuture#join()}ing the {@link CompletableFuture} returned by {@link #schedule(Object)} is not allowed and will
- * result in undefined behavior.
+ * result in undefined behavior.<br>
+ * Alternatively, the {@link Function} may use {@link #scatterGatherThen(List, Function)} to suspend the current task until its dependencies are complete, and have
+ * the remainder of the task executed by a continuation. This allows implementations to execute other tasks on the worker thread in the meantime, rather than
+ * blocking it or running the dependencies recursively on its stack. Similarly, {@link #awaitThen(CompletableFuture, Function)} may be used to wait for an arbitrary
+ * {@link CompletableFuture} (e.g. an asynchronous I/O operation) without blocking the worker thread.
  *
  * @author DaPorkchop_
  */
@@ -86,6 +93,81 @@ public interface Scheduler<P, V> extends AutoCloseable {
         }
     }
 
+    /**
+     * Schedules multiple parameters for execution, then passes the results to the given continuation once all of them are available.
+     * <p>
+     * This may only be called from within the scheduler {@link Function}, and at most once per invocation of the {@link Function} or of a continuation. The value
+     * returned by this method must be returned immediately by the scheduler {@link Function} (or continuation) which called it. The continuation may itself call
+     * this method again.
+     * <p>
+     * Implementations may suspend the current task, freeing the worker thread to execute other tasks, and resume it by invoking the continuation (possibly on a
+     * different worker thread) once all of the dependencies are complete. The task's {@link CompletableFuture} is then completed with the continuation's return
+     * value. In this case, this method returns a meaningless value.
+     * <p>
+     * The default implementation is equivalent to
+     * <blockquote><pre>{@code
+     * return continuation.apply(this.scatterGather(params));
+     * }</pre></blockquote>
+     *
+     * @param params       the parameters
+     * @param continuation a function which computes the current task's value from the resulting values
+     * @return the value which must be returned by the scheduler {@link Function}
+     */
+    default V scatterGatherThen(@NonNull List<P> params, @NonNull Function<List<V>, V> continuation) {
+        return continuation.apply(this.scatterGather(params));
+    }
+
+    /**
+     * Waits for the given {@link CompletableFuture} to be completed, then passes its value to the given continuation.
+     * <p>
+     * This is subject to the same restrictions as {@link #scatterGatherThen(List, Function)}, and implementations may suspend the current task in the same way
+     * rather than blocking the worker thread. If the future is completed exceptionally, the continuation isn't invoked and the task's {@link CompletableFuture} is
+     * completed exceptionally instead.
+     * <p>
+     * The default implementation is equivalent to
+     * <blockquote><pre>{@code
+     * return continuation.apply(future.join());
+     * }</pre></blockquote>
+     *
+     * @param future       the {@link CompletableFuture} to wait for
+     * @param continuation a function which computes the current task's value from the future's value
+     * @return the value which must be returned by the scheduler {@link Function}
+     */
+    default <U> V awaitThen(@NonNull CompletableFuture<U> future, @NonNull Function<U, V> continuation) {
+        return continuation.apply(future.join());
+    }
+
+    /**
+     * Hints that the priority of the task for the given parameter may have changed.
+     * <p>
+     * If the parameter isn't currently scheduled, this method does nothing. The default implementation does nothing.
+     *
+     * @param param the parameter
+     */
+    default void reprioritize(@NonNull P param) {
+    }
+
+    /**
+     * @return statistics about this scheduler, for debugging purposes
+     */
+    @DebugOnly
+    default DebugStats.Scheduler debugStats() {
+        return DebugStats.Scheduler.ZERO;
+    }
+
+    /**
+     * Gets detailed statistics about the tasks executed by this scheduler, for debugging purposes.
+     * <p>
+     * Implementations may split tasks into multiple categories, in which case the statistics for each category are returned separately. The meaning of each
+     * category is implementation-defined.
+     *
+     * @return statistics about the tasks in each category
+     */
+    @DebugOnly
+    default List<DebugStats.Tasks> debugTaskStats() {
+        return Collections.emptyList();
+    }
+
     /**
      * Closes this scheduler.
      * <p>
@@ -23,7 +23,11 @@ package net.daporkchop.fp2.util.threading.scheduler;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
+import net.daporkchop.fp2.debug.util.DebugStats;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
 import net.daporkchop.fp2.util.threading.ThreadingHelper;
+import net.daporkchop.fp2.util.threading.workergroup.PooledWorkerGroup;
+import net.daporkchop.fp2.util.threading.workergroup.SharedWorkerPool;
 import net.daporkchop.fp2.util.threading.workergroup.WorkerGroupBuilder;
 import net.daporkchop.fp2.util.threading.workergroup.WorldWorkerGroup;
 import net.daporkchop.lib.common.misc.string.PStrings;
@@ -32,6 +36,7 @@ import net.daporkchop.lib.unsafe.PUnsafe;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
 import java.util.Map;
@@ -41,11 +46,11 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiFunction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
-import static java.lang.Math.*;
 import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
 
@@ -55,11 +60,24 @@ import static net.daporkchop.lib.common.util.PValidation.*;
  * This implementation supports all features defined by {@link Scheduler}. However, recursive tasks can cause deadlocks if the dependency chain has a loop, and
  * large volumes of recursive tasks can quickly run the system out of memory or cause the worker threads' stacks to overflow. It is therefore recommended to use
  * {@link ApproximatelyPrioritizedSharedFutureScheduler} where possible.
+ * <p>
+ * Tasks which use {@link #scatterGatherThen(List, Function)} don't suffer from these issues: they are suspended without blocking the worker thread, and added back
+ * to the queue once all of their dependencies are complete. Tasks which use {@link #awaitThen(CompletableFuture, Function)} are suspended in the same way until the
+ * future is complete. A suspended task is still considered to be executing.
  *
  * @author DaPorkchop_
  */
-public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
+public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable, SharedWorkerPool.TaskSource {
+    protected static final long TASK_STATE_OFFSET = PUnsafe.pork_getOffset(SharedFutureScheduler.Task.class, "state");
     protected static final long TASK_DEPENDENCIES_OFFSET = PUnsafe.pork_getOffset(SharedFutureScheduler.Task.class, "dependencies");
+    protected static final long TASK_CONTINUATION_OFFSET = PUnsafe.pork_getOffset(SharedFutureScheduler.Task.class, "continuation");
+    protected static final long TASK_QUEUED_OFFSET = PUnsafe.pork_getOffset(SharedFutureScheduler.Task.class, "queued");
+
+    //task states: positive values indicate that the task is waiting to be executed, in which case the low bits contain the task's reference count
+    protected static final int TASK_STATE_DEAD = 0; //the task has been released, or has finished executing
+    protected static final int TASK_STATE_EXECUTING = -1; //the task is currently being executed
+    protected static final int TASK_STATE_FLAG_DEFERRED = 1 << 30; //the task was re-scheduled while the previous task was being executed, and hasn't been queued yet
+    protected static final int TASK_STATE_REFCNT_MASK = TASK_STATE_FLAG_DEFERRED - 1;
 
     protected static final boolean DEBUG_PRINTS_ENABLED = Boolean.parseBoolean(System.getProperty("fp2.SharedFutureScheduler.debugPrintsEnabled", "false"));
 
@@ -73,10 +91,14 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
     protected final WorldWorkerGroup group;
     protected volatile boolean running = true;
 
+    protected final LongAdder executedTasks = new LongAdder();
+    protected final AtomicInteger queuedTasks = new AtomicInteger(); //the number of tasks with a live queue entry, which is less than the queue's size if it contains stale entries
+    protected final TaskMetrics metrics = new TaskMetrics();
+
     public SharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder) {
         this.function = functionFactory.apply(this);
 
-        this.group = builder.build(this);
+        this.group = builder.pool() != null ? builder.buildPooled(this) : builder.build(this);
     }
 
     protected Supplier<Deque<Task>> recursionStackFactory() {
@@ -91,8 +113,55 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         return new Task(param);
     }
 
+    /**
+     * Gets the {@link TaskMetrics} which the given task's statistics should be recorded in.
+     *
+     * @param task the task
+     * @return the {@link TaskMetrics}
+     */
+    protected TaskMetrics metrics(@NonNull Task task) {
+        return this.metrics;
+    }
+
     protected void enqueue(@NonNull Task task) {
+        task.enqueueTime = System.nanoTime();
+        this.requeue(task);
+    }
+
+    /**
+     * Adds a task to the queue without resetting the time at which it was queued.
+     *
+     * @param task the task
+     */
+    protected void requeue(@NonNull Task task) {
+        if (PUnsafe.compareAndSwapInt(task, TASK_QUEUED_OFFSET, 0, 1)) { //the task didn't already have a live queue entry
+            this.queuedTasks.incrementAndGet();
+            this.metrics(task).queuedTasks.increment();
+        }
+
         checkState(SharedFutureScheduler.this.queue.add(task));
+
+        if (this.group instanceof PooledWorkerGroup) { //wake up a thread from the pool to execute the task
+            ((PooledWorkerGroup) this.group).workAvailable();
+        }
+    }
+
+    /**
+     * Marks the given task's queue entry as no longer being live, either because it has been polled from the queue or because the task has been released or
+     * started by other means.
+     * <p>
+     * A task may have any number of entries in the queue, but only one of them is counted in the queue statistics: duplicate entries are left behind whenever a
+     * task is re-queued while it's already in the queue, and entries of tasks which are released or started without being polled are only removed once a worker
+     * gets to them. This is called whenever one of a task's entries is polled, and also when it's released or started, so each time a task is queued it's only
+     * counted once, regardless of how many stale entries it leaves in the queue.
+     *
+     * @param task the task
+     */
+    protected void dequeued(@NonNull Task task) {
+        if (PUnsafe.compareAndSwapInt(task, TASK_QUEUED_OFFSET, 1, 0)) {
+            this.queuedTasks.decrementAndGet();
+            this.metrics(task).queuedTasks.decrement();
+        }
     }
 
     protected void unqueue(@NonNull Task task) {
@@ -114,199 +183,226 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         this.group.close();
     }
 
-    protected Task retainTask(@NonNull P _param) {
-        class State implements BiFunction<P, Task, Task> {
-            Task task;
-
-            @Override
-            public Task apply(@NonNull P param, Task task) {
-                if (task == null) { //task doesn't exist, create new one
+    protected Task retainTask(@NonNull P param) {
+        while (true) {
+            Task task = this.tasks.get(param);
+            if (task == null) { //task doesn't exist, try to create a new one
+                Task newTask = this.createTask(param);
+                if (this.tasks.putIfAbsent(param, newTask) == null) {
                     if (DEBUG_PRINTS_ENABLED) {
                         FP2_LOG.info("creating new task at {}, was previously null", param);
                     }
 
-                    task = SharedFutureScheduler.this.createTask(param);
-
                     //add task to execution queue
-                    SharedFutureScheduler.this.enqueue(task);
-                } else if (task.refCnt < 0) { //task is currently being executed, we want to replace it to force it to be re-enqueued later
-                    if (DEBUG_PRINTS_ENABLED) {
-                        FP2_LOG.info("creating new task at {}, was previously {}", param, task);
-                    }
-
-                    Task previousTask = task;
-                    task = SharedFutureScheduler.this.createTask(param);
-
-                    //remember the previous task instance for later
-                    task.previous = previousTask;
-                } else { //retain existing task
-                    task.refCnt = incrementExact(task.refCnt);
-
-                    if (DEBUG_PRINTS_ENABLED) {
-                        FP2_LOG.info("retaining existing task at {}, reference count is now {}", param, task.refCnt);
-                    }
+                    this.enqueue(newTask);
+                    return newTask;
                 }
-
-                this.task = task;
-                return task;
+                continue; //another thread inserted a task first, try again
             }
-        }
-
-        State state = new State();
-        this.tasks.compute(_param, state);
-        return state.task;
-    }
 
-    protected boolean releaseTask(@NonNull Task expectedTask) {
-        class State implements BiFunction<P, Task, Task> {
-            Task task;
-            boolean released;
+            int state = task.state;
+            if (state > 0) { //task is live and hasn't started execution yet, try to retain it
+                checkState((state & TASK_STATE_REFCNT_MASK) != TASK_STATE_REFCNT_MASK, "reference count overflow at %s", param);
+                if (PUnsafe.compareAndSwapInt(task, TASK_STATE_OFFSET, state, state + 1)) {
+                    this.metrics(task).deduplicatedTasks.increment();
 
-            @Override
-            public Task apply(@NonNull P param, Task task) {
-                if (task != expectedTask) { //tasks don't match, do nothing
                     if (DEBUG_PRINTS_ENABLED) {
-                        FP2_LOG.info("failed to release task at {}, {} != {}", param, task, expectedTask);
+                        FP2_LOG.info("retaining existing task at {}, reference count is now {}", param, (state + 1) & TASK_STATE_REFCNT_MASK);
                     }
-
-                    this.released = false;
                     return task;
-                } else {
-                    this.released = true;
                 }
+            } else if (state == TASK_STATE_EXECUTING) { //task is currently being executed, we want to replace it to force it to be re-enqueued later
+                Task newTask = this.createTask(param);
+                newTask.state = 1 | TASK_STATE_FLAG_DEFERRED;
+                newTask.previous = task; //remember the previous task instance for later
 
-                if (task.refCnt > 0) { //the task isn't being actively executed
-                    if (--task.refCnt != 0) { //reference count is non-zero, the task is still live
-                        if (DEBUG_PRINTS_ENABLED) {
-                            FP2_LOG.info("partially released task at {}, reference count is now {}", param, task.refCnt);
-                        }
-                        return task;
-                    } else { //the reference count reached zero! cancel the task, unqueue it and remove it from the map
-                        if (DEBUG_PRINTS_ENABLED) {
-                            FP2_LOG.info("totally released task at {}, replacing with {}", param, task.previous);
-                        }
-
-                        SharedFutureScheduler.this.unqueue(task);
-                        task.cancel0();
-
-                        //save the task so we can cancel its dependents later (without holding a lock on the map entry)
-                        this.task = task;
-
-                        //restore the previous task, which will generally be null but could be non-null if this is a re-scheduled task which was cancelled again
-                        //  before the original task was finished
-                        return task.previous;
+                if (this.tasks.replace(param, task, newTask)) {
+                    if (DEBUG_PRINTS_ENABLED) {
+                        FP2_LOG.info("creating new task at {}, was previously {}", param, task);
                     }
-                } else { //task is already being executed, it can't be cancelled now so we just do nothing
-                    return task;
-                }
-            }
 
-            boolean finish() {
-                if (this.task != null) { //the task was removed, cancel it
-                    //we cancel the task here so that it doesn't happen inside of the ConcurrentHashMap#compute function, which doesn't like being
-                    //  called multiple times from the same thread.
-                    List<Task> dependencies = PUnsafe.pork_swapObject(this.task, TASK_DEPENDENCIES_OFFSET, null);
-                    if (dependencies != null) { //the task was recursive and had some dependencies, let's release them since they aren't actually needed by this task any more
-                        for (Task dependency : dependencies) {
-                            SharedFutureScheduler.this.releaseTask(dependency);
-                        }
+                    if (task.state == TASK_STATE_DEAD) { //the previous task may have finished before it noticed that it was replaced
+                        this.undeferTask(newTask);
                     }
+                    return newTask;
                 }
-                return this.released;
+            } else { //task is dead but hasn't been removed from the map yet, help remove it
+                this.removeDeadTask(task);
             }
         }
-
-        State state = new State();
-        this.tasks.compute(expectedTask.param, state);
-        return state.finish();
     }
 
-    protected boolean beginTask(@NonNull Task expectedTask) {
-        class State implements BiFunction<P, Task, Task> {
-            boolean started;
-
-            @Override
-            public Task apply(@NonNull P param, Task task) {
-                if (task != expectedTask //tasks don't match, do nothing
-                    || task.refCnt < 0) { //task is currently being executed, we can't start executing it
+    protected boolean releaseTask(@NonNull Task task) {
+        while (true) {
+            int state = task.state;
+            if (state == TASK_STATE_DEAD) { //task has already been released or completed, do nothing
+                if (DEBUG_PRINTS_ENABLED) {
+                    FP2_LOG.info("failed to release task at {}, {} is dead", task.param, task);
+                }
+                return false;
+            } else if (state == TASK_STATE_EXECUTING) { //task is already being executed, it can't be cancelled now so we just do nothing
+                return true;
+            } else if ((state & TASK_STATE_REFCNT_MASK) != 1) { //reference count will be non-zero, the task is still live
+                if (PUnsafe.compareAndSwapInt(task, TASK_STATE_OFFSET, state, state - 1)) {
                     if (DEBUG_PRINTS_ENABLED) {
-                        if (task != expectedTask) {
-                            FP2_LOG.info("couldn't begin task at {} (mismatch)", param);
-                        } else {
-                            FP2_LOG.info("couldn't begin task at {} (already executing)", param);
-                        }
+                        FP2_LOG.info("partially released task at {}, reference count is now {}", task.param, (state - 1) & TASK_STATE_REFCNT_MASK);
                     }
+                    return true;
+                }
+            } else if (PUnsafe.compareAndSwapInt(task, TASK_STATE_OFFSET, state, TASK_STATE_DEAD)) { //the reference count reached zero! cancel the task and remove it
+                if (DEBUG_PRINTS_ENABLED) {
+                    FP2_LOG.info("totally released task at {}, replacing with {}", task.param, task.previous);
+                }
 
-                    this.started = false;
-                } else {
-                    checkState(task.refCnt != 0);
+                this.unqueue(task);
+                this.dequeued(task);
+                this.removeDeadTask(task);
+                task.cancel0();
 
-                    if (DEBUG_PRINTS_ENABLED) {
-                        FP2_LOG.info("began executing task at {}", param);
+                List<Task> dependencies = PUnsafe.pork_swapObject(task, TASK_DEPENDENCIES_OFFSET, null);
+                if (dependencies != null) { //the task was recursive and had some dependencies, let's release them since they aren't actually needed by this task any more
+                    for (Task dependency : dependencies) {
+                        this.releaseTask(dependency);
                     }
-
-                    //set reference count to -1 to indicate that it's started execution
-                    task.refCnt = -1;
-                    this.started = true;
-
-                    SharedFutureScheduler.this.unqueue(task);
                 }
-                return task;
+                return true;
             }
         }
-
-        State state = new State();
-        this.tasks.compute(expectedTask.param, state);
-        return state.started;
     }
 
-    protected void deleteTask(@NonNull Task expectedTask) {
-        this.tasks.compute(expectedTask.param, (param, task) -> {
-            checkState(task != null);
-
-            if (task == expectedTask) { //task remains unchanged, delete it
+    protected boolean beginTask(@NonNull Task task) {
+        while (true) {
+            int state = task.state;
+            if (state <= 0 //task is dead or currently being executed, we can't start executing it
+                || (state & TASK_STATE_FLAG_DEFERRED) != 0) { //task is waiting for the previous task to complete
                 if (DEBUG_PRINTS_ENABLED) {
-                    FP2_LOG.info("removed completed task at {}", param);
+                    FP2_LOG.info("couldn't begin task at {} (state {})", task.param, state);
                 }
-                return null;
-            } else { //tasks don't match, meaning the task has been re-scheduled
+                return false;
+            }
+
+            //set state to EXECUTING to indicate that it's started execution
+            if (PUnsafe.compareAndSwapInt(task, TASK_STATE_OFFSET, state, TASK_STATE_EXECUTING)) {
                 if (DEBUG_PRINTS_ENABLED) {
-                    FP2_LOG.info("task at {} ({}) was re-scheduled during execution, adding {} to queue", param, expectedTask, task);
+                    FP2_LOG.info("began executing task at {}", task.param);
                 }
 
+                this.unqueue(task);
+                this.dequeued(task);
+                return true;
+            }
+        }
+    }
+
+    protected void deleteTask(@NonNull Task task) {
+        checkState(task.state == TASK_STATE_EXECUTING);
+        task.state = TASK_STATE_DEAD;
+
+        if (this.tasks.remove(task.param, task)) { //task remains unchanged, delete it
+            if (DEBUG_PRINTS_ENABLED) {
+                FP2_LOG.info("removed completed task at {}", task.param);
+            }
+            return;
+        }
+
+        Task newTask = this.tasks.get(task.param);
+        if (newTask != null && newTask.previous == task) { //tasks don't match, meaning the task has been re-scheduled
+            if (DEBUG_PRINTS_ENABLED) {
+                FP2_LOG.info("task at {} ({}) was re-scheduled during execution, adding {} to queue", task.param, task, newTask);
+            }
+
+            //enqueue the new task and leave it in the map
+            this.undeferTask(newTask);
+        }
+    }
+
+    /**
+     * Adds a re-scheduled task to the queue once the task it replaced has been completed.
+     * <p>
+     * This may be called multiple times for the same task, only the first call will have any effect.
+     *
+     * @param task the re-scheduled task
+     */
+    protected void undeferTask(@NonNull Task task) {
+        while (true) {
+            int state = task.state;
+            if (state <= 0 || (state & TASK_STATE_FLAG_DEFERRED) == 0) { //task is dead or has already been enqueued
+                return;
+            } else if (PUnsafe.compareAndSwapInt(task, TASK_STATE_OFFSET, state, state & ~TASK_STATE_FLAG_DEFERRED)) {
                 //new task must reference the task which was completed, let's clear that reference
-                checkState(task.previous == expectedTask);
                 task.previous = null;
 
-                //enqueue the new task and leave it in the map
-                SharedFutureScheduler.this.enqueue(task);
-                return task;
+                this.enqueue(task);
+                return;
             }
-        });
+        }
+    }
+
+    /**
+     * Removes a dead task from the task map, if it is still present.
+     * <p>
+     * If the task was re-scheduled while a previous task was being executed, and the previous task is still being executed, the previous task is put back into the
+     * map. This ensures that no new tasks can be started for the same parameter until the previous task is complete.
+     *
+     * @param task the dead task
+     */
+    protected void removeDeadTask(@NonNull Task task) {
+        Task previous = task.previous;
+        if (previous != null && previous.state == TASK_STATE_EXECUTING) {
+            if (this.tasks.replace(task.param, task, previous)
+                && previous.state == TASK_STATE_DEAD) { //the previous task may have finished before it was put back into the map
+                this.tasks.remove(task.param, previous);
+            }
+        } else {
+            this.tasks.remove(task.param, task);
+        }
     }
 
-    protected void pollAndExecuteSingleTask() {
+    protected boolean pollAndExecuteSingleTask() {
         if (!this.running) {
             throw new SchedulerClosedError();
         }
 
         Task task = this.pollSingleTask();
-        if (task == null //queue is empty
-            || !this.beginTask(task)) { //we lost the "race" to begin executing the task
-            return;
+        if (task == null) { //queue is empty
+            return false;
+        }
+        this.dequeued(task);
+
+        Supplier<V> continuation;
+        if (task.continuation != null && (continuation = PUnsafe.pork_swapObject(task, TASK_CONTINUATION_OFFSET, null)) != null) {
+            //the task was suspended and whatever it was waiting for is now complete, and we won the "race" to resume it
+            this.resumeTask(task, continuation);
+            return true;
+        } else if (!this.beginTask(task)) { //we lost the "race" to begin executing the task
+            return false;
         }
 
         this.executeTask(task);
+        return true;
     }
 
     @SneakyThrows(InterruptedException.class)
     protected Task pollSingleTask() {
+        if (this.group instanceof PooledWorkerGroup && this.recursionStack.get().isEmpty()) {
+            //pooled threads must never wait for tasks at the top level, since there may be other groups in the pool which have tasks queued
+            return this.queue.poll();
+        }
+
         //poll the queue, but don't wait indefinitely because we need to be able to exit if the executor stops running.
         // we don't want to use interrupts because they can cause unwanted side-effects (such as closing NIO channels).
         return this.queue.poll(1L, TimeUnit.SECONDS);
     }
 
     protected void executeTask(@NonNull Task task) {
+        this.runTask(task, () -> this.function.apply(task.param));
+    }
+
+    protected void resumeTask(@NonNull Task task, @NonNull Supplier<V> continuation) {
+        this.runTask(task, continuation);
+    }
+
+    protected void runTask(@NonNull Task task, @NonNull Supplier<V> action) {
         if (!this.running) {
             throw new SchedulerClosedError();
         }
@@ -314,8 +410,23 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         Deque<Task> recursionStack = this.recursionStack.get();
         recursionStack.push(task);
 
+        long startTime = System.nanoTime();
+        task.waitTime += startTime - task.enqueueTime;
+
+        boolean suspended = false;
         try { //execute the task and complete future accordingly
-            task.complete(this.function.apply(task.param));
+            V value = action.get();
+
+            Supplier<V> continuation = task.suspendedContinuation;
+            if (continuation != null) { //the task suspended itself, it'll be resumed once whatever it's waiting for is complete
+                CompletableFuture<?> suspendedOn = task.suspendedOn;
+                task.suspendedContinuation = null;
+                task.suspendedOn = null;
+                suspended = true;
+                this.suspendTask(task, continuation, suspendedOn);
+            } else {
+                task.complete(value);
+            }
         } catch (SchedulerClosedError e) { //catch and rethrow this separately to prevent it from being used to complete the future
             task.cancel0(); //cancel the future to make sure it has a return value
             throw e;
@@ -329,13 +440,43 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
             if (this.running) { //only handle the exception if we aren't already shutting the scheduler down
                 ThreadingHelper.handle(this.group.world(), t);
             }
-        } finally { //the task's been executed, remove it from the map
-            this.deleteTask(task);
+        } finally {
+            if (!suspended) { //the task's been executed, remove it from the map
+                if (task.suspendedContinuation != null) { //the task suspended itself and then threw an exception, so it'll never be resumed
+                    task.suspendedContinuation = null;
+                    task.suspendedOn = null;
+
+                    List<Task> dependencies = PUnsafe.pork_swapObject(task, TASK_DEPENDENCIES_OFFSET, null);
+                    if (dependencies != null) {
+                        dependencies.forEach(this::releaseTask);
+                    }
+                }
+
+                this.deleteTask(task);
+            }
 
+            //a suspended task is executed in multiple segments, but it should still only be counted once. we record the total time it spent waiting in the
+            //  queue and executing across all of its segments once it's complete, ignoring the time it spent suspended.
+            task.executionTime += System.nanoTime() - startTime;
+            if (!suspended) {
+                TaskMetrics metrics = this.metrics(task);
+                metrics.waitTime.record(task.waitTime);
+                metrics.executionTime.record(task.executionTime);
+                this.executedTasks.increment();
+            }
             checkState(task == recursionStack.pop());
         }
     }
 
+    protected void suspendTask(@NonNull Task task, @NonNull Supplier<V> continuation, @NonNull CompletableFuture<?> suspendedOn) {
+        //once the future is complete, make the continuation available and add the task back into the queue. if the future is already complete, this will happen
+        //  immediately.
+        suspendedOn.whenComplete((v, t) -> {
+            task.continuation = continuation;
+            this.enqueue(task);
+        });
+    }
+
     /**
      * @deprecated internal API, do not touch!
      */
@@ -351,6 +492,52 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         }
     }
 
+    /**
+     * @deprecated internal API, do not touch!
+     */
+    @Override
+    @Deprecated
+    public int queuedTasks() {
+        //this includes stale entries: the pool must keep polling until the queue is actually empty, otherwise a live entry queued behind a stale one could be
+        //  left in the queue indefinitely
+        return this.queue.size();
+    }
+
+    /**
+     * @deprecated internal API, do not touch!
+     */
+    @Override
+    @Deprecated
+    public boolean runSingleTask() {
+        try {
+            return this.pollAndExecuteSingleTask();
+        } catch (SchedulerClosedError e) {
+            //swallow error and return quietly, the pool will stop giving us threads once we're closed
+            return false;
+        }
+    }
+
+    @DebugOnly
+    @Override
+    public DebugStats.Scheduler debugStats() {
+        DebugStats.Scheduler.SchedulerBuilder builder = DebugStats.Scheduler.builder()
+                .queuedTasks(this.queuedTasks.get())
+                .executedTasks(this.executedTasks.sum());
+        if (this.group instanceof PooledWorkerGroup) {
+            PooledWorkerGroup group = (PooledWorkerGroup) this.group;
+            builder.busyTime(group.busyTime())
+                    .poolBusyTime(group.pool().busyTime())
+                    .poolThreads(group.pool().threads());
+        }
+        return builder.build();
+    }
+
+    @DebugOnly
+    @Override
+    public List<DebugStats.Tasks> debugTaskStats() {
+        return Collections.singletonList(this.metrics.debugStats());
+    }
+
     protected void awaitJoin(@NonNull Task task) {
         //we don't want to actually BLOCK the worker thread while waiting for a task to complete! that would be stupid, let's make it do some actual work instead.
 
@@ -393,6 +580,50 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         }
     }
 
+    @Override
+    public V scatterGatherThen(@NonNull List<P> params, @NonNull Function<List<V>, V> continuation) {
+        Task parent = this.recursionStack.get().peek();
+        if (parent == null) { //we aren't inside a task, so there's nothing to suspend
+            return Scheduler.super.scatterGatherThen(params, continuation);
+        }
+
+        checkState(parent.suspendedContinuation == null, "task for %s has already been suspended!", parent.param);
+
+        List<Task> tasks = this.scatter(params);
+        if (!PUnsafe.compareAndSwapObject(parent, TASK_DEPENDENCIES_OFFSET, null, tasks)) { //there may only be one active scatter/gather per task at a time
+            tasks.forEach(this::releaseTask);
+            throw new IllegalStateException(PStrings.fastFormat("task for %s has already started recursion!", parent.param));
+        }
+
+        //the task will be suspended once the current function returns, and resumed once all the dependencies are complete
+        parent.suspendedOn = CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]));
+        parent.suspendedContinuation = () -> {
+            List<Task> dependencies = PUnsafe.pork_swapObject(parent, TASK_DEPENDENCIES_OFFSET, null);
+            try { //the dependencies are all complete, so this won't block
+                return continuation.apply(this.gather(dependencies));
+            } finally {
+                dependencies.forEach(this::releaseTask);
+            }
+        };
+        return null;
+    }
+
+    @Override
+    public <U> V awaitThen(@NonNull CompletableFuture<U> future, @NonNull Function<U, V> continuation) {
+        Task parent = this.recursionStack.get().peek();
+        if (parent == null //we aren't inside a task, so there's nothing to suspend
+            || future.isDone()) { //the future is already complete, there's no need to suspend the task
+            return Scheduler.super.awaitThen(future, continuation);
+        }
+
+        checkState(parent.suspendedContinuation == null, "task for %s has already been suspended!", parent.param);
+
+        //the task will be suspended once the current function returns, and resumed once the future is complete
+        parent.suspendedOn = future;
+        parent.suspendedContinuation = () -> continuation.apply(future.join());
+        return null;
+    }
+
     protected List<Task> scatter(@NonNull List<P> params) {
         List<Task> tasks = new ArrayList<>(params.size());
         for (P param : params) {
@@ -455,13 +686,33 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         @NonNull
         protected final P param;
 
-        protected int refCnt = 1;
+        //the current state of this task. transitions between states are done using CAS, the task map is only used for looking up and inserting tasks
+        protected volatile int state = 1;
 
-        protected Task previous; //if this task was created while a previous one was being executed, this field contains a reference to the previous one
+        //if this task was created while a previous one was being executed, this field contains a reference to the previous one until it's been completed
+        protected volatile Task previous;
 
         //list of tasks whose results are required for the successful execution of the current task
         protected volatile List<Task> dependencies = null;
 
+        //the continuation passed to scatterGatherThen or awaitThen during the current execution of this task, or null if the task hasn't suspended itself
+        protected Supplier<V> suspendedContinuation;
+        //the future which the task will wait for once it's been suspended
+        protected CompletableFuture<?> suspendedOn;
+
+        //the continuation of a suspended task, which is set once the future it's waiting for is complete
+        protected volatile Supplier<V> continuation;
+
+        //1 if the task has a live entry in the queue, 0 otherwise (see dequeued(Task))
+        protected volatile int queued;
+
+        //the time at which this task was most recently added to the queue, as given by System#nanoTime()
+        protected long enqueueTime;
+
+        //the total time (in nanoseconds) which this task has spent waiting in the queue and executing so far, across all of its segments if it was suspended
+        protected long waitTime;
+        protected long executionTime;
+
         @Override
         public boolean cancel(boolean mayInterruptIfRunning) {
             return SharedFutureScheduler.this.releaseTask(this);
@@ -0,0 +1,60 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.util.threading.scheduler;
+
+import net.daporkchop.fp2.common.util.stats.ConcurrentHistogram;
+import net.daporkchop.fp2.debug.util.DebugStats;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free metrics about a category of tasks executed by a {@link SharedFutureScheduler}.
+ *
+ * @author DaPorkchop_
+ */
+public final class TaskMetrics {
+    protected final LongAdder queuedTasks = new LongAdder();
+    protected final LongAdder deduplicatedTasks = new LongAdder();
+
+    protected final ConcurrentHistogram waitTime = new ConcurrentHistogram();
+    protected final ConcurrentHistogram executionTime = new ConcurrentHistogram();
+
+    /**
+     * @return whether or not any tasks in this category have ever been scheduled
+     */
+    public boolean isEmpty() {
+        return this.waitTime.count() == 0L && this.queuedTasks.sum() == 0L && this.deduplicatedTasks.sum() == 0L;
+    }
+
+    /**
+     * @return a snapshot of these metrics, for debugging purposes
+     */
+    @DebugOnly
+    public DebugStats.Tasks debugStats() {
+        return DebugStats.Tasks.builder()
+                .queuedTasks(this.queuedTasks.sum())
+                .deduplicatedTasks(this.deduplicatedTasks.sum())
+                .waitTime(DebugStats.Histogram.of(this.waitTime))
+                .executionTime(DebugStats.Histogram.of(this.executionTime))
+                .build();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.util.threading.workergroup;
+
+import net.daporkchop.fp2.util.threading.ThreadingHelper;
+
+import java.util.Collection;
+
+/**
+ * A {@link WorldWorkerGroup} which doesn't have any threads of its own, but instead borrows them from a {@link SharedWorkerPool}.
+ *
+ * @author DaPorkchop_
+ * @see ThreadingHelper#workerGroupBuilder()
+ * @see WorkerGroupBuilder#pool()
+ */
+public interface PooledWorkerGroup extends WorldWorkerGroup {
+    /**
+     * @return the {@link SharedWorkerPool} that this group borrows its threads from
+     */
+    SharedWorkerPool pool();
+
+    /**
+     * @return the threads from the pool which are currently executing this group's tasks
+     */
+    @Override
+    Collection<Thread> threads();
+
+    /**
+     * Notifies the pool that new tasks have been queued by this group.
+     *
+     * @see SharedWorkerPool.Registration#workAvailable()
+     */
+    void workAvailable();
+
+    /**
+     * @return the number of this group's tasks which have been executed by the pool
+     */
+    long executedTasks();
+
+    /**
+     * @return the total time (in nanoseconds) which the pool's threads have spent executing this group's tasks
+     */
+    long busyTime();
+}
@@ -0,0 +1,399 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.util.threading.workergroup;
+
+import lombok.NonNull;
+import net.daporkchop.lib.common.misc.string.PStrings;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A fixed-size pool of worker threads which is shared between any number of {@link WorldWorkerGroup}s, potentially belonging to different worlds.
+ * <p>
+ * Rather than each group spawning its own threads, groups register a {@link TaskSource} with the pool, and the pool's threads repeatedly pick a source and execute
+ * a single task from it. Sources are selected using weighted fair queueing: every source accumulates virtual time equal to the time spent executing its tasks divided
+ * by its {@link TaskSource#weight() weight}, and the source with the least virtual time which has any tasks queued is always picked next. This means that an idle
+ * source doesn't prevent its share of the threads from being used by others, while a busy source can't starve the rest.
+ * <p>
+ * Task priorities are only respected within a single source. The pool can't compare the priorities of tasks from different sources, so a high-priority task from
+ * one world may have to wait while a low-priority task from another world is executed, which wouldn't happen if both worlds had their own threads.
+ * <p>
+ * The pool's threads are only alive while at least one source is registered, and the number of threads is re-evaluated every time they are started. The number of
+ * threads which are actually allowed to execute tasks may be limited further at runtime using {@link #activeThreads(int)}, in which case the excess threads are
+ * parked until the limit is raised again.
+ *
+ * @author DaPorkchop_
+ * @see WorkerGroupBuilder#pool()
+ */
+public final class SharedWorkerPool {
+    /**
+     * The maximum amount of virtual time (in nanoseconds) that a source may lag behind the rest of the pool.
+     * <p>
+     * Without this limit, a source which was idle for a long time would be able to monopolize the pool until it had caught up with everyone else.
+     */
+    protected static final long MAX_VIRTUAL_TIME_LAG = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    protected final IntSupplier threadCount;
+    protected final ThreadFactory threadFactory;
+
+    protected final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    protected final Object idleLock = new Object[0];
+    protected final AtomicInteger idleThreads = new AtomicInteger();
+
+    //threads which aren't allowed to run because of the active thread limit wait on a separate lock, so that they don't steal notifications meant for idle threads
+    protected final Object inactiveLock = new Object[0];
+
+    protected final AtomicLong virtualClock = new AtomicLong();
+    protected final LongAdder busyTime = new LongAdder();
+
+    protected Thread[] threads; //guarded by this
+    protected volatile boolean running;
+    protected volatile int activeThreads;
+
+    /**
+     * @param threadCount   a supplier for the number of threads to use, which will be evaluated every time the pool's threads are started
+     * @param threadFactory the {@link ThreadFactory} to use for creating the pool's threads
+     */
+    public SharedWorkerPool(@NonNull IntSupplier threadCount, @NonNull ThreadFactory threadFactory) {
+        this.threadCount = threadCount;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * @return the number of threads currently used by this pool
+     */
+    public synchronized int threads() {
+        return this.threads != null ? this.threads.length : 0;
+    }
+
+    /**
+     * @return the number of this pool's threads which are currently allowed to execute tasks
+     */
+    public int activeThreads() {
+        return this.activeThreads;
+    }
+
+    /**
+     * Limits the number of this pool's threads which are allowed to execute tasks.
+     * <p>
+     * Threads in excess of the limit will finish the task they are currently executing, and then wait until the limit is raised again. The limit is reset every
+     * time the pool's threads are started.
+     *
+     * @param activeThreads the new limit. Values outside of the range {@code [1, }{@link #threads()}{@code ]} will be clamped to the nearest bound.
+     */
+    public synchronized void activeThreads(int activeThreads) {
+        if (this.threads == null) { //the pool isn't running, there's nothing to limit
+            return;
+        }
+
+        int oldActiveThreads = this.activeThreads;
+        this.activeThreads = max(min(activeThreads, this.threads.length), 1);
+
+        if (this.activeThreads > oldActiveThreads) { //wake up all inactive threads, so that the ones which are now allowed to run can do so
+            synchronized (this.inactiveLock) {
+                this.inactiveLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the total time (in nanoseconds) which this pool's threads have spent executing tasks
+     */
+    public long busyTime() {
+        return this.busyTime.sum();
+    }
+
+    /**
+     * Registers a new {@link TaskSource}, starting the pool's threads if necessary.
+     *
+     * @param source the {@link TaskSource}
+     * @return a {@link Registration} which must be used to unregister the source once it is no longer needed
+     */
+    public synchronized Registration register(@NonNull TaskSource source) {
+        Registration registration = new Registration(source);
+        registration.virtualTime.set(this.virtualClock.get()); //new sources start with the same amount of virtual time as the rest of the pool
+        this.registrations.add(registration);
+
+        if (this.threads == null) { //this is the first source, start the threads
+            this.running = true;
+            this.threads = IntStream.range(0, positive(this.threadCount.getAsInt(), "threadCount"))
+                    .mapToObj(i -> this.threadFactory.newThread(() -> this.run(i)))
+                    .toArray(Thread[]::new);
+            this.activeThreads = this.threads.length;
+
+            for (Thread thread : this.threads) {
+                thread.start();
+            }
+        } else { //wake up any idle threads in case the new source already has tasks queued
+            registration.workAvailable();
+        }
+        return registration;
+    }
+
+    protected synchronized void unregister(@NonNull Registration registration) {
+        checkState(this.registrations.remove(registration), "source %s isn't registered!", registration.source);
+
+        if (this.registrations.isEmpty()) { //that was the last source, shut down all of the threads
+            for (Thread thread : this.threads) {
+                checkState(thread != Thread.currentThread(), "thread %s cannot shut down its own pool!", thread);
+            }
+
+            this.running = false;
+            synchronized (this.idleLock) {
+                this.idleLock.notifyAll();
+            }
+            synchronized (this.inactiveLock) {
+                this.inactiveLock.notifyAll();
+            }
+
+            boolean interrupted = false;
+            for (Thread thread : this.threads) {
+                while (thread.isAlive()) {
+                    try {
+                        thread.join(50L);
+                    } catch (InterruptedException e) {
+                        FP2_LOG.error(PStrings.fastFormat("%s was interrupted while waiting for %s to exit", Thread.currentThread(), thread), e);
+                        interrupted = true;
+                    }
+                }
+            }
+            this.threads = null;
+
+            if (interrupted) { //restore interrupted state
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected void run(int index) {
+        while (this.running) {
+            if (index >= this.activeThreads) { //this thread isn't allowed to run right now
+                this.awaitActive(index);
+                continue;
+            }
+
+            Registration registration = this.select();
+            if (registration == null) { //nothing to do
+                this.awaitWork();
+                continue;
+            }
+
+            long startTime = System.nanoTime();
+            boolean executed;
+            try {
+                executed = registration.source.runSingleTask();
+            } catch (Throwable t) { //task sources are expected to handle their own exceptions, so this should never happen
+                FP2_LOG.error(PStrings.fastFormat("task source %s threw an exception on thread %s", registration.source, Thread.currentThread()), t);
+                executed = false;
+            }
+            long time = System.nanoTime() - startTime;
+
+            //clear the interrupt flag, which may have been set in order to unblock us while a group was being shut down. we're going to continue executing
+            //  tasks from other groups, and they shouldn't be affected by it.
+            Thread.interrupted();
+
+            if (executed) {
+                registration.executedTasks.increment();
+            }
+            registration.busyTime.add(time);
+            this.busyTime.add(time);
+            registration.virtualTime.addAndGet(max(time / max(registration.source.weight(), 1), 1L));
+        }
+    }
+
+    /**
+     * Selects the source whose next task should be executed.
+     * <p>
+     * Only the sources' virtual times are compared, not the priorities of their queued tasks (see the class documentation).
+     *
+     * @return the selected source, or {@code null} if no source has any tasks queued
+     */
+    protected Registration select() {
+        long minVirtualTime = this.virtualClock.get() - MAX_VIRTUAL_TIME_LAG;
+
+        Registration selected = null;
+        long selectedVirtualTime = Long.MAX_VALUE;
+        for (Registration registration : this.registrations) {
+            if (registration.source.queuedTasks() <= 0) { //there's nothing to do for this source
+                continue;
+            }
+
+            long virtualTime = registration.virtualTime.get();
+            if (virtualTime < minVirtualTime) { //the source has been idle for a while, don't let it fall too far behind
+                virtualTime = registration.virtualTime.accumulateAndGet(minVirtualTime, Math::max);
+            }
+
+            if (virtualTime < selectedVirtualTime) {
+                selected = registration;
+                selectedVirtualTime = virtualTime;
+            }
+        }
+
+        if (selected != null) { //advance the pool's clock
+            this.virtualClock.accumulateAndGet(selectedVirtualTime, Math::max);
+        }
+        return selected;
+    }
+
+    protected boolean hasWork() {
+        for (Registration registration : this.registrations) {
+            if (registration.source.queuedTasks() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void awaitWork() {
+        synchronized (this.idleLock) {
+            //we have to increment the idle thread counter BEFORE checking the sources again, otherwise a task could be queued in between the two without us being notified
+            this.idleThreads.incrementAndGet();
+            try {
+                if (this.running && !this.hasWork()) {
+                    //don't wait indefinitely, as a safety net in case a source forgets to notify us about new tasks
+                    this.idleLock.wait(1000L);
+                }
+            } catch (InterruptedException e) {
+                //a group may have interrupted us while shutting down, there's nothing to do here since we're already idle
+            } finally {
+                this.idleThreads.decrementAndGet();
+            }
+        }
+    }
+
+    protected void awaitActive(int index) {
+        synchronized (this.inactiveLock) {
+            try {
+                if (this.running && index >= this.activeThreads) {
+                    this.inactiveLock.wait(1000L);
+                }
+            } catch (InterruptedException e) {
+                //a group may have interrupted us while shutting down, there's nothing to do here since we aren't running anything
+            }
+        }
+    }
+
+    /**
+     * A source of tasks which can be executed by a {@link SharedWorkerPool}'s threads.
+     *
+     * @author DaPorkchop_
+     */
+    public interface TaskSource {
+        /**
+         * @return the approximate number of tasks which are currently queued
+         */
+        int queuedTasks();
+
+        /**
+         * Gets this source's share of the pool, relative to the other registered sources.
+         * <p>
+         * This may change at any time, and is re-evaluated every time one of the source's tasks has been executed. Values less than {@code 1} are treated as
+         * {@code 1}.
+         *
+         * @return this source's weight
+         */
+        default int weight() {
+            return 1;
+        }
+
+        /**
+         * Executes at most one task, if any are queued.
+         * <p>
+         * This method must not block while waiting for new tasks to be queued, and is expected to handle any exceptions thrown by the task itself.
+         *
+         * @return whether or not a task was executed
+         */
+        boolean runSingleTask();
+    }
+
+    /**
+     * A {@link TaskSource} which is registered with a {@link SharedWorkerPool}.
+     *
+     * @author DaPorkchop_
+     */
+    public final class Registration {
+        protected final TaskSource source;
+
+        protected final AtomicLong virtualTime = new AtomicLong();
+        protected final LongAdder executedTasks = new LongAdder();
+        protected final LongAdder busyTime = new LongAdder();
+
+        protected Registration(@NonNull TaskSource source) {
+            this.source = source;
+        }
+
+        /**
+         * @return the {@link SharedWorkerPool} that this source is registered with
+         */
+        public SharedWorkerPool pool() {
+            return SharedWorkerPool.this;
+        }
+
+        /**
+         * @return the number of tasks from this source which have been executed by the pool
+         */
+        public long executedTasks() {
+            return this.executedTasks.sum();
+        }
+
+        /**
+         * @return the total time (in nanoseconds) which the pool's threads have spent executing tasks from this source
+         */
+        public long busyTime() {
+            return this.busyTime.sum();
+        }
+
+        /**
+         * Notifies the pool that new tasks have been queued by this source.
+         * <p>
+         * This must be called every time a task is queued, after it has been made visible to {@link TaskSource#queuedTasks()}.
+         */
+        public void workAvailable() {
+            if (SharedWorkerPool.this.idleThreads.get() > 0) { //there are idle threads, wake one of them up
+                synchronized (SharedWorkerPool.this.idleLock) {
+                    SharedWorkerPool.this.idleLock.notify();
+                }
+            }
+        }
+
+        /**
+         * Unregisters this source from the pool, stopping the pool's threads if there are no other sources remaining.
+         * <p>
+         * Tasks from this source which are currently being executed are not affected.
+         */
+        public void unregister() {
+            SharedWorkerPool.this.unregister(this);
+        }
+    }
+}
@@ -59,21 +59,38 @@ public abstract class WorkerGroupBuilder {
     @NonNull
     protected World world;
 
+    /**
+     * The {@link SharedWorkerPool} that this worker group will borrow its threads from.
+     * <p>
+     * If {@code null}, the worker group will have its own threads. Otherwise, {@link #threads} and {@link #threadFactory} are ignored.
+     */
+    protected SharedWorkerPool pool;
+
     public WorkerGroupBuilder threads(int threads) {
         this.threads = positive(threads, "threads");
         return this;
     }
 
     protected void validate() {
-        positive(this.threads, "threads");
+        if (this.pool == null) {
+            positive(this.threads, "threads");
+        }
         checkArg(this.world != null, "world must be set!");
     }
 
     /**
-     * Constructs a new {@link WorldWorkerGroup} using the settings configured in this builder.
+     * Constructs a new {@link WorldWorkerGroup} with its own threads using the settings configured in this builder.
      *
      * @param task the root task to be executed by the worker threads
      * @return the constructed {@link WorldWorkerGroup}
      */
     public abstract WorldWorkerGroup build(@NonNull Runnable task);
+
+    /**
+     * Constructs a new {@link PooledWorkerGroup} which borrows threads from the configured {@link #pool} using the settings configured in this builder.
+     *
+     * @param source the source of the tasks to be executed by the pool's threads
+     * @return the constructed {@link PooledWorkerGroup}
+     */
+    public abstract PooledWorkerGroup buildPooled(@NonNull SharedWorkerPool.TaskSource source);
 }
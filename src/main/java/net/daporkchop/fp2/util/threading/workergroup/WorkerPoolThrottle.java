@@ -0,0 +1,146 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.util.threading.workergroup;
+
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import lombok.NonNull;
+import net.daporkchop.fp2.debug.util.DebugStats;
+import net.daporkchop.fp2.server.worldlistener.IWorldChangeListener;
+import net.daporkchop.fp2.server.worldlistener.WorldChangeListenerManager;
+import net.daporkchop.fp2.util.annotation.CalledFromServerThread;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import static java.lang.Math.*;
+
+/**
+ * Dynamically limits the number of active threads in a {@link SharedWorkerPool} in order to keep the server's tick time below a configurable target.
+ * <p>
+ * The average tick time is measured at the end of every server tick. Whenever it exceeds the target, a fraction of the pool's active threads are parked. Once
+ * it has dropped comfortably below the target again, the threads are gradually unparked one at a time. At least one thread is always left running, so that
+ * progress is never stopped entirely.
+ *
+ * @author DaPorkchop_
+ */
+public final class WorkerPoolThrottle implements IWorldChangeListener {
+    /**
+     * The weight of each new tick time sample in the exponential moving average. This results in the average being dominated by roughly the last second of ticks.
+     */
+    protected static final double SMOOTHING_FACTOR = 1.0d / 20.0d;
+
+    /**
+     * The minimum number of ticks between two consecutive adjustments of the active thread count, in order to give the previous adjustment time to take effect.
+     */
+    protected static final int ADJUSTMENT_INTERVAL = 20;
+
+    /**
+     * Threads will only be unparked once the average tick time has dropped below this fraction of the target.
+     */
+    protected static final double UNTHROTTLE_THRESHOLD = 0.8d;
+
+    protected final SharedWorkerPool pool;
+    protected final IntSupplier targetTickTime;
+
+    protected int lastTick = -1;
+    protected int ticksSinceAdjustment;
+
+    protected volatile double averageTickTime;
+
+    /**
+     * @param pool           the {@link SharedWorkerPool} to throttle
+     * @param targetTickTime a supplier for the target server tick time (in milliseconds). A value of {@code 0} disables throttling.
+     */
+    public WorkerPoolThrottle(@NonNull SharedWorkerPool pool, @NonNull IntSupplier targetTickTime) {
+        this.pool = pool;
+        this.targetTickTime = targetTickTime;
+
+        //this is held in a static field for the entire lifetime of the game, so it's safe to register it without any other strong references
+        WorldChangeListenerManager.addGlobal(this);
+    }
+
+    @Override
+    public void onColumnSaved(@NonNull World world, int columnX, int columnZ, @NonNull NBTTagCompound nbt, @NonNull Chunk column) {
+        //no-op
+    }
+
+    @Override
+    public void onCubeSaved(@NonNull World world, int cubeX, int cubeY, int cubeZ, @NonNull NBTTagCompound nbt, @NonNull ICube cube) {
+        //no-op
+    }
+
+    @Override
+    @CalledFromServerThread
+    public void onTickEnd() {
+        MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
+        int tick;
+        if (server == null || (tick = server.getTickCounter()) == this.lastTick) { //this is fired once per world, but we only want to sample once per server tick
+            return;
+        }
+        this.lastTick = tick;
+
+        //the current tick hasn't finished yet, so use the time of the previous one
+        long[] tickTimes = server.tickTimeArray;
+        double averageTickTime = this.averageTickTime;
+        this.averageTickTime = averageTickTime += (tickTimes[floorMod(tick - 1, tickTimes.length)] - averageTickTime) * SMOOTHING_FACTOR;
+
+        int threads = this.pool.threads();
+        long targetTickTime = TimeUnit.MILLISECONDS.toNanos(this.targetTickTime.getAsInt());
+        if (targetTickTime <= 0L) { //throttling is disabled
+            if (this.pool.activeThreads() != threads) {
+                this.pool.activeThreads(threads);
+            }
+            return;
+        }
+
+        if (++this.ticksSinceAdjustment < ADJUSTMENT_INTERVAL) { //we adjusted the thread count recently, wait a bit longer before doing so again
+            return;
+        }
+
+        int activeThreads = this.pool.activeThreads();
+        if (averageTickTime > targetTickTime && activeThreads > 1) { //the server is falling behind, park roughly a quarter of the active threads
+            this.pool.activeThreads(activeThreads - max(activeThreads >> 2, 1));
+            this.ticksSinceAdjustment = 0;
+        } else if (averageTickTime < targetTickTime * UNTHROTTLE_THRESHOLD && activeThreads < threads) { //the server has recovered, unpark a single thread
+            this.pool.activeThreads(activeThreads + 1);
+            this.ticksSinceAdjustment = 0;
+        }
+    }
+
+    /**
+     * @return statistics about this throttle, for debugging purposes
+     */
+    @DebugOnly
+    public DebugStats.Throttle debugStats() {
+        return DebugStats.Throttle.builder()
+                .activeThreads(this.pool.activeThreads())
+                .threads(this.pool.threads())
+                .tickTime((long) this.averageTickTime)
+                .targetTickTime(TimeUnit.MILLISECONDS.toNanos(this.targetTickTime.getAsInt()))
+                .build();
+    }
+}
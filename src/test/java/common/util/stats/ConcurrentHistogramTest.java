@@ -0,0 +1,99 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package common.util.stats;
+
+import net.daporkchop.fp2.common.util.stats.ConcurrentHistogram;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static net.daporkchop.fp2.common.util.stats.ConcurrentHistogram.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class ConcurrentHistogramTest {
+    @Test
+    public void testSmallValues() {
+        for (int value = 0; value < SUB_BUCKETS; value++) {
+            checkState(bucketIndex(value) == value);
+            checkState(bucketUpperBound(value) == value);
+        }
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        for (int index = 0; index < BUCKETS; index++) {
+            long upperBound = bucketUpperBound(index);
+            checkState(bucketIndex(upperBound) == index, "upper bound %d of bucket %d is in bucket %d", upperBound, index, bucketIndex(upperBound));
+
+            if (index + 1 < BUCKETS) { //the next value must be the first value in the next bucket
+                checkState(bucketIndex(upperBound + 1L) == index + 1, "value %d after bucket %d is in bucket %d", upperBound + 1L, index, bucketIndex(upperBound + 1L));
+            }
+        }
+        checkState(bucketUpperBound(BUCKETS - 1) == MAX_VALUE);
+    }
+
+    @Test
+    public void testRandomValues() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong(1L << random.nextInt(MAX_EXPONENT + 2));
+
+            int index = bucketIndex(value);
+            long upperBound = bucketUpperBound(index);
+            long lowerBound = index == 0 ? 0L : bucketUpperBound(index - 1) + 1L;
+            checkState(lowerBound <= value && value <= upperBound, "value %d is in bucket %d [%d,%d]", value, index, lowerBound, upperBound);
+
+            //each bucket's width must be within the histogram's relative precision
+            checkState(upperBound - lowerBound <= Math.max(value >>> SUB_BUCKET_BITS, 1L), "bucket %d [%d,%d] is too wide for value %d", index, lowerBound, upperBound, value);
+        }
+    }
+
+    @Test
+    public void testClamping() {
+        checkState(bucketIndex(MAX_VALUE) == BUCKETS - 1);
+        checkState(bucketIndex(MAX_VALUE + 1L) == BUCKETS - 1);
+        checkState(bucketIndex(Long.MAX_VALUE) == BUCKETS - 1);
+    }
+
+    @Test
+    public void testQuantiles() {
+        ConcurrentHistogram histogram = new ConcurrentHistogram();
+        checkState(histogram.quantile(0.5d) == 0L);
+
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-1L); //treated as 0
+
+        checkState(histogram.count() == 1001L);
+        checkState(histogram.sum() == 500500L);
+        checkState(histogram.max() == 1000L);
+        checkState(histogram.quantile(0.0d) == 0L);
+        checkState(histogram.quantile(1.0d) == 1000L);
+
+        //quantiles are rounded up to the bucket's upper bound, so they may overestimate by at most the histogram's relative precision
+        long median = histogram.quantile(0.5d);
+        checkState(median >= 500L && median <= 500L + (500L >>> SUB_BUCKET_BITS), "median: %d", median);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package compat.cwg;
+
+import com.flowpowered.noise.Utils;
+import io.github.opencubicchunks.cubicchunks.cubicgen.ConversionUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarTile;
+import net.daporkchop.fp2.mode.api.server.gen.IFarGeneratorRough;
+import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
+import net.daporkchop.fp2.mode.heightmap.HeightmapTile;
+import net.daporkchop.fp2.mode.heightmap.server.gen.rough.CWGHeightmapGenerator;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.fp2.mode.voxel.VoxelTile;
+import net.daporkchop.fp2.mode.voxel.server.gen.rough.CWGVoxelGenerator;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.lib.random.PRandom;
+import net.daporkchop.lib.random.impl.FastJavaPRandom;
+import net.daporkchop.lib.unsafe.PUnsafe;
+import net.minecraft.util.datafix.DataFixesManager;
+import net.minecraft.world.GameType;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldProviderSurface;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.gen.NoiseGeneratorImproved;
+import net.minecraft.world.storage.SaveHandler;
+import net.minecraft.world.storage.WorldInfo;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import util.FP2Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks that generating an entire batch of tiles at once produces exactly the same output as generating each tile individually.
+ * <p>
+ * CWG resamples its noise along the X, Y and Z axes at levels 0 and 1, only along the Y axis at level 2, and not at all at levels 3 and above, so every
+ * one of those levels is tested.
+ *
+ * @author DaPorkchop_
+ */
+@SuppressWarnings("deprecation")
+public class TestCwgBatchGeneration {
+    protected static final int MAX_LEVEL = 4;
+    protected static final int BATCHES_PER_LEVEL = 8;
+
+    protected static File ROOT;
+    protected static WorldServer WORLD;
+
+    @BeforeClass
+    public static void aaa_createWorld() throws IOException {
+        FP2Test.init();
+
+        ROOT = Files.createTempDirectory("fp2-cwg-batch-test").toFile();
+
+        //we can't create a real WorldServer without starting a server, so allocate one without calling the constructor and only set the fields which are
+        // actually used by CWGContext and AbstractFarGenerator
+        WorldServer world = PUnsafe.allocateInstance(WorldServer.class);
+        PUnsafe.putObject(world, PUnsafe.pork_getOffset(World.class, "worldInfo"),
+                new WorldInfo(new WorldSettings(102978420983752L, GameType.SURVIVAL, true, false, WorldType.DEFAULT), "test"));
+        PUnsafe.putObject(world, PUnsafe.pork_getOffset(World.class, "saveHandler"), new SaveHandler(ROOT, "test", false, DataFixesManager.createFixer()));
+        PUnsafe.putObject(world, PUnsafe.pork_getOffset(World.class, "provider"), new WorldProviderSurface());
+        world.setSeaLevel(63);
+        WORLD = world;
+    }
+
+    /**
+     * Copypasta of {@link ConversionUtils#initFlowNoiseHack()}, but accessing the gradient fields in {@link NoiseGeneratorImproved} directly (since the accessor mixin obviously
+     * isn't being applied in a unit test environment).
+     */
+    @BeforeClass
+    public static void bbb_initFlowNoiseHack() {
+        PRandom random = new FastJavaPRandom(123456789);
+        for (int i = 0; i < Utils.RANDOM_VECTORS.length / 4; i++) {
+            int j = random.nextInt(NoiseGeneratorImproved.GRAD_X.length);
+            Utils.RANDOM_VECTORS[i * 4] = NoiseGeneratorImproved.GRAD_X[j] / 2;
+            Utils.RANDOM_VECTORS[i * 4 + 1] = NoiseGeneratorImproved.GRAD_Y[j] / 2;
+            Utils.RANDOM_VECTORS[i * 4 + 2] = NoiseGeneratorImproved.GRAD_Z[j] / 2;
+        }
+    }
+
+    @AfterClass
+    public static void zzz_deleteWorld() {
+        if (ROOT != null) {
+            PFiles.rm(ROOT);
+        }
+    }
+
+    @Test
+    public void testVoxel() {
+        CWGVoxelGenerator generator = new CWGVoxelGenerator(WORLD);
+        SplittableRandom r = new SplittableRandom(1234L);
+
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            int shift = T_SHIFT + level;
+            int nonEmpty = 0;
+            for (int i = 0; i < BATCHES_PER_LEVEL; i++) {
+                //keep the tiles close to sea level so that most of them actually contain some terrain
+                VoxelPos pos = new VoxelPos(level, r.nextInt(-1000000, 1000000) >> shift, r.nextInt(0, 128) >> shift, r.nextInt(-1000000, 1000000) >> shift);
+                nonEmpty += checkBatch(generator, VoxelTile::new, generator.batch(pos), r);
+            }
+            checkState(nonEmpty > 0, "all voxel tiles at level %d were empty", level);
+        }
+    }
+
+    @Test
+    public void testHeightmap() {
+        CWGHeightmapGenerator generator = new CWGHeightmapGenerator(WORLD);
+        SplittableRandom r = new SplittableRandom(5678L);
+
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            int shift = T_SHIFT + level;
+            int nonEmpty = 0;
+            for (int i = 0; i < BATCHES_PER_LEVEL; i++) {
+                HeightmapPos pos = new HeightmapPos(level, r.nextInt(-1000000, 1000000) >> shift, r.nextInt(-1000000, 1000000) >> shift);
+                nonEmpty += checkBatch(generator, HeightmapTile::new, generator.batch(pos), r);
+            }
+            checkState(nonEmpty > 0, "all heightmap tiles at level %d were empty", level);
+        }
+    }
+
+    /**
+     * Generates the whole batch, as well as a random subset of it in a random order, and compares every tile with the same tile generated individually.
+     *
+     * @return the number of non-empty tiles in the batch
+     */
+    protected static <POS extends IFarPos, T extends IFarTile> int checkBatch(@NonNull IFarGeneratorRough<POS, T> generator, @NonNull Supplier<T> tileFactory, @NonNull List<POS> batch, @NonNull SplittableRandom r) {
+        checkState(batch.size() > 2, "batch %s is too small to be tested", batch);
+
+        //the whole batch, in its natural order
+        List<T> batchTiles = new ArrayList<>(batch.size());
+        batch.forEach(pos -> batchTiles.add(tileFactory.get()));
+        generator.generate(batch, batchTiles);
+
+        //a partial batch whose first position usually isn't the batch origin, so that the tiles are at different offsets relative to the first one
+        List<POS> subset = new ArrayList<>(batch);
+        Collections.shuffle(subset, new Random(r.nextLong()));
+        subset = subset.subList(0, r.nextInt(2, batch.size()));
+        List<T> subsetTiles = new ArrayList<>(subset.size());
+        subset.forEach(pos -> subsetTiles.add(tileFactory.get()));
+        generator.generate(subset, subsetTiles);
+
+        int nonEmpty = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            POS pos = batch.get(i);
+            T tile = tileFactory.get();
+            generator.generate(pos, tile);
+
+            ByteBuf expected = Unpooled.buffer();
+            if (!tile.write(expected)) {
+                nonEmpty++;
+            }
+            checkTile(expected, batchTiles.get(i), "full batch", pos);
+
+            int subsetIndex = subset.indexOf(pos);
+            if (subsetIndex >= 0) {
+                checkTile(expected, subsetTiles.get(subsetIndex), "partial batch", pos);
+            }
+        }
+        return nonEmpty;
+    }
+
+    protected static void checkTile(@NonNull ByteBuf expected, @NonNull IFarTile tile, @NonNull String name, @NonNull IFarPos pos) {
+        ByteBuf actual = Unpooled.buffer();
+        tile.write(actual);
+        checkState(expected.equals(actual), "tile %s generated as part of a %s differs from the same tile generated individually", pos, name);
+    }
+}
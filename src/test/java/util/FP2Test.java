@@ -22,6 +22,7 @@ package util;
 
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.CubicBiome;
 import lombok.experimental.UtilityClass;
+import net.daporkchop.fp2.config.FP2Config;
 import net.minecraft.init.Bootstrap;
 
 /**
@@ -36,6 +37,8 @@ public class FP2Test {
 
         Bootstrap.register();
         CubicBiome.init();
+
+        FP2Config.load();
     }
 
     /**
@@ -0,0 +1,179 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package util.datastructure;
+
+import net.daporkchop.fp2.util.datastructure.ConcurrentBucketedPriorityBlockingQueue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class ConcurrentBucketedPriorityBlockingQueueTest {
+    protected static final int BUCKETS = ConcurrentBucketedPriorityBlockingQueue.MAX_BUCKETS;
+
+    protected static final int PRODUCER_THREADS = 4;
+    protected static final int CONSUMER_THREADS = 4;
+    protected static final int ELEMENTS_PER_PRODUCER = 100000;
+
+    //elements are encoded as (sequence number * BUCKETS + bucket)
+
+    protected static int bucket(int element) {
+        return element % BUCKETS;
+    }
+
+    protected static int sequence(int element) {
+        return element / BUCKETS;
+    }
+
+    protected static ConcurrentBucketedPriorityBlockingQueue<Integer> queue() {
+        return new ConcurrentBucketedPriorityBlockingQueue<>(BUCKETS, ConcurrentBucketedPriorityBlockingQueueTest::bucket);
+    }
+
+    @Test
+    public void testOrdering() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ConcurrentBucketedPriorityBlockingQueue<Integer> queue = queue();
+
+        for (int i = 0; i < 10000; i++) {
+            queue.add(i * BUCKETS + random.nextInt(BUCKETS));
+        }
+        checkState(queue.size() == 10000);
+
+        //elements must be polled in ascending order of bucket, and in insertion order within each bucket
+        int lastElement = -1;
+        for (Integer element; (element = queue.poll()) != null; lastElement = element) {
+            checkState(lastElement < 0 || bucket(lastElement) < bucket(element) || (bucket(lastElement) == bucket(element) && sequence(lastElement) < sequence(element)),
+                    "polled %d after %d", element, lastElement);
+        }
+        checkState(queue.isEmpty() && queue.size() == 0);
+    }
+
+    @Test
+    public void testPollBelow() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ConcurrentBucketedPriorityBlockingQueue<Integer> queue = queue();
+
+        for (int i = 0; i < 10000; i++) {
+            queue.add(i * BUCKETS + random.nextInt(BUCKETS));
+        }
+
+        for (int i = 0; i < 1000 && !queue.isEmpty(); i++) {
+            int limit = random.nextInt(BUCKETS + 1);
+            int lowest = queue.stream().mapToInt(ConcurrentBucketedPriorityBlockingQueueTest::bucket).min().getAsInt();
+            int size = queue.size();
+
+            Integer element = queue.pollBelow(limit);
+            if (lowest < limit) { //there's an element below the limit, so we must have gotten the first element of the lowest bucket
+                checkState(element != null && bucket(element) == lowest, "expected an element from bucket %d below %d, got %s", lowest, limit, element);
+                checkState(queue.size() == size - 1);
+                checkState(queue.stream().filter(e -> bucket(e) == lowest).allMatch(e -> sequence(e) > sequence(element)));
+            } else { //nothing is below the limit, the queue must not have been modified
+                checkState(element == null, "expected nothing below %d, got %s", limit, element);
+                checkState(queue.size() == size);
+            }
+        }
+    }
+
+    @Test
+    public void testPollLess() {
+        ConcurrentBucketedPriorityBlockingQueue<Integer> queue = queue();
+        queue.add(BUCKETS + 5); //sequence 1, bucket 5
+        queue.add(70); //sequence 0, bucket 70 (in the second word of the bitmap)
+        queue.add(2 * BUCKETS + 5); //sequence 2, bucket 5
+
+        checkState(queue.pollLess(5) == null); //strictly less
+        checkState(queue.pollLess(6) == BUCKETS + 5);
+        checkState(queue.pollLess(71) == 2 * BUCKETS + 5);
+        checkState(queue.pollLess(70) == null);
+        checkState(queue.pollLess(71) == 70);
+        checkState(queue.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentAddPoll() throws Throwable {
+        int total = PRODUCER_THREADS * ELEMENTS_PER_PRODUCER;
+        ConcurrentBucketedPriorityBlockingQueue<Integer> queue = queue();
+
+        AtomicIntegerArray polledCounts = new AtomicIntegerArray(total);
+        AtomicInteger remaining = new AtomicInteger(total);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int producer = 0; producer < PRODUCER_THREADS; producer++) {
+            int id = producer;
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < ELEMENTS_PER_PRODUCER; i++) {
+                    //the sequence number identifies the element uniquely. a small number of buckets makes collisions likely
+                    queue.add((i * PRODUCER_THREADS + id) * BUCKETS + random.nextInt(4) * 37);
+                }
+            }));
+        }
+        for (int consumer = 0; consumer < CONSUMER_THREADS; consumer++) {
+            threads.add(new Thread(() -> {
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    int[] lastSequences = new int[PRODUCER_THREADS * BUCKETS]; //the last sequence number we've polled from each producer in each bucket
+                    while (remaining.get() > 0) {
+                        int limit = random.nextBoolean() ? BUCKETS : random.nextInt(BUCKETS + 1);
+                        Integer element = limit == BUCKETS ? queue.poll(1L, TimeUnit.MILLISECONDS) : queue.pollBelow(limit);
+                        if (element == null) {
+                            continue;
+                        }
+
+                        checkState(bucket(element) < limit, "polled %d from below %d", element, limit);
+
+                        int sequence = sequence(element);
+                        checkState(polledCounts.incrementAndGet(sequence) == 1, "element %d was polled more than once", element);
+                        remaining.decrementAndGet();
+
+                        //elements added by the same producer to the same bucket must be polled in the order they were added
+                        int index = (sequence % PRODUCER_THREADS) * BUCKETS + bucket(element);
+                        checkState(sequence + 1 > lastSequences[index], "polled %d after a later element from the same producer", element);
+                        lastSequences[index] = sequence + 1;
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                    remaining.set(0);
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (error.get() != null) {
+            throw error.get();
+        }
+        checkState(queue.isEmpty() && queue.size() == 0 && queue.poll() == null);
+    }
+}
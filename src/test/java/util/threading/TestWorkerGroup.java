@@ -0,0 +1,98 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package util.threading;
+
+import com.google.common.collect.ImmutableSet;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.fp2.util.threading.futureexecutor.FutureExecutor;
+import net.daporkchop.fp2.util.threading.workergroup.PooledWorkerGroup;
+import net.daporkchop.fp2.util.threading.workergroup.SharedWorkerPool;
+import net.daporkchop.fp2.util.threading.workergroup.WorkerGroupBuilder;
+import net.daporkchop.fp2.util.threading.workergroup.WorldWorkerGroup;
+import net.daporkchop.lib.common.misc.release.AbstractReleasable;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A minimal {@link WorldWorkerGroup} which doesn't belong to any world.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public class TestWorkerGroup extends AbstractReleasable implements WorldWorkerGroup {
+    /**
+     * Gets a {@link WorkerGroupBuilder} which builds {@link TestWorkerGroup}s with the given number of threads.
+     *
+     * @param threads the number of threads
+     * @return a {@link WorkerGroupBuilder}
+     */
+    public static WorkerGroupBuilder builder(int threads) {
+        return new WorkerGroupBuilder() {
+            @Override
+            public WorldWorkerGroup build(@NonNull Runnable task) {
+                return new TestWorkerGroup(this, task);
+            }
+
+            @Override
+            public PooledWorkerGroup buildPooled(@NonNull SharedWorkerPool.TaskSource source) {
+                throw new UnsupportedOperationException();
+            }
+        }.threads(threads);
+    }
+
+    protected final Set<Thread> threads;
+
+    public TestWorkerGroup(@NonNull WorkerGroupBuilder builder, @NonNull Runnable task) {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < builder.threads(); i++) {
+            threads.add(builder.threadFactory().newThread(task));
+        }
+        this.threads = ImmutableSet.copyOf(threads);
+        this.threads.forEach(Thread::start);
+    }
+
+    @Override
+    public World world() {
+        return null;
+    }
+
+    @Override
+    public FutureExecutor worldExecutor() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void doRelease() {
+        for (Thread thread : this.threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
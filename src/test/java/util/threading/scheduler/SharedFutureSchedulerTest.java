@@ -0,0 +1,235 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package util.threading.scheduler;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.util.threading.scheduler.ApproximatelyPrioritizedSharedFutureScheduler;
+import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
+import net.daporkchop.fp2.util.threading.scheduler.SharedFutureScheduler;
+import net.daporkchop.fp2.util.threading.workergroup.WorkerGroupBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import util.FP2Test;
+import util.threading.TestWorkerGroup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Stress tests for the task lifecycle of {@link SharedFutureScheduler}.
+ *
+ * @author DaPorkchop_
+ */
+public class SharedFutureSchedulerTest {
+    protected static final int WORKER_THREADS = 6;
+    protected static final int CLIENT_THREADS = 8;
+    protected static final int ITERATIONS = 50000;
+
+    @BeforeClass
+    public static void init() {
+        FP2Test.init();
+    }
+
+    protected static WorkerGroupBuilder builder() {
+        return TestWorkerGroup.builder(WORKER_THREADS);
+    }
+
+    /**
+     * Runs the given action concurrently on {@link #CLIENT_THREADS} threads, and rethrows the first exception (if any) once they are all complete.
+     */
+    protected static void runConcurrently(@NonNull Action action) throws Throwable {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = IntStream.range(0, CLIENT_THREADS)
+                .mapToObj(i -> new Thread(() -> {
+                    try {
+                        action.run();
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }))
+                .collect(Collectors.toList());
+
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    protected void stressRetainRelease(int params) throws Throwable {
+        AtomicIntegerArray executing = new AtomicIntegerArray(params);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        try (Scheduler<Integer, Integer> scheduler = new SharedFutureScheduler<>(s -> param -> {
+            if (executing.incrementAndGet(param) != 1) { //the same parameter must never be executed concurrently
+                error.compareAndSet(null, new IllegalStateException("parameter " + param + " is being executed concurrently!"));
+            }
+            Thread.yield();
+            executing.decrementAndGet(param);
+            return param;
+        }, builder())) {
+            runConcurrently(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    int param = r.nextInt(params);
+                    CompletableFuture<Integer> future = scheduler.schedule(param);
+                    if (r.nextInt(4) == 0) { //wait for the task to complete, which must always happen since we still hold a reference to it
+                        checkState(future.get(10L, TimeUnit.SECONDS) == param);
+                    }
+                    future.cancel(false);
+                }
+            });
+
+            //make sure that every parameter can still be executed
+            for (int param = 0; param < params; param++) {
+                checkState(scheduler.schedule(param).get(10L, TimeUnit.SECONDS) == param);
+            }
+        }
+
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    @Test
+    public void stressRetainReleaseSingle() throws Throwable {
+        this.stressRetainRelease(1);
+    }
+
+    @Test
+    public void stressRetainReleaseFew() throws Throwable {
+        this.stressRetainRelease(4);
+    }
+
+    @Test
+    public void stressRetainReleaseMany() throws Throwable {
+        this.stressRetainRelease(64);
+    }
+
+    @Test
+    public void stressRecursion() throws Throwable {
+        //each parameter depends on the two parameters below it, all the way down to 0
+        Function<Scheduler<Integer, Integer>, Function<Integer, Integer>> functionFactory = scheduler -> param -> param < 2
+                ? param
+                : scheduler.scatterGather(Arrays.asList(param - 1, param - 2)).stream().mapToInt(Integer::intValue).sum() % 1000000;
+
+        //blocking recursion is only guaranteed not to deadlock if tasks always recurse into tasks with a strictly lower priority
+        try (Scheduler<Integer, Integer> scheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(functionFactory, builder(), 24, param -> param)) {
+            runConcurrently(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int i = 0; i < ITERATIONS / 100; i++) {
+                    int param = r.nextInt(24);
+                    checkState(scheduler.schedule(param).get(10L, TimeUnit.SECONDS) == fibonacci(param));
+                }
+            });
+        }
+    }
+
+    protected void stressContinuation(boolean cancel) throws Throwable {
+        //same as stressRecursion, but the tasks are suspended while waiting for their dependencies. the leaf tasks additionally suspend themselves while
+        //  waiting for a future which is completed by another thread, so tasks are frequently cancelled and re-scheduled at every stage of suspension.
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        Function<Scheduler<Integer, Integer>, Function<Integer, Integer>> functionFactory = scheduler -> param -> {
+            if (param < 2) {
+                CompletableFuture<Integer> future = new CompletableFuture<>();
+                executor.schedule(() -> future.complete(param), ThreadLocalRandom.current().nextInt(100), TimeUnit.MICROSECONDS);
+                return scheduler.awaitThen(future, Function.identity());
+            }
+            return scheduler.scatterGatherThen(Arrays.asList(param - 1, param - 2), results -> (results.get(0) + results.get(1)) % 1000000);
+        };
+
+        try (Scheduler<Integer, Integer> scheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(functionFactory, builder(), 24, param -> param)) {
+            runConcurrently(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int i = 0; i < ITERATIONS / 10; i++) {
+                    int param = r.nextInt(24);
+                    CompletableFuture<Integer> future = scheduler.schedule(param);
+                    switch (cancel ? r.nextInt(4) : 0) {
+                        case 0: //wait for the task to complete
+                            checkState(future.get(10L, TimeUnit.SECONDS) == fibonacci(param));
+                            break;
+                        case 1: //release the task immediately, which will usually cancel it before it starts
+                            future.cancel(false);
+                            break;
+                        case 2: //release the task once it's likely to have been suspended
+                            Thread.sleep(0L, r.nextInt(100000));
+                            future.cancel(false);
+                            break;
+                        case 3: //schedule the task again while it's likely to be suspended, which forces it to be re-executed once the current execution is done
+                            Thread.sleep(0L, r.nextInt(100000));
+                            CompletableFuture<Integer> rescheduled = scheduler.schedule(param);
+                            future.cancel(false);
+                            checkState(rescheduled.get(10L, TimeUnit.SECONDS) == fibonacci(param));
+                            break;
+                    }
+                }
+            });
+
+            //make sure that every parameter can still be executed
+            for (int param = 0; param < 24; param++) {
+                checkState(scheduler.schedule(param).get(10L, TimeUnit.SECONDS) == fibonacci(param));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void stressContinuation() throws Throwable {
+        this.stressContinuation(false);
+    }
+
+    @Test
+    public void stressContinuationCancel() throws Throwable {
+        this.stressContinuation(true);
+    }
+
+    protected static int fibonacci(int n) {
+        int a = 0;
+        int b = 1;
+        for (int i = 0; i < n; i++) {
+            int c = (a + b) % 1000000;
+            a = b;
+            b = c;
+        }
+        return a;
+    }
+
+    @FunctionalInterface
+    protected interface Action {
+        void run() throws Exception;
+    }
+}